@@ -300,9 +300,10 @@ public class ExampleRepl {
                 throws IndexClosedException, InconsistentIndexException {
             List<String> files = fsIndexer.search(new Word(ARG));
             if(files != null && files.size() != 0) {
-                String searchRes = CMD_DESCRIPTION + "-Files with token '" + ARG + "':";
-                files.add(0, searchRes);
-                printOrEnqueue(files);
+                List<String> searchRes = new ArrayList<>(files.size() + 1);
+                searchRes.add(CMD_DESCRIPTION + "-Files with token '" + ARG + "':");
+                searchRes.addAll(files);
+                printOrEnqueue(searchRes);
             } else {
                 printOrEnqueue(Arrays.asList(CMD_DESCRIPTION + "-No files found"));
             }
@@ -10,17 +10,23 @@ import indexer.handler.IndexEventsHandler;
 import indexer.handler.IndexUpdater;
 import indexer.index.ConcurrentHashFileIndex;
 import indexer.index.FileIndex;
+import indexer.index.IndexStats;
+import indexer.index.SearchCursor;
+import indexer.query.Query;
 import indexer.tokenizer.Token;
 import indexer.tokenizer.Tokenizer;
 import indexer.utils.Logger;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.regex.Pattern;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -57,7 +63,8 @@ public class FSIndexer implements AutoCloseable {
      * Searches all files in index containing {@code tokenToFind}
      *
      * @param tokenToFind token to search
-     * @return            files containing passed token or empty list (if no such files in index)
+     * @return            unmodifiable list of files containing passed token or empty list (if no such
+     *                    files in index)
      * @throws IndexClosedException if method is called after FSIndexer has been closed
      * @throws InconsistentIndexException if method is called after filesystem updating errors have been occurred
      */
@@ -66,6 +73,143 @@ public class FSIndexer implements AutoCloseable {
         return fileIndex.search(tokenToFind);
     }
 
+    /**
+     * Searches files in directory {@code scopePath} and its subdirectories containing {@code tokenToFind}
+     *
+     * @param tokenToFind token to find
+     * @param scopePath   directory to search in
+     * @return            files in directory containing token or empty list (if no such files in index)
+     * @throws IndexClosedException if method is called after FSIndexer has been closed
+     * @throws InconsistentIndexException if method is called after filesystem updating errors have been occurred
+     */
+    public List<String> search(Token tokenToFind, String scopePath)
+            throws IndexClosedException, InconsistentIndexException {
+        checkState();
+        return fileIndex.search(tokenToFind, scopePath);
+    }
+
+    /**
+     * Counts files in index containing {@code tokenToFind}. Paths of files are not looked up, so method
+     * is much cheaper than {@code search(tokenToFind).size()} for frequent tokens
+     *
+     * @param tokenToFind token to find
+     * @return            number of files containing token
+     * @throws IndexClosedException if method is called after FSIndexer has been closed
+     * @throws InconsistentIndexException if method is called after filesystem updating errors have been occurred
+     */
+    public int count(Token tokenToFind) throws IndexClosedException, InconsistentIndexException {
+        checkState();
+        return fileIndex.count(tokenToFind);
+    }
+
+    /**
+     * Checks if some file in index contains {@code tokenToFind} without looking up paths of files
+     *
+     * @param tokenToFind token to find
+     * @return            {@code true} if token is found, {@code false} otherwise
+     * @throws IndexClosedException if method is called after FSIndexer has been closed
+     * @throws InconsistentIndexException if method is called after filesystem updating errors have been occurred
+     */
+    public boolean exists(Token tokenToFind) throws IndexClosedException, InconsistentIndexException {
+        checkState();
+        return fileIndex.exists(tokenToFind);
+    }
+
+    /**
+     * Opens cursor reading files containing {@code tokenToFind} page by page. Unlike {@link #search(Token)}
+     * only paths of read pages are looked up, so the first page is returned fast even for frequent tokens.
+     * Files added after cursor has been opened are not returned by it, removed files are skipped
+     *
+     * @param tokenToFind token to find
+     * @param resumeToken {@link SearchCursor#resumeToken()} of cursor to continue or {@link SearchCursor#START}
+     * @return            cursor over files containing token
+     * @throws IndexClosedException if method is called after FSIndexer has been closed
+     * @throws InconsistentIndexException if method is called after filesystem updating errors have been occurred
+     */
+    public SearchCursor searchCursor(Token tokenToFind, long resumeToken)
+            throws IndexClosedException, InconsistentIndexException {
+        checkState();
+        return fileIndex.searchCursor(tokenToFind, resumeToken);
+    }
+
+    /**
+     * Searches all files in index matching {@code query}, for example files containing all of some tokens
+     *
+     * @param query query to evaluate
+     * @return      matching files or empty list (if no such files in index)
+     * @throws IndexClosedException if method is called after FSIndexer has been closed
+     * @throws InconsistentIndexException if method is called after filesystem updating errors have been occurred
+     *
+     * @see indexer.query.Query
+     */
+    public List<String> search(Query query) throws IndexClosedException, InconsistentIndexException {
+        checkState();
+        return fileIndex.search(query);
+    }
+
+    /**
+     * Searches {@code k} most relevant files in index matching {@code query}. Files are ranked with BM25
+     * by frequencies of query's tokens
+     *
+     * @param query query to evaluate
+     * @param k     maximum number of files to return
+     * @return      at most k matching files, the most relevant first
+     * @throws IndexClosedException if method is called after FSIndexer has been closed
+     * @throws InconsistentIndexException if method is called after filesystem updating errors have been occurred
+     * @throws IllegalArgumentException if k is not positive
+     */
+    public List<String> search(Query query, int k) throws IndexClosedException, InconsistentIndexException {
+        checkState();
+        return fileIndex.search(query, k);
+    }
+
+    /**
+     * Searches all files in index containing tokens which differ from {@code token} in at most
+     * {@code maxEdits} inserted, deleted or substituted characters
+     *
+     * @param token    token to search
+     * @param maxEdits maximum Levenshtein distance between token and found tokens
+     * @return         files containing similar tokens or empty list (if no such files in index)
+     * @throws IndexClosedException if method is called after FSIndexer has been closed
+     * @throws InconsistentIndexException if method is called after filesystem updating errors have been occurred
+     * @throws IllegalArgumentException if maxEdits is negative
+     */
+    public List<String> searchFuzzy(Token token, int maxEdits)
+            throws IndexClosedException, InconsistentIndexException {
+        checkState();
+        if(token == null) {
+            return new ArrayList<>();
+        }
+        return fileIndex.search(Query.fuzzy(token.getValue(), maxEdits));
+    }
+
+    /**
+     * Searches all files in index containing {@code substring}, it can span multiple tokens
+     *
+     * @param substring text to search
+     * @return          files containing substring or empty list (if no such files in index)
+     * @throws IndexClosedException if method is called after FSIndexer has been closed
+     * @throws InconsistentIndexException if method is called after filesystem updating errors have been occurred
+     */
+    public List<String> searchSubstring(String substring) throws IndexClosedException, InconsistentIndexException {
+        checkState();
+        return fileIndex.searchText(Pattern.compile(substring, Pattern.LITERAL));
+    }
+
+    /**
+     * Searches all files in index containing text matching {@code regex}
+     *
+     * @param regex regular expression in {@link Pattern} syntax
+     * @return      files containing matches or empty list (if no such files in index)
+     * @throws IndexClosedException if method is called after FSIndexer has been closed
+     * @throws InconsistentIndexException if method is called after filesystem updating errors have been occurred
+     * @throws java.util.regex.PatternSyntaxException if regex is invalid
+     */
+    public List<String> searchRegex(String regex) throws IndexClosedException, InconsistentIndexException {
+        checkState();
+        return fileIndex.searchText(Pattern.compile(regex));
+    }
+
     /**
      * Adds file or directory to index
      *
@@ -117,9 +261,33 @@ public class FSIndexer implements AutoCloseable {
         return fileIndex.containsFile(filePath);
     }
 
+    /**
+     * Takes snapshot of index size with numbers of every directory or file added to indexer
+     *
+     * @return statistics of index and of every added root
+     * @throws IndexClosedException if method is called after FSIndexer has been closed
+     * @throws InconsistentIndexException if method is called after filesystem updating errors have been occurred
+     */
+    public IndexStats getStats() throws IndexClosedException, InconsistentIndexException {
+        checkState();
+        List<String> roots = new ArrayList<>();
+        for(Path root : monitorsManager.getTargets()) {
+            roots.add(root.toString());
+        }
+        return fileIndex.getStats(roots);
+    }
+
+    /**
+     * Stops all monitors. If index holds some resources (is Closeable), it is closed too
+     *
+     * @throws IOException if IO errors occurred while stopping monitors or closing index
+     */
     public void close() throws IOException {
         monitorsManager.stopAllMonitors();
         isClosed = true;
+        if(fileIndex instanceof Closeable) {
+            ((Closeable) fileIndex).close();
+        }
     }
 
     private void checkState() throws IndexClosedException, InconsistentIndexException {
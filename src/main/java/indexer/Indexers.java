@@ -6,10 +6,15 @@ import indexer.handler.IndexEventsHandler;
 import indexer.handler.IndexUpdater;
 import indexer.index.ConcurrentHashFileIndex;
 import indexer.index.FileIndex;
+import indexer.index.HashFileIndex;
+import indexer.index.SegmentFileIndex;
+import indexer.index.StripedHashFileIndex;
 import indexer.tokenizer.Tokenizer;
 import indexer.utils.Logger;
 
+import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.file.Path;
 
 /**
  * Factory for FSIndexer class objects creation
@@ -23,4 +28,73 @@ public class Indexers {
         FSMonitorLifecycleHandler fsMonitorLifecycleHandler = new IndexMonitorHandler(indexUpdater);
         return new FSIndexer(fileIndex, indexUpdater, fsMonitorLifecycleHandler, logger);
     }
+
+    /**
+     * Creates FSIndexer based on ConcurrentHashFileIndex storing positions of tokens,
+     * so phrase and proximity queries can be used
+     */
+    public static FSIndexer newPositionalFsIndexer(Tokenizer tokenizer, Logger logger) {
+        FileIndex fileIndex = new ConcurrentHashFileIndex(tokenizer, new HashFileIndex.Options().positional(true));
+        IndexEventsHandler indexUpdater = new IndexUpdater(fileIndex);
+        FSMonitorLifecycleHandler fsMonitorLifecycleHandler = new IndexMonitorHandler(indexUpdater);
+        return new FSIndexer(fileIndex, indexUpdater, fsMonitorLifecycleHandler, logger);
+    }
+
+    /**
+     * Creates FSIndexer based on ConcurrentHashFileIndex storing trigrams of files' content,
+     * so substring and regular expression searches read only candidate files
+     */
+    public static FSIndexer newTrigramFsIndexer(Tokenizer tokenizer, Logger logger) {
+        FileIndex fileIndex = new ConcurrentHashFileIndex(tokenizer, new HashFileIndex.Options().trigrams(true));
+        IndexEventsHandler indexUpdater = new IndexUpdater(fileIndex);
+        FSMonitorLifecycleHandler fsMonitorLifecycleHandler = new IndexMonitorHandler(indexUpdater);
+        return new FSIndexer(fileIndex, indexUpdater, fsMonitorLifecycleHandler, logger);
+    }
+
+    /**
+     * Creates FSIndexer based on ConcurrentHashFileIndex keeping terms of every file, so postings
+     * of removed files are deleted right away. Suits directories where files are often created and removed
+     */
+    public static FSIndexer newEagerRemovalFsIndexer(Tokenizer tokenizer, Logger logger) {
+        FileIndex fileIndex = new ConcurrentHashFileIndex(tokenizer, new HashFileIndex.Options().forwardIndex(true));
+        IndexEventsHandler indexUpdater = new IndexUpdater(fileIndex);
+        FSMonitorLifecycleHandler fsMonitorLifecycleHandler = new IndexMonitorHandler(indexUpdater);
+        return new FSIndexer(fileIndex, indexUpdater, fsMonitorLifecycleHandler, logger);
+    }
+
+    /**
+     * Creates FSIndexer based on StripedHashFileIndex, files are added by multiple threads
+     * (one per available processor). Tokenizer must be thread safe.
+     */
+    public static FSIndexer newStripedFsIndexer(Tokenizer tokenizer, Logger logger) {
+        FileIndex fileIndex = new StripedHashFileIndex(tokenizer);
+        IndexEventsHandler indexUpdater = new IndexUpdater(fileIndex, Runtime.getRuntime().availableProcessors());
+        FSMonitorLifecycleHandler fsMonitorLifecycleHandler = new IndexMonitorHandler(indexUpdater);
+        return new FSIndexer(fileIndex, indexUpdater, fsMonitorLifecycleHandler, logger);
+    }
+
+    /**
+     * Creates FSIndexer based on ConcurrentHashFileIndex loaded from specified snapshot file (if it exists).
+     * Index is saved back to snapshot when FSIndexer is closed. When directories are added again,
+     * only files changed since snapshot has been saved are reindexed.
+     */
+    public static FSIndexer newSnapshotFsIndexer(Tokenizer tokenizer, Logger logger, Path snapshotFile)
+            throws IOException {
+        FileIndex fileIndex = ConcurrentHashFileIndex.openSnapshot(tokenizer, snapshotFile);
+        IndexEventsHandler indexUpdater = new IndexUpdater(fileIndex);
+        FSMonitorLifecycleHandler fsMonitorLifecycleHandler = new IndexMonitorHandler(indexUpdater);
+        return new FSIndexer(fileIndex, indexUpdater, fsMonitorLifecycleHandler, logger);
+    }
+
+    /**
+     * Creates FSIndexer based on SegmentFileIndex stored in specified directory. If directory
+     * contains index saved earlier, it is reopened. Index is flushed to disk when FSIndexer is closed.
+     */
+    public static FSIndexer newPersistentFsIndexer(Tokenizer tokenizer, Logger logger, Path indexDirectory)
+            throws IOException {
+        FileIndex fileIndex = new SegmentFileIndex(tokenizer, indexDirectory);
+        IndexEventsHandler indexUpdater = new IndexUpdater(fileIndex);
+        FSMonitorLifecycleHandler fsMonitorLifecycleHandler = new IndexMonitorHandler(indexUpdater);
+        return new FSIndexer(fileIndex, indexUpdater, fsMonitorLifecycleHandler, logger);
+    }
 }
@@ -7,8 +7,10 @@ import indexer.utils.PathUtils;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -82,6 +84,13 @@ public class FSMonitorsManager {
         return false;
     }
 
+    /**
+     * @return directories and files listened by monitors, targets inside them are not included
+     */
+    public synchronized List<Path> getTargets() {
+        return new ArrayList<>(monitors.keySet());
+    }
+
     /**
      * Synchronously stops all the monitors
      *
@@ -29,23 +29,59 @@ import java.util.concurrent.TimeUnit;
  */
 public class IndexUpdater implements IndexEventsHandler {
     private final FileIndex fileIndex;
+    private final int addersNumber;
     private final int ADD_FILE_CACHE_SIZE = 1000;
 
     public IndexUpdater(FileIndex fileIndex) {
+        this(fileIndex, 1);
+    }
+
+    /**
+     * @param fileIndex    index to update
+     * @param addersNumber number of threads adding files to index concurrently. Values greater than 1
+     *                     make sense only for indices supporting concurrent writers
+     *
+     * @see indexer.index.StripedHashFileIndex
+     */
+    public IndexUpdater(FileIndex fileIndex, int addersNumber) {
         this.fileIndex = fileIndex;
+        this.addersNumber = addersNumber;
     }
 
+    /**
+     * Adds files from specified directory to index. Directory may have been indexed before
+     * (for example, if index has been loaded from snapshot), so it is reconciled with disk:
+     * files with the same size and modification time as indexed ones are skipped, changed files
+     * are reindexed and indexed files that no longer exist are removed.
+     *
+     * @param filePath added file or directory
+     * @throws NotHandledEventException if directory can't be walked or index has become inconsistent
+     */
     @Override
     public void onFilesAddedEvent(Path filePath) throws NotHandledEventException {
         final List<EncodedFile> cache = new LinkedList<>();
-        final ExecutorService addersPool = Executors.newFixedThreadPool(1);
+        final ExecutorService addersPool = Executors.newFixedThreadPool(addersNumber);
+        AdderFileVisitor visitor = new AdderFileVisitor(addersPool, cache);
         try {
-            Files.walkFileTree(filePath, new AdderFileVisitor(addersPool, cache));
+            Files.walkFileTree(filePath, visitor);
         } catch (IOException e) {
+            waitAddersToFinish(addersPool);
             throw new NotHandledEventException("files adding failed due to IO error, details: " + e.getMessage());
         }
         fileIndex.addFiles(cache);
         waitAddersToFinish(addersPool);
+        try {
+            for(EncodedFile modified : visitor.modifiedFiles) {
+                fileIndex.handleFileModification(modified);
+            }
+        } catch (InconsistentIndexException e) {
+            throw new NotHandledEventException("index has become inconsistent while reindexing changed files");
+        }
+        for(String indexed : fileIndex.getFilesInDirectory(filePath.toFile().getAbsolutePath())) {
+            if(!visitor.visitedFiles.contains(indexed)) {
+                fileIndex.removeFile(indexed);
+            }
+        }
     }
 
     @Override
@@ -92,6 +128,8 @@ public class IndexUpdater implements IndexEventsHandler {
         private final EncodingDetector detector = EncodingDetector.standardDetector();
         private final ExecutorService addersPool;
         private final List<EncodedFile> cache;
+        private final List<EncodedFile> modifiedFiles = new LinkedList<>();
+        private final Set<String> visitedFiles = new HashSet<>();
 
         private AdderFileVisitor(ExecutorService addersPool, List<EncodedFile> cache) {
             this.addersPool = addersPool;
@@ -100,9 +138,19 @@ public class IndexUpdater implements IndexEventsHandler {
 
         @Override
         public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-            DetectionResult result = detector.detect(file.toFile().getAbsolutePath());
-            if (result != null) {
-                EncodedFile encodedFile = new EncodedFile(file.toFile().getAbsolutePath(), result.getCharset());
+            String absolutePath = file.toFile().getAbsolutePath();
+            visitedFiles.add(absolutePath);
+            if(fileIndex.isFileUpToDate(absolutePath, attrs.size(), attrs.lastModifiedTime().toMillis())) {
+                return FileVisitResult.CONTINUE;
+            }
+            DetectionResult result = detector.detect(absolutePath);
+            if(result == null) {
+                // file has become binary since it was indexed
+                visitedFiles.remove(absolutePath);
+            } else if(fileIndex.containsFile(absolutePath)) {
+                modifiedFiles.add(new EncodedFile(absolutePath, result.getCharset()));
+            } else {
+                EncodedFile encodedFile = new EncodedFile(absolutePath, result.getCharset());
                 cache.add(encodedFile);
                 if (cache.size() > ADD_FILE_CACHE_SIZE) {
                     addersPool.execute(new Adder(new LinkedList<>(cache)));
@@ -0,0 +1,167 @@
+package indexer.index;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Posting list keeping encoded ids and frequencies in blocks of {@link PostingArena} instead of
+ * arrays. Blocks grow by doubling like arrays of ordinary list, old blocks are returned to arena's
+ * free lists at once. List must be released when it isn't needed anymore.
+ * Class is not thread safe. Multiple readers are allowed only if there are no concurrent writers.
+ */
+class ArenaPostingList extends PostingList {
+    private static final int WRITE_BUFFER_SIZE = 1 << 12;
+
+    private final PostingArena arena;
+    private long dataBlock;
+    private int dataCapacity;
+    private long frequenciesBlock = -1;
+    private int frequenciesCapacity = 0;
+
+    /**
+     * @param arena       arena to allocate blocks from
+     * @param frequencies {@code true} if frequencies of ids should be kept
+     */
+    ArenaPostingList(PostingArena arena, boolean frequencies) {
+        super(null, null);
+        this.arena = arena;
+        this.dataCapacity = PostingArena.MIN_BLOCK_SIZE;
+        this.dataBlock = arena.allocate(dataCapacity);
+        if(frequencies) {
+            this.frequenciesCapacity = PostingArena.MIN_BLOCK_SIZE;
+            this.frequenciesBlock = arena.allocate(frequenciesCapacity);
+        }
+    }
+
+    @Override
+    public boolean hasFrequencies() {
+        return frequenciesBlock >= 0;
+    }
+
+    @Override
+    public void writeTo(DataOutput out) throws IOException {
+        byte[] buffer = new byte[WRITE_BUFFER_SIZE];
+        for(int pos = 0; pos < encodedLength(); pos += buffer.length) {
+            int bytes = Math.min(buffer.length, encodedLength() - pos);
+            arena.read(dataBlock, pos, buffer, 0, bytes);
+            out.write(buffer, 0, bytes);
+        }
+    }
+
+    @Override
+    public void writeFrequenciesTo(DataOutput out) throws IOException {
+        if(!hasFrequencies()) {
+            throw new IllegalStateException("list doesn't keep frequencies");
+        }
+        byte[] buffer = new byte[size()];
+        readFrequencies(buffer);
+        out.write(buffer);
+    }
+
+    @Override
+    public void trimToSize() {
+        int dataSize = arena.blockSize(Math.max(encodedLength(), 1));
+        if(dataSize < dataCapacity) {
+            dataBlock = reallocate(dataBlock, dataCapacity, dataSize, encodedLength());
+            dataCapacity = dataSize;
+        }
+        int frequenciesSize = arena.blockSize(Math.max(size(), 1));
+        if(hasFrequencies() && frequenciesSize < frequenciesCapacity) {
+            frequenciesBlock = reallocate(frequenciesBlock, frequenciesCapacity, frequenciesSize, size());
+            frequenciesCapacity = frequenciesSize;
+        }
+    }
+
+    /**
+     * Returns list's blocks to arena
+     */
+    @Override
+    public void release() {
+        if(dataBlock >= 0) {
+            arena.free(dataBlock, dataCapacity);
+            dataBlock = -1;
+        }
+        if(frequenciesBlock >= 0) {
+            arena.free(frequenciesBlock, frequenciesCapacity);
+            frequenciesBlock = -1;
+        }
+    }
+
+    @Override
+    byte byteAt(int pos) {
+        return arena.get(dataBlock, pos);
+    }
+
+    @Override
+    int putVarint(int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            arena.put(dataBlock, pos++, (byte)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        arena.put(dataBlock, pos++, (byte)value);
+        return pos;
+    }
+
+    @Override
+    void writeBytes(int pos, byte[] source, int bytes) {
+        arena.write(dataBlock, pos, source, 0, bytes);
+    }
+
+    @Override
+    void readBytes(int pos, byte[] target, int bytes) {
+        arena.read(dataBlock, pos, target, 0, bytes);
+    }
+
+    @Override
+    void moveBytes(int from, int to, int bytes) {
+        arena.move(dataBlock, from, dataBlock, to, bytes);
+    }
+
+    @Override
+    void ensureCapacity(int capacity) {
+        if(capacity > dataCapacity) {
+            int newCapacity = arena.blockSize(Math.max(dataCapacity * 2, capacity));
+            dataBlock = reallocate(dataBlock, dataCapacity, newCapacity, encodedLength());
+            dataCapacity = newCapacity;
+        }
+    }
+
+    @Override
+    int frequencyAt(int index) {
+        return arena.get(frequenciesBlock, index) & 0xFF;
+    }
+
+    @Override
+    void setFrequencyAt(int index, byte frequency) {
+        arena.put(frequenciesBlock, index, frequency);
+    }
+
+    @Override
+    void readFrequencies(byte[] target) {
+        arena.read(frequenciesBlock, 0, target, 0, size());
+    }
+
+    @Override
+    void moveFrequencies(int from, int to, int number) {
+        arena.move(frequenciesBlock, from, frequenciesBlock, to, number);
+    }
+
+    @Override
+    void ensureFrequenciesCapacity(int capacity) {
+        if(capacity > frequenciesCapacity) {
+            int newCapacity = arena.blockSize(Math.max(frequenciesCapacity * 2, capacity));
+            frequenciesBlock = reallocate(frequenciesBlock, frequenciesCapacity, newCapacity, size());
+            frequenciesCapacity = newCapacity;
+        }
+    }
+
+    /**
+     * Moves used bytes to block of another size and frees the old block
+     */
+    private long reallocate(long block, int blockSize, int newSize, int usedBytes) {
+        long newBlock = arena.allocate(newSize);
+        arena.move(block, 0, newBlock, 0, usedBytes);
+        arena.free(block, blockSize);
+        return newBlock;
+    }
+}
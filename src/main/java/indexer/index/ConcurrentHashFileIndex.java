@@ -1,43 +1,256 @@
 package indexer.index;
 
 import indexer.exceptions.InconsistentIndexException;
+import indexer.query.Query;
 import indexer.tokenizer.Token;
 import indexer.tokenizer.Tokenizer;
 import indexer.utils.EncodedFile;
+import indexer.utils.FileEntry;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
 
 /**
- * Concurrent version of HashFileIndex. Supports multiple readers (contains queries) and
- * one writer (add, search, remove and modify queries) at a time. Multiple search queries are
- * not supported at a time because HashFileIndex performs lazy removes on search (and so modifies
- * index state)
+ * Concurrent version of HashFileIndex. Supports multiple readers (search and contains queries) and
+ * one writer (add, remove and modify queries) at a time. Search skips removed files without
+ * purging them under read lock, so searches never wait for each other. Postings of removed files are
+ * purged by TombstoneCompactor in background, tokens found stale by searches are purged first.
+ * Text search selects candidate files under read lock and reads them without locking.
+ * Index opened with {@link #openSnapshot(Tokenizer, Path)} is saved back to snapshot file on close.
  *
  * @see indexer.index.HashFileIndex
+ * @see indexer.index.TombstoneCompactor
  */
-public class ConcurrentHashFileIndex implements FileIndex {
+public class ConcurrentHashFileIndex implements FileIndex, Closeable {
     private final HashFileIndex index;
+    private final Path snapshotFile;
     private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
     private final Lock readLock = readWriteLock.readLock();
     private final Lock writeLock = readWriteLock.writeLock();
+    private final TombstoneCompactor compactor;
+
+    private final SearchCursor.PathResolver pathResolver = new SearchCursor.PathResolver() {
+        @Override
+        public void resolve(long[] ids, int idsNumber, List<String> paths) {
+            readLock.lock();
+            try {
+                index.pathResolver.resolve(ids, idsNumber, paths);
+            } finally {
+                readLock.unlock();
+            }
+        }
+    };
 
     public ConcurrentHashFileIndex(Tokenizer tokenizer) {
-        this.index = new HashFileIndex(tokenizer);
+        this(new HashFileIndex(tokenizer), null);
     }
 
-    @Override
-    public List<String> search(Token tokenToFind) {
+    /**
+     * @param tokenizer tokenizer used to read files
+     * @param options   optional structures index should keep. With forward index postings of removed
+     *                  files are deleted right away instead of being purged by compactor
+     */
+    public ConcurrentHashFileIndex(Tokenizer tokenizer, HashFileIndex.Options options) {
+        this(new HashFileIndex(tokenizer, options), null);
+    }
+
+    private ConcurrentHashFileIndex(HashFileIndex index, Path snapshotFile) {
+        this.index = index;
+        this.snapshotFile = snapshotFile;
+        this.compactor = new TombstoneCompactor(index, writeLock);
+    }
+
+    /**
+     * Loads index from snapshot file if it exists or creates empty index otherwise. Index is saved
+     * to the same file on close
+     *
+     * @param tokenizer    tokenizer used to read files
+     * @param snapshotFile snapshot file
+     * @return             opened index
+     * @throws IOException if snapshot exists but can't be read
+     *
+     * @see indexer.index.HashFileIndex#load(Tokenizer, Path)
+     */
+    public static ConcurrentHashFileIndex openSnapshot(Tokenizer tokenizer, Path snapshotFile) throws IOException {
+        HashFileIndex index = Files.exists(snapshotFile) ? HashFileIndex.load(tokenizer, snapshotFile)
+                                                         : new HashFileIndex(tokenizer);
+        return new ConcurrentHashFileIndex(index, snapshotFile);
+    }
+
+    /**
+     * Saves index to snapshot file
+     *
+     * @param file file to save index to
+     * @throws IOException if IO errors occurred while writing
+     *
+     * @see indexer.index.HashFileIndex#save(Path)
+     */
+    public void saveSnapshot(Path file) throws IOException {
         writeLock.lock();
         try {
-            return index.search(tokenToFind);
+            index.save(file);
         } finally {
             writeLock.unlock();
         }
     }
 
+    /**
+     * Limits memory taken by postings, postings over the limit are spilled to disk
+     *
+     * @param memoryBudget   estimated number of bytes postings may take
+     * @param spillDirectory directory to write run files to
+     *
+     * @see indexer.index.HashFileIndex#setMemoryBudget(long, Path)
+     */
+    public void setMemoryBudget(long memoryBudget, Path spillDirectory) {
+        writeLock.lock();
+        try {
+            index.setMemoryBudget(memoryBudget, spillDirectory);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Enables cache of token search results, cache hits are served under read lock
+     *
+     * @param size maximum total number of paths in cached results, 0 disables cache
+     *
+     * @see indexer.index.HashFileIndex#setResultCacheSize(int)
+     */
+    public void setResultCacheSize(int size) {
+        writeLock.lock();
+        try {
+            index.setResultCacheSize(size);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * @return state of background purging of removed files
+     */
+    public TombstoneCompactor.Progress getCompactionProgress() {
+        return compactor.getProgress();
+    }
+
+    TombstoneCompactor compactor() {
+        return compactor;
+    }
+
+    /**
+     * Stops background compaction and saves index to snapshot file it has been opened from, if any
+     *
+     * @throws IOException if IO errors occurred while writing
+     */
+    @Override
+    public void close() throws IOException {
+        compactor.close();
+        if(snapshotFile != null) {
+            saveSnapshot(snapshotFile);
+        }
+    }
+
+    @Override
+    public List<String> search(Token tokenToFind) {
+        List<String> paths;
+        double staleRatio;
+        readLock.lock();
+        try {
+            paths = index.searchWithoutRemoves(tokenToFind);
+            staleRatio = index.staleRatio(tokenToFind);
+        } finally {
+            readLock.unlock();
+        }
+        if(staleRatio > 0) {
+            compactor.onStaleToken(tokenToFind, staleRatio);
+        }
+        return paths;
+    }
+
+    /**
+     * Postings are copied under read lock, every page of paths is looked up under read lock
+     */
+    @Override
+    public SearchCursor searchCursor(Token tokenToFind, long resumeToken) {
+        readLock.lock();
+        try {
+            return index.searchCursor(tokenToFind, resumeToken, pathResolver);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public List<String> search(Token tokenToFind, String scopePath) {
+        readLock.lock();
+        try {
+            return index.search(tokenToFind, scopePath);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public int count(Token tokenToFind) {
+        readLock.lock();
+        try {
+            return index.count(tokenToFind);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean exists(Token tokenToFind) {
+        readLock.lock();
+        try {
+            return index.exists(tokenToFind);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public List<String> search(Query query) {
+        readLock.lock();
+        try {
+            return index.search(query);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public List<String> search(Query query, int k) {
+        readLock.lock();
+        try {
+            return index.search(query, k);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public List<String> searchText(Pattern pattern) {
+        List<FileEntry> candidates;
+        readLock.lock();
+        try {
+            candidates = index.textCandidates(pattern);
+        } finally {
+            readLock.unlock();
+        }
+        return HashFileIndex.matchingFiles(candidates, pattern);
+    }
+
     @Override
     public boolean addFile(EncodedFile encodedFile) {
         writeLock.lock();
@@ -66,6 +279,7 @@ public class ConcurrentHashFileIndex implements FileIndex {
         } finally {
             writeLock.unlock();
         }
+        compactor.onFilesRemoved();
     }
 
     @Override
@@ -85,6 +299,7 @@ public class ConcurrentHashFileIndex implements FileIndex {
             return index.handleFileModification(encodedFile);
         } finally {
             writeLock.unlock();
+            compactor.onFilesRemoved();
         }
     }
 
@@ -98,6 +313,26 @@ public class ConcurrentHashFileIndex implements FileIndex {
         }
     }
 
+    @Override
+    public boolean isFileUpToDate(String filePath, long size, long lastModified) {
+        readLock.lock();
+        try {
+            return index.isFileUpToDate(filePath, size, lastModified);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public List<String> getFilesInDirectory(String dirPath) {
+        readLock.lock();
+        try {
+            return index.getFilesInDirectory(dirPath);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
     @Override
     public void removeDirectory(String dirPath) {
         writeLock.lock();
@@ -106,5 +341,16 @@ public class ConcurrentHashFileIndex implements FileIndex {
         } finally {
             writeLock.unlock();
         }
+        compactor.onFilesRemoved();
+    }
+
+    @Override
+    public IndexStats getStats(Collection<String> roots) {
+        readLock.lock();
+        try {
+            return index.getStats(roots);
+        } finally {
+            readLock.unlock();
+        }
     }
 }
\ No newline at end of file
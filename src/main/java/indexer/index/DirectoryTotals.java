@@ -0,0 +1,100 @@
+package indexer.index;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Numbers, sizes and postings numbers of indexed files summed up by directories for indexes which
+ * don't keep PathTree. Directories are nodes keyed by their names like in PathTree, files themselves
+ * are not stored, so index updates totals on every added and removed file and statistics of directory
+ * are taken without walking its files. Directories left without files are dropped.
+ * Class is thread safe.
+ */
+class DirectoryTotals {
+    // children of root are path roots (like "/") or the first names of relative paths
+    private final Directory root = new Directory(null, "");
+
+    /**
+     * @param filePath       file's path
+     * @param size           file's size or -1 if it's unknown
+     * @param postingsNumber number of file's postings or -1 if it's unknown
+     */
+    synchronized void add(String filePath, long size, long postingsNumber) {
+        List<String> names = PathTree.split(filePath);
+        Directory directory = root;
+        for(int i = 0; i < names.size() - 1; i++) {
+            Directory subdirectory = directory.subdirectories.get(names.get(i));
+            if(subdirectory == null) {
+                subdirectory = new Directory(directory, names.get(i));
+                directory.subdirectories.put(subdirectory.name, subdirectory);
+            }
+            directory = subdirectory;
+        }
+        directory.count(1, Math.max(size, 0), postingsNumber);
+    }
+
+    /**
+     * @param filePath       path of file which has been added before
+     * @param size           file's size it has been added with
+     * @param postingsNumber number of file's postings it has been added with
+     */
+    synchronized void remove(String filePath, long size, long postingsNumber) {
+        List<String> names = PathTree.split(filePath);
+        Directory directory = root;
+        for(int i = 0; i < names.size() - 1 && directory != null; i++) {
+            directory = directory.subdirectories.get(names.get(i));
+        }
+        if(directory == null) {
+            return;
+        }
+        directory.count(-1, -Math.max(size, 0), -postingsNumber);
+        while (directory.parent != null && directory.filesNumber <= 0) {
+            directory.parent.subdirectories.remove(directory.name);
+            directory = directory.parent;
+        }
+    }
+
+    /**
+     * @param dirPath directory's path
+     * @return        totals of files in directory and its subdirectories, empty statistics if there
+     *                are no such files
+     */
+    synchronized IndexStats.RootStats get(String dirPath) {
+        IndexStats.RootStats stats = new IndexStats.RootStats();
+        Directory directory = root;
+        for(String name : PathTree.split(dirPath)) {
+            directory = directory.subdirectories.get(name);
+            if(directory == null) {
+                return stats;
+            }
+        }
+        stats.addFiles(directory.filesNumber, directory.filesSize, directory.postingsNumber);
+        return stats;
+    }
+
+    private static class Directory {
+        private final Directory parent;
+        private final String name;
+        private final Map<String, Directory> subdirectories = new HashMap<>(4);
+        private int filesNumber = 0;
+        private long filesSize = 0;
+        private long postingsNumber = 0;
+
+        private Directory(Directory parent, String name) {
+            this.parent = parent;
+            this.name = name;
+        }
+
+        /**
+         * Adds deltas to totals of this directory and all its ancestors
+         */
+        private void count(int files, long size, long postings) {
+            for(Directory directory = this; directory != null; directory = directory.parent) {
+                directory.filesNumber += files;
+                directory.filesSize += size;
+                directory.postingsNumber += postings;
+            }
+        }
+    }
+}
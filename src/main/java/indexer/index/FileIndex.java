@@ -1,19 +1,102 @@
 package indexer.index;
 
 import indexer.exceptions.InconsistentIndexException;
+import indexer.query.Query;
 import indexer.tokenizer.Token;
 import indexer.utils.EncodedFile;
 
 import java.nio.charset.Charset;
+import java.util.Collection;
 import java.util.List;
+import java.util.regex.Pattern;
 
 /**
  * Interface for files index that support adding, removing, updating file if it was modified
  * and searching files containing specified token.
  */
 public interface FileIndex {
+    /**
+     * @param tokenToFind token to find in index
+     * @return            unmodifiable list of files containing token, index may return the same list
+     *                    from its result cache to several callers
+     */
     public List<String> search(Token tokenToFind);
 
+    /**
+     * Opens cursor reading files containing token page by page. Cursor walks a copy of token's postings,
+     * so paths are looked up only for read pages and index is not locked between them.
+     * Resume token is the id of the last read file and resumed cursor returns only files with bigger ids,
+     * so no file is returned twice. Ids are allocated in adding order, but a file can get the token
+     * after cursor has passed its id and then it is not returned by resumed cursor: if it was added
+     * concurrently with another file and got smaller id, or if it was updated in place keeping its id
+     *
+     * @param tokenToFind token to find in index
+     * @param resumeToken {@link SearchCursor#resumeToken()} of cursor to continue or {@link SearchCursor#START}
+     * @return            cursor positioned after files already read by cursor resume token comes from
+     */
+    public SearchCursor searchCursor(Token tokenToFind, long resumeToken);
+
+    /**
+     * Searches files in directory and its subdirectories containing token. Indexes keeping files
+     * by directories don't look up paths of files outside the directory, other indexes filter paths
+     * of all files containing token
+     *
+     * @param tokenToFind token to find in index
+     * @param scopePath   directory to search in
+     * @return            list of files in directory containing token
+     */
+    public List<String> search(Token tokenToFind, String scopePath);
+
+    /**
+     * Counts files containing token without looking up their paths
+     *
+     * @param tokenToFind token to find in index
+     * @return            number of files containing token
+     */
+    public int count(Token tokenToFind);
+
+    /**
+     * Checks if some file contains token without looking up paths
+     *
+     * @param tokenToFind token to find in index
+     * @return            {@code true} if token is found in some file, {@code false} otherwise
+     */
+    public boolean exists(Token tokenToFind);
+
+    /**
+     * Searches files matching query. Query is evaluated over file ids inside index, paths are
+     * looked up only for matching files
+     *
+     * @param query query to evaluate
+     * @return      list of matching files, positional queries match no files if index doesn't store positions
+     * @throws UnsupportedOperationException if query is negative
+     *
+     * @see indexer.query.Query
+     */
+    public List<String> search(Query query);
+
+    /**
+     * Searches k most relevant files matching query. Memory used by search depends on k, not
+     * on the number of matching files
+     *
+     * @param query query to evaluate
+     * @param k     maximum number of files to return
+     * @return      list of at most k matching files, the most relevant first
+     * @throws IllegalArgumentException if k is not positive
+     *
+     * @see indexer.query.Bm25Ranker
+     */
+    public List<String> search(Query query, int k);
+
+    /**
+     * Searches files containing text matching pattern, matches can span multiple tokens. Index that
+     * doesn't store trigrams of files' content reads every indexed file
+     *
+     * @param pattern pattern to find, use {@link Pattern#LITERAL} flag to find substring
+     * @return        list of files containing pattern's matches
+     */
+    public List<String> searchText(Pattern pattern);
+
     public boolean addFile(EncodedFile encodedFile);
     public void addFiles(List<EncodedFile> files);
     public void removeFile(String filePath);
@@ -22,5 +105,30 @@ public interface FileIndex {
 
     public boolean containsFile(String filePath);
 
+    /**
+     * Checks if file is in index and its indexed version has specified size and modification time
+     *
+     * @param filePath     file to check
+     * @param size         file's current size
+     * @param lastModified file's current modification time in milliseconds
+     * @return             {@code true} if file doesn't need to be reindexed, {@code false} otherwise
+     */
+    public boolean isFileUpToDate(String filePath, long size, long lastModified);
+
+    /**
+     * @param dirPath directory
+     * @return        all indexed files in specified directory and its subdirectories
+     */
+    public List<String> getFilesInDirectory(String dirPath);
+
     public void removeDirectory(String dirPath);
+
+    /**
+     * Takes snapshot of index size. Numbers of index are maintained incrementally, numbers of roots are
+     * collected from their files
+     *
+     * @param roots directories or files to collect statistics of
+     * @return      statistics of index and of every root
+     */
+    public IndexStats getStats(Collection<String> roots);
 }
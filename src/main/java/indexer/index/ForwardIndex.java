@@ -0,0 +1,140 @@
+package indexer.index;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Forward index: ids of distinct terms of every file. Ids are kept sorted, delta and varint encoded
+ * with their number in front, so list of typical file takes one or two bytes per term.
+ * File's postings can be found with it without sweeping posting lists of all terms.
+ * Class is not thread safe.
+ */
+class ForwardIndex {
+    private final Map<Long, byte[]> fileTerms = new HashMap<>();
+
+    /**
+     * @return number of files in forward index
+     */
+    int size() {
+        return fileTerms.size();
+    }
+
+    /**
+     * Puts file's terms replacing terms put for file before
+     *
+     * @param fileId  file id
+     * @param termIds ids of file's terms in any order, duplicates are allowed
+     */
+    void put(long fileId, int[] termIds) {
+        int[] sorted = Arrays.copyOf(termIds, termIds.length);
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for(int i = 0; i < sorted.length; i++) {
+            if(i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[distinct++] = sorted[i];
+            }
+        }
+        byte[] buffer = new byte[5 * (distinct + 1)];
+        int length = writeVarint(buffer, 0, distinct);
+        int previous = 0;
+        for(int i = 0; i < distinct; i++) {
+            length = writeVarint(buffer, length, sorted[i] - previous);
+            previous = sorted[i];
+        }
+        fileTerms.put(fileId, Arrays.copyOf(buffer, length));
+    }
+
+    /**
+     * @param fileId file id
+     * @return       sorted ids of file's terms or null if file is not in forward index
+     */
+    int[] get(long fileId) {
+        return decode(fileTerms.get(fileId));
+    }
+
+    /**
+     * @param fileId file id
+     * @return       sorted ids of removed file's terms or null if file is not in forward index
+     */
+    int[] remove(long fileId) {
+        return decode(fileTerms.remove(fileId));
+    }
+
+    /**
+     * Builds forward lists of all files by inverting posting lists, forward index must be empty
+     *
+     * @param termFiles   posting lists indexed by term id, null for terms which are not in any file
+     * @param termsNumber number of term ids to read
+     */
+    void invert(PostingList[] termFiles, int termsNumber) {
+        Map<Long, TermIds> files = new HashMap<>();
+        for(int termId = 0; termId < termsNumber; termId++) {
+            if(termFiles[termId] == null) {
+                continue;
+            }
+            PostingList.IdIterator it = termFiles[termId].iterator();
+            while (it.hasNext()) {
+                long fileId = it.next();
+                TermIds ids = files.get(fileId);
+                if(ids == null) {
+                    ids = new TermIds();
+                    files.put(fileId, ids);
+                }
+                ids.add(termId);
+            }
+        }
+        for(Map.Entry<Long, TermIds> entry : files.entrySet()) {
+            put(entry.getKey(), Arrays.copyOf(entry.getValue().values, entry.getValue().size));
+        }
+    }
+
+    private static int[] decode(byte[] data) {
+        if(data == null) {
+            return null;
+        }
+        int pos = 0;
+        int[] termIds = null;
+        int previous = 0;
+        int index = -1;
+        while (pos < data.length) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[pos++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            if(index < 0) {
+                termIds = new int[value];
+            } else {
+                previous += value;
+                termIds[index] = previous;
+            }
+            index += 1;
+        }
+        return termIds;
+    }
+
+    private static int writeVarint(byte[] buffer, int pos, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer[pos++] = (byte)((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[pos++] = (byte)value;
+        return pos;
+    }
+
+    private static class TermIds {
+        private int[] values = new int[8];
+        private int size = 0;
+
+        private void add(int termId) {
+            if(size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = termId;
+        }
+    }
+}
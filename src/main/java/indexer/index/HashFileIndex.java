@@ -1,35 +1,281 @@
 package indexer.index;
 
 import indexer.exceptions.InconsistentIndexException;
+import indexer.index.segment.Segment;
+import indexer.index.segment.SegmentWriter;
+import indexer.query.Bm25Ranker;
+import indexer.query.PatternTrigrams;
+import indexer.query.PostingsSource;
+import indexer.query.Query;
+import indexer.tokenizer.TermTokenizer;
 import indexer.tokenizer.Token;
 import indexer.tokenizer.Tokenizer;
+import indexer.tokenizer.Word;
 import indexer.utils.EncodedFile;
 import indexer.utils.FileEntry;
-import indexer.utils.PathUtils;
 
 import java.io.*;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
 
 /**
- * FileIndex interface implementation based on HashMap with lazy removes
+ * FileIndex interface implementation based on HashMap with lazy removes. Index can be saved
+ * to snapshot file together with files metadata (size, modification time, charset) and loaded back,
+ * so files that haven't changed since the snapshot was made don't need to be reindexed.
+ * In positional mode positions of tokens in every file are stored too (position is a number of
+ * non-empty tokens before the token), so phrase and proximity queries can be evaluated without
+ * reading files.
+ * Postings keep frequencies of tokens in files, so search results can be ranked with BM25.
+ * Tokens' text is mapped to dense int ids by {@link TermDictionary}, postings and positions are kept
+ * in arrays indexed by term id. Term is removed from dictionary with its last posting and its id is
+ * given to the next new term, so the arrays don't grow while terms come and go. Tokenizers implementing
+ * {@link TermTokenizer} put terms straight into the dictionary, so no token objects are created while
+ * files are added.
+ * Tokens are also kept in sorted term dictionary, so prefix and wildcard queries enumerate
+ * only matching part of it.
+ * Optionally trigrams of files' content are indexed too, so text search reads only files containing
+ * all trigrams of literal parts of searched pattern. Trigram postings of removed files are purged
+ * by forceRemoves and by TombstoneCompactor after every sweep.
+ * Optionally ids of every file's terms are kept in forward index, then postings of removed files
+ * are deleted right away instead of being marked removed, so memory is released predictably in
+ * directories where files are often created and removed. Only trigram postings are purged lazily then.
+ * Forward index also lets modified file keep its id: old and new terms of file are compared and only
+ * postings of terms which appeared or disappeared are changed.
+ * In off-heap mode encoded postings and frequencies are kept in {@link PostingArena} instead of heap
+ * arrays, so garbage collector doesn't trace them and full collections of big indexes are shorter.
+ * Only postings move off heap: the file table (path tree, its entries and id map), the term dictionary,
+ * one small list object per term, positions and trigrams stay on heap, so heap use still grows with the
+ * number of files and terms, though not with the number of postings.
+ * Memory taken by postings can be limited by {@link #setMemoryBudget(long, Path)}. Postings of the least
+ * recently searched terms over the budget are spilled into sorted on-disk runs in segment format and are
+ * merged with in-memory postings of the same term when the term is searched. When there are too many runs
+ * they are merged into one, postings of removed files are dropped then.
+ * Budget can't be set for positional index.
+ * Results of token searches can be cached by {@link #setResultCacheSize(int)}.
  *
  * @see indexer.index.FileIndex
  */
 public class HashFileIndex implements FileIndex {
-    private final Map<Token, ArrayList<Long>> tokenFilesMap = new ConcurrentHashMap<>();
-    private final Map<Long, FileEntry> idFileMap = new HashMap<>();
-    private final Map<String, Long> fileIdMap = new HashMap<>();
+    private static final int SNAPSHOT_MAGIC = 0x4A495353;
+    private static final int SNAPSHOT_VERSION = 5;
+
+    private static final int INITIAL_TERMS_CAPACITY = 1024;
+    // number of runs which causes merging them into one
+    private static final int MAX_RUNS = 8;
+
+    private final TermDictionary terms = new TermDictionary();
+    // postings and positions indexed by term id, null for terms which are not in any file
+    private PostingList[] termFiles = new PostingList[INITIAL_TERMS_CAPACITY];
+    private PositionList[] termPositions;
+    private final TrigramIndex trigramIndex;
+    private final ForwardIndex forwardIndex;
+    // arena keeping postings or null if they are kept on heap
+    private final PostingArena arena;
+
+    // estimated bytes postings may take before they are spilled, 0 if they are never spilled
+    private long memoryBudget = 0;
+    private Path spillDirectory;
+    private final List<Segment> runs = new ArrayList<>();
+    // merged runs which files couldn't be deleted yet
+    private final List<Segment> undeletedRuns = new ArrayList<>();
+    // terms which postings may be in runs
+    private final BitSet spilledTerms = new BitSet();
+    // access time of every term, null if postings are never spilled
+    private int[] termAccess;
+    private int accessClock = 0;
+    private int memoryListsNumber = 0;
+    // cache of token search results or null if they are not cached
+    private ResultCache resultCache;
+    // generation when postings of every term have changed, null if results are not cached
+    private long[] termGenerations;
+    // generation when file which postings are not known was removed
+    private long removalGeneration = 0;
+    private long generation = 0;
+    private final NavigableMap<String, Token> sortedTerms = new ConcurrentSkipListMap<>();
+    private final Map<Long, PathTree.Entry> idFileMap = new HashMap<>();
+    // paths of files in index, entries of removed files are kept only in idFileMap until they are purged
+    private final PathTree pathTree = new PathTree();
 
     private final AtomicLong lastAddedFileId = new AtomicLong(-1);
+    private long postingsNumber = 0;
+    private long removedPostingsNumber = 0;
+    private long liveTokensNumber = 0;
+    private int liveTermsNumber = 0;
+    // ids of removed files which postings may be not purged yet
+    private final PostingList removedFiles = new PostingList();
+    // position of unfinished purge of trigram postings or null
+    private Iterator<PostingList> trigramsPurge = null;
 
     private final Tokenizer tokenizer;
 
+    private final PostingsSource postingsSource = new PostingsSource() {
+        @Override
+        public PostingsIterator postings(Token token) {
+            PostingList filesForToken = postingList(token);
+            return filesForToken == null ? null : filesForToken.iterator();
+        }
+
+        @Override
+        public int postingsNumber(Token token) {
+            return HashFileIndex.this.postingsNumber(token);
+        }
+
+        @Override
+        public PositionsCursor positions(Token token) {
+            if(termPositions == null) {
+                return null;
+            }
+            int termId = termId(token);
+            PositionList positions = termId < 0 ? null : termPositions[termId];
+            return positions == null ? null : positions.cursor();
+        }
+
+        @Override
+        public Iterator<Token> terms(String from) {
+            return sortedTerms.tailMap(from, true).values().iterator();
+        }
+    };
+
+    private final Bm25Ranker.FileStatistics fileStatistics = new Bm25Ranker.FileStatistics() {
+        @Override
+        public boolean isLive(long fileId) {
+            return !idFileMap.get(fileId).isRemoved();
+        }
+
+        @Override
+        public int length(long fileId) {
+            return idFileMap.get(fileId).getLength();
+        }
+
+        @Override
+        public long filesNumber() {
+            return pathTree.size();
+        }
+
+        @Override
+        public double averageLength() {
+            return pathTree.size() == 0 ? 0 : (double) liveTokensNumber / pathTree.size();
+        }
+    };
+
+    /**
+     * Looks up paths without locking, files purged after cursor has been opened are skipped
+     */
+    final SearchCursor.PathResolver pathResolver = new SearchCursor.PathResolver() {
+        @Override
+        public void resolve(long[] ids, int idsNumber, List<String> paths) {
+            for(int i = 0; i < idsNumber; i++) {
+                FileEntry fileEntry = idFileMap.get(ids[i]);
+                if(fileEntry != null && !fileEntry.isRemoved()) {
+                    paths.add(fileEntry.getFilePath());
+                }
+            }
+        }
+    };
+
     public HashFileIndex(Tokenizer tokenizer) {
+        this(tokenizer, new Options());
+    }
+
+    /**
+     * @param tokenizer tokenizer used to read files
+     * @param options   optional structures index should keep
+     */
+    public HashFileIndex(Tokenizer tokenizer, Options options) {
         this.tokenizer = tokenizer;
+        this.arena = options.offHeap ? new PostingArena() : null;
+        this.termPositions = options.positional ? new PositionList[INITIAL_TERMS_CAPACITY] : null;
+        this.trigramIndex = options.trigrams ? new TrigramIndex() : null;
+        this.forwardIndex = options.forwardIndex ? new ForwardIndex() : null;
+    }
+
+    public boolean isPositional() {
+        return termPositions != null;
+    }
+
+    public boolean hasTrigrams() {
+        return trigramIndex != null;
+    }
+
+    public boolean hasForwardIndex() {
+        return forwardIndex != null;
+    }
+
+    public boolean isOffHeap() {
+        return arena != null;
+    }
+
+    /**
+     * Limits memory taken by postings. When their estimated size exceeds the budget, postings of the
+     * least recently searched terms are written into new run file till half of the budget is used.
+     * Run files get unique names, so several indexes may share spill directory. Runs are merged into
+     * one when their number exceeds 8. Run files are deleted on JVM exit, snapshot saved by
+     * {@link #save(Path)} contains all postings. If run can't be written, postings are kept in memory,
+     * spilling is turned off till budget is set again and the add which has exceeded the budget throws
+     * IllegalStateException after the file has been added
+     *
+     * @param memoryBudget   estimated number of bytes postings may take
+     * @param spillDirectory directory to write run files to
+     * @throws IllegalArgumentException if budget is not positive
+     * @throws UnsupportedOperationException if index stores positions, they can't be spilled
+     */
+    public void setMemoryBudget(long memoryBudget, Path spillDirectory) {
+        if(termPositions != null) {
+            throw new UnsupportedOperationException("positional index can't spill postings");
+        }
+        if(memoryBudget <= 0) {
+            throw new IllegalArgumentException("memory budget must be positive: " + memoryBudget);
+        }
+        this.memoryBudget = memoryBudget;
+        this.spillDirectory = spillDirectory;
+        if(termAccess == null) {
+            termAccess = new int[termFiles.length];
+        }
+    }
+
+    /**
+     * Enables cache of token search results. Cached result is returned while postings of its term
+     * don't change and no files are removed (with forward index removal changes postings of file's
+     * terms only), so it's always consistent with the index. Cache is bounded by total number of paths
+     * in cached results, the least recently searched results are evicted first
+     *
+     * @param size maximum total number of paths in cached results, 0 disables cache
+     * @throws IllegalArgumentException if size is negative
+     */
+    public void setResultCacheSize(int size) {
+        if(size < 0) {
+            throw new IllegalArgumentException("result cache size must not be negative: " + size);
+        }
+        resultCache = size == 0 ? null : new ResultCache(size);
+        termGenerations = size == 0 ? null : new long[termFiles.length];
+    }
+
+    /**
+     * @return number of searches answered by result cache
+     */
+    long resultCacheHits() {
+        return resultCache == null ? 0 : resultCache.hits();
+    }
+
+    /**
+     * @return number of run files postings have been spilled to
+     */
+    int runsNumber() {
+        return runs.size();
+    }
+
+    /**
+     * @return estimated number of bytes taken by postings in memory
+     */
+    long estimatedPostingsBytes() {
+        return postingsNumber * IndexStats.ESTIMATED_POSTING_BYTES
+               + (long) memoryListsNumber * IndexStats.ESTIMATED_LIST_BYTES;
     }
 
     /**
@@ -37,23 +283,412 @@ public class HashFileIndex implements FileIndex {
      * performs postponed file removes
      *
      * @param tokenToFind token to find in index
-     * @return            list of files containing specified token
+     * @return            unmodifiable list of files containing specified token
      */
     @Override
     public List<String> search(Token tokenToFind) {
-        if(tokenToFind != null) {
-            ArrayList<Long> filesForToken = tokenFilesMap.get(tokenToFind);
-            if (filesForToken != null) {
-                doPostponedRemoves(filesForToken);
-                if(filesForToken.size() == 0) {
-                    tokenFilesMap.remove(tokenToFind);
-                    return new LinkedList<>();
-                } else {
-                    return getPaths(filesForToken);
+        List<String> paths = cachedPaths(tokenToFind);
+        if(paths != null) {
+            return paths;
+        }
+        doPostponedRemoves(tokenToFind);
+        return searchUncached(tokenToFind);
+    }
+
+    /**
+     * Searches files in index containing specified token without performing postponed removes.
+     * Removed files are skipped. Method doesn't modify index, so it can be called by multiple
+     * threads at a time if there are no concurrent modifications
+     *
+     * @param tokenToFind token to find in index
+     * @return            unmodifiable list of files containing specified token
+     */
+    List<String> searchWithoutRemoves(Token tokenToFind) {
+        List<String> paths = cachedPaths(tokenToFind);
+        return paths != null ? paths : searchUncached(tokenToFind);
+    }
+
+    /**
+     * Collects paths of token's files and puts them into result cache
+     */
+    private List<String> searchUncached(Token tokenToFind) {
+        PostingList filesForToken = postingList(tokenToFind);
+        if(filesForToken == null) {
+            return Collections.emptyList();
+        }
+        List<String> paths = Collections.unmodifiableList(getPaths(filesForToken));
+        if(resultCache != null) {
+            resultCache.put(tokenToFind.getValue(), resultStamp(termId(tokenToFind)), paths);
+        }
+        return paths;
+    }
+
+    /**
+     * Searches files in directory containing specified token. If directory has no more files than
+     * token's postings, ids of files in directory are taken from path tree sorted and the postings
+     * are skipped over, so postings outside the directory are mostly not decoded. Otherwise postings
+     * are iterated and every file is checked to lie in directory by walking up its path, so directory's
+     * files are not enumerated. Paths of files outside the directory are never built. Postponed removes
+     * are not performed
+     *
+     * @param tokenToFind token to find in index
+     * @param scopePath   directory to search in
+     * @return            list of files in directory and its subdirectories containing token
+     */
+    @Override
+    public List<String> search(Token tokenToFind, String scopePath) {
+        List<String> paths = new ArrayList<>();
+        PostingList filesForToken = postingList(tokenToFind);
+        if(filesForToken == null) {
+            return paths;
+        }
+        PathTree.Directory directory = pathTree.directory(scopePath);
+        if(directory == null) {
+            return paths;
+        }
+        PostingList.IdIterator it = filesForToken.iterator();
+        if(directory.filesNumber() <= filesForToken.size()) {
+            List<PathTree.Entry> scope = pathTree.filesInDirectoryById(scopePath);
+            long fileId = -1;
+            for(PathTree.Entry entry : scope) {
+                if(fileId < entry.getFileId()) {
+                    fileId = it.advance(entry.getFileId());
+                    if(fileId < 0) {
+                        break;
+                    }
+                }
+                if(fileId == entry.getFileId()) {
+                    paths.add(entry.getFilePath());
+                }
+            }
+        } else {
+            while (it.hasNext()) {
+                // removed files which postings are all in runs are not in the table
+                PathTree.Entry entry = idFileMap.get(it.next());
+                if(entry != null && entry.isIn(directory)) {
+                    paths.add(entry.getFilePath());
+                }
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Opens cursor over files containing specified token. Postponed removes are not performed, so method
+     * can be called by multiple threads at a time if there are no concurrent modifications. Pages can be
+     * read from cursor only while index is not modified
+     *
+     * @param tokenToFind token to find in index
+     * @param resumeToken resume token of previous cursor or {@link SearchCursor#START}
+     * @return            cursor over files containing token
+     */
+    @Override
+    public SearchCursor searchCursor(Token tokenToFind, long resumeToken) {
+        return searchCursor(tokenToFind, resumeToken, pathResolver);
+    }
+
+    SearchCursor searchCursor(Token tokenToFind, long resumeToken, SearchCursor.PathResolver resolver) {
+        if(tokenToFind == null) {
+            return SearchCursor.empty(resumeToken);
+        }
+        return SearchCursor.open(postingList(tokenToFind), resumeToken, resolver);
+    }
+
+    /**
+     * Counts files containing token without looking up their paths. Removed but not purged files are
+     * subtracted by intersecting token's postings with the list of removed files, so method takes
+     * constant time if there are no such files
+     *
+     * @param tokenToFind token to find in index
+     * @return            number of files containing token
+     */
+    @Override
+    public int count(Token tokenToFind) {
+        PostingList filesForToken = postingList(tokenToFind);
+        if(filesForToken == null) {
+            return 0;
+        }
+        return filesForToken.size() - removedFilesNumber(filesForToken);
+    }
+
+    /**
+     * @param tokenToFind token to find in index
+     * @return            {@code true} if some file contains token
+     */
+    @Override
+    public boolean exists(Token tokenToFind) {
+        PostingList filesForToken = postingList(tokenToFind);
+        if(filesForToken == null) {
+            return false;
+        }
+        return filesForToken.size() > removedFiles.size() || count(tokenToFind) > 0;
+    }
+
+    /**
+     * Searches files matching query. Removed files are skipped, postponed removes are not performed,
+     * so method can be called by multiple threads at a time if there are no concurrent modifications
+     *
+     * @param query query to evaluate
+     * @return      list of matching files
+     */
+    @Override
+    public List<String> search(Query query) {
+        List<String> paths = new ArrayList<>();
+        PostingsIterator it = query.iterator(postingsSource);
+        while (it.hasNext()) {
+            FileEntry fileEntry = idFileMap.get(it.next());
+            if(!fileEntry.isRemoved()) {
+                paths.add(fileEntry.getFilePath());
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Searches k best files matching query, files are scored with BM25 by frequencies of query's
+     * positive terms. Only paths of returned files are looked up. Postponed removes are not performed,
+     * so method can be called by multiple threads at a time if there are no concurrent modifications
+     *
+     * @param query query to evaluate
+     * @param k     maximum number of files to return
+     * @return      list of at most k matching files, the most relevant first
+     */
+    @Override
+    public List<String> search(Query query, int k) {
+        List<String> paths = new ArrayList<>();
+        for(Bm25Ranker.ScoredFile scoredFile : Bm25Ranker.topFiles(query, postingsSource, fileStatistics, k)) {
+            paths.add(idFileMap.get(scoredFile.getFileId()).getFilePath());
+        }
+        return paths;
+    }
+
+    /**
+     * Searches files containing text matching pattern. Files containing all trigrams of pattern's
+     * literal parts are selected by trigram index, then their content is checked
+     *
+     * @param pattern pattern to find
+     * @return        list of files containing pattern's matches
+     */
+    @Override
+    public List<String> searchText(Pattern pattern) {
+        return matchingFiles(textCandidates(pattern), pattern);
+    }
+
+    /**
+     * Selects files that can contain pattern's matches. Method doesn't modify index, so it can be called
+     * by multiple threads at a time if there are no concurrent modifications
+     *
+     * @param pattern pattern to find
+     * @return        candidate files, all files in index if index doesn't store trigrams or if pattern
+     *                has no literal part of three characters
+     */
+    List<FileEntry> textCandidates(Pattern pattern) {
+        List<FileEntry> candidates = new ArrayList<>();
+        Query query = trigramIndex == null ? null : PatternTrigrams.toQuery(pattern);
+        if(query == null) {
+            for(FileEntry fileEntry : idFileMap.values()) {
+                if(!fileEntry.isRemoved()) {
+                    candidates.add(fileEntry);
                 }
             }
+            return candidates;
+        }
+        PostingsIterator it = query.iterator(trigramIndex.source());
+        while (it.hasNext()) {
+            // entry of removed file is dropped when its token postings are purged
+            FileEntry fileEntry = idFileMap.get(it.next());
+            if(fileEntry != null && !fileEntry.isRemoved()) {
+                candidates.add(fileEntry);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Checks content of candidate files, files are read through memory mapping
+     *
+     * @param candidates files to check
+     * @param pattern    pattern to find
+     * @return           paths of files containing pattern's matches
+     */
+    static List<String> matchingFiles(List<FileEntry> candidates, Pattern pattern) {
+        List<String> paths = new ArrayList<>();
+        for(FileEntry fileEntry : candidates) {
+            Charset charset = fileEntry.getCharset() == null ? Charset.defaultCharset() : fileEntry.getCharset();
+            if(TrigramIndex.contentMatches(fileEntry.getFilePath(), charset, pattern)) {
+                paths.add(fileEntry.getFilePath());
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Purges trigram postings of removed files and forgets removed files which postings are all purged.
+     * Should be called after sweep over all tokens. Purge of trigrams takes time linear in trigram index
+     * size, so it stops at deadline and is resumed by the next call
+     *
+     * @param deadline value of System.nanoTime() to stop at
+     * @return         {@code true} if purge has finished, {@code false} if it should be resumed
+     */
+    boolean doPostponedGlobalRemoves(long deadline) {
+        if(trigramIndex != null) {
+            if(trigramsPurge == null) {
+                trigramsPurge = trigramIndex.purgeIterator();
+            }
+            boolean finished = trigramIndex.purge(trigramsPurge, new PostingList.IdPredicate() {
+                @Override
+                public boolean test(long fileId) {
+                    FileEntry fileEntry = idFileMap.get(fileId);
+                    return fileEntry == null || fileEntry.isRemoved();
+                }
+            }, deadline);
+            if(!finished) {
+                return false;
+            }
+            trigramsPurge = null;
+        }
+        removedFiles.removeIf(new PostingList.IdPredicate() {
+            @Override
+            public boolean test(long fileId) {
+                return !idFileMap.containsKey(fileId);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * @param token token to check
+     * @return      number of files in token's posting list including removed but not purged ones
+     */
+    int postingsNumber(Token token) {
+        int termId = termId(token);
+        if(termId < 0) {
+            return 0;
+        }
+        int number = termFiles[termId] == null ? 0 : termFiles[termId].size();
+        if(spilledTerms.get(termId)) {
+            // postings of files removed after spilling are counted too, runs are not decoded
+            String term = terms.term(termId);
+            for(Segment run : runs) {
+                int index = run.mayContain(term) ? run.termIndex(term) : -1;
+                number += index < 0 ? 0 : run.postingsNumberAt(index);
+            }
         }
-        return new ArrayList<>();
+        return number;
+    }
+
+    /**
+     * @param token token to check
+     * @return      share of removed but not purged files among token's postings in memory. Postings
+     *              spilled to runs are not counted, they can't be purged and are dropped when runs are merged
+     */
+    double staleRatio(Token token) {
+        int termId = termId(token);
+        PostingList filesForToken = termId < 0 ? null : termFiles[termId];
+        return filesForToken == null ? 0 : (double) removedFilesNumber(filesForToken) / filesForToken.size();
+    }
+
+    /**
+     * Performs postponed removes for specified token's posting list only
+     *
+     * @param token token which posting list is purged
+     * @return      number of purged postings
+     */
+    int doPostponedRemoves(Token token) {
+        int termId = termId(token);
+        if(termId >= 0 && termFiles[termId] != null) {
+            PostingList filesForToken = termFiles[termId];
+            int purged = doPostponedRemoves(termId, filesForToken);
+            if(filesForToken.isEmpty()) {
+                removeTerm(termId);
+            }
+            return purged;
+        }
+        return 0;
+    }
+
+    /**
+     * @return tokens in index. Returned collection is backed by index and its iterators never throw
+     *         ConcurrentModificationException
+     */
+    Collection<Token> tokens() {
+        return sortedTerms.values();
+    }
+
+    /**
+     * @return number of postings in index including removed but not purged ones
+     */
+    long postingsNumber() {
+        return postingsNumber;
+    }
+
+    /**
+     * @return number of postings of removed files which are not purged yet
+     */
+    long removedPostingsNumber() {
+        return removedPostingsNumber;
+    }
+
+    /**
+     * @return number of bytes taken by postings in off-heap arena, 0 if postings are kept on heap
+     */
+    long offHeapBytes() {
+        return arena == null ? 0 : arena.usedBytes();
+    }
+
+    /**
+     * Postings spilled to runs are counted only in total postings number, per-root postings numbers
+     * are numbers of postings in memory
+     */
+    @Override
+    public IndexStats getStats(Collection<String> roots) {
+        long spilledPostings = 0;
+        long diskBytes = 0;
+        for(Segment run : runs) {
+            spilledPostings += run.postingsNumber();
+            diskBytes += run.size();
+        }
+        // arena lists keep only their addresses on heap
+        long postingsBytes = arena == null ? estimatedPostingsBytes()
+                                           : (long) memoryListsNumber * IndexStats.ESTIMATED_LIST_BYTES;
+        long termsBytes = terms.bytes() + (long) termFiles.length * 8
+                          + (long) liveTermsNumber * IndexStats.ESTIMATED_TERM_BYTES;
+        Map<String, IndexStats.RootStats> rootsStats = new LinkedHashMap<>();
+        for(String root : roots) {
+            rootsStats.put(root, pathTree.stats(root));
+        }
+        return new IndexStats(liveTermsNumber, postingsNumber + spilledPostings, pathTree.size(),
+                              idFileMap.size() - pathTree.size(), postingsBytes,
+                              (long) idFileMap.size() * IndexStats.ESTIMATED_FILE_BYTES, termsBytes,
+                              offHeapBytes(), diskBytes, IndexStats.filterFalsePositiveRate(runs), rootsStats);
+    }
+
+    /**
+     * @return share of removed but not purged postings among all postings in index
+     */
+    double tombstoneRatio() {
+        return postingsNumber == 0 ? 0 : (double) removedPostingsNumber / postingsNumber;
+    }
+
+    /**
+     * Counts removed files in token's posting list, takes time linear in list size
+     *
+     * @param token token to check
+     * @return      share of removed but not purged postings in token's posting list
+     */
+    double tombstoneRatio(Token token) {
+        PostingList filesForToken = postingList(token);
+        if(filesForToken == null || filesForToken.isEmpty()) {
+            return 0;
+        }
+        int removed = 0;
+        PostingList.IdIterator it = filesForToken.iterator();
+        while (it.hasNext()) {
+            if(idFileMap.get(it.next()).isRemoved()) {
+                removed += 1;
+            }
+        }
+        return (double) removed / filesForToken.size();
     }
 
     /**
@@ -68,14 +703,28 @@ public class HashFileIndex implements FileIndex {
     public boolean addFile(EncodedFile encodedFile) {
         if(new File(encodedFile.getFilePath()).canRead()) {
             if (!containsFile(encodedFile.getFilePath())) {
-                List<Token> tokens = readTokens(encodedFile);
-                if (tokens == null) {
+                BasicFileAttributes attributes = readAttributes(encodedFile.getFilePath());
+                Set<String> trigrams = trigramIndex == null ? null : new HashSet<String>();
+                int[] termIds = attributes == null ? null : readTermIds(encodedFile, trigrams);
+                if (termIds == null) {
                     return false;
                 }
                 lastAddedFileId.incrementAndGet();
-                int putTokens = putTokensToMap(tokens);
-                idFileMap.put(lastAddedFileId.get(), new FileEntry(encodedFile.getFilePath(), putTokens));
-                fileIdMap.put(encodedFile.getFilePath(), lastAddedFileId.get());
+                int putTokens = putTermsToMap(termIds);
+                if(forwardIndex != null) {
+                    forwardIndex.put(lastAddedFileId.get(), termIds);
+                }
+                if(trigrams != null) {
+                    trigramIndex.add(lastAddedFileId.get(), trigrams);
+                }
+                int length = nonEmptyTermsNumber(termIds);
+                liveTokensNumber += length;
+                idFileMap.put(lastAddedFileId.get(), pathTree.add(encodedFile.getFilePath(), lastAddedFileId.get(),
+                        putTokens, attributes.size(), attributes.lastModifiedTime().toMillis(),
+                        encodedFile.getCharset(), length));
+                if(memoryBudget > 0 && estimatedPostingsBytes() > memoryBudget) {
+                    spill();
+                }
             }
             return true;
         }
@@ -95,37 +744,47 @@ public class HashFileIndex implements FileIndex {
     }
 
     /**
-     * Lazy removes file from index. Real remove will be performed within search method calls or if method
-     * forceRemoves called
+     * Lazy removes file from index. Real remove will be performed within search method calls, by
+     * TombstoneCompactor or if method forceRemoves called. If index keeps forward index, file's
+     * postings are deleted right away
      *
      * @param filePath file to remove from index
      */
     @Override
     public void removeFile(String filePath) {
-        if(containsFile(filePath)) {
-            Long fileId = fileIdMap.get(filePath);
-            idFileMap.get(fileId).setRemoved();
-            fileIdMap.remove(filePath);
+        PathTree.Entry entry = pathTree.remove(filePath);
+        if(entry != null) {
+            remove(entry.getFileId());
         }
     }
 
     /**
-     * Performs all postponed removes
+     * Performs all postponed removes. Terms left in dictionary without postings by files which
+     * couldn't be read are removed too
      */
     @Override
     public void forceRemoves() {
-        Iterator<Map.Entry<Token, ArrayList<Long>>> tokenEntryIt = tokenFilesMap.entrySet().iterator();
-        while (tokenEntryIt.hasNext()) {
-            Map.Entry<Token, ArrayList<Long>> tokenEntry = tokenEntryIt.next();
-            doPostponedRemoves(tokenEntry.getValue());
-            if(tokenEntry.getValue().size() == 0) {
-                tokenEntryIt.remove();
+        for(int termId = 0; termId < terms.idsNumber(); termId++) {
+            PostingList filesForTerm = termFiles[termId];
+            if(filesForTerm != null) {
+                doPostponedRemoves(termId, filesForTerm);
+                if(filesForTerm.isEmpty()) {
+                    removeTerm(termId);
+                }
+            } else if(terms.contains(termId) && !spilledTerms.get(termId)) {
+                terms.remove(termId);
             }
         }
+        // purge started by compactor may have passed some trigrams already
+        trigramsPurge = null;
+        doPostponedGlobalRemoves(Long.MAX_VALUE);
     }
 
     /**
      * Updates file in index by marking old version as 'removed' and adding new version from disk.
+     * If index keeps forward index and doesn't store positions or trigrams, file keeps its id and only
+     * postings of terms which appeared in file or disappeared from it are changed, old version stays
+     * in index if new one can't be read.
      *
      * @param encodedFile file's path and charset containing descriptor
      * @return         {@code true} if file has been updated or no such file in index.
@@ -135,6 +794,12 @@ public class HashFileIndex implements FileIndex {
     @Override
     public boolean handleFileModification(EncodedFile encodedFile) throws InconsistentIndexException {
         if(new File(encodedFile.getFilePath()).canRead()) {
+            // positions of kept terms shift, old trigrams are unknown and postings in runs can't be
+            // changed, so such files are re-added
+            if(forwardIndex != null && termPositions == null && trigramIndex == null && runs.isEmpty()) {
+                PathTree.Entry entry = pathTree.get(encodedFile.getFilePath());
+                return entry == null || updateFile(entry, encodedFile);
+            }
             if(containsFile(encodedFile.getFilePath())) {
                 removeFile(encodedFile.getFilePath());
                 if(!addFile(encodedFile)) {
@@ -154,83 +819,852 @@ public class HashFileIndex implements FileIndex {
      */
     @Override
     public boolean containsFile(String filePath) {
-        return fileIdMap.containsKey(filePath);
+        return pathTree.get(filePath) != null;
+    }
+
+    @Override
+    public boolean isFileUpToDate(String filePath, long size, long lastModified) {
+        PathTree.Entry entry = pathTree.get(filePath);
+        return entry != null && entry.isUpToDate(size, lastModified);
     }
 
+    @Override
+    public List<String> getFilesInDirectory(String dirPath) {
+        List<String> files = new ArrayList<>();
+        for(PathTree.Entry entry : pathTree.filesInDirectory(dirPath)) {
+            files.add(entry.getFilePath());
+        }
+        return files;
+    }
+
+    /**
+     * Lazy removes all files in directory and its subdirectories, takes time proportional to the number
+     * of removed files. If index keeps forward index, files' postings are deleted right away
+     *
+     * @param dirPath directory to remove from index
+     */
     @Override
     public void removeDirectory(String dirPath) {
-        Path path = Paths.get(dirPath);
-        Iterator<Map.Entry<String, Long>> it = fileIdMap.entrySet().iterator();
+        for(PathTree.Entry entry : pathTree.removeDirectory(dirPath)) {
+            remove(entry.getFileId());
+        }
+    }
+
+    /**
+     * Saves index to snapshot file. Postponed removes are performed before saving. File is written
+     * to temporary file first and then atomically moved to the target path.
+     *
+     * @param snapshotFile file to save index to
+     * @throws IOException if IO errors occurred while writing
+     */
+    public void save(Path snapshotFile) throws IOException {
+        forceRemoves();
+        Path tmp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try (FileOutputStream fileStream = new FileOutputStream(tmp.toFile())) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileStream, 1 << 16));
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(lastAddedFileId.get());
+            out.writeBoolean(isPositional());
+            out.writeBoolean(hasTrigrams());
+            out.writeBoolean(hasForwardIndex());
+            // tokens counters don't include postings in runs, they are counted separately
+            Map<Long, Integer> spilledPostings = new HashMap<>();
+            int termsNumber = runs.isEmpty() ? liveTermsNumber : countSpilledPostings(spilledPostings);
+            List<Map.Entry<Long, PathTree.Entry>> liveFiles = new ArrayList<>();
+            for(Map.Entry<Long, PathTree.Entry> entry : idFileMap.entrySet()) {
+                if(!entry.getValue().isRemoved()) {
+                    liveFiles.add(entry);
+                }
+            }
+            out.writeInt(liveFiles.size());
+            for(Map.Entry<Long, PathTree.Entry> entry : liveFiles) {
+                FileEntry fileEntry = entry.getValue();
+                out.writeLong(entry.getKey());
+                writeString(out, fileEntry.getFilePath());
+                out.writeLong(fileEntry.getSize());
+                out.writeLong(fileEntry.getLastModified());
+                writeString(out, fileEntry.getCharset() == null ? "" : fileEntry.getCharset().name());
+                Integer spilled = spilledPostings.get(entry.getKey());
+                out.writeInt(fileEntry.getTokensCounter() + (spilled == null ? 0 : spilled));
+                out.writeInt(fileEntry.getLength());
+            }
+            out.writeInt(termsNumber);
+            for(int termId = 0; termId < terms.idsNumber(); termId++) {
+                PostingList postingList = spilledTerms.get(termId) ? mergedPostings(termId) : termFiles[termId];
+                if(postingList == null) {
+                    continue;
+                }
+                writeString(out, terms.term(termId));
+                out.writeInt(postingList.size());
+                out.writeLong(postingList.last());
+                out.writeInt(postingList.encodedLength());
+                postingList.writeTo(out);
+                out.writeBoolean(postingList.hasFrequencies());
+                if(postingList.hasFrequencies()) {
+                    postingList.writeFrequenciesTo(out);
+                }
+                if(isPositional()) {
+                    PositionList positionList = termPositions[termId];
+                    out.writeInt(positionList.size());
+                    out.writeLong(positionList.last());
+                    out.writeInt(positionList.encodedLength());
+                    positionList.writeTo(out);
+                }
+            }
+            if(hasTrigrams()) {
+                trigramIndex.writeTo(out);
+            }
+            out.flush();
+            fileStream.getFD().sync();
+        }
+        Files.move(tmp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads index from snapshot file made by {@link #save(Path)}. Tokens are restored as Word objects.
+     *
+     * @param tokenizer    tokenizer used to read files added after loading
+     * @param snapshotFile snapshot to load
+     * @return             loaded index
+     * @throws IOException if IO errors occurred or file is not a snapshot
+     */
+    public static HashFileIndex load(Tokenizer tokenizer, Path snapshotFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                                  new FileInputStream(snapshotFile.toFile()), 1 << 16))) {
+            if(in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("not an index snapshot: " + snapshotFile);
+            }
+            int version = in.readInt();
+            if(version != SNAPSHOT_VERSION) {
+                throw new IOException("unsupported snapshot version " + version + ": " + snapshotFile);
+            }
+            long lastAddedFileId = in.readLong();
+            Options options = new Options().positional(in.readBoolean())
+                                           .trigrams(in.readBoolean())
+                                           .forwardIndex(in.readBoolean());
+            HashFileIndex index = new HashFileIndex(tokenizer, options);
+            index.lastAddedFileId.set(lastAddedFileId);
+            readSnapshotContent(in, index);
+            // forward index isn't stored, it is restored from postings
+            if(index.hasForwardIndex()) {
+                index.forwardIndex.invert(index.termFiles, index.terms.idsNumber());
+            }
+            if(index.hasTrigrams()) {
+                index.trigramIndex.readFrom(in);
+            }
+            return index;
+        }
+    }
+
+    private static void readSnapshotContent(DataInputStream in, HashFileIndex index) throws IOException {
+        int filesNumber = in.readInt();
+        for(int i = 0; i < filesNumber; i++) {
+            long fileId = in.readLong();
+            String filePath = readString(in);
+            long size = in.readLong();
+            long lastModified = in.readLong();
+            String charsetName = readString(in);
+            int tokensCounter = in.readInt();
+            int length = in.readInt();
+            Charset charset = charsetName.isEmpty() || !Charset.isSupported(charsetName)
+                              ? null : Charset.forName(charsetName);
+            index.idFileMap.put(fileId, index.pathTree.add(filePath, fileId, tokensCounter, size, lastModified,
+                                                           charset, length));
+            index.liveTokensNumber += Math.max(length, 0);
+        }
+        int termsNumber = in.readInt();
+        for(int i = 0; i < termsNumber; i++) {
+            String term = readString(in);
+            int size = in.readInt();
+            long last = in.readLong();
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            byte[] frequencies = null;
+            if(in.readBoolean()) {
+                frequencies = new byte[size];
+                in.readFully(frequencies);
+            }
+            int termId = index.addTerm(term, new PostingList(data, size, last, frequencies));
+            index.postingsNumber += size;
+            if(index.isPositional()) {
+                int positionsSize = in.readInt();
+                long positionsLast = in.readLong();
+                byte[] positionsData = new byte[in.readInt()];
+                in.readFully(positionsData);
+                index.termPositions[termId] = new PositionList(positionsData, positionsSize, positionsLast);
+            }
+        }
+    }
+
+    /**
+     * Counts postings of live files in runs
+     *
+     * @param filesPostings map to put number of file's postings in runs to
+     * @return              number of terms in any live file
+     */
+    private int countSpilledPostings(Map<Long, Integer> filesPostings) {
+        int termsNumber = 0;
+        for(int termId = 0; termId < terms.idsNumber(); termId++) {
+            PostingList postingList = spilledTerms.get(termId) ? mergedPostings(termId) : termFiles[termId];
+            if(postingList == null) {
+                continue;
+            }
+            termsNumber += 1;
+            if(!spilledTerms.get(termId)) {
+                continue;
+            }
+            PostingList.IdIterator memoryIt = termFiles[termId] == null ? null : termFiles[termId].iterator();
+            long memoryId = -1;
+            PostingList.IdIterator it = postingList.iterator();
+            while (it.hasNext()) {
+                long fileId = it.next();
+                if(memoryIt != null && memoryId < fileId) {
+                    memoryId = memoryIt.advance(fileId);
+                }
+                if(memoryId != fileId) {
+                    Integer number = filesPostings.get(fileId);
+                    filesPostings.put(fileId, number == null ? 1 : number + 1);
+                }
+            }
+        }
+        return termsNumber;
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void remove(long fileId) {
+        if(forwardIndex != null) {
+            removeNow(fileId);
+        } else {
+            markRemoved(fileId);
+        }
+    }
+
+    /**
+     * Deletes file's postings found by forward index, only postings of file's terms are touched
+     */
+    private void removeNow(long fileId) {
+        FileEntry fileEntry = idFileMap.remove(fileId);
+        fileEntry.setRemoved();
+        liveTokensNumber -= Math.max(fileEntry.getLength(), 0);
+        for(int termId : forwardIndex.remove(fileId)) {
+            removePosting(termId, fileId);
+        }
+    }
+
+    private void removePosting(int termId, long fileId) {
+        // result of term changes even if posting is in run
+        touchTerm(termId);
+        PostingList filesForTerm = termFiles[termId];
+        if(filesForTerm == null || !filesForTerm.remove(fileId)) {
+            return;
+        }
+        postingsNumber -= 1;
+        if(termPositions != null && termPositions[termId] != null) {
+            termPositions[termId].remove(fileId);
+        }
+        if(filesForTerm.isEmpty()) {
+            removeTerm(termId);
+        }
+    }
+
+    /**
+     * Replaces file's terms keeping its id. Sorted old terms from forward index are merged with sorted
+     * new ones: postings are added for new terms, removed for disappeared terms and only frequencies
+     * are updated for kept terms
+     *
+     * @return {@code false} if file can't be read, index is not changed then
+     */
+    private boolean updateFile(PathTree.Entry entry, EncodedFile encodedFile) {
+        BasicFileAttributes attributes = readAttributes(encodedFile.getFilePath());
+        int[] termIds = attributes == null ? null : readTermIds(encodedFile, null);
+        if(termIds == null) {
+            return false;
+        }
+        ensureTermsCapacity();
+        long fileId = entry.getFileId();
+        int[] oldTerms = forwardIndex.get(fileId);
+        int[] newTerms = Arrays.copyOf(termIds, termIds.length);
+        Arrays.sort(newTerms);
+        int oldIndex = 0;
+        int newIndex = 0;
+        int distinct = 0;
+        while (oldIndex < oldTerms.length || newIndex < newTerms.length) {
+            int newTerm = newIndex < newTerms.length ? newTerms[newIndex] : Integer.MAX_VALUE;
+            if(oldIndex < oldTerms.length && oldTerms[oldIndex] < newTerm) {
+                removePosting(oldTerms[oldIndex++], fileId);
+                continue;
+            }
+            int frequency = 0;
+            while (newIndex < newTerms.length && newTerms[newIndex] == newTerm) {
+                frequency += 1;
+                newIndex += 1;
+            }
+            if(oldIndex < oldTerms.length && oldTerms[oldIndex] == newTerm) {
+                termFiles[newTerm].setFrequency(fileId, frequency);
+                oldIndex += 1;
+            } else {
+                putInMap(newTerm, fileId, frequency);
+            }
+            distinct += 1;
+        }
+        forwardIndex.put(fileId, termIds);
+        int length = nonEmptyTermsNumber(termIds);
+        liveTokensNumber += length - Math.max(entry.getLength(), 0);
+        idFileMap.put(fileId, pathTree.add(encodedFile.getFilePath(), fileId, distinct, attributes.size(),
+                attributes.lastModifiedTime().toMillis(), encodedFile.getCharset(), length));
+        return true;
+    }
+
+    private void markRemoved(long fileId) {
+        removalGeneration = ++generation;
+        FileEntry fileEntry = idFileMap.get(fileId);
+        fileEntry.setRemoved();
+        if(fileEntry.getTokensCounter() <= 0) {
+            // all postings of file are in runs, they are skipped when runs are read
+            idFileMap.remove(fileId);
+            liveTokensNumber -= Math.max(fileEntry.getLength(), 0);
+            return;
+        }
+        removedFiles.add(fileId);
+        liveTokensNumber -= Math.max(fileEntry.getLength(), 0);
+        removedPostingsNumber += fileEntry.getTokensCounter();
+    }
+
+    /**
+     * @return id of token's term or -1 if there is no such term in index
+     */
+    private int termId(Token token) {
+        int termId = token == null ? -1 : terms.lookup(token.getValue());
+        // terms of file which reading has failed are in dictionary but have no postings slot
+        return termId < termFiles.length ? termId : -1;
+    }
+
+    /**
+     * @return postings of token, postings of spilled term are merged from runs into temporary list
+     */
+    private PostingList postingList(Token token) {
+        int termId = termId(token);
+        if(termId < 0) {
+            return null;
+        }
+        if(termAccess != null) {
+            // races between readers only make access time less precise
+            termAccess[termId] = ++accessClock;
+        }
+        return spilledTerms.get(termId) ? mergedPostings(termId) : termFiles[termId];
+    }
+
+    /**
+     * Merges postings of spilled term from all runs with its in-memory postings, postings of files
+     * removed after spilling are skipped
+     *
+     * @return merged list or null if term is in no file
+     */
+    private PostingList mergedPostings(int termId) {
+        PostingList merged = new PostingList(true);
+        String term = terms.term(termId);
+        for(Segment run : runs) {
+            PostingsIterator it = run.postings(term);
+            while (it != null && it.hasNext()) {
+                long fileId = it.next();
+                FileEntry fileEntry = idFileMap.get(fileId);
+                if(fileEntry != null && !fileEntry.isRemoved()) {
+                    merged.add(fileId, it.frequency());
+                }
+            }
+        }
+        PostingList memoryFiles = termFiles[termId];
+        if(memoryFiles != null) {
+            PostingList.IdIterator it = memoryFiles.iterator();
+            while (it.hasNext()) {
+                merged.add(it.next(), it.frequency());
+            }
+        }
+        return merged.isEmpty() ? null : merged;
+    }
+
+    /**
+     * Writes postings of the least recently searched terms to new run till half of memory budget is
+     * used. Removed files are purged from spilled lists only, so runs keep only postings of live files.
+     * If run can't be written postings are kept in memory and spilling is turned off
+     *
+     * @throws IllegalStateException if run can't be written or runs can't be merged
+     */
+    private void spill() {
+        List<Integer> candidates = new ArrayList<>();
+        for(int termId = 0; termId < terms.idsNumber(); termId++) {
+            if(termFiles[termId] != null) {
+                candidates.add(termId);
+            }
+        }
+        // the coldest first, bigger lists first among equally cold
+        Collections.sort(candidates, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                int byAccess = Integer.compare(termAccess[o1], termAccess[o2]);
+                return byAccess != 0 ? byAccess : Integer.compare(termFiles[o2].size(), termFiles[o1].size());
+            }
+        });
+        SortedMap<String, PostingList> spilled = new TreeMap<>();
+        long spilledBytes = 0;
+        for(int i = 0; i < candidates.size() && estimatedPostingsBytes() - spilledBytes > memoryBudget / 2; i++) {
+            int termId = candidates.get(i);
+            PostingList postingList = termFiles[termId];
+            doPostponedRemoves(termId, postingList);
+            if(postingList.isEmpty()) {
+                removeTerm(termId);
+                continue;
+            }
+            spilled.put(terms.term(termId), postingList);
+            spilledBytes += (long) postingList.size() * IndexStats.ESTIMATED_POSTING_BYTES
+                            + IndexStats.ESTIMATED_LIST_BYTES;
+        }
+        if(spilled.isEmpty()) {
+            return;
+        }
+        try {
+            Path runFile = newRunFile();
+            SegmentWriter.write(runFile, new TreeMap<Long, FileEntry>(), spilled, Collections.<Long>emptyList());
+            runs.add(Segment.open(runFile));
+        } catch (IOException e) {
+            throw spillingFailed(e);
+        }
+        for(Map.Entry<String, PostingList> entry : spilled.entrySet()) {
+            int termId = terms.lookup(entry.getKey());
+            PostingList.IdIterator it = entry.getValue().iterator();
+            while (it.hasNext()) {
+                pathTree.decreaseTokensCounter(idFileMap.get(it.next()));
+            }
+            postingsNumber -= entry.getValue().size();
+            entry.getValue().release();
+            termFiles[termId] = null;
+            memoryListsNumber -= 1;
+            spilledTerms.set(termId);
+        }
+        if(runs.size() > MAX_RUNS) {
+            mergeRuns();
+        }
+    }
+
+    /**
+     * Merges all runs into one dropping postings of removed files. Runs are walked term by term with
+     * one cursor per run and every merged term is written right away, so only postings of one term are
+     * kept in memory. Spilled terms left without postings in runs are not spilled anymore, they are
+     * removed from dictionary if they have no postings in memory either. If merged run can't be written
+     * runs are kept and spilling is turned off
+     *
+     * @throws IllegalStateException if merged run can't be written
+     */
+    private void mergeRuns() {
+        BitSet keptTerms = new BitSet();
+        Segment merged;
+        try {
+            Path runFile = newRunFile();
+            int maxTermsNumber = 0;
+            for(Segment run : runs) {
+                maxTermsNumber += run.termsNumber();
+            }
+            try (SegmentWriter writer = new SegmentWriter(runFile, maxTermsNumber)) {
+                MergedSegmentTerms runTerms = new MergedSegmentTerms(runs);
+                while (runTerms.next()) {
+                    PostingList filesForTerm = new PostingList(true);
+                    PostingsIterator it = runTerms.postings();
+                    while (it.hasNext()) {
+                        long fileId = it.next();
+                        FileEntry fileEntry = idFileMap.get(fileId);
+                        if(fileEntry != null && !fileEntry.isRemoved()) {
+                            filesForTerm.add(fileId, it.frequency());
+                        }
+                    }
+                    int termId = terms.lookup(runTerms.term());
+                    if(!filesForTerm.isEmpty() && termId >= 0) {
+                        writer.addTerm(runTerms.term(), filesForTerm);
+                        keptTerms.set(termId);
+                    }
+                }
+                writer.finish();
+            }
+            merged = Segment.open(runFile);
+        } catch (IOException e) {
+            throw spillingFailed(e);
+        }
+        undeletedRuns.addAll(runs);
+        runs.clear();
+        if(keptTerms.isEmpty()) {
+            undeletedRuns.add(merged);
+        } else {
+            runs.add(merged);
+        }
+        deleteMergedRuns();
+        for(int termId = spilledTerms.nextSetBit(0); termId >= 0; termId = spilledTerms.nextSetBit(termId + 1)) {
+            if(!keptTerms.get(termId)) {
+                spilledTerms.clear(termId);
+                if(termFiles[termId] == null) {
+                    forgetTerm(termId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes files of merged runs. File which can't be deleted now (mapped file can't be deleted on
+     * some platforms) is retried on the next merge and is deleted on JVM exit at the latest
+     */
+    private void deleteMergedRuns() {
+        Iterator<Segment> it = undeletedRuns.iterator();
         while (it.hasNext()) {
-            Map.Entry<String, Long> entry = it.next();
-            Path filePath = Paths.get(entry.getKey());
-            Long id = entry.getValue();
-            if(!PathUtils.pathsAreEqual(path, filePath) && PathUtils.firstPathIsParent(path, filePath)) {
-                idFileMap.get(id).setRemoved();
+            try {
+                Files.deleteIfExists(it.next().getFile());
                 it.remove();
+            } catch (IOException e) {
+                // kept in the list
             }
         }
     }
 
-    private void doPostponedRemoves(ArrayList<Long> tokenFiles) {
-        Iterator<Long> filesIdIt = tokenFiles.iterator();
-        while (filesIdIt.hasNext()) {
-            Long fileId = filesIdIt.next();
-            FileEntry fileEntry = idFileMap.get(fileId);
-            if(fileEntry.isRemoved()) {
-                doPostponedRemove(filesIdIt, fileId, fileEntry);
+    /**
+     * Creates run file with unique name in spill directory
+     */
+    private Path newRunFile() throws IOException {
+        Path runFile = Files.createTempFile(spillDirectory, "run-", ".seg");
+        runFile.toFile().deleteOnExit();
+        return runFile;
+    }
+
+    /**
+     * Turns spilling off, so following adds keep postings in memory instead of failing again
+     *
+     * @return exception reporting the failure
+     */
+    private IllegalStateException spillingFailed(IOException e) {
+        memoryBudget = 0;
+        return new IllegalStateException("can't write postings to " + spillDirectory
+                                         + ", spilling is turned off till memory budget is set again", e);
+    }
+
+    /**
+     * Adds term to dictionary with specified postings, term must not be in any file yet
+     *
+     * @return term's id
+     */
+    private int addTerm(String term, PostingList postingList) {
+        int termId = terms.termId(term);
+        ensureTermsCapacity();
+        termFiles[termId] = postingList;
+        memoryListsNumber += 1;
+        liveTermsNumber += 1;
+        sortedTerms.put(term, new Word(term));
+        return termId;
+    }
+
+    private void ensureTermsCapacity() {
+        if(terms.idsNumber() > termFiles.length) {
+            int capacity = Math.max(termFiles.length * 2, terms.idsNumber());
+            termFiles = Arrays.copyOf(termFiles, capacity);
+            if(termPositions != null) {
+                termPositions = Arrays.copyOf(termPositions, capacity);
+            }
+            if(termAccess != null) {
+                termAccess = Arrays.copyOf(termAccess, capacity);
+            }
+            if(termGenerations != null) {
+                termGenerations = Arrays.copyOf(termGenerations, capacity);
             }
         }
     }
 
-    private void doPostponedRemove(Iterator<Long> filesIdIt, Long fileId, FileEntry fileEntry) {
-        filesIdIt.remove();
-        fileEntry.decreaseTokensCounter();
-        if(fileEntry.getTokensCounter() <= 0) {
+    private void touchTerm(int termId) {
+        if(termGenerations != null) {
+            termGenerations[termId] = ++generation;
+        }
+    }
+
+    /**
+     * @return generation of term's search result, it changes with every change of the result
+     */
+    private long resultStamp(int termId) {
+        return Math.max(termGenerations[termId], removalGeneration);
+    }
+
+    /**
+     * @return unmodifiable cached search result of token or null if it's not cached or is stale
+     */
+    private List<String> cachedPaths(Token token) {
+        if(resultCache == null) {
+            return null;
+        }
+        int termId = termId(token);
+        return termId < 0 ? null : resultCache.get(token.getValue(), resultStamp(termId));
+    }
+
+    /**
+     * Drops postings of term which is not in any file and removes term from dictionary, so its id can
+     * be reused. Spilled term loses only its in-memory postings and keeps its id
+     */
+    private void removeTerm(int termId) {
+        termFiles[termId].release();
+        termFiles[termId] = null;
+        memoryListsNumber -= 1;
+        if(!spilledTerms.get(termId)) {
+            forgetTerm(termId);
+        }
+    }
+
+    /**
+     * Removes term which has no postings in memory and in runs from dictionary
+     */
+    private void forgetTerm(int termId) {
+        liveTermsNumber -= 1;
+        sortedTerms.remove(terms.term(termId));
+        terms.remove(termId);
+        if(termPositions != null) {
+            termPositions[termId] = null;
+        }
+        // generation of reused id is bumped when the new term gets its first posting
+        if(termAccess != null) {
+            termAccess[termId] = 0;
+        }
+    }
+
+    private int doPostponedRemoves(int termId, PostingList tokenFiles) {
+        if(termPositions != null) {
+            PositionList positions = termPositions[termId];
+            if(positions != null) {
+                positions.removeIf(new PostingList.IdPredicate() {
+                    @Override
+                    public boolean test(long fileId) {
+                        return idFileMap.get(fileId).isRemoved();
+                    }
+                });
+            }
+        }
+        return tokenFiles.removeIf(new PostingList.IdPredicate() {
+            @Override
+            public boolean test(long fileId) {
+                FileEntry fileEntry = idFileMap.get(fileId);
+                if(fileEntry.isRemoved()) {
+                    doPostponedRemove(fileId, fileEntry);
+                    return true;
+                }
+                return false;
+            }
+        });
+    }
+
+    private void doPostponedRemove(long fileId, FileEntry fileEntry) {
+        postingsNumber -= 1;
+        removedPostingsNumber -= 1;
+        if(fileEntry.decreaseTokensCounter() <= 0) {
             idFileMap.remove(fileId);
         }
     }
 
-    private List<String> getPaths(ArrayList<Long> filesForToken) {
+    /**
+     * Intersects posting list with removed files skipping over the longer list
+     */
+    private int removedFilesNumber(PostingList filesForToken) {
+        if(removedFiles.isEmpty()) {
+            return 0;
+        }
+        int removed = 0;
+        PostingList.IdIterator removedIt = removedFiles.iterator();
+        PostingList.IdIterator filesIt = filesForToken.iterator();
+        long removedId = removedIt.next();
+        while (removedId >= 0) {
+            long fileId = filesIt.advance(removedId);
+            if(fileId < 0) {
+                break;
+            }
+            if(fileId == removedId) {
+                removed += 1;
+                removedId = removedIt.hasNext() ? removedIt.next() : -1;
+            } else {
+                removedId = removedIt.advance(fileId);
+            }
+        }
+        return removed;
+    }
+
+    private List<String> getPaths(PostingList filesForToken) {
         List<String> paths = new ArrayList<>(filesForToken.size());
-        for(Long id : filesForToken) {
-            paths.add(idFileMap.get(id).getFilePath());
+        PostingList.IdIterator it = filesForToken.iterator();
+        while (it.hasNext()) {
+            FileEntry fileEntry = idFileMap.get(it.next());
+            if(!fileEntry.isRemoved()) {
+                paths.add(fileEntry.getFilePath());
+            }
         }
         return paths;
     }
 
-    private List<Token> readTokens(EncodedFile encodedFile) {
-        List<Token> tokens;
-        try (Reader reader = new BufferedReader(new InputStreamReader(
-                             new FileInputStream(encodedFile.getFilePath()), encodedFile.getCharset()))) {
-            tokens = tokenizer.tokenize(reader);
+    private static BasicFileAttributes readAttributes(String filePath) {
+        try {
+            return Files.readAttributes(Paths.get(filePath), BasicFileAttributes.class);
         } catch (IOException e) {
             return null;
         }
-        return tokens;
     }
 
-    private int putTokensToMap(List<Token> tokens) {
-        int putTokens = 0;
-        for(Token tokenToAdd : tokens) {
-            if(putInMap(tokenToAdd, lastAddedFileId.get())) {
-                putTokens += 1;
+    /**
+     * @param trigrams set to collect trigrams of file's content to or null if trigrams are not needed
+     */
+    private int[] readTermIds(EncodedFile encodedFile, Set<String> trigrams) {
+        try (Reader reader = trigrams == null ? openReader(encodedFile)
+                             : new TrigramIndex.CollectingReader(openReader(encodedFile), trigrams)) {
+            if(tokenizer instanceof TermTokenizer) {
+                return ((TermTokenizer) tokenizer).tokenizeIds(reader, terms);
+            }
+            List<Token> tokens = tokenizer.tokenize(reader);
+            int[] termIds = new int[tokens.size()];
+            for(int i = 0; i < termIds.length; i++) {
+                termIds[i] = terms.termId(tokens.get(i).getValue());
+            }
+            return termIds;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static Reader openReader(EncodedFile encodedFile) throws FileNotFoundException {
+        return new BufferedReader(new InputStreamReader(new FileInputStream(encodedFile.getFilePath()),
+                                                        encodedFile.getCharset()));
+    }
+
+    private int putTermsToMap(int[] termIds) {
+        ensureTermsCapacity();
+        if(termPositions != null) {
+            return putPositionsToMap(termIds);
+        }
+        int putTerms = 0;
+        for(int termId : termIds) {
+            if(putInMap(termId, lastAddedFileId.get(), 1)) {
+                putTerms += 1;
+            }
+        }
+        return putTerms;
+    }
+
+    private int putPositionsToMap(int[] termIds) {
+        Map<Integer, Positions> termsPositions = new LinkedHashMap<>();
+        int position = 0;
+        for(int termId : termIds) {
+            Positions positions = termsPositions.get(termId);
+            if(positions == null) {
+                positions = new Positions();
+                termsPositions.put(termId, positions);
+            }
+            positions.add(position);
+            if(terms.length(termId) > 0) {
+                position += 1;
+            }
+        }
+        long fileId = lastAddedFileId.get();
+        for(Map.Entry<Integer, Positions> entry : termsPositions.entrySet()) {
+            int termId = entry.getKey();
+            putInMap(termId, fileId, entry.getValue().size);
+            if(termPositions[termId] == null) {
+                termPositions[termId] = new PositionList();
             }
+            termPositions[termId].add(fileId, entry.getValue().values, entry.getValue().size);
         }
-        return putTokens;
+        return termsPositions.size();
     }
 
-    private boolean putInMap(Token token, long newId) {
-        ArrayList<Long> filesId = tokenFilesMap.get(token);
+    private boolean putInMap(int termId, long newId, int frequency) {
+        touchTerm(termId);
+        PostingList filesId = termFiles[termId];
         if(filesId == null) {
-            filesId = new ArrayList<>();
-            filesId.add(newId);
-            tokenFilesMap.put(token, filesId);
-            return true;
-        } else if(filesId.get(filesId.size() - 1) != newId) {
-            filesId.add(newId);
+            filesId = arena == null ? new PostingList(true) : new ArenaPostingList(arena, true);
+            if(spilledTerms.get(termId)) {
+                termFiles[termId] = filesId;
+                memoryListsNumber += 1;
+            } else {
+                addTerm(terms.term(termId), filesId);
+            }
+        }
+        if(filesId.add(newId, frequency)) {
+            postingsNumber += 1;
             return true;
         }
         return false;
     }
-}
\ No newline at end of file
+
+    private int nonEmptyTermsNumber(int[] termIds) {
+        int number = 0;
+        for(int termId : termIds) {
+            if(terms.length(termId) > 0) {
+                number += 1;
+            }
+        }
+        return number;
+    }
+
+    /**
+     * Optional structures kept by index, all of them are disabled by default.
+     * Options are read when index is created, so one object can be used for several indexes
+     */
+    public static class Options {
+        private boolean positional = false;
+        private boolean trigrams = false;
+        private boolean forwardIndex = false;
+        private boolean offHeap = false;
+
+        /**
+         * @param positional {@code true} if positions of tokens should be stored
+         */
+        public Options positional(boolean positional) {
+            this.positional = positional;
+            return this;
+        }
+
+        /**
+         * @param trigrams {@code true} if trigrams of files' content should be indexed for text search
+         */
+        public Options trigrams(boolean trigrams) {
+            this.trigrams = trigrams;
+            return this;
+        }
+
+        /**
+         * @param forwardIndex {@code true} if terms of every file should be stored, so postings of removed
+         *                     files are deleted right away
+         */
+        public Options forwardIndex(boolean forwardIndex) {
+            this.forwardIndex = forwardIndex;
+            return this;
+        }
+
+        /**
+         * @param offHeap {@code true} if encoded postings and frequencies should be kept in off-heap
+         *                arena, the file table and the term dictionary stay on heap
+         */
+        public Options offHeap(boolean offHeap) {
+            this.offHeap = offHeap;
+            return this;
+        }
+    }
+
+    private static class Positions {
+        private int[] values = new int[2];
+        private int size = 0;
+
+        private void add(int position) {
+            if(size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = position;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package indexer.index;
+
+import indexer.index.segment.Segment;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Snapshot of index size. Counters are maintained by index incrementally, byte sizes of in-memory
+ * structures are estimated from them, so taking snapshot doesn't walk postings. Per-root numbers
+ * are taken from totals which index keeps for every directory, so files of roots are not walked
+ * either.
+ *
+ * @see indexer.index.FileIndex#getStats(Collection)
+ */
+public class IndexStats {
+    // rough heap cost of posting (delta and frequency), of posting list object with its arrays,
+    // of file's entries in files tables with its path and of term with its dictionary entries
+    static final int ESTIMATED_POSTING_BYTES = 3;
+    static final int ESTIMATED_LIST_BYTES = 96;
+    static final int ESTIMATED_FILE_BYTES = 200;
+    static final int ESTIMATED_TERM_BYTES = 100;
+
+    private final long termsNumber;
+    private final long postingsNumber;
+    private final int liveFilesNumber;
+    private final int removedFilesNumber;
+    private final long postingsBytes;
+    private final long filesBytes;
+    private final long termsBytes;
+    private final long offHeapBytes;
+    private final long diskBytes;
+    private final double filterFalsePositiveRate;
+    private final Map<String, RootStats> roots;
+
+    /**
+     * @param termsNumber             number of terms
+     * @param postingsNumber          number of postings including not purged postings of removed files
+     * @param liveFilesNumber         number of files in index
+     * @param removedFilesNumber      number of removed files which postings are not purged yet
+     * @param postingsBytes           estimated heap bytes taken by postings
+     * @param filesBytes              estimated heap bytes taken by files tables
+     * @param termsBytes              estimated heap bytes taken by terms dictionaries
+     * @param offHeapBytes            bytes of postings kept off heap
+     * @param diskBytes               bytes of index files on disk
+     * @param filterFalsePositiveRate share of lookups of absent terms passed by Bloom filters
+     * @param roots                   statistics of roots by their paths
+     */
+    public IndexStats(long termsNumber, long postingsNumber, int liveFilesNumber, int removedFilesNumber,
+                      long postingsBytes, long filesBytes, long termsBytes, long offHeapBytes, long diskBytes,
+                      double filterFalsePositiveRate, Map<String, RootStats> roots) {
+        this.termsNumber = termsNumber;
+        this.postingsNumber = postingsNumber;
+        this.liveFilesNumber = liveFilesNumber;
+        this.removedFilesNumber = removedFilesNumber;
+        this.postingsBytes = postingsBytes;
+        this.filesBytes = filesBytes;
+        this.termsBytes = termsBytes;
+        this.offHeapBytes = offHeapBytes;
+        this.diskBytes = diskBytes;
+        this.filterFalsePositiveRate = filterFalsePositiveRate;
+        this.roots = Collections.unmodifiableMap(roots);
+    }
+
+    public long getTermsNumber() {
+        return termsNumber;
+    }
+
+    public long getPostingsNumber() {
+        return postingsNumber;
+    }
+
+    public int getLiveFilesNumber() {
+        return liveFilesNumber;
+    }
+
+    public int getRemovedFilesNumber() {
+        return removedFilesNumber;
+    }
+
+    public long getPostingsBytes() {
+        return postingsBytes;
+    }
+
+    public long getFilesBytes() {
+        return filesBytes;
+    }
+
+    public long getTermsBytes() {
+        return termsBytes;
+    }
+
+    public long getOffHeapBytes() {
+        return offHeapBytes;
+    }
+
+    public long getDiskBytes() {
+        return diskBytes;
+    }
+
+    /**
+     * @return estimated heap bytes taken by index
+     */
+    public long getHeapBytes() {
+        return postingsBytes + filesBytes + termsBytes;
+    }
+
+    /**
+     * @return share of lookups of absent terms which Bloom filters have not rejected, 0 if index
+     *         has no filters or there were no such lookups
+     */
+    public double getFilterFalsePositiveRate() {
+        return filterFalsePositiveRate;
+    }
+
+    /**
+     * @return statistics of requested roots by their paths
+     */
+    public Map<String, RootStats> getRoots() {
+        return roots;
+    }
+
+    @Override
+    public String toString() {
+        return "terms: " + termsNumber + ", postings: " + postingsNumber + ", files: " + liveFilesNumber
+               + ", removed files: " + removedFilesNumber + ", heap bytes: " + getHeapBytes()
+               + ", off-heap bytes: " + offHeapBytes + ", disk bytes: " + diskBytes + ", roots: " + roots;
+    }
+
+    /**
+     * @param segments segments which filters were probed
+     * @return         share of probes of absent terms passed by filters of segments
+     */
+    static double filterFalsePositiveRate(Collection<Segment> segments) {
+        long rejects = 0;
+        long falsePositives = 0;
+        for(Segment segment : segments) {
+            rejects += segment.filterRejects();
+            falsePositives += segment.filterFalsePositives();
+        }
+        return rejects + falsePositives == 0 ? 0 : (double) falsePositives / (rejects + falsePositives);
+    }
+
+    /**
+     * Size of indexed files of root directory or of root file
+     */
+    public static class RootStats {
+        private int filesNumber = 0;
+        private long filesSize = 0;
+        private long postingsNumber = 0;
+
+        public int getFilesNumber() {
+            return filesNumber;
+        }
+
+        /**
+         * @return sum of sizes of files at the moment they were indexed
+         */
+        public long getFilesSize() {
+            return filesSize;
+        }
+
+        /**
+         * @return number of postings of root's files or -1 if index doesn't count postings of files
+         */
+        public long getPostingsNumber() {
+            return postingsNumber;
+        }
+
+        /**
+         * @param size           file's size
+         * @param postingsNumber number of file's postings or -1 if it's unknown
+         */
+        void addFile(long size, long postingsNumber) {
+            addFiles(1, Math.max(size, 0), postingsNumber);
+        }
+
+        /**
+         * @param filesNumber    number of files
+         * @param filesSize      sum of files' sizes
+         * @param postingsNumber number of files' postings or negative number if it's unknown
+         */
+        void addFiles(int filesNumber, long filesSize, long postingsNumber) {
+            this.filesNumber += filesNumber;
+            this.filesSize += filesSize;
+            this.postingsNumber = postingsNumber < 0 || this.postingsNumber < 0 ? -1
+                                                                                 : this.postingsNumber + postingsNumber;
+        }
+
+        @Override
+        public String toString() {
+            return "{files: " + filesNumber + ", size: " + filesSize + ", postings: " + postingsNumber + "}";
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package indexer.index;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Merges postings of the same token kept in several places (segments and in-memory postings) into one
+ * ascending sequence of ids. Unlike union of different tokens' postings, frequency of the merged id is
+ * preserved, so merged postings can be ranked. If several iterators contain the same id, it is returned
+ * once with frequency of the first iterator containing it.
+ */
+class MergedPostingsIterator implements PostingsIterator {
+    private final PriorityQueue<Head> heads;
+    private int frequency = 1;
+
+    /**
+     * @param iterators iterators over postings of the same token
+     */
+    MergedPostingsIterator(List<PostingsIterator> iterators) {
+        heads = new PriorityQueue<>(Math.max(iterators.size(), 1));
+        for(int i = 0; i < iterators.size(); i++) {
+            Head head = new Head(iterators.get(i), i);
+            if(head.fetch()) {
+                heads.add(head);
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !heads.isEmpty();
+    }
+
+    @Override
+    public long next() {
+        if(heads.isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        long id = heads.peek().id;
+        frequency = heads.peek().frequency;
+        while (!heads.isEmpty() && heads.peek().id == id) {
+            Head head = heads.poll();
+            if(head.fetch()) {
+                heads.add(head);
+            }
+        }
+        return id;
+    }
+
+    @Override
+    public long advance(long target) {
+        while (!heads.isEmpty() && heads.peek().id < target) {
+            Head head = heads.poll();
+            if(head.advance(target)) {
+                heads.add(head);
+            }
+        }
+        return heads.isEmpty() ? -1 : next();
+    }
+
+    @Override
+    public int frequency() {
+        return frequency;
+    }
+
+    private static class Head implements Comparable<Head> {
+        private final PostingsIterator iterator;
+        private final int order;
+        private long id;
+        private int frequency;
+
+        private Head(PostingsIterator iterator, int order) {
+            this.iterator = iterator;
+            this.order = order;
+        }
+
+        private boolean fetch() {
+            if(!iterator.hasNext()) {
+                return false;
+            }
+            id = iterator.next();
+            frequency = iterator.frequency();
+            return true;
+        }
+
+        private boolean advance(long target) {
+            id = iterator.advance(target);
+            if(id < 0) {
+                return false;
+            }
+            frequency = iterator.frequency();
+            return true;
+        }
+
+        @Override
+        public int compareTo(Head o) {
+            int byId = Long.compare(id, o.id);
+            return byId != 0 ? byId : Integer.compare(order, o.order);
+        }
+    }
+}
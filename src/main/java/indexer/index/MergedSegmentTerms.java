@@ -0,0 +1,95 @@
+package indexer.index;
+
+import indexer.index.segment.Segment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Walks terms of several segments in ascending order with one cursor per segment, so segments can be
+ * merged term by term without reading their dictionaries and postings into memory. Postings of the
+ * current term are merged from all segments containing it.
+ */
+class MergedSegmentTerms {
+    private final PriorityQueue<Cursor> cursors;
+    private final List<PostingsIterator> postings = new ArrayList<>();
+    private String term;
+
+    /**
+     * @param segments segments to merge, if several segments contain the same file, its frequency is
+     *                 taken from the first of them
+     */
+    MergedSegmentTerms(List<Segment> segments) {
+        cursors = new PriorityQueue<>(Math.max(segments.size(), 1));
+        for(int i = 0; i < segments.size(); i++) {
+            Cursor cursor = new Cursor(segments.get(i), i);
+            if(cursor.fetch()) {
+                cursors.add(cursor);
+            }
+        }
+    }
+
+    /**
+     * Moves to the next term
+     *
+     * @return {@code false} if there are no more terms
+     */
+    boolean next() {
+        postings.clear();
+        if(cursors.isEmpty()) {
+            term = null;
+            return false;
+        }
+        term = cursors.peek().term;
+        while (!cursors.isEmpty() && cursors.peek().term.equals(term)) {
+            Cursor cursor = cursors.poll();
+            postings.add(cursor.segment.postingsAt(cursor.index));
+            cursor.index += 1;
+            if(cursor.fetch()) {
+                cursors.add(cursor);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the current term
+     */
+    String term() {
+        return term;
+    }
+
+    /**
+     * @return postings of the current term merged from all segments, iterator can be taken once per term
+     */
+    PostingsIterator postings() {
+        return postings.size() == 1 ? postings.get(0) : new MergedPostingsIterator(postings);
+    }
+
+    private static class Cursor implements Comparable<Cursor> {
+        private final Segment segment;
+        private final int order;
+        private int index = 0;
+        private String term;
+
+        private Cursor(Segment segment, int order) {
+            this.segment = segment;
+            this.order = order;
+        }
+
+        private boolean fetch() {
+            if(index >= segment.termsNumber()) {
+                return false;
+            }
+            term = segment.termAt(index);
+            return true;
+        }
+
+        @Override
+        public int compareTo(Cursor o) {
+            int byTerm = term.compareTo(o.term);
+            return byTerm != 0 ? byTerm : Integer.compare(order, o.order);
+        }
+    }
+}
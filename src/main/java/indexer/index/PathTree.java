@@ -0,0 +1,342 @@
+package indexer.index;
+
+import indexer.utils.FileEntry;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tree of indexed files' paths. Every directory is stored once as a node keyed by its name in
+ * parent directory, so files of the same directory share their common prefix. Node's name is the same
+ * string as its key in parent's map, names are not interned to keep them out of JVM-wide string table.
+ * File entries are leaves of the tree and build their paths on demand by walking up to the root.
+ * Entry detached from the tree by removal keeps its path. Directory subtree is removed in time
+ * proportional to its size. Every directory keeps number, sizes and postings numbers of files in its
+ * subtree, they are updated along the path to the root on every change, so statistics of directory
+ * are taken without walking its files.
+ * Class is not thread safe. Multiple readers are allowed only if there are no concurrent writers.
+ */
+class PathTree {
+    private static final Comparator<Entry> BY_FILE_ID = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry o1, Entry o2) {
+            return Long.compare(o1.fileId, o2.fileId);
+        }
+    };
+
+    // children of root are path roots (like "/") or the first names of relative paths
+    private final Directory root = new Directory(null, "");
+    private int filesNumber = 0;
+
+    /**
+     * @return number of files in tree
+     */
+    int size() {
+        return filesNumber;
+    }
+
+    /**
+     * @param filePath file's path
+     * @return         file's entry or null if there is no such file in tree
+     */
+    Entry get(String filePath) {
+        List<String> names = split(filePath);
+        Directory directory = find(names, names.size() - 1);
+        return directory == null ? null : directory.files.get(names.get(names.size() - 1));
+    }
+
+    /**
+     * Adds file to tree replacing entry of file with the same path if any
+     *
+     * @param filePath     file's path
+     * @param fileId       file's id
+     * @param wordsNumber  number of distinct tokens in file
+     * @param size         file's size at the moment it was read or -1 if unknown
+     * @param lastModified file's modification time in milliseconds at the moment it was read or -1 if unknown
+     * @param charset      charset file was read with or null if unknown
+     * @param length       number of all tokens in file or -1 if unknown
+     * @return             added entry
+     */
+    Entry add(String filePath, long fileId, int wordsNumber, long size, long lastModified, Charset charset,
+              int length) {
+        List<String> names = split(filePath);
+        Directory directory = root;
+        for(int i = 0; i < names.size() - 1; i++) {
+            directory = directory.subdirectory(names.get(i));
+        }
+        Entry entry = new Entry(directory, names.get(names.size() - 1), fileId, wordsNumber, size, lastModified,
+                                charset, length);
+        Entry replaced = directory.files.put(entry.name, entry);
+        if(replaced == null) {
+            filesNumber += 1;
+        } else {
+            directory.count(-1, -Math.max(replaced.getSize(), 0), -replaced.getTokensCounter());
+        }
+        directory.count(1, Math.max(size, 0), wordsNumber);
+        return entry;
+    }
+
+    /**
+     * Detaches file from tree, directories left empty are dropped
+     *
+     * @param filePath file's path
+     * @return         removed entry or null if there is no such file in tree
+     */
+    Entry remove(String filePath) {
+        List<String> names = split(filePath);
+        Directory directory = find(names, names.size() - 1);
+        Entry entry = directory == null ? null : directory.files.remove(names.get(names.size() - 1));
+        if(entry != null) {
+            filesNumber -= 1;
+            directory.count(-1, -Math.max(entry.getSize(), 0), -entry.getTokensCounter());
+            directory.dropIfEmpty();
+        }
+        return entry;
+    }
+
+    /**
+     * Detaches all files in directory and its subdirectories
+     *
+     * @param dirPath directory's path
+     * @return        removed entries
+     */
+    List<Entry> removeDirectory(String dirPath) {
+        List<Entry> removed = new ArrayList<>();
+        Directory directory = find(split(dirPath), -1);
+        if(directory != null) {
+            directory.collect(removed);
+            filesNumber -= removed.size();
+            directory.count(-directory.filesNumber, -directory.filesSize, -directory.postingsNumber);
+            directory.subdirectories.clear();
+            directory.files.clear();
+            directory.dropIfEmpty();
+        }
+        return removed;
+    }
+
+    /**
+     * @param dirPath directory's path
+     * @return        entries of all files in directory and its subdirectories
+     */
+    List<Entry> filesInDirectory(String dirPath) {
+        List<Entry> files = new ArrayList<>();
+        Directory directory = find(split(dirPath), -1);
+        if(directory != null) {
+            directory.collect(files);
+        }
+        return files;
+    }
+
+    /**
+     * @param dirPath directory's path
+     * @return        directory's node or null if there is no such directory in tree
+     */
+    Directory directory(String dirPath) {
+        return find(split(dirPath), -1);
+    }
+
+    /**
+     * @param dirPath directory's path
+     * @return        entries of all files in directory and its subdirectories sorted by file id
+     */
+    List<Entry> filesInDirectoryById(String dirPath) {
+        List<Entry> files = filesInDirectory(dirPath);
+        Collections.sort(files, BY_FILE_ID);
+        return files;
+    }
+
+    /**
+     * Decreases file's tokens counter, counters of file's directories are decreased too if file is
+     * in tree
+     *
+     * @param entry file's entry
+     * @return      decreased tokens counter
+     */
+    int decreaseTokensCounter(Entry entry) {
+        if(entry.directory.files.get(entry.name) == entry) {
+            entry.directory.count(0, 0, -1);
+        }
+        return entry.decreaseTokensCounter();
+    }
+
+    /**
+     * @param path path of file or directory
+     * @return     number, sizes and postings number of the file or of all files in directory and its
+     *             subdirectories, empty statistics if there is no such path in tree
+     */
+    IndexStats.RootStats stats(String path) {
+        IndexStats.RootStats stats = new IndexStats.RootStats();
+        List<String> names = split(path);
+        String name = names.get(names.size() - 1);
+        Directory parent = find(names, names.size() - 1);
+        if(parent == null) {
+            return stats;
+        }
+        Entry file = parent.files.get(name);
+        Directory directory = parent.subdirectories.get(name);
+        if(file != null) {
+            stats.addFile(file.getSize(), file.getTokensCounter());
+        } else if(directory != null) {
+            stats.addFiles(directory.filesNumber, directory.filesSize, directory.postingsNumber);
+        }
+        return stats;
+    }
+
+    /**
+     * @param names     path's names, the first one is path's root if path is absolute
+     * @param namesUsed number of names to follow, -1 to follow all names
+     * @return          directory or null if there is no such directory in tree
+     */
+    private Directory find(List<String> names, int namesUsed) {
+        int end = namesUsed < 0 ? names.size() : namesUsed;
+        Directory directory = root;
+        for(int i = 0; i < end && directory != null; i++) {
+            directory = directory.subdirectories.get(names.get(i));
+        }
+        return directory;
+    }
+
+    static List<String> split(String filePath) {
+        Path path = Paths.get(filePath);
+        List<String> names = new ArrayList<>(path.getNameCount() + 1);
+        if(path.getRoot() != null) {
+            names.add(path.getRoot().toString());
+        }
+        for(int i = 0; i < path.getNameCount(); i++) {
+            names.add(path.getName(i).toString());
+        }
+        return names;
+    }
+
+    /**
+     * Directory node, it is dropped from tree when it has no files left
+     */
+    static class Directory {
+        private final Directory parent;
+        private final String name;
+        private final Map<String, Directory> subdirectories = new HashMap<>(4);
+        private final Map<String, Entry> files = new HashMap<>(4);
+        // totals of files in subtree
+        private int filesNumber = 0;
+        private long filesSize = 0;
+        private long postingsNumber = 0;
+
+        private Directory(Directory parent, String name) {
+            this.parent = parent;
+            this.name = name;
+        }
+
+        private Directory subdirectory(String name) {
+            Directory directory = subdirectories.get(name);
+            if(directory == null) {
+                directory = new Directory(this, name);
+                subdirectories.put(directory.name, directory);
+            }
+            return directory;
+        }
+
+        private void collect(List<Entry> entries) {
+            entries.addAll(files.values());
+            for(Directory directory : subdirectories.values()) {
+                directory.collect(entries);
+            }
+        }
+
+        /**
+         * @return number of files in directory and its subdirectories
+         */
+        int filesNumber() {
+            return filesNumber;
+        }
+
+        /**
+         * Adds deltas to totals of this directory and all its ancestors
+         */
+        private void count(int files, long size, long postings) {
+            for(Directory directory = this; directory != null; directory = directory.parent) {
+                directory.filesNumber += files;
+                directory.filesSize += size;
+                directory.postingsNumber += postings;
+            }
+        }
+
+        private void dropIfEmpty() {
+            Directory directory = this;
+            while (directory.parent != null && directory.files.isEmpty() && directory.subdirectories.isEmpty()) {
+                directory.parent.subdirectories.remove(directory.name);
+                directory = directory.parent;
+            }
+        }
+
+        private void appendPath(StringBuilder builder) {
+            if(parent == null) {
+                return;
+            }
+            parent.appendPath(builder);
+            appendName(builder, name);
+        }
+    }
+
+    private static void appendName(StringBuilder builder, String name) {
+        // path roots already end with separator
+        if(builder.length() > 0 && builder.charAt(builder.length() - 1) != File.separatorChar) {
+            builder.append(File.separatorChar);
+        }
+        builder.append(name);
+    }
+
+    /**
+     * Entry of file in tree, path is built from names of directories on demand
+     */
+    static class Entry extends FileEntry {
+        private final Directory directory;
+        private final String name;
+        private final long fileId;
+
+        private Entry(Directory directory, String name, long fileId, int wordsNumber, long size,
+                      long lastModified, Charset charset, int length) {
+            super(wordsNumber, size, lastModified, charset, length);
+            this.directory = directory;
+            this.name = name;
+            this.fileId = fileId;
+        }
+
+        long getFileId() {
+            return fileId;
+        }
+
+        /**
+         * Walks up from file's directory, so check takes time proportional to the depth of file
+         *
+         * @param ancestor directory node
+         * @return         {@code true} if file is in tree and lies in directory or its subdirectories
+         */
+        boolean isIn(Directory ancestor) {
+            if(directory.files.get(name) != this) {
+                return false;
+            }
+            for(Directory current = directory; current != null; current = current.parent) {
+                if(current == ancestor) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public String getFilePath() {
+            StringBuilder builder = new StringBuilder();
+            directory.appendPath(builder);
+            appendName(builder, name);
+            return builder.toString();
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package indexer.index;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Positions of some token in files containing it. For every file an entry (file id delta,
+ * positions number, position deltas) is stored, all numbers are varint-encoded like in PostingList,
+ * so a position usually takes a single byte. Files must be added in ascending order of their ids.
+ * Class is not thread safe. Multiple readers are allowed only if there are no concurrent writers.
+ *
+ * @see indexer.index.PostingList
+ */
+public class PositionList {
+    private static final int INITIAL_CAPACITY = 8;
+
+    private byte[] data;
+    private int length = 0;
+    private int size = 0;
+    private long last = -1;
+
+    public PositionList() {
+        this.data = new byte[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Creates list from entries encoded earlier by another list (see {@link #writeTo(DataOutput)})
+     *
+     * @param data encoded entries
+     * @param size number of encoded entries
+     * @param last id of the last file
+     */
+    PositionList(byte[] data, int size, long last) {
+        this.data = data;
+        this.length = data.length;
+        this.size = size;
+        this.last = size == 0 ? -1 : last;
+    }
+
+    /**
+     * Appends token's positions in file
+     *
+     * @param fileId          file id, must be bigger than ids added before
+     * @param positions       positions in ascending order
+     * @param positionsNumber number of positions to take from array
+     * @throws IllegalArgumentException if file id is not bigger than the last one
+     */
+    public void add(long fileId, int[] positions, int positionsNumber) {
+        if(fileId <= last) {
+            throw new IllegalArgumentException("file ids must be added in ascending order: " + fileId);
+        }
+        ensureCapacity(10 + 5 + 5 * positionsNumber);
+        length = writeVarint(data, length, size == 0 ? fileId : fileId - last);
+        length = writeVarint(data, length, positionsNumber);
+        int previous = 0;
+        for(int i = 0; i < positionsNumber; i++) {
+            length = writeVarint(data, length, positions[i] - previous);
+            previous = positions[i];
+        }
+        last = fileId;
+        size += 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return id of the last file
+     */
+    public long last() {
+        return last;
+    }
+
+    /**
+     * @return number of bytes used by encoded entries
+     */
+    public int encodedLength() {
+        return length;
+    }
+
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Removes entries of files matching predicate, list is rewritten in place
+     *
+     * @param predicate files to remove
+     * @return          number of removed entries
+     */
+    public int removeIf(PostingList.IdPredicate predicate) {
+        int readPos = 0;
+        int writePos = 0;
+        long current = 0;
+        long lastKept = -1;
+        int kept = 0;
+        for(int i = 0; i < size; i++) {
+            long delta = readVarint(data, readPos);
+            readPos = varintEnd(data, readPos);
+            current = i == 0 ? delta : current + delta;
+            int entryStart = readPos;
+            int positionsNumber = (int) readVarint(data, readPos);
+            readPos = varintEnd(data, readPos);
+            for(int j = 0; j < positionsNumber; j++) {
+                readPos = varintEnd(data, readPos);
+            }
+            if(!predicate.test(current)) {
+                writePos = writeVarint(data, writePos, kept == 0 ? current : current - lastKept);
+                System.arraycopy(data, entryStart, data, writePos, readPos - entryStart);
+                writePos += readPos - entryStart;
+                lastKept = current;
+                kept += 1;
+            }
+        }
+        int removed = size - kept;
+        size = kept;
+        length = writePos;
+        last = lastKept;
+        return removed;
+    }
+
+    /**
+     * Removes entry of single file, tail of list is shifted over it
+     *
+     * @param fileId file id
+     * @return       {@code true} if entry has been removed, {@code false} if there is no such file in list
+     */
+    public boolean remove(long fileId) {
+        if(size == 0 || fileId < 0 || fileId > last) {
+            return false;
+        }
+        int pos = 0;
+        long previous = -1;
+        long current = 0;
+        for(int i = 0; i < size; i++) {
+            int entryStart = pos;
+            long delta = readVarint(data, pos);
+            pos = varintEnd(data, pos);
+            current = i == 0 ? delta : current + delta;
+            int positionsNumber = (int) readVarint(data, pos);
+            pos = varintEnd(data, pos);
+            for(int j = 0; j < positionsNumber; j++) {
+                pos = varintEnd(data, pos);
+            }
+            if(current > fileId) {
+                return false;
+            }
+            if(current == fileId) {
+                if(i == size - 1) {
+                    length = entryStart;
+                    last = previous;
+                } else {
+                    // the next file's delta is merged with removed one
+                    long next = current + readVarint(data, pos);
+                    int nextEnd = varintEnd(data, pos);
+                    int writePos = writeVarint(data, entryStart, previous == -1 ? next : next - previous);
+                    System.arraycopy(data, nextEnd, data, writePos, length - nextEnd);
+                    length -= nextEnd - writePos;
+                }
+                size -= 1;
+                return true;
+            }
+            previous = current;
+        }
+        return false;
+    }
+
+    /**
+     * Writes encoded entries as is, without size or length prefix
+     *
+     * @param out output to write to
+     * @throws IOException
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.write(data, 0, length);
+    }
+
+    private void ensureCapacity(int extraBytes) {
+        if(length + extraBytes > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, length + extraBytes));
+        }
+    }
+
+    private static long readVarint(byte[] buffer, int pos) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer[pos++];
+            value |= (long)(b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static int varintEnd(byte[] buffer, int pos) {
+        while ((buffer[pos++] & 0x80) != 0) { }
+        return pos;
+    }
+
+    private static int writeVarint(byte[] buffer, int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[pos++] = (byte)((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[pos++] = (byte)value;
+        return pos;
+    }
+
+    /**
+     * Cursor over list's entries
+     */
+    public class Cursor implements PositionsCursor {
+        private int pos = 0;
+        private int index = 0;
+        private long current = -1;
+
+        private Cursor() {}
+
+        @Override
+        public int[] positions(long fileId) {
+            while (index < size) {
+                int entryStart = pos;
+                long delta = readVarint(data, pos);
+                pos = varintEnd(data, pos);
+                long id = index == 0 ? delta : current + delta;
+                if(id > fileId) {
+                    pos = entryStart;
+                    return null;
+                }
+                current = id;
+                index += 1;
+                int positionsNumber = (int) readVarint(data, pos);
+                pos = varintEnd(data, pos);
+                if(id == fileId) {
+                    int[] positions = new int[positionsNumber];
+                    int position = 0;
+                    for(int i = 0; i < positionsNumber; i++) {
+                        position += (int) readVarint(data, pos);
+                        pos = varintEnd(data, pos);
+                        positions[i] = position;
+                    }
+                    return positions;
+                }
+                for(int i = 0; i < positionsNumber; i++) {
+                    pos = varintEnd(data, pos);
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package indexer.index;
+
+/**
+ * Forward-only lookup of some token's positions in files. Files must be requested in ascending
+ * order of their ids.
+ */
+public interface PositionsCursor {
+    /**
+     * @param fileId file id, must not be less than ids passed before
+     * @return       token's positions in file in ascending order or null if file doesn't contain token
+     */
+    public int[] positions(long fileId);
+}
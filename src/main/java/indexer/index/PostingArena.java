@@ -0,0 +1,205 @@
+package indexer.index;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Off-heap memory for encoded postings. Memory is reserved from direct buffers in chunks and is
+ * handed out in blocks which sizes are powers of two. Freed blocks are kept in free list of their
+ * size, links of free lists are stored in the blocks themselves, so the arena adds no heap objects
+ * per block. Block is addressed by long: chunk number in high half and offset in low half.
+ * Garbage collector sees only chunks, so pauses don't depend on the amount of stored postings.
+ * Blocks can be read by multiple threads at a time if there are no concurrent writers, allocation
+ * and freeing must not be concurrent with anything.
+ */
+public class PostingArena {
+    /**
+     * Size of the smallest block, it must fit link of free list
+     */
+    static final int MIN_BLOCK_SIZE = 16;
+
+    private static final int MIN_BLOCK_BITS = 4;
+    private static final int DEFAULT_CHUNK_BITS = 24;
+    private static final long NO_BLOCK = -1;
+
+    private final int chunkBits;
+    private ByteBuffer[] chunks = new ByteBuffer[4];
+    private int chunksNumber = 0;
+    private int chunkOffset = 0;
+    // heads of free lists by block size class, class i holds blocks of MIN_BLOCK_SIZE << i bytes
+    private final long[] freeBlocks;
+    private long usedBytes = 0;
+
+    /**
+     * Creates arena reserving memory in 16 MB chunks
+     */
+    public PostingArena() {
+        this(DEFAULT_CHUNK_BITS);
+    }
+
+    /**
+     * @param chunkBits binary logarithm of chunk size, from 4 to 30
+     * @throws IllegalArgumentException if chunk size is out of range
+     */
+    public PostingArena(int chunkBits) {
+        if(chunkBits < MIN_BLOCK_BITS || chunkBits > 30) {
+            throw new IllegalArgumentException("chunk size bits must be from 4 to 30: " + chunkBits);
+        }
+        this.chunkBits = chunkBits;
+        this.freeBlocks = new long[chunkBits - MIN_BLOCK_BITS + 1];
+        Arrays.fill(freeBlocks, NO_BLOCK);
+    }
+
+    /**
+     * @param size number of bytes needed
+     * @return     size of block which would be allocated for them
+     * @throws IllegalArgumentException if size is bigger than chunk
+     */
+    public int blockSize(int size) {
+        return MIN_BLOCK_SIZE << sizeClass(size);
+    }
+
+    /**
+     * Allocates block from free list of its size or from the current chunk
+     *
+     * @param size number of bytes needed, block can be bigger, see {@link #blockSize(int)}
+     * @return     address of block
+     * @throws IllegalArgumentException if size is bigger than chunk
+     */
+    public long allocate(int size) {
+        int sizeClass = sizeClass(size);
+        int blockSize = MIN_BLOCK_SIZE << sizeClass;
+        usedBytes += blockSize;
+        long address = freeBlocks[sizeClass];
+        if(address != NO_BLOCK) {
+            freeBlocks[sizeClass] = chunk(address).getLong(offset(address));
+            return address;
+        }
+        if(chunksNumber == 0 || chunkOffset + blockSize > (1 << chunkBits)) {
+            addChunk();
+        }
+        address = address(chunksNumber - 1, chunkOffset);
+        chunkOffset += blockSize;
+        return address;
+    }
+
+    /**
+     * Puts block to free list of its size
+     *
+     * @param address   block's address
+     * @param blockSize block's size
+     */
+    public void free(long address, int blockSize) {
+        int sizeClass = sizeClass(blockSize);
+        chunk(address).putLong(offset(address), freeBlocks[sizeClass]);
+        freeBlocks[sizeClass] = address;
+        usedBytes -= blockSize;
+    }
+
+    public byte get(long address, int index) {
+        return chunk(address).get(offset(address) + index);
+    }
+
+    public void put(long address, int index, byte value) {
+        chunk(address).put(offset(address) + index, value);
+    }
+
+    /**
+     * Copies bytes from array to block
+     */
+    public void write(long address, int index, byte[] source, int sourceIndex, int length) {
+        ByteBuffer chunk = chunk(address);
+        int offset = offset(address) + index;
+        for(int i = 0; i < length; i++) {
+            chunk.put(offset + i, source[sourceIndex + i]);
+        }
+    }
+
+    /**
+     * Copies bytes from block to array
+     */
+    public void read(long address, int index, byte[] target, int targetIndex, int length) {
+        ByteBuffer chunk = chunk(address);
+        int offset = offset(address) + index;
+        for(int i = 0; i < length; i++) {
+            target[targetIndex + i] = chunk.get(offset + i);
+        }
+    }
+
+    /**
+     * Copies bytes between blocks, source and target ranges may overlap
+     */
+    public void move(long source, int sourceIndex, long target, int targetIndex, int length) {
+        ByteBuffer sourceChunk = chunk(source);
+        ByteBuffer targetChunk = chunk(target);
+        int from = offset(source) + sourceIndex;
+        int to = offset(target) + targetIndex;
+        if(sourceChunk == targetChunk && from < to) {
+            for(int i = length - 1; i >= 0; i--) {
+                targetChunk.put(to + i, sourceChunk.get(from + i));
+            }
+        } else {
+            for(int i = 0; i < length; i++) {
+                targetChunk.put(to + i, sourceChunk.get(from + i));
+            }
+        }
+    }
+
+    /**
+     * @return number of bytes in allocated blocks
+     */
+    public long usedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * @return number of bytes reserved by arena
+     */
+    public long reservedBytes() {
+        return (long) chunksNumber << chunkBits;
+    }
+
+    private void addChunk() {
+        // the rest of the current chunk is split into free blocks, from the biggest to the smallest
+        int chunkSize = 1 << chunkBits;
+        if(chunksNumber > 0) {
+            for(int sizeClass = freeBlocks.length - 1; sizeClass >= 0; sizeClass--) {
+                int blockSize = MIN_BLOCK_SIZE << sizeClass;
+                if(chunkOffset + blockSize <= chunkSize) {
+                    long address = address(chunksNumber - 1, chunkOffset);
+                    chunkOffset += blockSize;
+                    usedBytes += blockSize;
+                    free(address, blockSize);
+                }
+            }
+        }
+        if(chunksNumber == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunksNumber * 2);
+        }
+        chunks[chunksNumber++] = ByteBuffer.allocateDirect(chunkSize);
+        chunkOffset = 0;
+    }
+
+    private int sizeClass(int size) {
+        if(size > (1 << chunkBits)) {
+            throw new IllegalArgumentException("block size " + size + " is bigger than chunk");
+        }
+        int sizeClass = 0;
+        while ((MIN_BLOCK_SIZE << sizeClass) < size) {
+            sizeClass += 1;
+        }
+        return sizeClass;
+    }
+
+    private ByteBuffer chunk(long address) {
+        return chunks[(int) (address >>> 32)];
+    }
+
+    private static int offset(long address) {
+        return (int) address;
+    }
+
+    private static long address(int chunk, int offset) {
+        return ((long) chunk << 32) | offset;
+    }
+}
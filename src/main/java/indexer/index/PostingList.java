@@ -0,0 +1,632 @@
+package indexer.index;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Sorted list of file ids optimized for appending. Ids are stored as deltas between neighbours,
+ * each delta is varint-encoded (7 bits per byte, high bit marks continuation) into a single byte
+ * array, so a posting usually takes 1-2 bytes instead of a boxed Long plus a reference.
+ * Ids that are less than the last one are inserted in the middle, which takes linear time.
+ * Every SKIP_INTERVAL-th id is also kept in skip table together with its position, so iterator can
+ * advance to some id by galloping over skip table instead of decoding all ids before it.
+ * List created with frequencies also keeps number of token's occurrences in every file, one byte
+ * per id (frequencies above 255 are saturated, that doesn't affect ranking noticeably).
+ * Subclasses can keep encoded ids and frequencies outside of arrays by overriding storage methods.
+ * Class is not thread safe. Multiple readers are allowed only if there are no concurrent writers.
+ */
+public class PostingList {
+    private static final int INITIAL_CAPACITY = 4;
+    private static final int SKIP_INTERVAL = 64;
+    private static final int MAX_FREQUENCY = 0xFF;
+
+    private byte[] data;
+    private int length = 0;
+    private int size = 0;
+    private long last = -1;
+    // frequency of i-th id, null if frequencies are not kept
+    private byte[] frequencies = null;
+
+    // skip k points to id with index (k + 1) * SKIP_INTERVAL - 1 and to position after it
+    private long[] skipIds = null;
+    private int[] skipPositions = null;
+    private int skipsNumber = 0;
+
+    public PostingList() {
+        this(false);
+    }
+
+    /**
+     * @param frequencies {@code true} if frequencies of ids should be kept
+     */
+    public PostingList(boolean frequencies) {
+        this(new byte[INITIAL_CAPACITY], frequencies ? new byte[INITIAL_CAPACITY] : null);
+    }
+
+    /**
+     * Creates empty list over specified buffers
+     *
+     * @param data        buffer for encoded ids or null if subclass keeps them elsewhere
+     * @param frequencies buffer for frequencies or null if they are not kept or subclass keeps them elsewhere
+     */
+    PostingList(byte[] data, byte[] frequencies) {
+        this.data = data;
+        this.frequencies = frequencies;
+    }
+
+    /**
+     * Creates list from ids encoded earlier by another list (see {@link #writeTo(DataOutput)})
+     *
+     * @param data encoded ids
+     * @param size number of encoded ids
+     * @param last last encoded id
+     */
+    PostingList(byte[] data, int size, long last) {
+        this(data, size, last, null);
+    }
+
+    /**
+     * Creates list from ids and frequencies written earlier by another list (see {@link #writeTo(DataOutput)}
+     * and {@link #writeFrequenciesTo(DataOutput)})
+     *
+     * @param data        encoded ids
+     * @param size        number of encoded ids
+     * @param last        last encoded id
+     * @param frequencies frequencies of ids or null if they are not kept
+     */
+    PostingList(byte[] data, int size, long last, byte[] frequencies) {
+        this.data = data;
+        this.length = data.length;
+        this.size = size;
+        this.last = size == 0 ? -1 : last;
+        this.frequencies = frequencies;
+        rebuildSkips();
+    }
+
+    /**
+     * @return independent copy of the list kept in arrays
+     */
+    PostingList copy() {
+        byte[] dataCopy = new byte[length];
+        readBytes(0, dataCopy, length);
+        byte[] frequenciesCopy = null;
+        if(hasFrequencies()) {
+            frequenciesCopy = new byte[size];
+            readFrequencies(frequenciesCopy);
+        }
+        return new PostingList(dataCopy, size, last, frequenciesCopy);
+    }
+
+    /**
+     * Adds file id to the list. Ids bigger than the last one are appended, smaller ids are inserted
+     * in sorted position
+     *
+     * @param id file id
+     * @return   {@code true} if id has been added, {@code false} if it is already in list
+     * @throws IllegalArgumentException if id is negative
+     */
+    public boolean add(long id) {
+        return add(id, 1);
+    }
+
+    /**
+     * Adds file id with token's occurrences number. If id is already in list, occurrences are added
+     * to its frequency. Frequency is ignored if list doesn't keep frequencies
+     *
+     * @param id        file id
+     * @param frequency number of token's occurrences in file
+     * @return          {@code true} if id has been added, {@code false} if it is already in list
+     * @throws IllegalArgumentException if id is negative
+     */
+    public boolean add(long id, int frequency) {
+        if(id < 0) {
+            throw new IllegalArgumentException("negative file id: " + id);
+        }
+        if(size != 0 && id == last) {
+            if(hasFrequencies()) {
+                setFrequencyAt(size - 1, saturate(frequencyAt(size - 1) + frequency));
+            }
+            return false;
+        }
+        if(size != 0 && id < last) {
+            return insert(id, frequency);
+        }
+        ensureCapacity(length + 10);
+        length = putVarint(length, size == 0 ? id : id - last);
+        if(hasFrequencies()) {
+            ensureFrequenciesCapacity(size + 1);
+            setFrequencyAt(size, saturate(frequency));
+        }
+        last = id;
+        size += 1;
+        if(size % SKIP_INTERVAL == 0) {
+            addSkip(id, length);
+        }
+        return true;
+    }
+
+    /**
+     * @return last (and the biggest) id in list
+     * @throws NoSuchElementException if list is empty
+     */
+    public long last() {
+        if(size == 0) {
+            throw new NoSuchElementException();
+        }
+        return last;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return number of bytes used by encoded ids
+     */
+    public int encodedLength() {
+        return length;
+    }
+
+    public boolean hasFrequencies() {
+        return frequencies != null;
+    }
+
+    public IdIterator iterator() {
+        return new IdIterator();
+    }
+
+    /**
+     * Removes all ids matching predicate. List is rewritten in place: merged delta never takes more
+     * bytes than the deltas it replaces.
+     *
+     * @param predicate ids to remove
+     * @return          number of removed ids
+     */
+    public int removeIf(IdPredicate predicate) {
+        int readPos = 0;
+        int writePos = 0;
+        long current = 0;
+        long lastKept = -1;
+        int kept = 0;
+        for(int i = 0; i < size; i++) {
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = byteAt(readPos++);
+                delta |= (long)(b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            current = i == 0 ? delta : current + delta;
+            if(!predicate.test(current)) {
+                writePos = putVarint(writePos, kept == 0 ? current : current - lastKept);
+                if(hasFrequencies()) {
+                    setFrequencyAt(kept, (byte) frequencyAt(i));
+                }
+                lastKept = current;
+                kept += 1;
+            }
+        }
+        int removed = size - kept;
+        size = kept;
+        length = writePos;
+        last = lastKept;
+        if(removed != 0) {
+            rebuildSkips();
+        }
+        return removed;
+    }
+
+    /**
+     * Removes single id. Skip table is used to find id, so only ids after the preceding skip are
+     * decoded, then tail of list is shifted over removed delta.
+     *
+     * @param id id to remove
+     * @return   {@code true} if id has been removed, {@code false} if it isn't in list
+     */
+    public boolean remove(long id) {
+        if(size == 0 || id < 0 || id > last) {
+            return false;
+        }
+        int index = 0;
+        int pos = 0;
+        long previous = -1;
+        int skip = lastSkipBefore(id);
+        if(skip >= 0) {
+            index = (skip + 1) * SKIP_INTERVAL;
+            pos = skipPositions[skip];
+            previous = skipIds[skip];
+        }
+        long current = previous;
+        for(; index < size; index++) {
+            int deltaStart = pos;
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = byteAt(pos++);
+                delta |= (long)(b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            current = index == 0 ? delta : current + delta;
+            if(current > id) {
+                return false;
+            }
+            if(current == id) {
+                removeAt(index, id, deltaStart, pos, previous);
+                return true;
+            }
+            previous = current;
+        }
+        return false;
+    }
+
+    /**
+     * Replaces frequency of id, id is found through skip table. Frequency is ignored if list doesn't
+     * keep frequencies
+     *
+     * @param id        file id
+     * @param frequency number of token's occurrences in file
+     * @return          {@code true} if id is in list, {@code false} otherwise
+     */
+    public boolean setFrequency(long id, int frequency) {
+        if(id < 0) {
+            return false;
+        }
+        IdIterator it = iterator();
+        if(it.advance(id) != id) {
+            return false;
+        }
+        if(hasFrequencies()) {
+            setFrequencyAt(it.index - 1, saturate(frequency));
+        }
+        return true;
+    }
+
+    /**
+     * Writes encoded ids as is, without size or length prefix
+     *
+     * @param out output to write to
+     * @throws IOException
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.write(data, 0, length);
+    }
+
+    /**
+     * Writes frequencies, one byte per id, without size prefix
+     *
+     * @param out output to write to
+     * @throws IOException
+     * @throws IllegalStateException if list doesn't keep frequencies
+     */
+    public void writeFrequenciesTo(DataOutput out) throws IOException {
+        if(frequencies == null) {
+            throw new IllegalStateException("list doesn't keep frequencies");
+        }
+        out.write(frequencies, 0, size);
+    }
+
+    /**
+     * Shrinks internal buffers to the number of used bytes
+     */
+    public void trimToSize() {
+        if(data.length > length) {
+            data = Arrays.copyOf(data, Math.max(length, 1));
+        }
+        if(frequencies != null && frequencies.length > size) {
+            frequencies = Arrays.copyOf(frequencies, Math.max(size, 1));
+        }
+    }
+
+    /**
+     * Frees memory kept outside of heap, list must not be used after that. Does nothing for list
+     * kept in arrays
+     */
+    public void release() {}
+
+    private boolean insert(long id, int frequency) {
+        int pos = 0;
+        long previous = -1;
+        long current = 0;
+        for(int i = 0; i < size; i++) {
+            int deltaStart = pos;
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = byteAt(pos++);
+                delta |= (long)(b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            current = i == 0 ? delta : current + delta;
+            if(current == id) {
+                if(hasFrequencies()) {
+                    setFrequencyAt(i, saturate(frequencyAt(i) + frequency));
+                }
+                return false;
+            }
+            if(current > id) {
+                byte[] replacement = new byte[20];
+                int replacementLength = writeVarint(replacement, 0, previous == -1 ? id : id - previous);
+                replacementLength = writeVarint(replacement, replacementLength, current - id);
+                int grow = replacementLength - (pos - deltaStart);
+                ensureCapacity(length + grow);
+                moveBytes(pos, pos + grow, length - pos);
+                writeBytes(deltaStart, replacement, replacementLength);
+                length += grow;
+                if(hasFrequencies()) {
+                    ensureFrequenciesCapacity(size + 1);
+                    moveFrequencies(i, i + 1, size - i);
+                    setFrequencyAt(i, saturate(frequency));
+                }
+                size += 1;
+                rebuildSkips();
+                return true;
+            }
+            previous = current;
+        }
+        throw new IllegalStateException("id is less than last id but its position is not found");
+    }
+
+    /**
+     * @param index      index of removed id
+     * @param id         removed id
+     * @param deltaStart position of removed id's delta
+     * @param deltaEnd   position after removed id's delta
+     * @param previous   id before removed one or -1 if it is the first
+     */
+    private void removeAt(int index, long id, int deltaStart, int deltaEnd, long previous) {
+        if(index == size - 1) {
+            length = deltaStart;
+            last = previous;
+        } else {
+            // the next delta is merged with removed one
+            int pos = deltaEnd;
+            long nextDelta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = byteAt(pos++);
+                nextDelta |= (long)(b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            long next = id + nextDelta;
+            int writePos = putVarint(deltaStart, previous == -1 ? next : next - previous);
+            moveBytes(pos, writePos, length - pos);
+            length -= pos - writePos;
+        }
+        if(hasFrequencies()) {
+            moveFrequencies(index + 1, index, size - index - 1);
+        }
+        size -= 1;
+        // skips before removed id are still valid
+        rebuildSkips(index / SKIP_INTERVAL);
+    }
+
+    /**
+     * @return index of the last skip with id less than given one or -1 if there is no such skip
+     */
+    private int lastSkipBefore(long id) {
+        int low = 0;
+        int high = skipsNumber - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if(skipIds[mid] < id) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    private void rebuildSkips() {
+        rebuildSkips(0);
+    }
+
+    /**
+     * @param keptSkips number of leading skips that are known to be valid
+     */
+    private void rebuildSkips(int keptSkips) {
+        skipsNumber = 0;
+        if(size < SKIP_INTERVAL) {
+            skipIds = null;
+            skipPositions = null;
+            return;
+        }
+        skipsNumber = keptSkips;
+        int pos = keptSkips == 0 ? 0 : skipPositions[keptSkips - 1];
+        long current = keptSkips == 0 ? 0 : skipIds[keptSkips - 1];
+        for(int i = keptSkips * SKIP_INTERVAL; i < size; i++) {
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = byteAt(pos++);
+                delta |= (long)(b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            current = i == 0 ? delta : current + delta;
+            if((i + 1) % SKIP_INTERVAL == 0) {
+                addSkip(current, pos);
+            }
+        }
+    }
+
+    private void addSkip(long id, int position) {
+        if(skipIds == null) {
+            skipIds = new long[4];
+            skipPositions = new int[4];
+        } else if(skipsNumber == skipIds.length) {
+            skipIds = Arrays.copyOf(skipIds, skipsNumber * 2);
+            skipPositions = Arrays.copyOf(skipPositions, skipsNumber * 2);
+        }
+        skipIds[skipsNumber] = id;
+        skipPositions[skipsNumber] = position;
+        skipsNumber += 1;
+    }
+
+    // storage methods, overridden by lists keeping ids outside of arrays
+
+    byte byteAt(int pos) {
+        return data[pos];
+    }
+
+    int putVarint(int pos, long value) {
+        return writeVarint(data, pos, value);
+    }
+
+    void writeBytes(int pos, byte[] source, int bytes) {
+        System.arraycopy(source, 0, data, pos, bytes);
+    }
+
+    void readBytes(int pos, byte[] target, int bytes) {
+        System.arraycopy(data, pos, target, 0, bytes);
+    }
+
+    void moveBytes(int from, int to, int bytes) {
+        System.arraycopy(data, from, data, to, bytes);
+    }
+
+    /**
+     * @param capacity number of bytes needed for encoded ids
+     */
+    void ensureCapacity(int capacity) {
+        if(capacity > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, capacity));
+        }
+    }
+
+    int frequencyAt(int index) {
+        return frequencies[index] & MAX_FREQUENCY;
+    }
+
+    void setFrequencyAt(int index, byte frequency) {
+        frequencies[index] = frequency;
+    }
+
+    void readFrequencies(byte[] target) {
+        System.arraycopy(frequencies, 0, target, 0, size);
+    }
+
+    void moveFrequencies(int from, int to, int number) {
+        System.arraycopy(frequencies, from, frequencies, to, number);
+    }
+
+    /**
+     * @param capacity number of frequencies needed
+     */
+    void ensureFrequenciesCapacity(int capacity) {
+        if(capacity > frequencies.length) {
+            frequencies = Arrays.copyOf(frequencies, Math.max(frequencies.length * 2, INITIAL_CAPACITY));
+        }
+    }
+
+    static byte saturate(int frequency) {
+        return (byte) Math.max(1, Math.min(frequency, MAX_FREQUENCY));
+    }
+
+    static int writeVarint(byte[] buffer, int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[pos++] = (byte)((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[pos++] = (byte)value;
+        return pos;
+    }
+
+    /**
+     * Ids filter used by {@link #removeIf(IdPredicate)}
+     */
+    public interface IdPredicate {
+        public boolean test(long id);
+    }
+
+    /**
+     * Iterator over primitive ids in ascending order. Iterator is not fail-fast, list must not be
+     * modified while iterating.
+     */
+    public class IdIterator implements PostingsIterator {
+        private int pos = 0;
+        private int index = 0;
+        private long current = 0;
+
+        private IdIterator() {}
+
+        @Override
+        public boolean hasNext() {
+            return index < size;
+        }
+
+        @Override
+        public long next() {
+            if(index >= size) {
+                throw new NoSuchElementException();
+            }
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = byteAt(pos++);
+                delta |= (long)(b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            current = index == 0 ? delta : current + delta;
+            index += 1;
+            return current;
+        }
+
+        /**
+         * @return frequency of the last returned id or 1 if list doesn't keep frequencies
+         */
+        @Override
+        public int frequency() {
+            return !hasFrequencies() || index == 0 ? 1 : frequencyAt(index - 1);
+        }
+
+        /**
+         * Gallops over skip table to the last skip before target, then decodes ids one by one
+         */
+        @Override
+        public long advance(long target) {
+            int skip = index / SKIP_INTERVAL;
+            if(skip < skipsNumber && skipIds[skip] < target) {
+                int step = 1;
+                while (skip + step < skipsNumber && skipIds[skip + step] < target) {
+                    skip += step;
+                    step *= 2;
+                }
+                int low = skip + 1;
+                int high = Math.min(skip + step, skipsNumber) - 1;
+                while (low <= high) {
+                    int mid = (low + high) >>> 1;
+                    if(skipIds[mid] < target) {
+                        skip = mid;
+                        low = mid + 1;
+                    } else {
+                        high = mid - 1;
+                    }
+                }
+                pos = skipPositions[skip];
+                current = skipIds[skip];
+                index = (skip + 1) * SKIP_INTERVAL;
+            }
+            while (index < size) {
+                long id = next();
+                if(id >= target) {
+                    return id;
+                }
+            }
+            return -1;
+        }
+    }
+}
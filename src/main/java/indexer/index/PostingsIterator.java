@@ -0,0 +1,25 @@
+package indexer.index;
+
+/**
+ * Iterator over file ids of some token's postings in ascending order. Ids are returned as
+ * primitives to avoid boxing.
+ */
+public interface PostingsIterator {
+    public boolean hasNext();
+    public long next();
+
+    /**
+     * Skips ids less than target
+     *
+     * @param target id to advance to
+     * @return       the first id not less than target (it is consumed like by next call)
+     *               or -1 if there is no such id
+     */
+    public long advance(long target);
+
+    /**
+     * @return number of token's occurrences in the file returned by the last next or advance call,
+     *         1 if frequencies are not stored or iterator combines postings of several tokens
+     */
+    public int frequency();
+}
@@ -0,0 +1,87 @@
+package indexer.index;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded cache of search results keyed by term, the least recently used entries are evicted first.
+ * Cache is bounded by total number of cached paths, so a few results of frequent terms can't take
+ * unbounded memory. Result which alone has more paths than capacity is not cached.
+ * Every entry is stamped with generation of index the result was computed at. Index bumps generation
+ * of term on every change of its postings and global generation on every removal of file it can't
+ * attribute to terms, so cached result is valid while its stamp equals the current one.
+ * Class is thread safe, so hits can be served under index's read lock.
+ */
+class ResultCache {
+    private final Map<String, Result> results = new LinkedHashMap<>(16, 0.75f, true);
+    private final int capacity;
+    private long pathsNumber = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param capacity maximum total number of paths in cached results
+     */
+    ResultCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @param term  term
+     * @param stamp current generation of term's result
+     * @return      unmodifiable view of cached paths or null if there is no result with such stamp
+     */
+    synchronized List<String> get(String term, long stamp) {
+        Result result = results.get(term);
+        if(result == null || result.stamp != stamp) {
+            misses += 1;
+            return null;
+        }
+        hits += 1;
+        return result.paths;
+    }
+
+    /**
+     * @param term  term
+     * @param stamp generation of index the result was computed at
+     * @param paths paths of files containing term, list is copied
+     */
+    synchronized void put(String term, long stamp, List<String> paths) {
+        Result old = results.remove(term);
+        if(old != null) {
+            pathsNumber -= old.paths.size();
+        }
+        if(paths.size() > capacity) {
+            return;
+        }
+        results.put(term, new Result(stamp, paths.toArray(new String[paths.size()])));
+        pathsNumber += paths.size();
+        Iterator<Result> eldest = results.values().iterator();
+        while (pathsNumber > capacity) {
+            pathsNumber -= eldest.next().paths.size();
+            eldest.remove();
+        }
+    }
+
+    synchronized long hits() {
+        return hits;
+    }
+
+    synchronized long misses() {
+        return misses;
+    }
+
+    private static class Result {
+        private final long stamp;
+        private final List<String> paths;
+
+        private Result(long stamp, String[] paths) {
+            this.stamp = stamp;
+            this.paths = Collections.unmodifiableList(Arrays.asList(paths));
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package indexer.index;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cursor over files containing some token. Cursor walks its own copy of token's posting list made
+ * when cursor is opened, so it isn't affected by later index modifications and doesn't hold index
+ * locks between pages. Paths are looked up page by page, files removed from index after cursor has
+ * been opened are skipped. Search can be resumed by new cursor from {@link #resumeToken()} of the
+ * previous one, see {@link FileIndex#searchCursor(indexer.tokenizer.Token, long)} for files it can miss.
+ * Class is not thread safe.
+ */
+public class SearchCursor {
+    /**
+     * Resume token of cursor opened from the beginning of results
+     */
+    public static final long START = -1;
+
+    private static final int MAX_BATCH_SIZE = 4096;
+
+    private final PostingsIterator ids;
+    private final PathResolver resolver;
+    private long lastId;
+    private long[] batch = new long[0];
+
+    /**
+     * @param ids         ids of matching files, must not be modified while cursor is used
+     * @param resumeToken ids not bigger than this are skipped
+     * @param resolver    source of files' paths
+     */
+    SearchCursor(PostingsIterator ids, long resumeToken, PathResolver resolver) {
+        this.ids = ids;
+        this.lastId = resumeToken;
+        this.resolver = resolver;
+    }
+
+    /**
+     * @param resumeToken resume token of previous cursor or {@link #START}
+     * @return            cursor without results keeping resume token
+     */
+    static SearchCursor empty(long resumeToken) {
+        return new SearchCursor(null, resumeToken, null);
+    }
+
+    /**
+     * Opens cursor over posting list, list is copied so caller can release its locks after return
+     *
+     * @param files       posting list to walk or null if token isn't in index
+     * @param resumeToken resume token of previous cursor or {@link #START}
+     * @param resolver    source of files' paths
+     * @return            cursor positioned after resume token
+     */
+    static SearchCursor open(PostingList files, long resumeToken, PathResolver resolver) {
+        if(files == null || files.isEmpty() || files.last() <= resumeToken) {
+            return empty(resumeToken);
+        }
+        return new SearchCursor(files.copy().iterator(), resumeToken, resolver);
+    }
+
+    /**
+     * @return {@code false} if there are no more files to read. Page read from cursor with
+     *         unread files can be empty if all of them have been removed from index
+     */
+    public boolean hasNext() {
+        return ids != null && ids.hasNext();
+    }
+
+    /**
+     * Reads next page of results
+     *
+     * @param pageSize maximum number of files to return
+     * @return         list of at most pageSize files, empty list if there are no more files
+     * @throws IllegalArgumentException if pageSize is not positive
+     */
+    public List<String> nextPage(int pageSize) {
+        if(pageSize <= 0) {
+            throw new IllegalArgumentException("page size must be positive: " + pageSize);
+        }
+        List<String> paths = new ArrayList<>();
+        int batchSize = Math.min(pageSize, MAX_BATCH_SIZE);
+        if(batch.length < batchSize) {
+            batch = new long[batchSize];
+        }
+        // ids of removed files are skipped by resolver, so page may need several batches
+        while (paths.size() < pageSize && hasNext()) {
+            int idsNumber = 0;
+            int needed = Math.min(pageSize - paths.size(), batchSize);
+            while (idsNumber < needed && ids.hasNext()) {
+                long id = ids.advance(lastId + 1);
+                if(id < 0) {
+                    break;
+                }
+                batch[idsNumber++] = id;
+                lastId = id;
+            }
+            resolver.resolve(batch, idsNumber, paths);
+        }
+        return paths;
+    }
+
+    /**
+     * @return token to pass to index to open cursor continuing after the last read file
+     */
+    public long resumeToken() {
+        return lastId;
+    }
+
+    /**
+     * Looks up paths of files by their ids
+     */
+    interface PathResolver {
+        /**
+         * @param ids       ids of files
+         * @param idsNumber number of ids to resolve
+         * @param paths     list to add paths of files that are still in index to
+         */
+        void resolve(long[] ids, int idsNumber, List<String> paths);
+    }
+}
@@ -0,0 +1,1216 @@
+package indexer.index;
+
+import indexer.exceptions.InconsistentIndexException;
+import indexer.index.segment.Segment;
+import indexer.index.segment.SegmentWriter;
+import indexer.index.segment.WriteAheadLog;
+import indexer.query.Bm25Ranker;
+import indexer.query.PostingsSource;
+import indexer.query.Query;
+import indexer.tokenizer.Token;
+import indexer.tokenizer.Tokenizer;
+import indexer.tokenizer.Word;
+import indexer.utils.EncodedFile;
+import indexer.utils.FileEntry;
+import indexer.utils.PathUtils;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * Disk-backed FileIndex implementation. New files are put into in-memory postings which are
+ * flushed into new immutable segment when their size reaches the threshold (or on flush and close calls).
+ * Segments are read through memory mapping. Removes of flushed files are kept in memory and written
+ * as tombstones into the next segment. When number of segments reaches merge factor, all of them are
+ * merged into one segment in background thread, postings of removed files are dropped while merging.
+ * Segments are merged term by term from their sorted dictionaries straight into the new segment, so
+ * merging doesn't need heap proportional to the size of segments.
+ * List of current segments is kept in manifest file, which is replaced atomically. So reopening
+ * index takes time proportional to number of files, not to their content size.
+ * Modifications made after the last flush are recorded in write-ahead log before they are applied.
+ * On reopening the log is replayed over flushed segments, and it is truncated on every flush.
+ * Log records of concurrent or batch (addFiles) modifications are synced to disk together.
+ * If log can't be written, modification is still applied and becomes durable with the next flush.
+ * Every segment has Bloom filter of its terms, it is written on flush and rebuilt on merge, so lookups
+ * of absent terms mostly don't read segments' dictionaries.
+ * Segments keep frequencies of tokens and lengths of files, so search results can be ranked with BM25.
+ * Index is thread safe: supports multiple readers and one writer at a time, files are tokenized
+ * without locking.
+ *
+ * @see indexer.index.segment.Segment
+ */
+public class SegmentFileIndex implements FileIndex, Closeable {
+    private static final String MANIFEST_NAME = "segments";
+    private static final String LOG_NAME = "wal.log";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int DEFAULT_FLUSH_THRESHOLD = 1000000;
+    private static final int DEFAULT_MERGE_FACTOR = 8;
+
+    private final Path directory;
+    private final Tokenizer tokenizer;
+    private final int flushThreshold;
+    private final int mergeFactor;
+
+    private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+    private final Lock readLock = readWriteLock.readLock();
+    private final Lock writeLock = readWriteLock.writeLock();
+
+    private List<Segment> segments = new ArrayList<>();
+    private final Map<String, Long> fileIdMap = new HashMap<>();
+    private final DirectoryTotals directoryTotals = new DirectoryTotals();
+    private final Set<Long> removedSegmentFiles = new HashSet<>();
+    private List<Long> pendingTombstones = new ArrayList<>();
+
+    private Map<Token, PostingList> memoryPostings = new HashMap<>();
+    private TreeMap<String, Token> memoryTerms = new TreeMap<>();
+    private SortedMap<Long, FileEntry> memoryFiles = new TreeMap<>();
+    private int memoryPostingsNumber = 0;
+    // number of all tokens in live files, files of segments without lengths are not counted
+    private long liveTokensNumber = 0;
+
+    private long lastAddedFileId = -1;
+    private long lastGeneration = 0;
+
+    private final ExecutorService merger = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "segments-merger");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private final AtomicBoolean mergeScheduled = new AtomicBoolean(false);
+    private boolean closed = false;
+
+    private WriteAheadLog log;
+    private boolean replaying = false;
+
+    /**
+     * Postings of every segment and in-memory postings of the same token are merged by ids, so query
+     * is evaluated against the whole index at once. Source must be used under read lock
+     */
+    private final PostingsSource mergedSource = new PostingsSource() {
+        @Override
+        public PostingsIterator postings(Token token) {
+            List<PostingsIterator> iterators = new ArrayList<>(segments.size() + 1);
+            for(Segment segment : segments) {
+                PostingsIterator it = segment.postings(token.getValue());
+                if(it != null) {
+                    iterators.add(it);
+                }
+            }
+            PostingList filesForToken = memoryPostings.get(token);
+            if(filesForToken != null) {
+                iterators.add(filesForToken.iterator());
+            }
+            return iterators.isEmpty() ? null : new MergedPostingsIterator(iterators);
+        }
+
+        @Override
+        public int postingsNumber(Token token) {
+            int number = 0;
+            for(Segment segment : segments) {
+                number += segmentPostingsNumber(segment, token);
+            }
+            PostingList filesForToken = memoryPostings.get(token);
+            return filesForToken == null ? number : number + filesForToken.size();
+        }
+
+        @Override
+        public PositionsCursor positions(Token token) {
+            return null;
+        }
+
+        @Override
+        public Iterator<Token> terms(String from) {
+            final PriorityQueue<TermsHead> heads = new PriorityQueue<>(segments.size() + 1);
+            for(Segment segment : segments) {
+                new TermsHead(segmentTerms(segment, from)).offerTo(heads);
+            }
+            new TermsHead(memoryTerms.tailMap(from, true).values().iterator()).offerTo(heads);
+            return new Iterator<Token>() {
+                @Override
+                public boolean hasNext() {
+                    return !heads.isEmpty();
+                }
+
+                @Override
+                public Token next() {
+                    if(heads.isEmpty()) {
+                        throw new NoSuchElementException();
+                    }
+                    Token token = heads.peek().token;
+                    while (!heads.isEmpty() && heads.peek().token.getValue().equals(token.getValue())) {
+                        heads.poll().offerTo(heads);
+                    }
+                    return token;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    };
+
+    private final SearchCursor.PathResolver pathResolver = new SearchCursor.PathResolver() {
+        @Override
+        public void resolve(long[] ids, int idsNumber, List<String> paths) {
+            readLock.lock();
+            try {
+                for(int i = 0; i < idsNumber; i++) {
+                    FileEntry fileEntry = memoryFiles.get(ids[i]);
+                    if(fileEntry != null) {
+                        paths.add(fileEntry.getFilePath());
+                    } else if(!removedSegmentFiles.contains(ids[i])) {
+                        Segment segment = segmentOf(ids[i]);
+                        if(segment != null) {
+                            paths.add(segment.filePath(ids[i]));
+                        }
+                    }
+                }
+            } finally {
+                readLock.unlock();
+            }
+        }
+    };
+
+    private final Bm25Ranker.FileStatistics fileStatistics = new Bm25Ranker.FileStatistics() {
+        @Override
+        public boolean isLive(long fileId) {
+            return memoryFiles.containsKey(fileId)
+                   || !removedSegmentFiles.contains(fileId) && segmentOf(fileId) != null;
+        }
+
+        @Override
+        public int length(long fileId) {
+            return fileLength(fileId);
+        }
+
+        @Override
+        public long filesNumber() {
+            return fileIdMap.size();
+        }
+
+        @Override
+        public double averageLength() {
+            return fileIdMap.isEmpty() ? 0 : (double) liveTokensNumber / fileIdMap.size();
+        }
+    };
+
+    public SegmentFileIndex(Tokenizer tokenizer, Path directory) throws IOException {
+        this(tokenizer, directory, DEFAULT_FLUSH_THRESHOLD, DEFAULT_MERGE_FACTOR);
+    }
+
+    /**
+     * Opens index stored in specified directory or creates new one if directory is empty
+     *
+     * @param tokenizer      tokenizer used to read files
+     * @param directory      directory with segments
+     * @param flushThreshold number of in-memory postings which causes flushing them to new segment
+     * @param mergeFactor    number of segments which causes merging them into one
+     * @throws IOException if index can't be read
+     */
+    public SegmentFileIndex(Tokenizer tokenizer, Path directory, int flushThreshold, int mergeFactor)
+            throws IOException {
+        if(flushThreshold <= 0 || mergeFactor < 2) {
+            throw new IllegalArgumentException("flush threshold must be positive and merge factor at least 2");
+        }
+        this.tokenizer = tokenizer;
+        this.directory = directory;
+        this.flushThreshold = flushThreshold;
+        this.mergeFactor = mergeFactor;
+        Files.createDirectories(directory);
+        open();
+    }
+
+    @Override
+    public List<String> search(Token tokenToFind) {
+        if(tokenToFind == null) {
+            return Collections.emptyList();
+        }
+        List<String> paths = new ArrayList<>();
+        readLock.lock();
+        try {
+            for(Segment segment : segments) {
+                PostingsIterator it = segment.postings(tokenToFind.getValue());
+                while (it != null && it.hasNext()) {
+                    long id = it.next();
+                    if(!removedSegmentFiles.contains(id)) {
+                        paths.add(segment.filePath(id));
+                    }
+                }
+            }
+            PostingList filesForToken = memoryPostings.get(tokenToFind);
+            if(filesForToken != null) {
+                PostingList.IdIterator it = filesForToken.iterator();
+                while (it.hasNext()) {
+                    FileEntry fileEntry = memoryFiles.get(it.next());
+                    if(fileEntry != null) {
+                        paths.add(fileEntry.getFilePath());
+                    }
+                }
+            }
+        } finally {
+            readLock.unlock();
+        }
+        return Collections.unmodifiableList(paths);
+    }
+
+    /**
+     * Searches files in directory containing specified token. Index doesn't keep files by directories,
+     * so paths of all files containing token are checked
+     *
+     * @param tokenToFind token to find in index
+     * @param scopePath   directory to search in
+     * @return            list of files in directory and its subdirectories containing token
+     */
+    @Override
+    public List<String> search(Token tokenToFind, String scopePath) {
+        Path scope = Paths.get(scopePath);
+        List<String> paths = new ArrayList<>();
+        for(String file : search(tokenToFind)) {
+            Path filePath = Paths.get(file);
+            if(!PathUtils.pathsAreEqual(scope, filePath) && PathUtils.firstPathIsParent(scope, filePath)) {
+                paths.add(file);
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Counts live files in every segment and in-memory postings under read lock, takes time linear in
+     * postings number but doesn't look up paths
+     */
+    @Override
+    public int count(Token tokenToFind) {
+        return countLive(tokenToFind, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean exists(Token tokenToFind) {
+        return countLive(tokenToFind, 1) > 0;
+    }
+
+    private int countLive(Token tokenToFind, int limit) {
+        if(tokenToFind == null) {
+            return 0;
+        }
+        int live = 0;
+        readLock.lock();
+        try {
+            for(Segment segment : segments) {
+                PostingsIterator it = segment.postings(tokenToFind.getValue());
+                while (it != null && live < limit && it.hasNext()) {
+                    if(!removedSegmentFiles.contains(it.next())) {
+                        live += 1;
+                    }
+                }
+            }
+            PostingList filesForToken = memoryPostings.get(tokenToFind);
+            if(filesForToken != null) {
+                PostingList.IdIterator it = filesForToken.iterator();
+                while (live < limit && it.hasNext()) {
+                    if(memoryFiles.containsKey(it.next())) {
+                        live += 1;
+                    }
+                }
+            }
+        } finally {
+            readLock.unlock();
+        }
+        return live;
+    }
+
+    /**
+     * Postings of every segment and in-memory postings are merged into cursor's list under read lock,
+     * ids not bigger than resume token are skipped. Paths are looked up under read lock page by page,
+     * files keep their ids when segments are merged
+     */
+    @Override
+    public SearchCursor searchCursor(Token tokenToFind, long resumeToken) {
+        if(tokenToFind == null) {
+            return SearchCursor.empty(resumeToken);
+        }
+        PostingList files = new PostingList();
+        readLock.lock();
+        try {
+            PostingsIterator it = mergedSource.postings(tokenToFind);
+            long id = it == null ? -1 : it.advance(resumeToken + 1);
+            while (id >= 0) {
+                files.add(id);
+                id = it.hasNext() ? it.next() : -1;
+            }
+        } finally {
+            readLock.unlock();
+        }
+        return files.isEmpty() ? SearchCursor.empty(resumeToken)
+                               : new SearchCursor(files.iterator(), resumeToken, pathResolver);
+    }
+
+    /**
+     * Searches files matching query. Query is evaluated against every segment and in-memory
+     * postings separately, as they contain different files
+     *
+     * @param query query to evaluate
+     * @return      list of matching files
+     */
+    @Override
+    public List<String> search(Query query) {
+        List<String> paths = new ArrayList<>();
+        readLock.lock();
+        try {
+            for(final Segment segment : segments) {
+                PostingsIterator it = query.iterator(new PostingsSource() {
+                    @Override
+                    public PostingsIterator postings(Token token) {
+                        return segment.postings(token.getValue());
+                    }
+
+                    @Override
+                    public int postingsNumber(Token token) {
+                        return segmentPostingsNumber(segment, token);
+                    }
+
+                    @Override
+                    public PositionsCursor positions(Token token) {
+                        return null;
+                    }
+
+                    @Override
+                    public Iterator<Token> terms(String from) {
+                        return segmentTerms(segment, from);
+                    }
+                });
+                while (it.hasNext()) {
+                    long id = it.next();
+                    if(!removedSegmentFiles.contains(id)) {
+                        paths.add(segment.filePath(id));
+                    }
+                }
+            }
+            PostingsIterator it = query.iterator(new PostingsSource() {
+                @Override
+                public PostingsIterator postings(Token token) {
+                    PostingList filesForToken = memoryPostings.get(token);
+                    return filesForToken == null ? null : filesForToken.iterator();
+                }
+
+                @Override
+                public int postingsNumber(Token token) {
+                    PostingList filesForToken = memoryPostings.get(token);
+                    return filesForToken == null ? 0 : filesForToken.size();
+                }
+
+                @Override
+                public PositionsCursor positions(Token token) {
+                    return null;
+                }
+
+                @Override
+                public Iterator<Token> terms(String from) {
+                    return memoryTerms.tailMap(from, true).values().iterator();
+                }
+            });
+            while (it.hasNext()) {
+                FileEntry fileEntry = memoryFiles.get(it.next());
+                if(fileEntry != null) {
+                    paths.add(fileEntry.getFilePath());
+                }
+            }
+        } finally {
+            readLock.unlock();
+        }
+        return paths;
+    }
+
+    /**
+     * Searches k best files matching query, files are scored with BM25 by frequencies of query's
+     * terms. Query is evaluated under read lock against postings of all segments and in-memory
+     * postings merged by ids, so scores don't depend on distribution of files over segments. Files
+     * of segments written before frequencies were stored are scored as having every term once and
+     * average length
+     *
+     * @param query query selecting files
+     * @param k     maximum number of files to return
+     * @return      at most k best matching files, the best first
+     * @throws IllegalArgumentException if k is not positive
+     */
+    @Override
+    public List<String> search(Query query, int k) {
+        List<String> paths = new ArrayList<>();
+        readLock.lock();
+        try {
+            for(Bm25Ranker.ScoredFile scoredFile : Bm25Ranker.topFiles(query, mergedSource, fileStatistics, k)) {
+                FileEntry fileEntry = memoryFiles.get(scoredFile.getFileId());
+                paths.add(fileEntry != null ? fileEntry.getFilePath()
+                                            : segmentOf(scoredFile.getFileId()).filePath(scoredFile.getFileId()));
+            }
+        } finally {
+            readLock.unlock();
+        }
+        return paths;
+    }
+
+    /**
+     * Searches files containing text matching pattern. Index doesn't store trigrams, so every
+     * indexed file is read, files are listed under read lock and read without locking. Files of
+     * segments are decoded with default charset
+     *
+     * @param pattern pattern to find
+     * @return        list of files containing pattern's matches
+     */
+    @Override
+    public List<String> searchText(Pattern pattern) {
+        List<FileEntry> candidates = new ArrayList<>();
+        readLock.lock();
+        try {
+            for(Map.Entry<String, Long> entry : fileIdMap.entrySet()) {
+                FileEntry fileEntry = memoryFiles.get(entry.getValue());
+                candidates.add(fileEntry != null ? fileEntry : new FileEntry(entry.getKey(), 0));
+            }
+        } finally {
+            readLock.unlock();
+        }
+        return HashFileIndex.matchingFiles(candidates, pattern);
+    }
+
+    /**
+     * Adds file to index. File's content is read without locking. If specified file
+     * is already in index, it will not be updated.
+     *
+     * @param encodedFile file's path and charset containing descriptor
+     * @return         {@code true} if file has been added or already presents in index.
+     *                 {@code false} is returned if IO problems occurred while reading file from disk
+     */
+    @Override
+    public boolean addFile(EncodedFile encodedFile) {
+        long[] seq = new long[1];
+        boolean added = addFile(encodedFile, seq);
+        syncLog(seq[0]);
+        return added;
+    }
+
+    /**
+     * Adds multiple files in index. Log records of all files are synced at once
+     *
+     * @param files file's path and charset containing descriptors
+     */
+    @Override
+    public void addFiles(List<EncodedFile> files) {
+        long[] seq = new long[1];
+        for(EncodedFile file : files) {
+            addFile(file, seq);
+        }
+        syncLog(seq[0]);
+    }
+
+    /**
+     * Removes file from index. If file has already been flushed, its removal will be
+     * written as tombstone in the next segment
+     *
+     * @param filePath file to remove from index
+     */
+    @Override
+    public void removeFile(String filePath) {
+        long seq = 0;
+        writeLock.lock();
+        try {
+            Long fileId = fileIdMap.remove(filePath);
+            if(fileId != null) {
+                seq = log(WriteAheadLog.Record.Type.REMOVE_FILE, filePath, null);
+                markRemoved(filePath, fileId);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        syncLog(seq);
+    }
+
+    /**
+     * Flushes in-memory data and merges all segments into one, dropping removed files
+     */
+    @Override
+    public void forceRemoves() {
+        try {
+            flush();
+            mergeSegments();
+        } catch (IOException e) {
+            // suppressed, removed files are still filtered out on search
+        }
+    }
+
+    /**
+     * Updates file in index by removing old version and adding new version from disk.
+     *
+     * @param encodedFile file's path and charset containing descriptor
+     * @return         {@code true} if file has been updated or no such file in index.
+     *                 {@code false} is returned if file can not be read from disk
+     * @throws InconsistentIndexException if file has been removed and than IO errors occurred while adding it again
+     */
+    @Override
+    public boolean handleFileModification(EncodedFile encodedFile) throws InconsistentIndexException {
+        String filePath = encodedFile.getFilePath();
+        if(new File(filePath).canRead()) {
+            if(containsFile(filePath)) {
+                BasicFileAttributes attributes = readAttributes(filePath);
+                List<Token> tokens = attributes == null ? null : readTokens(encodedFile);
+                long seq = 0;
+                writeLock.lock();
+                try {
+                    Long fileId = fileIdMap.remove(filePath);
+                    if(fileId != null) {
+                        markRemoved(filePath, fileId);
+                    }
+                    if(tokens != null) {
+                        seq = log(WriteAheadLog.Record.Type.MODIFY_FILE, filePath, encodedFile.getCharset());
+                        putFile(encodedFile, attributes, tokens);
+                    } else {
+                        seq = log(WriteAheadLog.Record.Type.REMOVE_FILE, filePath, null);
+                    }
+                } finally {
+                    writeLock.unlock();
+                }
+                syncLog(seq);
+                if(tokens == null) {
+                    throw new InconsistentIndexException("IO error has made index inconsistent");
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks if specified file is in index
+     *
+     * @param filePath file to check
+     * @return         {@code true} if file is in index, {@code false} otherwise
+     */
+    @Override
+    public boolean containsFile(String filePath) {
+        readLock.lock();
+        try {
+            return fileIdMap.containsKey(filePath);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * @return segment containing file or null if file is not flushed
+     */
+    private Segment segmentOf(long fileId) {
+        for(Segment segment : segments) {
+            if(segment.fileIndex(fileId) >= 0) {
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return number of all tokens in indexed file or -1 if there is no such file or it is unknown
+     */
+    private int fileLength(long fileId) {
+        FileEntry fileEntry = memoryFiles.get(fileId);
+        if(fileEntry != null) {
+            return fileEntry.getLength();
+        }
+        Segment segment = segmentOf(fileId);
+        return segment == null ? -1 : segment.fileLengthAt(segment.fileIndex(fileId));
+    }
+
+    /**
+     * @return size of indexed file or -1 if there is no such file
+     */
+    private long fileSize(long fileId) {
+        FileEntry fileEntry = memoryFiles.get(fileId);
+        if(fileEntry != null) {
+            return fileEntry.getSize();
+        }
+        for(Segment segment : segments) {
+            int index = segment.fileIndex(fileId);
+            if(index >= 0) {
+                return segment.fileSizeAt(index);
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean isFileUpToDate(String filePath, long size, long lastModified) {
+        readLock.lock();
+        try {
+            Long fileId = fileIdMap.get(filePath);
+            if(fileId == null) {
+                return false;
+            }
+            FileEntry fileEntry = memoryFiles.get(fileId);
+            if(fileEntry != null) {
+                return fileEntry.isUpToDate(size, lastModified);
+            }
+            for(Segment segment : segments) {
+                int index = segment.fileIndex(fileId);
+                if(index >= 0) {
+                    return segment.fileSizeAt(index) == size && segment.fileLastModifiedAt(index) == lastModified;
+                }
+            }
+            return false;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public List<String> getFilesInDirectory(String dirPath) {
+        Path path = Paths.get(dirPath);
+        List<String> files = new ArrayList<>();
+        readLock.lock();
+        try {
+            for(String file : fileIdMap.keySet()) {
+                Path filePath = Paths.get(file);
+                if(!PathUtils.pathsAreEqual(path, filePath) && PathUtils.firstPathIsParent(path, filePath)) {
+                    files.add(file);
+                }
+            }
+        } finally {
+            readLock.unlock();
+        }
+        return files;
+    }
+
+    @Override
+    public void removeDirectory(String dirPath) {
+        Path path = Paths.get(dirPath);
+        long seq = 0;
+        writeLock.lock();
+        try {
+            seq = log(WriteAheadLog.Record.Type.REMOVE_DIRECTORY, dirPath, null);
+            Iterator<Map.Entry<String, Long>> it = fileIdMap.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Long> entry = it.next();
+                Path filePath = Paths.get(entry.getKey());
+                if(!PathUtils.pathsAreEqual(path, filePath) && PathUtils.firstPathIsParent(path, filePath)) {
+                    markRemoved(entry.getKey(), entry.getValue());
+                    it.remove();
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        syncLog(seq);
+    }
+
+    /**
+     * Writes in-memory postings and pending tombstones into new segment
+     *
+     * @throws IOException if segment or manifest can't be written
+     */
+    public void flush() throws IOException {
+        writeLock.lock();
+        try {
+            flushUnderLock();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * @return number of segments on disk
+     */
+    public int segmentsNumber() {
+        readLock.lock();
+        try {
+            return segments.size();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * @return share of lookups of absent terms in current segments which Bloom filters have not
+     *         rejected, 0 if there were no such lookups
+     */
+    public double filterFalsePositiveRate() {
+        readLock.lock();
+        try {
+            return IndexStats.filterFalsePositiveRate(segments);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Terms and postings are summed over segments and in-memory postings, so terms of multiple segments
+     * are counted multiple times. Segments don't count postings of files, per-root postings numbers are -1
+     */
+    @Override
+    public IndexStats getStats(Collection<String> roots) {
+        readLock.lock();
+        try {
+            long termsNumber = memoryPostings.size();
+            long postingsNumber = memoryPostingsNumber;
+            long diskBytes = 0;
+            for(Segment segment : segments) {
+                termsNumber += segment.termsNumber();
+                postingsNumber += segment.postingsNumber();
+                diskBytes += segment.size();
+            }
+            long postingsBytes = (long) memoryPostingsNumber * IndexStats.ESTIMATED_POSTING_BYTES
+                                 + (long) memoryPostings.size() * IndexStats.ESTIMATED_LIST_BYTES;
+            Map<String, IndexStats.RootStats> rootsStats = new LinkedHashMap<>();
+            for(String root : roots) {
+                Long rootId = fileIdMap.get(root);
+                IndexStats.RootStats rootStats = rootId == null ? directoryTotals.get(root)
+                                                                : new IndexStats.RootStats();
+                if(rootId != null) {
+                    rootStats.addFile(fileSize(rootId), -1);
+                }
+                rootsStats.put(root, rootStats);
+            }
+            return new IndexStats(termsNumber, postingsNumber, fileIdMap.size(), removedSegmentFiles.size(),
+                                  postingsBytes, (long) fileIdMap.size() * IndexStats.ESTIMATED_FILE_BYTES,
+                                  (long) memoryTerms.size() * IndexStats.ESTIMATED_TERM_BYTES, 0, diskBytes,
+                                  IndexStats.filterFalsePositiveRate(segments), rootsStats);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Flushes in-memory data and waits for background merge to finish
+     *
+     * @throws IOException if in-memory data can't be flushed
+     */
+    @Override
+    public void close() throws IOException {
+        writeLock.lock();
+        try {
+            if(closed) {
+                return;
+            }
+            closed = true;
+            flushUnderLock();
+            log.close();
+        } finally {
+            writeLock.unlock();
+            merger.shutdown();
+        }
+        try {
+            merger.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void open() throws IOException {
+        Path manifest = directory.resolve(MANIFEST_NAME);
+        Set<String> segmentNames = new HashSet<>();
+        if(Files.exists(manifest)) {
+            for(String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+                String[] parts = line.split(" ", 2);
+                if(parts[0].equals("generation")) {
+                    lastGeneration = Long.parseLong(parts[1]);
+                } else if(parts[0].equals("fileId")) {
+                    lastAddedFileId = Long.parseLong(parts[1]);
+                } else if(parts[0].equals("segment")) {
+                    segments.add(Segment.open(directory.resolve(parts[1])));
+                    segmentNames.add(parts[1]);
+                }
+            }
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX + "*")) {
+            for(Path file : stream) {
+                if(!segmentNames.contains(file.getFileName().toString())) {
+                    // segment or temporary file of segment writer left by failed flush or merge
+                    Files.delete(file);
+                }
+            }
+        }
+        for(Segment segment : segments) {
+            for(int i = 0; i < segment.tombstonesNumber(); i++) {
+                removedSegmentFiles.add(segment.tombstoneAt(i));
+            }
+        }
+        for(Segment segment : segments) {
+            for(int i = 0; i < segment.filesNumber(); i++) {
+                long id = segment.fileIdAt(i);
+                if(!removedSegmentFiles.contains(id)) {
+                    fileIdMap.put(segment.filePathAt(i), id);
+                    directoryTotals.add(segment.filePathAt(i), segment.fileSizeAt(i), -1);
+                    liveTokensNumber += Math.max(segment.fileLengthAt(i), 0);
+                }
+                lastAddedFileId = Math.max(lastAddedFileId, id);
+            }
+        }
+        log = new WriteAheadLog(directory.resolve(LOG_NAME));
+        replaying = true;
+        try {
+            log.replay(new LogReplayer());
+        } finally {
+            replaying = false;
+        }
+    }
+
+    private boolean addFile(EncodedFile encodedFile, long[] seq) {
+        String filePath = encodedFile.getFilePath();
+        if(!new File(filePath).canRead()) {
+            return false;
+        }
+        if(containsFile(filePath)) {
+            return true;
+        }
+        BasicFileAttributes attributes = readAttributes(filePath);
+        List<Token> tokens = attributes == null ? null : readTokens(encodedFile);
+        if(tokens == null) {
+            return false;
+        }
+        writeLock.lock();
+        try {
+            if(!fileIdMap.containsKey(filePath)) {
+                seq[0] = log(WriteAheadLog.Record.Type.ADD_FILE, filePath, encodedFile.getCharset());
+                putFile(encodedFile, attributes, tokens);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        return true;
+    }
+
+    private void putFile(EncodedFile encodedFile, BasicFileAttributes attributes, List<Token> tokens) {
+        String filePath = encodedFile.getFilePath();
+        long fileId = ++lastAddedFileId;
+        for(Token token : tokens) {
+            PostingList filesId = memoryPostings.get(token);
+            if(filesId == null) {
+                filesId = new PostingList(true);
+                memoryPostings.put(token, filesId);
+                memoryTerms.put(token.getValue(), token);
+            }
+            // repeated occurrences of token increase its frequency
+            if(filesId.add(fileId)) {
+                memoryPostingsNumber += 1;
+            }
+        }
+        memoryFiles.put(fileId, new FileEntry(filePath, 0, attributes.size(), attributes.lastModifiedTime().toMillis(),
+                                              encodedFile.getCharset(), tokens.size()));
+        liveTokensNumber += tokens.size();
+        fileIdMap.put(filePath, fileId);
+        directoryTotals.add(filePath, attributes.size(), -1);
+        if(memoryPostingsNumber >= flushThreshold) {
+            tryFlush();
+        }
+    }
+
+    private static int segmentPostingsNumber(Segment segment, Token token) {
+        if(!segment.mayContain(token.getValue())) {
+            return 0;
+        }
+        int index = segment.termIndex(token.getValue());
+        return index < 0 ? 0 : segment.postingsNumberAt(index);
+    }
+
+    private static Iterator<Token> segmentTerms(final Segment segment, String from) {
+        final int start = segment.termIndex(from);
+        return new Iterator<Token>() {
+            private int index = start < 0 ? -(start + 1) : start;
+
+            @Override
+            public boolean hasNext() {
+                return index < segment.termsNumber();
+            }
+
+            @Override
+            public Token next() {
+                if(!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return new Word(segment.termAt(index++));
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private long log(WriteAheadLog.Record.Type type, String filePath, Charset charset) {
+        if(replaying) {
+            return 0;
+        }
+        try {
+            return log.append(type, filePath, charset);
+        } catch (IOException e) {
+            // suppressed, modification becomes durable with the next flush
+            return 0;
+        }
+    }
+
+    private void syncLog(long seq) {
+        if(seq > 0) {
+            try {
+                log.sync(seq);
+            } catch (IOException e) {
+                // suppressed, modification becomes durable with the next flush
+            }
+        }
+    }
+
+    private void markRemoved(String filePath, long fileId) {
+        directoryTotals.remove(filePath, fileSize(fileId), -1);
+        liveTokensNumber -= Math.max(fileLength(fileId), 0);
+        if(memoryFiles.remove(fileId) == null) {
+            removedSegmentFiles.add(fileId);
+            pendingTombstones.add(fileId);
+        }
+    }
+
+    private void tryFlush() {
+        try {
+            flushUnderLock();
+        } catch (IOException e) {
+            // suppressed, in-memory data is kept and will be flushed next time
+        }
+    }
+
+    private void flushUnderLock() throws IOException {
+        if(memoryFiles.isEmpty() && pendingTombstones.isEmpty()) {
+            return;
+        }
+        SortedMap<String, PostingList> postings = new TreeMap<>();
+        for(Map.Entry<Token, PostingList> entry : memoryPostings.entrySet()) {
+            PostingList filesId = postings.get(entry.getKey().getValue());
+            PostingList.IdIterator it = entry.getValue().iterator();
+            while (it.hasNext()) {
+                long id = it.next();
+                if(memoryFiles.containsKey(id)) {
+                    if(filesId == null) {
+                        filesId = new PostingList(true);
+                        postings.put(entry.getKey().getValue(), filesId);
+                    }
+                    filesId.add(id, it.frequency());
+                }
+            }
+        }
+        Path file = directory.resolve(segmentName(++lastGeneration));
+        SegmentWriter.write(file, memoryFiles, postings, pendingTombstones);
+        List<Segment> newSegments = new ArrayList<>(segments);
+        newSegments.add(Segment.open(file));
+        writeManifest(newSegments);
+        if(!replaying) {
+            log.checkpoint();
+        }
+        segments = newSegments;
+        memoryPostings = new HashMap<>();
+        memoryTerms = new TreeMap<>();
+        memoryFiles = new TreeMap<>();
+        memoryPostingsNumber = 0;
+        pendingTombstones = new ArrayList<>();
+        if(segments.size() >= mergeFactor && !closed && mergeScheduled.compareAndSet(false, true)) {
+            merger.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        mergeSegments();
+                    } catch (IOException e) {
+                        // suppressed, segments will be merged next time
+                    } finally {
+                        mergeScheduled.set(false);
+                    }
+                }
+            });
+        }
+    }
+
+    private synchronized void mergeSegments() throws IOException {
+        List<Segment> toMerge;
+        Set<Long> removed;
+        long generation;
+        writeLock.lock();
+        try {
+            if(segments.size() < 2) {
+                return;
+            }
+            toMerge = segments;
+            removed = new HashSet<>(removedSegmentFiles);
+            generation = ++lastGeneration;
+        } finally {
+            writeLock.unlock();
+        }
+
+        Set<Long> dropped = new HashSet<>();
+        Path file = directory.resolve(segmentName(generation));
+        long maxTermsNumber = 0;
+        for(Segment segment : toMerge) {
+            maxTermsNumber += segment.termsNumber();
+        }
+        try (SegmentWriter writer = new SegmentWriter(file, (int) Math.min(maxTermsNumber, Integer.MAX_VALUE))) {
+            // files tables are sorted by ids, they are merged by picking the least id of all segments
+            int[] positions = new int[toMerge.size()];
+            long lastId = -1;
+            while (true) {
+                int next = -1;
+                long nextId = Long.MAX_VALUE;
+                for(int i = 0; i < toMerge.size(); i++) {
+                    Segment segment = toMerge.get(i);
+                    if(positions[i] < segment.filesNumber() && segment.fileIdAt(positions[i]) < nextId) {
+                        next = i;
+                        nextId = segment.fileIdAt(positions[i]);
+                    }
+                }
+                if(next < 0) {
+                    break;
+                }
+                Segment segment = toMerge.get(next);
+                int index = positions[next]++;
+                if(removed.contains(nextId)) {
+                    dropped.add(nextId);
+                } else if(nextId != lastId) {
+                    writer.addFile(nextId, segment.filePathAt(index), segment.fileSizeAt(index),
+                                   segment.fileLastModifiedAt(index), segment.fileLengthAt(index));
+                    lastId = nextId;
+                }
+            }
+            MergedSegmentTerms terms = new MergedSegmentTerms(toMerge);
+            while (terms.next()) {
+                PostingList filesId = new PostingList(true);
+                PostingsIterator it = terms.postings();
+                while (it.hasNext()) {
+                    long id = it.next();
+                    if(!removed.contains(id)) {
+                        filesId.add(id, it.frequency());
+                    }
+                }
+                writer.addTerm(terms.term(), filesId);
+            }
+            writer.finish();
+        }
+        Segment merged = Segment.open(file);
+
+        writeLock.lock();
+        try {
+            List<Segment> newSegments = new ArrayList<>();
+            newSegments.add(merged);
+            for(Segment segment : segments) {
+                if(!toMerge.contains(segment)) {
+                    newSegments.add(segment);
+                }
+            }
+            writeManifest(newSegments);
+            segments = newSegments;
+            removedSegmentFiles.removeAll(dropped);
+            pendingTombstones.removeAll(dropped);
+        } finally {
+            writeLock.unlock();
+        }
+        for(Segment segment : toMerge) {
+            Files.deleteIfExists(segment.getFile());
+        }
+    }
+
+    private void writeManifest(List<Segment> newSegments) throws IOException {
+        Path manifest = directory.resolve(MANIFEST_NAME);
+        Path tmp = directory.resolve(MANIFEST_NAME + ".tmp");
+        try (FileOutputStream fileStream = new FileOutputStream(tmp.toFile())) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(fileStream, StandardCharsets.UTF_8));
+            writer.write("generation " + lastGeneration + "\n");
+            writer.write("fileId " + lastAddedFileId + "\n");
+            for(Segment segment : newSegments) {
+                writer.write("segment " + segment.getFile().getFileName() + "\n");
+            }
+            writer.flush();
+            fileStream.getFD().sync();
+        }
+        Files.move(tmp, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String segmentName(long generation) {
+        return String.format("segment-%08d%s", generation, SEGMENT_SUFFIX);
+    }
+
+    private static BasicFileAttributes readAttributes(String filePath) {
+        try {
+            return Files.readAttributes(Paths.get(filePath), BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private List<Token> readTokens(EncodedFile encodedFile) {
+        List<Token> tokens;
+        try (Reader reader = new BufferedReader(new InputStreamReader(
+                             new FileInputStream(encodedFile.getFilePath()), encodedFile.getCharset()))) {
+            tokens = tokenizer.tokenize(reader);
+        } catch (IOException e) {
+            return null;
+        }
+        return tokens;
+    }
+
+    /**
+     * Current term of one of terms iterators merged in ascending order
+     */
+    private static class TermsHead implements Comparable<TermsHead> {
+        private final Iterator<Token> iterator;
+        private Token token;
+
+        private TermsHead(Iterator<Token> iterator) {
+            this.iterator = iterator;
+        }
+
+        /**
+         * Moves to the next term and puts head back to queue if iterator is not exhausted
+         */
+        private void offerTo(PriorityQueue<TermsHead> heads) {
+            if(iterator.hasNext()) {
+                token = iterator.next();
+                heads.add(this);
+            }
+        }
+
+        @Override
+        public int compareTo(TermsHead o) {
+            return token.getValue().compareTo(o.token.getValue());
+        }
+    }
+
+    private class LogReplayer implements WriteAheadLog.RecordHandler {
+        @Override
+        public void onRecord(WriteAheadLog.Record record) {
+            switch (record.getType()) {
+                case ADD_FILE:
+                    addFile(new EncodedFile(record.getFilePath(), record.getCharset()));
+                    break;
+                case REMOVE_FILE:
+                    removeFile(record.getFilePath());
+                    break;
+                case REMOVE_DIRECTORY:
+                    removeDirectory(record.getFilePath());
+                    break;
+                case MODIFY_FILE:
+                    try {
+                        handleFileModification(new EncodedFile(record.getFilePath(), record.getCharset()));
+                    } catch (InconsistentIndexException e) {
+                        // file has become unreadable since it was logged, it is removed from index
+                    }
+                    break;
+            }
+        }
+    }
+}
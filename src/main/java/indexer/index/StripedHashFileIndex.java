@@ -0,0 +1,700 @@
+package indexer.index;
+
+import indexer.exceptions.InconsistentIndexException;
+import indexer.query.Bm25Ranker;
+import indexer.query.PostingsSource;
+import indexer.query.Query;
+import indexer.tokenizer.Token;
+import indexer.tokenizer.Tokenizer;
+import indexer.utils.EncodedFile;
+import indexer.utils.FileEntry;
+import indexer.utils.PathUtils;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * Concurrent FileIndex implementation with token map partitioned into stripes by token hash.
+ * Every stripe is guarded by its own read-write lock, so files can be added, removed and searched
+ * by multiple threads at a time. Files are read and tokenized outside of any lock. File ids
+ * allocation and files table are shared by all stripes and are lock free.
+ * Removes are lazy like in HashFileIndex. Tokenizer passed to constructor must be thread safe.
+ * Sorted term dictionary is shared by all stripes, token is put into it and removed from it under
+ * write lock of token's stripe.
+ * Adders pass all stripes in order of their files' ids: adder waits at stripe until file with the
+ * previous id has passed it, so ids are always appended to the end of posting lists and concurrent
+ * adders never take the slow insert path of PostingList.
+ * Postings keep frequencies of tokens in files, so search results can be ranked with BM25.
+ *
+ * @see indexer.index.HashFileIndex
+ */
+public class StripedHashFileIndex implements FileIndex {
+    private static final int DEFAULT_STRIPES_NUMBER = 16;
+
+    private final Stripe[] stripes;
+    private final ConcurrentMap<Long, FileEntry> idFileMap = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Long> fileIdMap = new ConcurrentHashMap<>();
+    private final DirectoryTotals directoryTotals = new DirectoryTotals();
+    private final ConcurrentSkipListMap<String, Token> termDictionary = new ConcurrentSkipListMap<>();
+
+    private final AtomicLong lastAddedFileId = new AtomicLong(-1);
+    // number of all tokens in live files
+    private final AtomicLong liveTokensNumber = new AtomicLong(0);
+
+    private final Tokenizer tokenizer;
+
+    private final SearchCursor.PathResolver pathResolver = new SearchCursor.PathResolver() {
+        @Override
+        public void resolve(long[] ids, int idsNumber, List<String> paths) {
+            for(int i = 0; i < idsNumber; i++) {
+                FileEntry fileEntry = idFileMap.get(ids[i]);
+                if(fileEntry != null && !fileEntry.isRemoved()) {
+                    paths.add(fileEntry.getFilePath());
+                }
+            }
+        }
+    };
+
+    private final Bm25Ranker.FileStatistics fileStatistics = new Bm25Ranker.FileStatistics() {
+        @Override
+        public boolean isLive(long fileId) {
+            FileEntry fileEntry = idFileMap.get(fileId);
+            return fileEntry != null && !fileEntry.isRemoved();
+        }
+
+        @Override
+        public int length(long fileId) {
+            FileEntry fileEntry = idFileMap.get(fileId);
+            return fileEntry == null ? -1 : fileEntry.getLength();
+        }
+
+        @Override
+        public long filesNumber() {
+            return fileIdMap.size();
+        }
+
+        @Override
+        public double averageLength() {
+            int filesNumber = fileIdMap.size();
+            return filesNumber == 0 ? 0 : (double) liveTokensNumber.get() / filesNumber;
+        }
+    };
+
+    public StripedHashFileIndex(Tokenizer tokenizer) {
+        this(tokenizer, DEFAULT_STRIPES_NUMBER);
+    }
+
+    public StripedHashFileIndex(Tokenizer tokenizer, int stripesNumber) {
+        if(stripesNumber <= 0) {
+            throw new IllegalArgumentException("stripes number must be positive");
+        }
+        this.tokenizer = tokenizer;
+        this.stripes = new Stripe[stripesNumber];
+        for(int i = 0; i < stripesNumber; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Searches files in index containing specified token under read lock of token's stripe.
+     * Postponed removes for the token are performed afterwards if stripe's write lock is free.
+     *
+     * @param tokenToFind token to find in index
+     * @return            unmodifiable list of files containing specified token
+     */
+    @Override
+    public List<String> search(Token tokenToFind) {
+        if(tokenToFind == null) {
+            return Collections.emptyList();
+        }
+        Stripe stripe = stripeFor(tokenToFind);
+        List<String> paths = new ArrayList<>();
+        boolean removesPostponed = false;
+        stripe.readLock().lock();
+        try {
+            PostingList filesForToken = stripe.tokenFilesMap.get(tokenToFind);
+            if(filesForToken != null) {
+                PostingList.IdIterator it = filesForToken.iterator();
+                while (it.hasNext()) {
+                    FileEntry fileEntry = idFileMap.get(it.next());
+                    if(fileEntry == null) {
+                        continue;
+                    }
+                    if(fileEntry.isRemoved()) {
+                        removesPostponed = true;
+                    } else {
+                        paths.add(fileEntry.getFilePath());
+                    }
+                }
+            }
+        } finally {
+            stripe.readLock().unlock();
+        }
+        if(removesPostponed && stripe.writeLock().tryLock()) {
+            try {
+                stripe.doPostponedRemoves(tokenToFind);
+            } finally {
+                stripe.writeLock().unlock();
+            }
+        }
+        return Collections.unmodifiableList(paths);
+    }
+
+    /**
+     * Searches files in directory containing specified token. Index doesn't keep files by directories,
+     * so paths of all files containing token are checked, postponed removes are performed like in search by token
+     *
+     * @param tokenToFind token to find in index
+     * @param scopePath   directory to search in
+     * @return            list of files in directory and its subdirectories containing token
+     */
+    @Override
+    public List<String> search(Token tokenToFind, String scopePath) {
+        Path scope = Paths.get(scopePath);
+        List<String> paths = new ArrayList<>();
+        for(String file : search(tokenToFind)) {
+            Path filePath = Paths.get(file);
+            if(!PathUtils.pathsAreEqual(scope, filePath) && PathUtils.firstPathIsParent(scope, filePath)) {
+                paths.add(file);
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Counts live files in token's postings under read lock of token's stripe, takes time linear in
+     * postings number but doesn't look up paths
+     */
+    @Override
+    public int count(Token tokenToFind) {
+        return countLive(tokenToFind, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean exists(Token tokenToFind) {
+        return countLive(tokenToFind, 1) > 0;
+    }
+
+    /**
+     * Postings are copied under stripe's read lock, paths are looked up without locking
+     */
+    @Override
+    public SearchCursor searchCursor(Token tokenToFind, long resumeToken) {
+        if(tokenToFind == null) {
+            return SearchCursor.empty(resumeToken);
+        }
+        Stripe stripe = stripeFor(tokenToFind);
+        stripe.readLock().lock();
+        try {
+            return SearchCursor.open(stripe.tokenFilesMap.get(tokenToFind), resumeToken, pathResolver);
+        } finally {
+            stripe.readLock().unlock();
+        }
+    }
+
+    private int countLive(Token tokenToFind, int limit) {
+        if(tokenToFind == null) {
+            return 0;
+        }
+        Stripe stripe = stripeFor(tokenToFind);
+        int live = 0;
+        stripe.readLock().lock();
+        try {
+            PostingList filesForToken = stripe.tokenFilesMap.get(tokenToFind);
+            if(filesForToken != null) {
+                PostingList.IdIterator it = filesForToken.iterator();
+                while (live < limit && it.hasNext()) {
+                    FileEntry fileEntry = idFileMap.get(it.next());
+                    if(fileEntry != null && !fileEntry.isRemoved()) {
+                        live += 1;
+                    }
+                }
+            }
+        } finally {
+            stripe.readLock().unlock();
+        }
+        return live;
+    }
+
+    /**
+     * Searches files matching query. Postings of every query token are copied under read lock
+     * of token's stripe, query is evaluated over the copies without locking
+     *
+     * @param query query to evaluate
+     * @return      list of matching files
+     */
+    @Override
+    public List<String> search(Query query) {
+        PostingsIterator it = query.iterator(copyingSource());
+        List<String> paths = new ArrayList<>();
+        while (it.hasNext()) {
+            FileEntry fileEntry = idFileMap.get(it.next());
+            if(fileEntry != null && !fileEntry.isRemoved()) {
+                paths.add(fileEntry.getFilePath());
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Searches k best files matching query, files are scored with BM25 by frequencies of query's
+     * terms. Postings of every query token are copied under read lock of token's stripe, query is
+     * evaluated and files are ranked over the copies without locking
+     *
+     * @param query query selecting files
+     * @param k     maximum number of files to return
+     * @return      at most k best matching files, the best first
+     * @throws IllegalArgumentException if k is not positive
+     */
+    @Override
+    public List<String> search(Query query, int k) {
+        List<String> paths = new ArrayList<>();
+        for(Bm25Ranker.ScoredFile scoredFile : Bm25Ranker.topFiles(query, copyingSource(), fileStatistics, k)) {
+            FileEntry fileEntry = idFileMap.get(scoredFile.getFileId());
+            // file could have been purged after it was ranked
+            if(fileEntry != null) {
+                paths.add(fileEntry.getFilePath());
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * @return source copying postings of every requested token once under read lock of token's stripe
+     */
+    private PostingsSource copyingSource() {
+        final Map<Token, PostingList> copies = new HashMap<>();
+        return new PostingsSource() {
+            @Override
+            public PostingsIterator postings(Token token) {
+                PostingList copy = copy(token);
+                return copy == null ? null : copy.iterator();
+            }
+
+            @Override
+            public int postingsNumber(Token token) {
+                PostingList copy = copy(token);
+                return copy == null ? 0 : copy.size();
+            }
+
+            @Override
+            public PositionsCursor positions(Token token) {
+                return null;
+            }
+
+            @Override
+            public Iterator<Token> terms(String from) {
+                return termDictionary.tailMap(from, true).values().iterator();
+            }
+
+            private PostingList copy(Token token) {
+                if(copies.containsKey(token)) {
+                    return copies.get(token);
+                }
+                Stripe stripe = stripeFor(token);
+                PostingList copy = null;
+                stripe.readLock().lock();
+                try {
+                    PostingList filesForToken = stripe.tokenFilesMap.get(token);
+                    if(filesForToken != null) {
+                        copy = filesForToken.copy();
+                    }
+                } finally {
+                    stripe.readLock().unlock();
+                }
+                copies.put(token, copy);
+                return copy;
+            }
+        };
+    }
+
+    /**
+     * Searches files containing text matching pattern. Index doesn't store trigrams, so every
+     * indexed file is read without locking
+     *
+     * @param pattern pattern to find
+     * @return        list of files containing pattern's matches
+     */
+    @Override
+    public List<String> searchText(Pattern pattern) {
+        List<FileEntry> candidates = new ArrayList<>();
+        for(FileEntry fileEntry : idFileMap.values()) {
+            if(!fileEntry.isRemoved()) {
+                candidates.add(fileEntry);
+            }
+        }
+        return HashFileIndex.matchingFiles(candidates, pattern);
+    }
+
+    /**
+     * Adds file to index. File is read and tokenized without locking, then its tokens are put
+     * into stripes, each stripe is locked once. If specified file is already in index, it will
+     * not be updated.
+     *
+     * @param encodedFile file's path and charset containing descriptor
+     * @return         {@code true} if file has been added or already presents in index.
+     *                 {@code false} is returned if IO problems occurred while reading file from disk
+     */
+    @Override
+    public boolean addFile(EncodedFile encodedFile) {
+        String filePath = encodedFile.getFilePath();
+        if(!new File(filePath).canRead()) {
+            return false;
+        }
+        if(containsFile(filePath)) {
+            return true;
+        }
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(Paths.get(filePath), BasicFileAttributes.class);
+        } catch (IOException e) {
+            return false;
+        }
+        List<Token> tokens = readTokens(encodedFile);
+        if(tokens == null) {
+            return false;
+        }
+        List<List<Token>> groups = groupByStripes(tokens);
+        // id is taken right before putting, adders with next ids wait for it at stripes
+        long fileId = lastAddedFileId.incrementAndGet();
+        int putTokens = putTokens(groups, fileId);
+        FileEntry fileEntry = new FileEntry(filePath, putTokens, attributes.size(),
+                                            attributes.lastModifiedTime().toMillis(), encodedFile.getCharset(),
+                                            tokens.size());
+        idFileMap.put(fileId, fileEntry);
+        // totals are counted before file becomes visible to removers
+        directoryTotals.add(filePath, fileEntry.getSize(), putTokens);
+        if(fileIdMap.putIfAbsent(filePath, fileId) != null) {
+            // file has been concurrently added by another thread
+            directoryTotals.remove(filePath, fileEntry.getSize(), putTokens);
+            fileEntry.setRemoved();
+        } else {
+            liveTokensNumber.addAndGet(tokens.size());
+        }
+        return true;
+    }
+
+    /**
+     * Adds multiple files in index
+     *
+     * @param files file's path and charset containing descriptors
+     */
+    @Override
+    public void addFiles(List<EncodedFile> files) {
+        for(EncodedFile file : files) {
+            addFile(file);
+        }
+    }
+
+    /**
+     * Lazy removes file from index. Real remove will be performed within search method calls or if method
+     * forceRemoves called
+     *
+     * @param filePath file to remove from index
+     */
+    @Override
+    public void removeFile(String filePath) {
+        Long fileId = fileIdMap.remove(filePath);
+        if(fileId != null) {
+            markRemoved(fileId);
+        }
+    }
+
+    /**
+     * Performs all postponed removes, stripes are locked one by one
+     */
+    @Override
+    public void forceRemoves() {
+        for(Stripe stripe : stripes) {
+            stripe.writeLock().lock();
+            try {
+                stripe.doPostponedRemoves();
+            } finally {
+                stripe.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Updates file in index by marking old version as 'removed' and adding new version from disk.
+     *
+     * @param encodedFile file's path and charset containing descriptor
+     * @return         {@code true} if file has been updated or no such file in index.
+     *                 {@code false} is returned if file can not be read from disk
+     * @throws InconsistentIndexException if file has been removed and than IO errors occurred while adding it again
+     */
+    @Override
+    public boolean handleFileModification(EncodedFile encodedFile) throws InconsistentIndexException {
+        if(new File(encodedFile.getFilePath()).canRead()) {
+            if(containsFile(encodedFile.getFilePath())) {
+                removeFile(encodedFile.getFilePath());
+                if(!addFile(encodedFile)) {
+                    throw new InconsistentIndexException("IO error has made index inconsistent");
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks if specified file is in index
+     *
+     * @param filePath file to check
+     * @return         {@code true} if file is in index, {@code false} otherwise
+     */
+    @Override
+    public boolean containsFile(String filePath) {
+        return fileIdMap.containsKey(filePath);
+    }
+
+    @Override
+    public boolean isFileUpToDate(String filePath, long size, long lastModified) {
+        Long fileId = fileIdMap.get(filePath);
+        FileEntry fileEntry = fileId == null ? null : idFileMap.get(fileId);
+        return fileEntry != null && fileEntry.isUpToDate(size, lastModified);
+    }
+
+    @Override
+    public List<String> getFilesInDirectory(String dirPath) {
+        Path path = Paths.get(dirPath);
+        List<String> files = new ArrayList<>();
+        for(String file : fileIdMap.keySet()) {
+            Path filePath = Paths.get(file);
+            if(!PathUtils.pathsAreEqual(path, filePath) && PathUtils.firstPathIsParent(path, filePath)) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    @Override
+    public void removeDirectory(String dirPath) {
+        Path path = Paths.get(dirPath);
+        for(Map.Entry<String, Long> entry : fileIdMap.entrySet()) {
+            Path filePath = Paths.get(entry.getKey());
+            Long id = entry.getValue();
+            if(!PathUtils.pathsAreEqual(path, filePath) && PathUtils.firstPathIsParent(path, filePath)
+                    && fileIdMap.remove(entry.getKey(), id)) {
+                markRemoved(id);
+            }
+        }
+    }
+
+    /**
+     * Stripes are read one by one under their read locks, so numbers of concurrently changed index
+     * may be inconsistent with each other
+     */
+    @Override
+    public IndexStats getStats(Collection<String> roots) {
+        long termsNumber = 0;
+        long postingsNumber = 0;
+        for(Stripe stripe : stripes) {
+            stripe.readLock().lock();
+            try {
+                termsNumber += stripe.tokenFilesMap.size();
+                postingsNumber += stripe.postingsNumber;
+            } finally {
+                stripe.readLock().unlock();
+            }
+        }
+        int liveFilesNumber = fileIdMap.size();
+        int filesNumber = idFileMap.size();
+        Map<String, IndexStats.RootStats> rootsStats = new LinkedHashMap<>();
+        for(String root : roots) {
+            Long rootId = fileIdMap.get(root);
+            FileEntry rootFile = rootId == null ? null : idFileMap.get(rootId);
+            IndexStats.RootStats rootStats = rootFile == null ? directoryTotals.get(root) : new IndexStats.RootStats();
+            if(rootFile != null) {
+                rootStats.addFile(rootFile.getSize(), rootFile.getTokensCounter());
+            }
+            rootsStats.put(root, rootStats);
+        }
+        long postingsBytes = postingsNumber * IndexStats.ESTIMATED_POSTING_BYTES
+                             + termsNumber * IndexStats.ESTIMATED_LIST_BYTES;
+        return new IndexStats(termsNumber, postingsNumber, liveFilesNumber,
+                              Math.max(filesNumber - liveFilesNumber, 0), postingsBytes,
+                              (long) filesNumber * IndexStats.ESTIMATED_FILE_BYTES,
+                              termsNumber * IndexStats.ESTIMATED_TERM_BYTES, 0, 0, 0, rootsStats);
+    }
+
+    private void markRemoved(long fileId) {
+        FileEntry fileEntry = idFileMap.get(fileId);
+        directoryTotals.remove(fileEntry.getFilePath(), fileEntry.getSize(), fileEntry.getTokensCounter());
+        fileEntry.setRemoved();
+        liveTokensNumber.addAndGet(-Math.max(fileEntry.getLength(), 0));
+    }
+
+    private List<Token> readTokens(EncodedFile encodedFile) {
+        List<Token> tokens;
+        try (Reader reader = new BufferedReader(new InputStreamReader(
+                             new FileInputStream(encodedFile.getFilePath()), encodedFile.getCharset()))) {
+            tokens = tokenizer.tokenize(reader);
+        } catch (IOException e) {
+            return null;
+        }
+        return tokens;
+    }
+
+    private List<List<Token>> groupByStripes(List<Token> tokens) {
+        List<List<Token>> groups = new ArrayList<>(stripes.length);
+        for(int i = 0; i < stripes.length; i++) {
+            groups.add(new ArrayList<Token>());
+        }
+        for(Token token : tokens) {
+            groups.get(stripeIndex(token)).add(token);
+        }
+        return groups;
+    }
+
+    private int putTokens(List<List<Token>> groups, long fileId) {
+        int putTokens = 0;
+        int passed = 0;
+        try {
+            while (passed < stripes.length) {
+                // occurrences are counted before locking, so every token's posting is added once
+                Map<Token, Integer> frequencies = new HashMap<>();
+                for(Token token : groups.get(passed)) {
+                    Integer frequency = frequencies.get(token);
+                    frequencies.put(token, frequency == null ? 1 : frequency + 1);
+                }
+                Stripe stripe = stripes[passed];
+                stripe.writeLock().lock();
+                try {
+                    stripe.awaitTurn(fileId);
+                    for(Map.Entry<Token, Integer> entry : frequencies.entrySet()) {
+                        if(stripe.putInMap(entry.getKey(), fileId, entry.getValue())) {
+                            putTokens += 1;
+                        }
+                    }
+                } finally {
+                    stripe.pass(fileId);
+                    stripe.writeLock().unlock();
+                    passed += 1;
+                }
+            }
+        } finally {
+            // files with next ids wait for this one at every stripe, so stripes are passed even if adding failed
+            for(int i = passed; i < stripes.length; i++) {
+                stripes[i].writeLock().lock();
+                try {
+                    stripes[i].awaitTurn(fileId);
+                    stripes[i].pass(fileId);
+                } finally {
+                    stripes[i].writeLock().unlock();
+                }
+            }
+        }
+        return putTokens;
+    }
+
+    private Stripe stripeFor(Token token) {
+        return stripes[stripeIndex(token)];
+    }
+
+    private int stripeIndex(Token token) {
+        int hash = token.hashCode();
+        hash ^= (hash >>> 16);
+        return (hash & 0x7FFFFFFF) % stripes.length;
+    }
+
+    private class Stripe {
+        private final Map<Token, PostingList> tokenFilesMap = new HashMap<>();
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Condition filePassed = lock.writeLock().newCondition();
+        private long postingsNumber = 0;
+        // id of the last file which has passed stripe
+        private long lastFileId = -1;
+
+        private Lock readLock() {
+            return lock.readLock();
+        }
+
+        private Lock writeLock() {
+            return lock.writeLock();
+        }
+
+        /**
+         * Waits until file with the previous id has passed stripe, must be called under write lock
+         */
+        private void awaitTurn(long fileId) {
+            while (lastFileId != fileId - 1) {
+                filePassed.awaitUninterruptibly();
+            }
+        }
+
+        /**
+         * Lets file with the next id pass stripe, must be called under write lock
+         */
+        private void pass(long fileId) {
+            lastFileId = fileId;
+            filePassed.signalAll();
+        }
+
+        private boolean putInMap(Token token, long fileId, int frequency) {
+            PostingList filesId = tokenFilesMap.get(token);
+            if(filesId == null) {
+                filesId = new PostingList(true);
+                tokenFilesMap.put(token, filesId);
+                termDictionary.put(token.getValue(), token);
+            }
+            if(filesId.add(fileId, frequency)) {
+                postingsNumber += 1;
+                return true;
+            }
+            return false;
+        }
+
+        private void doPostponedRemoves(Token token) {
+            PostingList filesForToken = tokenFilesMap.get(token);
+            if(filesForToken != null) {
+                doPostponedRemoves(filesForToken);
+                if(filesForToken.isEmpty()) {
+                    tokenFilesMap.remove(token);
+                    termDictionary.remove(token.getValue());
+                }
+            }
+        }
+
+        private void doPostponedRemoves() {
+            Iterator<Map.Entry<Token, PostingList>> tokenEntryIt = tokenFilesMap.entrySet().iterator();
+            while (tokenEntryIt.hasNext()) {
+                Map.Entry<Token, PostingList> tokenEntry = tokenEntryIt.next();
+                doPostponedRemoves(tokenEntry.getValue());
+                if(tokenEntry.getValue().isEmpty()) {
+                    tokenEntryIt.remove();
+                    termDictionary.remove(tokenEntry.getKey().getValue());
+                }
+            }
+        }
+
+        private void doPostponedRemoves(PostingList tokenFiles) {
+            postingsNumber -= tokenFiles.removeIf(new PostingList.IdPredicate() {
+                @Override
+                public boolean test(long fileId) {
+                    FileEntry fileEntry = idFileMap.get(fileId);
+                    if(fileEntry != null && fileEntry.isRemoved()) {
+                        if(fileEntry.decreaseTokensCounter() <= 0) {
+                            idFileMap.remove(fileId);
+                        }
+                        return true;
+                    }
+                    return false;
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package indexer.index;
+
+import indexer.tokenizer.TermIds;
+
+import java.util.Arrays;
+
+/**
+ * Dictionary of terms owned by index, maps terms' text to dense int ids. Characters of all terms
+ * are kept in one char array, terms are found through open addressing hash table, so looking up
+ * known term from tokenizer's buffer doesn't allocate. Ids of removed terms are kept in free list
+ * and are given to new terms first, so ids stay below the maximum number of terms the dictionary
+ * has had at a time. Characters of removed terms are dropped when they take more than half of the
+ * char array.
+ * Class is not thread safe. Multiple readers are allowed only if there are no concurrent writers.
+ */
+public class TermDictionary implements TermIds {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private char[] chars = new char[INITIAL_CAPACITY * 8];
+    private int charsLength = 0;
+    // number of chars in array taken by removed terms
+    private int removedChars = 0;
+    // offset and length of every term's text in chars, length is -1 for free id
+    private int[] offsets = new int[INITIAL_CAPACITY];
+    private int[] lengths = new int[INITIAL_CAPACITY];
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    private int idsNumber = 0;
+    private int size = 0;
+    private int[] freeIds = new int[0];
+    private int freeIdsNumber = 0;
+    // term id + 1 for every occupied slot, 0 for free slot
+    private int[] table = new int[INITIAL_CAPACITY * 2];
+
+    /**
+     * @return number of bytes taken by dictionary's arrays
+     */
+    public long bytes() {
+        return (long) chars.length * 2
+               + ((long) offsets.length + lengths.length + hashes.length + freeIds.length + table.length) * 4;
+    }
+
+    /**
+     * @return number of terms in dictionary
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return bound of ids given to terms, ids of all terms in dictionary are less than it
+     */
+    public int idsNumber() {
+        return idsNumber;
+    }
+
+    /**
+     * @param id id to check
+     * @return   {@code true} if id is given to some term in dictionary
+     */
+    public boolean contains(int id) {
+        return id >= 0 && id < idsNumber && lengths[id] >= 0;
+    }
+
+    @Override
+    public int termId(char[] termChars, int offset, int length) {
+        int hash = hash(termChars, offset, length);
+        int slot = hash & (table.length - 1);
+        while (table[slot] != 0) {
+            int id = table[slot] - 1;
+            if(hashes[id] == hash && equals(id, termChars, offset, length)) {
+                return id;
+            }
+            slot = (slot + 1) & (table.length - 1);
+        }
+        return insert(slot, hash, termChars, offset, length);
+    }
+
+    /**
+     * @param term term's text
+     * @return     term's id, term is inserted if it is not known yet
+     */
+    public int termId(String term) {
+        int id = lookup(term);
+        return id >= 0 ? id : termId(term.toCharArray(), 0, term.length());
+    }
+
+    /**
+     * @param term term's text
+     * @return     term's id or -1 if there is no such term in dictionary
+     */
+    public int lookup(CharSequence term) {
+        int hash = hash(term);
+        int slot = hash & (table.length - 1);
+        while (table[slot] != 0) {
+            int id = table[slot] - 1;
+            if(hashes[id] == hash && equals(id, term)) {
+                return id;
+            }
+            slot = (slot + 1) & (table.length - 1);
+        }
+        return -1;
+    }
+
+    /**
+     * @param id term's id
+     * @return   term's text, new string is created on every call
+     */
+    public String term(int id) {
+        return new String(chars, offsets[id], lengths[id]);
+    }
+
+    /**
+     * @param id term's id
+     * @return   length of term's text
+     */
+    public int length(int id) {
+        return lengths[id];
+    }
+
+    /**
+     * Removes term from dictionary, its id can be given to another term afterwards
+     *
+     * @param id term's id
+     * @throws IllegalArgumentException if there is no term with such id
+     */
+    public void remove(int id) {
+        if(!contains(id)) {
+            throw new IllegalArgumentException("no term with id " + id);
+        }
+        int mask = table.length - 1;
+        int hole = hashes[id] & mask;
+        while (table[hole] != id + 1) {
+            hole = (hole + 1) & mask;
+        }
+        // entries following the hole are shifted back if the hole is between their home slot and them
+        int slot = (hole + 1) & mask;
+        while (table[slot] != 0) {
+            int home = hashes[table[slot] - 1] & mask;
+            if(((slot - home) & mask) >= ((slot - hole) & mask)) {
+                table[hole] = table[slot];
+                hole = slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[hole] = 0;
+
+        removedChars += lengths[id];
+        lengths[id] = -1;
+        if(freeIdsNumber == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, Math.max(freeIds.length * 2, 16));
+        }
+        freeIds[freeIdsNumber++] = id;
+        size -= 1;
+        if(removedChars > charsLength / 2) {
+            compactChars();
+        }
+    }
+
+    private int insert(int slot, int hash, char[] termChars, int offset, int length) {
+        if(charsLength + length > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charsLength + length));
+        }
+        System.arraycopy(termChars, offset, chars, charsLength, length);
+        int id;
+        if(freeIdsNumber > 0) {
+            id = freeIds[--freeIdsNumber];
+        } else {
+            if(idsNumber == hashes.length) {
+                hashes = Arrays.copyOf(hashes, idsNumber * 2);
+                offsets = Arrays.copyOf(offsets, idsNumber * 2);
+                lengths = Arrays.copyOf(lengths, idsNumber * 2);
+            }
+            id = idsNumber++;
+        }
+        offsets[id] = charsLength;
+        lengths[id] = length;
+        hashes[id] = hash;
+        charsLength += length;
+        size += 1;
+        table[slot] = id + 1;
+        // table is kept at most half full
+        if(size * 2 > table.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        for(int id = 0; id < idsNumber; id++) {
+            if(lengths[id] < 0) {
+                continue;
+            }
+            int slot = hashes[id] & (table.length - 1);
+            while (table[slot] != 0) {
+                slot = (slot + 1) & (table.length - 1);
+            }
+            table[slot] = id + 1;
+        }
+    }
+
+    /**
+     * Copies text of terms in dictionary into new array, ids are kept
+     */
+    private void compactChars() {
+        int liveChars = charsLength - removedChars;
+        char[] compacted = new char[Math.max(INITIAL_CAPACITY * 8, liveChars * 2)];
+        int length = 0;
+        for(int id = 0; id < idsNumber; id++) {
+            if(lengths[id] < 0) {
+                continue;
+            }
+            System.arraycopy(chars, offsets[id], compacted, length, lengths[id]);
+            offsets[id] = length;
+            length += lengths[id];
+        }
+        chars = compacted;
+        charsLength = length;
+        removedChars = 0;
+    }
+
+    private boolean equals(int id, char[] termChars, int offset, int length) {
+        if(length(id) != length) {
+            return false;
+        }
+        int start = offsets[id];
+        for(int i = 0; i < length; i++) {
+            if(chars[start + i] != termChars[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean equals(int id, CharSequence term) {
+        if(length(id) != term.length()) {
+            return false;
+        }
+        int start = offsets[id];
+        for(int i = 0; i < term.length(); i++) {
+            if(chars[start + i] != term.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // hash of String with the same text, spread so that low bits are usable as slot
+    private static int hash(char[] termChars, int offset, int length) {
+        int hash = 0;
+        for(int i = 0; i < length; i++) {
+            hash = 31 * hash + termChars[offset + i];
+        }
+        return spread(hash);
+    }
+
+    private static int hash(CharSequence term) {
+        if(term instanceof String) {
+            // strings cache their hash
+            return spread(term.hashCode());
+        }
+        int hash = 0;
+        for(int i = 0; i < term.length(); i++) {
+            hash = 31 * hash + term.charAt(i);
+        }
+        return spread(hash);
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,329 @@
+package indexer.index;
+
+import indexer.tokenizer.Token;
+
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Purges postings of removed files from HashFileIndex in background thread. Work is done in slices:
+ * every slice holds index's write lock for at most the specified time, so searches and updates are
+ * delayed by one slice at worst. Tokens which searches have found stale are purged first, the rest
+ * of index is swept token by token while global tombstone ratio (share of removed but not purged
+ * postings) is not less than the threshold or number of removed postings is not less than the absolute
+ * threshold. Below both thresholds a slow sweep is started once per idle interval if there are any
+ * removed postings, so postings of removed files are reclaimed even if they are a tiny share of big
+ * index. Sweep position is kept between slices. Trigram postings are purged after the sweep over
+ * tokens, their purge respects slice time too and is resumed by the next slice.
+ * Thread is started on first notification, so indices without removes don't own any thread. Slices
+ * are scheduled only while there is work to do or an idle sweep to wait for, idle compactor is woken
+ * up by notifications.
+ *
+ * @see indexer.index.ConcurrentHashFileIndex
+ */
+public class TombstoneCompactor implements Closeable {
+    private static final long DEFAULT_SLICE_MILLIS = 5;
+    private static final long DEFAULT_PAUSE_MILLIS = 20;
+    private static final double DEFAULT_RATIO_THRESHOLD = 0.1;
+    private static final long DEFAULT_REMOVED_THRESHOLD = 1 << 16;
+    private static final long DEFAULT_IDLE_SWEEP_MILLIS = 60000;
+    private static final int TOKENS_BETWEEN_DEADLINE_CHECKS = 64;
+
+    private final HashFileIndex index;
+    private final Lock writeLock;
+    private final long sliceNanos;
+    private final long pauseMillis;
+    private final double ratioThreshold;
+    private final long removedThreshold;
+    private final long idleSweepNanos;
+    private long lastSweepNanos = System.nanoTime();
+
+    private final ConcurrentMap<Token, Double> staleTokens = new ConcurrentHashMap<>();
+    private Iterator<Token> sweepIterator = null;
+    private volatile int sweepTokensNumber = 0;
+    private volatile int sweptTokensNumber = 0;
+    private final AtomicLong purgedPostingsNumber = new AtomicLong(0);
+    private final AtomicLong slicesNumber = new AtomicLong(0);
+    private volatile long completedSweepsNumber = 0;
+
+    private volatile ScheduledExecutorService executor = null;
+    private boolean closed = false;
+    // slice is scheduled or running, guarded by this
+    private boolean scheduled = false;
+
+    TombstoneCompactor(HashFileIndex index, Lock writeLock) {
+        this(index, writeLock, DEFAULT_SLICE_MILLIS, DEFAULT_PAUSE_MILLIS, DEFAULT_RATIO_THRESHOLD,
+             DEFAULT_REMOVED_THRESHOLD, DEFAULT_IDLE_SWEEP_MILLIS);
+    }
+
+    /**
+     * @param index          index to compact
+     * @param writeLock      lock guarding index modifications
+     * @param sliceMillis    maximum time write lock is held by one slice
+     * @param pauseMillis    pause between slices
+     * @param ratioThreshold   global tombstone ratio starting sweep over all tokens
+     * @param removedThreshold number of removed postings starting sweep over all tokens
+     * @param idleSweepMillis  minimum time between the end of sweep and slow sweep started below thresholds
+     */
+    TombstoneCompactor(HashFileIndex index, Lock writeLock, long sliceMillis, long pauseMillis,
+                       double ratioThreshold, long removedThreshold, long idleSweepMillis) {
+        if(sliceMillis <= 0 || pauseMillis <= 0 || idleSweepMillis <= 0) {
+            throw new IllegalArgumentException("slice, pause and idle sweep interval must be positive");
+        }
+        this.index = index;
+        this.writeLock = writeLock;
+        this.sliceNanos = TimeUnit.MILLISECONDS.toNanos(sliceMillis);
+        this.pauseMillis = pauseMillis;
+        this.ratioThreshold = ratioThreshold;
+        this.removedThreshold = removedThreshold;
+        this.idleSweepNanos = TimeUnit.MILLISECONDS.toNanos(idleSweepMillis);
+    }
+
+    /**
+     * Notifies compactor that some files have been removed from index
+     */
+    void onFilesRemoved() {
+        schedule(pauseMillis);
+    }
+
+    /**
+     * Notifies compactor that search has found removed files in token's posting list
+     *
+     * @param token          searched token
+     * @param tombstoneRatio share of removed files in token's posting list
+     */
+    void onStaleToken(Token token, double tombstoneRatio) {
+        staleTokens.put(token, tombstoneRatio);
+        schedule(pauseMillis);
+    }
+
+    /**
+     * Runs one slice of compaction in the calling thread
+     *
+     * @return {@code true} if there is work left for next slices
+     */
+    boolean runSlice() {
+        if(staleTokens.isEmpty() && sweepIterator == null && !sweepNeeded()) {
+            return false;
+        }
+        writeLock.lock();
+        try {
+            long deadline = System.nanoTime() + sliceNanos;
+            slicesNumber.incrementAndGet();
+            if(!purgeStaleTokens(deadline)) {
+                return true;
+            }
+            if(sweepIterator == null) {
+                if(!sweepNeeded()) {
+                    return false;
+                }
+                sweepIterator = index.tokens().iterator();
+                sweepTokensNumber = index.tokens().size();
+                sweptTokensNumber = 0;
+            }
+            int checked = 0;
+            while (sweepIterator.hasNext()) {
+                purgedPostingsNumber.addAndGet(index.doPostponedRemoves(sweepIterator.next()));
+                sweptTokensNumber += 1;
+                if(++checked % TOKENS_BETWEEN_DEADLINE_CHECKS == 0 && System.nanoTime() >= deadline) {
+                    return true;
+                }
+            }
+            // exhausted sweep iterator is kept till global purge finishes
+            if(!index.doPostponedGlobalRemoves(deadline)) {
+                return true;
+            }
+            sweepIterator = null;
+            completedSweepsNumber += 1;
+            lastSweepNanos = System.nanoTime();
+            return sweepNeeded();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * @return current compaction state. Index counters are read without locking, so they may be
+     *         slightly out of date
+     */
+    public Progress getProgress() {
+        return new Progress(index.postingsNumber(), index.removedPostingsNumber(), staleTokens.size(),
+                            sweptTokensNumber, sweepTokensNumber, completedSweepsNumber,
+                            purgedPostingsNumber.get(), slicesNumber.get());
+    }
+
+    /**
+     * Stops background thread, slice being run at the moment is finished
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if(executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private boolean sweepNeeded() {
+        long removed = index.removedPostingsNumber();
+        return removed > 0 && (index.tombstoneRatio() >= ratioThreshold || removed >= removedThreshold
+                               || System.nanoTime() - lastSweepNanos >= idleSweepNanos);
+    }
+
+    private boolean purgeStaleTokens(long deadline) {
+        if(staleTokens.isEmpty()) {
+            return true;
+        }
+        List<Map.Entry<Token, Double>> byRatio = new ArrayList<>(staleTokens.entrySet());
+        Collections.sort(byRatio, new Comparator<Map.Entry<Token, Double>>() {
+            @Override
+            public int compare(Map.Entry<Token, Double> o1, Map.Entry<Token, Double> o2) {
+                return Double.compare(o2.getValue(), o1.getValue());
+            }
+        });
+        for(Map.Entry<Token, Double> entry : byRatio) {
+            if(System.nanoTime() >= deadline) {
+                return false;
+            }
+            staleTokens.remove(entry.getKey());
+            purgedPostingsNumber.addAndGet(index.doPostponedRemoves(entry.getKey()));
+        }
+        return true;
+    }
+
+    /**
+     * @return {@code true} if slice is scheduled or running
+     */
+    synchronized boolean isScheduled() {
+        return scheduled;
+    }
+
+    /**
+     * Schedules slice if none is scheduled, starts thread on the first call
+     */
+    private synchronized void schedule(long delayMillis) {
+        if(scheduled || closed) {
+            return;
+        }
+        if(executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "tombstone-compactor");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+        }
+        scheduled = true;
+        executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                runScheduledSlice();
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs slice and schedules the next one if there is work left. Otherwise compactor goes idle, and
+     * if removed postings are left below thresholds, it wakes up for idle sweep
+     */
+    private void runScheduledSlice() {
+        boolean workLeft = runSlice();
+        synchronized (this) {
+            // notifications coming after this point schedule slice themselves
+            scheduled = false;
+        }
+        if(workLeft || !staleTokens.isEmpty() || sweepNeeded()) {
+            schedule(pauseMillis);
+        } else if(index.removedPostingsNumber() > 0) {
+            long idleLeftNanos = idleSweepNanos - (System.nanoTime() - lastSweepNanos);
+            schedule(Math.max(pauseMillis, TimeUnit.NANOSECONDS.toMillis(idleLeftNanos)));
+        }
+    }
+
+    /**
+     * Snapshot of compaction state
+     */
+    public static class Progress {
+        private final long postingsNumber;
+        private final long removedPostingsNumber;
+        private final int staleTokensNumber;
+        private final int sweptTokensNumber;
+        private final int sweepTokensNumber;
+        private final long completedSweepsNumber;
+        private final long purgedPostingsNumber;
+        private final long slicesNumber;
+
+        private Progress(long postingsNumber, long removedPostingsNumber, int staleTokensNumber,
+                         int sweptTokensNumber, int sweepTokensNumber, long completedSweepsNumber,
+                         long purgedPostingsNumber, long slicesNumber) {
+            this.postingsNumber = postingsNumber;
+            this.removedPostingsNumber = removedPostingsNumber;
+            this.staleTokensNumber = staleTokensNumber;
+            this.sweptTokensNumber = sweptTokensNumber;
+            this.sweepTokensNumber = sweepTokensNumber;
+            this.completedSweepsNumber = completedSweepsNumber;
+            this.purgedPostingsNumber = purgedPostingsNumber;
+            this.slicesNumber = slicesNumber;
+        }
+
+        /**
+         * @return number of postings in index including removed but not purged ones
+         */
+        public long getPostingsNumber() {
+            return postingsNumber;
+        }
+
+        /**
+         * @return number of postings of removed files waiting to be purged
+         */
+        public long getRemovedPostingsNumber() {
+            return removedPostingsNumber;
+        }
+
+        /**
+         * @return share of removed but not purged postings among all postings
+         */
+        public double getTombstoneRatio() {
+            return postingsNumber == 0 ? 0 : (double) removedPostingsNumber / postingsNumber;
+        }
+
+        /**
+         * @return number of tokens found stale by searches and waiting to be purged
+         */
+        public int getStaleTokensNumber() {
+            return staleTokensNumber;
+        }
+
+        /**
+         * @return share of tokens processed by current sweep, 1 if sweep has finished
+         */
+        public double getSweepProgress() {
+            return sweepTokensNumber == 0 ? 1 : Math.min(1.0, (double) sweptTokensNumber / sweepTokensNumber);
+        }
+
+        public long getCompletedSweepsNumber() {
+            return completedSweepsNumber;
+        }
+
+        /**
+         * @return number of postings purged since compactor creation
+         */
+        public long getPurgedPostingsNumber() {
+            return purgedPostingsNumber;
+        }
+
+        public long getSlicesNumber() {
+            return slicesNumber;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package indexer.index;
+
+import indexer.query.PostingsSource;
+import indexer.tokenizer.Token;
+import indexer.tokenizer.Word;
+
+import java.io.*;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Postings of every three consecutive characters of files' content (whitespace and line breaks
+ * included), so substring and regular expression searches can narrow candidate files before
+ * reading them. Trigrams are collected by {@link CollectingReader} while file is tokenized, so
+ * file is read from disk once. Trigrams are kept as three-character Word tokens, so trigram queries
+ * are usual queries evaluated over {@link #source()}.
+ * Class is not thread safe. Multiple readers are allowed only if there are no concurrent writers.
+ *
+ * @see indexer.query.PatternTrigrams
+ */
+class TrigramIndex {
+    private static final int LISTS_BETWEEN_DEADLINE_CHECKS = 64;
+
+    // iterators of concurrent map never throw ConcurrentModificationException, so purge can be resumed
+    private final Map<Token, PostingList> trigramFilesMap = new ConcurrentHashMap<>();
+
+    private final PostingsSource source = new PostingsSource() {
+        @Override
+        public PostingsIterator postings(Token token) {
+            PostingList files = trigramFilesMap.get(token);
+            return files == null ? null : files.iterator();
+        }
+
+        @Override
+        public int postingsNumber(Token token) {
+            PostingList files = trigramFilesMap.get(token);
+            return files == null ? 0 : files.size();
+        }
+
+        @Override
+        public PositionsCursor positions(Token token) {
+            return null;
+        }
+
+        /**
+         * Trigrams are not enumerated, so multi-term queries over them match no files
+         */
+        @Override
+        public Iterator<Token> terms(String from) {
+            return Collections.emptyIterator();
+        }
+    };
+
+    PostingsSource source() {
+        return source;
+    }
+
+    /**
+     * @param fileId   id of added file, must be bigger than ids added before
+     * @param trigrams distinct trigrams of file's content
+     */
+    void add(long fileId, Set<String> trigrams) {
+        for(String trigram : trigrams) {
+            Word token = new Word(trigram);
+            PostingList files = trigramFilesMap.get(token);
+            if(files == null) {
+                files = new PostingList();
+                trigramFilesMap.put(token, files);
+            }
+            files.add(fileId);
+        }
+    }
+
+    /**
+     * @return iterator over posting lists of all trigrams to be passed to purge. Iterator stays valid
+     *         after trigrams are added or dropped, so purge can be split between several calls
+     */
+    Iterator<PostingList> purgeIterator() {
+        return trigramFilesMap.values().iterator();
+    }
+
+    /**
+     * Removes postings of removed files from lists returned by iterator till deadline, trigrams left
+     * without files are dropped
+     *
+     * @param it       iterator returned by {@link #purgeIterator()}
+     * @param removed  predicate selecting removed files
+     * @param deadline value of System.nanoTime() to stop at
+     * @return         {@code true} if all lists have been purged, {@code false} if purge has stopped at deadline
+     */
+    boolean purge(Iterator<PostingList> it, PostingList.IdPredicate removed, long deadline) {
+        int checked = 0;
+        while (it.hasNext()) {
+            PostingList files = it.next();
+            files.removeIf(removed);
+            if(files.isEmpty()) {
+                it.remove();
+            }
+            if(++checked % LISTS_BETWEEN_DEADLINE_CHECKS == 0 && System.nanoTime() >= deadline) {
+                return !it.hasNext();
+            }
+        }
+        return true;
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(trigramFilesMap.size());
+        for(Map.Entry<Token, PostingList> entry : trigramFilesMap.entrySet()) {
+            PostingList files = entry.getValue();
+            out.writeUTF(entry.getKey().getValue());
+            out.writeInt(files.size());
+            out.writeLong(files.last());
+            out.writeInt(files.encodedLength());
+            files.writeTo(out);
+        }
+    }
+
+    /**
+     * Reads postings written by {@link #writeTo(DataOutput)} into this index
+     */
+    void readFrom(DataInput in) throws IOException {
+        int trigramsNumber = in.readInt();
+        for(int i = 0; i < trigramsNumber; i++) {
+            String trigram = in.readUTF();
+            int size = in.readInt();
+            long last = in.readLong();
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            trigramFilesMap.put(new Word(trigram), new PostingList(data, size, last));
+        }
+    }
+
+    /**
+     * Checks file's content by mapping it into memory and decoding it with specified charset.
+     * Malformed input is replaced like when file is tokenized
+     *
+     * @param filePath file to check
+     * @param charset  file's charset
+     * @param pattern  pattern to find
+     * @return         {@code true} if pattern is found in file, {@code false} if it is not found
+     *                 or file can't be read
+     */
+    static boolean contentMatches(String filePath, Charset charset, Pattern pattern) {
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            if(channel.size() > Integer.MAX_VALUE) {
+                return false;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            CharsetDecoder decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+                                            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            CharBuffer content = decoder.decode(buffer);
+            return pattern.matcher(content).find();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reader collecting distinct trigrams of all characters read through it
+     */
+    static class CollectingReader extends FilterReader {
+        private final Set<String> trigrams;
+        private char first;
+        private char second;
+        private int charsRead = 0;
+
+        /**
+         * @param in       reader to read from
+         * @param trigrams set to put trigrams to
+         */
+        CollectingReader(Reader in, Set<String> trigrams) {
+            super(in);
+            this.trigrams = trigrams;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = super.read();
+            if(c != -1) {
+                collect((char) c);
+            }
+            return c;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            int read = super.read(cbuf, off, len);
+            for(int i = 0; i < read; i++) {
+                collect(cbuf[off + i]);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            throw new IOException("skip is not supported");
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void collect(char c) {
+            if(charsRead >= 2) {
+                trigrams.add(new String(new char[] {first, second, c}));
+            }
+            first = second;
+            second = c;
+            charsRead += 1;
+        }
+    }
+}
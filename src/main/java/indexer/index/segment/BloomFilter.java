@@ -0,0 +1,97 @@
+package indexer.index.segment;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Bloom filter of segment's terms. It takes 10 bits per term and sets 7 bits for every term, which
+ * gives about 1% of false positives. Bit positions are derived from two halves of 64-bit hash of
+ * term's chars. Filter is built by SegmentWriter and is probed by Segment right in mapped buffer.
+ *
+ * @see indexer.index.segment.Segment
+ */
+class BloomFilter {
+    static final int BITS_PER_TERM = 10;
+    static final int HASHES_NUMBER = 7;
+
+    private final long[] words;
+    private final long bitsNumber;
+
+    /**
+     * @param termsNumber number of terms to be added
+     */
+    BloomFilter(int termsNumber) {
+        words = new long[wordsNumber(termsNumber)];
+        bitsNumber = (long) words.length * 64;
+    }
+
+    /**
+     * @param termsNumber number of terms to be added
+     * @return            number of 64-bit words taken by filter
+     */
+    static int wordsNumber(int termsNumber) {
+        return Math.max(1, (int) (((long) termsNumber * BITS_PER_TERM + 63) / 64));
+    }
+
+    /**
+     * @return number of 64-bit words taken by filter
+     */
+    int wordsNumber() {
+        return words.length;
+    }
+
+    void add(String term) {
+        long hash = hash(term);
+        int first = (int) hash;
+        int second = (int) (hash >>> 32);
+        for(int i = 0; i < HASHES_NUMBER; i++) {
+            long bit = ((first + (long) i * second) & Long.MAX_VALUE) % bitsNumber;
+            words[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        for(long word : words) {
+            out.writeLong(word);
+        }
+    }
+
+    /**
+     * @param buffer      buffer filter has been written to
+     * @param offset      offset of filter in buffer
+     * @param wordsNumber number of filter's words
+     * @param term        term to check
+     * @return            {@code false} if term has definitely not been added to filter
+     */
+    static boolean mayContain(ByteBuffer buffer, int offset, int wordsNumber, String term) {
+        long bitsNumber = (long) wordsNumber * 64;
+        long hash = hash(term);
+        int first = (int) hash;
+        int second = (int) (hash >>> 32);
+        for(int i = 0; i < HASHES_NUMBER; i++) {
+            long bit = ((first + (long) i * second) & Long.MAX_VALUE) % bitsNumber;
+            if((buffer.getLong(offset + (int) (bit >>> 6) * 8) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * FNV-1a hash of chars finished by mixing step of MurmurHash3, so both halves are well distributed
+     */
+    private static long hash(String term) {
+        long hash = 0xcbf29ce484222325L;
+        for(int i = 0; i < term.length(); i++) {
+            hash ^= term.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,333 @@
+package indexer.index.segment;
+
+import indexer.index.PostingsIterator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Immutable on-disk index segment read through MappedByteBuffer. Segment consists of
+ * <ul>
+ *     <li>header with magic number, version and sections sizes</li>
+ *     <li>files table: (file id, path offset, path length, size, modification time, number of tokens)
+ *     entries sorted by file id</li>
+ *     <li>terms dictionary: (term offset, term length, postings offset, postings number, postings length)
+ *     entries sorted by term</li>
+ *     <li>tombstones: ids of files from other segments that have been removed</li>
+ *     <li>strings: UTF-8 encoded paths and terms</li>
+ *     <li>postings: file ids of every term, delta- and varint-encoded like in PostingList, followed by
+ *     term's frequency in every file, one saturated byte per id</li>
+ *     <li>Bloom filter of terms, so lookups of absent terms mostly don't touch dictionary</li>
+ * </ul>
+ * Segments of other versions are rejected. All reads use absolute positions, so segment can be read
+ * by multiple threads at a time.
+ * Segment size is limited by 2GB.
+ *
+ * @see indexer.index.segment.SegmentWriter
+ * @see indexer.index.PostingList
+ */
+public class Segment {
+    static final int MAGIC = 0x4A495347;
+    static final int VERSION = 4;
+    static final int HEADER_SIZE = 48;
+    static final int FILE_ENTRY_SIZE = 36;
+    static final int TERM_ENTRY_SIZE = 24;
+    static final int TOMBSTONE_SIZE = 8;
+
+    private final Path file;
+    private final ByteBuffer buffer;
+    private final int filesNumber;
+    private final int termsNumber;
+    private final int tombstonesNumber;
+    private final int termsOffset;
+    private final int tombstonesOffset;
+    private final int stringsOffset;
+    private final int postingsOffset;
+    private final int filterOffset;
+    private final int filterWords;
+    private final AtomicLong filterRejects = new AtomicLong();
+    private final AtomicLong filterFalsePositives = new AtomicLong();
+    private volatile long postingsNumber = -1;
+
+    private Segment(Path file, ByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+        if(buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("not an index segment: " + file);
+        }
+        int version = buffer.getInt(4);
+        if(version != VERSION) {
+            throw new IOException("unsupported segment version " + version + ": " + file);
+        }
+        filesNumber = buffer.getInt(8);
+        termsNumber = buffer.getInt(12);
+        tombstonesNumber = buffer.getInt(16);
+        stringsOffset = (int) buffer.getLong(20);
+        postingsOffset = (int) buffer.getLong(28);
+        filterOffset = (int) buffer.getLong(36);
+        filterWords = buffer.getInt(44);
+        termsOffset = HEADER_SIZE + filesNumber * FILE_ENTRY_SIZE;
+        tombstonesOffset = termsOffset + termsNumber * TERM_ENTRY_SIZE;
+    }
+
+    /**
+     * Maps segment file into memory
+     *
+     * @param file segment file
+     * @return     opened segment
+     * @throws IOException if file can't be mapped or it is not a segment
+     */
+    public static Segment open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if(channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("segment is too big: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new Segment(file, buffer);
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return size of segment file in bytes
+     */
+    public int size() {
+        return buffer.capacity();
+    }
+
+    /**
+     * @return number of postings of all terms, it is counted on the first call
+     */
+    public long postingsNumber() {
+        long number = postingsNumber;
+        if(number < 0) {
+            number = 0;
+            for(int i = 0; i < termsNumber; i++) {
+                number += postingsNumberAt(i);
+            }
+            postingsNumber = number;
+        }
+        return number;
+    }
+
+    public int filesNumber() {
+        return filesNumber;
+    }
+
+    public long fileIdAt(int index) {
+        return buffer.getLong(HEADER_SIZE + index * FILE_ENTRY_SIZE);
+    }
+
+    public String filePathAt(int index) {
+        int entry = HEADER_SIZE + index * FILE_ENTRY_SIZE;
+        return readString(buffer.getInt(entry + 8), buffer.getInt(entry + 12));
+    }
+
+    public long fileSizeAt(int index) {
+        return buffer.getLong(HEADER_SIZE + index * FILE_ENTRY_SIZE + 16);
+    }
+
+    public long fileLastModifiedAt(int index) {
+        return buffer.getLong(HEADER_SIZE + index * FILE_ENTRY_SIZE + 24);
+    }
+
+    /**
+     * @return number of all tokens in file or -1 if it was unknown when file was written
+     */
+    public int fileLengthAt(int index) {
+        return buffer.getInt(HEADER_SIZE + index * FILE_ENTRY_SIZE + 32);
+    }
+
+    /**
+     * @param fileId id of file
+     * @return       path of file with specified id or null if segment has no such file
+     */
+    public String filePath(long fileId) {
+        int index = fileIndex(fileId);
+        return index < 0 ? null : filePathAt(index);
+    }
+
+    /**
+     * @param fileId id of file
+     * @return       index of file in files table or negative value if segment has no such file
+     */
+    public int fileIndex(long fileId) {
+        int low = 0;
+        int high = filesNumber - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midId = fileIdAt(mid);
+            if(midId < fileId) {
+                low = mid + 1;
+            } else if(midId > fileId) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    public int termsNumber() {
+        return termsNumber;
+    }
+
+    public String termAt(int index) {
+        int entry = termsOffset + index * TERM_ENTRY_SIZE;
+        return readString(buffer.getInt(entry), buffer.getInt(entry + 4));
+    }
+
+    public int postingsNumberAt(int index) {
+        return buffer.getInt(termsOffset + index * TERM_ENTRY_SIZE + 16);
+    }
+
+    public PostingsIterator postingsAt(int index) {
+        int entry = termsOffset + index * TERM_ENTRY_SIZE;
+        int pos = postingsOffset + (int) buffer.getLong(entry + 8);
+        return new MappedPostingsIterator(pos, buffer.getInt(entry + 16), pos + buffer.getInt(entry + 20));
+    }
+
+    /**
+     * @param term term to find
+     * @return     index of term in dictionary or negative value if there is no such term
+     */
+    public int termIndex(String term) {
+        int low = 0;
+        int high = termsNumber - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = termAt(mid).compareTo(term);
+            if(cmp < 0) {
+                low = mid + 1;
+            } else if(cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * @param term term to check
+     * @return     {@code false} if segment definitely has no such term, checking doesn't read dictionary
+     */
+    public boolean mayContain(String term) {
+        return BloomFilter.mayContain(buffer, filterOffset, filterWords, term);
+    }
+
+    /**
+     * Looks up term in dictionary if filter doesn't reject it
+     *
+     * @param term term to find
+     * @return     iterator over term's postings or null if segment has no such term
+     */
+    public PostingsIterator postings(String term) {
+        if(!mayContain(term)) {
+            filterRejects.incrementAndGet();
+            return null;
+        }
+        int index = termIndex(term);
+        if(index < 0) {
+            filterFalsePositives.incrementAndGet();
+        }
+        return index < 0 ? null : postingsAt(index);
+    }
+
+    /**
+     * @return number of postings lookups answered by filter without reading dictionary
+     */
+    public long filterRejects() {
+        return filterRejects.get();
+    }
+
+    /**
+     * @return number of postings lookups of absent terms which filter has passed
+     */
+    public long filterFalsePositives() {
+        return filterFalsePositives.get();
+    }
+
+    public int tombstonesNumber() {
+        return tombstonesNumber;
+    }
+
+    public long tombstoneAt(int index) {
+        return buffer.getLong(tombstonesOffset + index * TOMBSTONE_SIZE);
+    }
+
+    private String readString(int offset, int length) {
+        byte[] bytes = new byte[length];
+        int start = stringsOffset + offset;
+        for(int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private class MappedPostingsIterator implements PostingsIterator {
+        private int pos;
+        private int left;
+        // position of the current id's frequency
+        private int frequencyPos;
+        private long current = 0;
+        private boolean first = true;
+
+        private MappedPostingsIterator(int pos, int number, int frequenciesPos) {
+            this.pos = pos;
+            this.left = number;
+            this.frequencyPos = frequenciesPos - 1;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return left > 0;
+        }
+
+        @Override
+        public long next() {
+            if(left <= 0) {
+                throw new NoSuchElementException();
+            }
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer.get(pos++);
+                delta |= (long)(b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            current = first ? delta : current + delta;
+            first = false;
+            left -= 1;
+            frequencyPos += 1;
+            return current;
+        }
+
+        @Override
+        public long advance(long target) {
+            while (left > 0) {
+                long id = next();
+                if(id >= target) {
+                    return id;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public int frequency() {
+            return first ? 1 : buffer.get(frequencyPos) & 0xFF;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package indexer.index.segment;
+
+import indexer.index.PostingList;
+import indexer.utils.FileEntry;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Writes immutable index segments in format described in Segment. Segment is written in one pass:
+ * files, terms and tombstones are added in this order, files by ascending id and terms in ascending
+ * order. Table entries are written to segment file right away, strings and postings are buffered in
+ * temporary files next to it and are appended when writing is finished, so writer keeps no postings
+ * in memory except Bloom filter. File is synced to disk before finish method returns.
+ *
+ * @see indexer.index.segment.Segment
+ */
+public class SegmentWriter implements Closeable {
+    private final Path file;
+    private final Path stringsFile;
+    private final Path postingsFile;
+    private final FileOutputStream fileStream;
+    private final DataOutputStream out;
+    private final DataOutputStream strings;
+    private final DataOutputStream postings;
+    private final BloomFilter filter;
+
+    private int filesNumber = 0;
+    private int termsNumber = 0;
+    private int tombstonesNumber = 0;
+    private long stringsLength = 0;
+    private long postingsLength = 0;
+    private long lastFileId = -1;
+    private String lastTerm = null;
+    private boolean finished = false;
+
+    /**
+     * @param file           file to write segment to, it is overwritten if exists
+     * @param maxTermsNumber maximum number of terms to be added, Bloom filter is sized by it
+     * @throws IOException if file can't be created
+     */
+    public SegmentWriter(Path file, int maxTermsNumber) throws IOException {
+        this.file = file;
+        this.filter = new BloomFilter(maxTermsNumber);
+        stringsFile = file.resolveSibling(file.getFileName() + ".strings");
+        postingsFile = file.resolveSibling(file.getFileName() + ".postings");
+        fileStream = new FileOutputStream(file.toFile());
+        out = new DataOutputStream(new BufferedOutputStream(fileStream, 1 << 16));
+        // header is written when sizes of sections are known
+        out.write(new byte[Segment.HEADER_SIZE]);
+        strings = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(stringsFile), 1 << 16));
+        postings = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(postingsFile), 1 << 16));
+    }
+
+    /**
+     * @param file       file to write segment to, it is overwritten if exists
+     * @param files      files table, ids to files' paths and metadata
+     * @param postings   terms and their postings. Empty posting lists are skipped, frequencies of lists
+     *                   which don't keep them are written as 1
+     * @param tombstones ids of removed files from other segments
+     * @throws IOException if IO errors occurred or segment would exceed 2GB
+     */
+    public static void write(Path file, SortedMap<Long, FileEntry> files, SortedMap<String, PostingList> postings,
+                             Collection<Long> tombstones) throws IOException {
+        try (SegmentWriter writer = new SegmentWriter(file, postings.size())) {
+            for(Map.Entry<Long, FileEntry> entry : files.entrySet()) {
+                FileEntry fileEntry = entry.getValue();
+                writer.addFile(entry.getKey(), fileEntry.getFilePath(), fileEntry.getSize(),
+                               fileEntry.getLastModified(), fileEntry.getLength());
+            }
+            for(Map.Entry<String, PostingList> entry : postings.entrySet()) {
+                writer.addTerm(entry.getKey(), entry.getValue());
+            }
+            for(Long id : tombstones) {
+                writer.addTombstone(id);
+            }
+            writer.finish();
+        }
+    }
+
+    /**
+     * Adds entry to files table, files must be added before terms by ascending ids
+     *
+     * @param length number of all tokens in file or -1 if it's unknown
+     * @throws IllegalStateException if terms have been added already or id is not greater than previous one
+     */
+    public void addFile(long id, String path, long size, long lastModified, int length) throws IOException {
+        if(termsNumber > 0 || tombstonesNumber > 0 || id <= lastFileId) {
+            throw new IllegalStateException("files must be added first by ascending ids: " + id);
+        }
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        out.writeLong(id);
+        out.writeInt((int) stringsLength);
+        out.writeInt(bytes.length);
+        out.writeLong(size);
+        out.writeLong(lastModified);
+        out.writeInt(length);
+        strings.write(bytes);
+        stringsLength += bytes.length;
+        lastFileId = id;
+        filesNumber += 1;
+    }
+
+    /**
+     * Adds term with its postings, terms must be added in ascending order. Empty posting list is
+     * skipped, frequencies of list which doesn't keep them are written as 1
+     *
+     * @throws IllegalStateException if tombstones have been added already or term is not greater than
+     *                               previous one
+     */
+    public void addTerm(String term, PostingList postingList) throws IOException {
+        if(postingList.isEmpty()) {
+            return;
+        }
+        if(tombstonesNumber > 0 || (lastTerm != null && lastTerm.compareTo(term) >= 0)) {
+            throw new IllegalStateException("terms must be added before tombstones in ascending order: " + term);
+        }
+        byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+        out.writeInt((int) stringsLength);
+        out.writeInt(bytes.length);
+        out.writeLong(postingsLength);
+        out.writeInt(postingList.size());
+        out.writeInt(postingList.encodedLength());
+        strings.write(bytes);
+        stringsLength += bytes.length;
+        postingList.writeTo(postings);
+        if(postingList.hasFrequencies()) {
+            postingList.writeFrequenciesTo(postings);
+        } else {
+            for(int i = 0; i < postingList.size(); i++) {
+                postings.writeByte(1);
+            }
+        }
+        postingsLength += postingList.encodedLength() + postingList.size();
+        filter.add(term);
+        lastTerm = term;
+        termsNumber += 1;
+    }
+
+    /**
+     * Adds id of removed file from other segments, tombstones are added last
+     */
+    public void addTombstone(long id) throws IOException {
+        out.writeLong(id);
+        tombstonesNumber += 1;
+    }
+
+    /**
+     * Appends strings, postings and filter to segment, writes header and syncs file
+     *
+     * @throws IOException if IO errors occurred or segment would exceed 2GB
+     */
+    public void finish() throws IOException {
+        long stringsOffset = Segment.HEADER_SIZE + (long) filesNumber * Segment.FILE_ENTRY_SIZE
+                             + (long) termsNumber * Segment.TERM_ENTRY_SIZE
+                             + (long) tombstonesNumber * Segment.TOMBSTONE_SIZE;
+        long postingsOffset = stringsOffset + stringsLength;
+        long filterOffset = postingsOffset + postingsLength;
+        if(filterOffset + filter.wordsNumber() * 8L > Integer.MAX_VALUE) {
+            throw new IOException("segment is too big: " + file);
+        }
+        strings.close();
+        postings.close();
+        Files.copy(stringsFile, out);
+        Files.copy(postingsFile, out);
+        filter.writeTo(out);
+        out.flush();
+
+        ByteBuffer header = ByteBuffer.allocate(Segment.HEADER_SIZE);
+        header.putInt(Segment.MAGIC);
+        header.putInt(Segment.VERSION);
+        header.putInt(filesNumber);
+        header.putInt(termsNumber);
+        header.putInt(tombstonesNumber);
+        header.putLong(stringsOffset);
+        header.putLong(postingsOffset);
+        header.putLong(filterOffset);
+        header.putInt(filter.wordsNumber());
+        header.flip();
+        while (header.hasRemaining()) {
+            fileStream.getChannel().write(header, header.position());
+        }
+        fileStream.getFD().sync();
+        finished = true;
+    }
+
+    /**
+     * Closes segment file and deletes temporary files, segment file is deleted too if writing
+     * hasn't been finished
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            strings.close();
+            postings.close();
+            out.close();
+        } finally {
+            Files.deleteIfExists(stringsFile);
+            Files.deleteIfExists(postingsFile);
+            if(!finished) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package indexer.index.segment;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of index modifications. Every record is written as (payload length, payload, CRC32
+ * of payload), so torn or corrupted tail left by crash is detected and cut off on replay.
+ * Appending only buffers record, {@link #sync(long)} makes it durable. Syncs are grouped:
+ * thread that syncs first flushes and fsyncs all records appended so far, so threads waiting
+ * behind it usually find their records already durable.
+ * Log is truncated on checkpoint, when all logged modifications are saved somewhere else.
+ */
+public class WriteAheadLog implements Closeable {
+    private final Path file;
+    private final FileOutputStream fileStream;
+    private final DataOutputStream out;
+    private final FileChannel channel;
+
+    private final Object syncLock = new Object();
+    private long appendedSeq = 0;
+    private long syncedSeq = 0;
+
+    public WriteAheadLog(Path file) throws IOException {
+        this.file = file;
+        this.fileStream = new FileOutputStream(file.toFile(), true);
+        this.out = new DataOutputStream(new BufferedOutputStream(fileStream, 1 << 16));
+        this.channel = fileStream.getChannel();
+    }
+
+    /**
+     * Reads all valid records from the beginning of log. If invalid record is found, log is
+     * truncated at its position.
+     *
+     * @param handler handler to pass records to
+     * @return        number of replayed records
+     * @throws IOException if log can't be read
+     */
+    public int replay(RecordHandler handler) throws IOException {
+        int replayed = 0;
+        long validLength = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file.toFile())))) {
+            while (true) {
+                byte[] payload = readPayload(in);
+                Record record = payload == null ? null : Record.decodePayload(payload);
+                if(record == null) {
+                    break;
+                }
+                handler.onRecord(record);
+                replayed += 1;
+                validLength += payload.length + 8;
+            }
+        }
+        try (FileChannel truncateChannel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            if(truncateChannel.size() > validLength) {
+                truncateChannel.truncate(validLength);
+                truncateChannel.force(true);
+            }
+        }
+        return replayed;
+    }
+
+    /**
+     * Buffers record, it is not durable until sync is called
+     *
+     * @return record's sequence number to pass to {@link #sync(long)}
+     * @throws IOException if record can't be written
+     */
+    public synchronized long append(Record.Type type, String filePath, Charset charset) throws IOException {
+        byte[] payload = new Record(type, filePath, charset).encodePayload();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.writeInt((int) crc.getValue());
+        appendedSeq += 1;
+        return appendedSeq;
+    }
+
+    /**
+     * Waits until record with specified sequence number is on disk
+     *
+     * @param seq record's sequence number returned by append
+     * @throws IOException if log can't be synced
+     */
+    public void sync(long seq) throws IOException {
+        synchronized (syncLock) {
+            if(syncedSeq >= seq) {
+                return;
+            }
+            long target;
+            synchronized (this) {
+                out.flush();
+                target = appendedSeq;
+            }
+            channel.force(false);
+            syncedSeq = target;
+        }
+    }
+
+    /**
+     * Truncates log. Should be called when all logged modifications are persisted elsewhere
+     *
+     * @throws IOException if log can't be truncated
+     */
+    public void checkpoint() throws IOException {
+        synchronized (syncLock) {
+            synchronized (this) {
+                out.flush();
+                channel.truncate(0);
+                channel.force(true);
+                syncedSeq = appendedSeq;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (syncLock) {
+            synchronized (this) {
+                out.close();
+            }
+        }
+    }
+
+    private static byte[] readPayload(DataInputStream in) throws IOException {
+        try {
+            int length = in.readInt();
+            if(length <= 0 || length > 1 << 20) {
+                return null;
+            }
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            int checksum = in.readInt();
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            return (int) crc.getValue() == checksum ? payload : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Handler receiving records on replay
+     */
+    public interface RecordHandler {
+        public void onRecord(Record record);
+    }
+
+    /**
+     * Logged index modification: type, file or directory path and file's charset (if needed)
+     */
+    public static class Record {
+        public enum Type { ADD_FILE, REMOVE_FILE, REMOVE_DIRECTORY, MODIFY_FILE }
+
+        private final Type type;
+        private final String filePath;
+        private final Charset charset;
+
+        public Record(Type type, String filePath, Charset charset) {
+            this.type = type;
+            this.filePath = filePath;
+            this.charset = charset;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public String getFilePath() {
+            return filePath;
+        }
+
+        /**
+         * @return file's charset or null for removes
+         */
+        public Charset getCharset() {
+            return charset;
+        }
+
+        private byte[] encodePayload() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream payload = new DataOutputStream(bytes);
+            payload.writeByte(type.ordinal());
+            payload.writeUTF(filePath);
+            payload.writeUTF(charset == null ? "" : charset.name());
+            payload.flush();
+            return bytes.toByteArray();
+        }
+
+        private static Record decodePayload(byte[] payload) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            int typeIndex = in.readUnsignedByte();
+            if(typeIndex >= Type.values().length) {
+                return null;
+            }
+            String filePath = in.readUTF();
+            String charsetName = in.readUTF();
+            try {
+                return new Record(Type.values()[typeIndex], filePath,
+                                  charsetName.isEmpty() ? null : Charset.forName(charsetName));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+}
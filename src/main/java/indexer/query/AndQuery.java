@@ -0,0 +1,76 @@
+package indexer.query;
+
+import indexer.index.PostingsIterator;
+import indexer.tokenizer.Token;
+
+import java.util.*;
+
+/**
+ * Matches files matching all positive clauses and none of negative (NotQuery) clauses.
+ * Positive clauses are intersected starting from the cheapest one, other clauses are advanced
+ * to its candidates, so long postings are mostly skipped instead of being read.
+ */
+public class AndQuery extends Query {
+    private final List<Query> positive = new ArrayList<>();
+    private final List<Query> negative = new ArrayList<>();
+
+    /**
+     * @param clauses clauses to combine
+     * @throws IllegalArgumentException if there is no positive clause
+     */
+    public AndQuery(List<Query> clauses) {
+        for(Query clause : clauses) {
+            if(clause instanceof NotQuery) {
+                negative.add(((NotQuery) clause).getClause());
+            } else if(clause != null) {
+                positive.add(clause);
+            }
+        }
+        if(positive.isEmpty()) {
+            throw new IllegalArgumentException("and query must have at least one positive clause");
+        }
+    }
+
+    @Override
+    public PostingsIterator iterator(final PostingsSource source) {
+        final Map<Query, Long> costs = new IdentityHashMap<>();
+        for(Query clause : positive) {
+            costs.put(clause, clause.cost(source));
+        }
+        List<Query> byCost = new ArrayList<>(positive);
+        Collections.sort(byCost, new Comparator<Query>() {
+            @Override
+            public int compare(Query o1, Query o2) {
+                return Long.compare(costs.get(o1), costs.get(o2));
+            }
+        });
+        if(costs.get(byCost.get(0)) == 0) {
+            return EmptyIterator.INSTANCE;
+        }
+        PostingsIterator[] included = new PostingsIterator[byCost.size()];
+        for(int i = 0; i < included.length; i++) {
+            included[i] = byCost.get(i).iterator(source);
+        }
+        PostingsIterator[] excluded = new PostingsIterator[negative.size()];
+        for(int i = 0; i < excluded.length; i++) {
+            excluded[i] = negative.get(i).iterator(source);
+        }
+        return new ConjunctionIterator(included, excluded);
+    }
+
+    @Override
+    public long cost(PostingsSource source) {
+        long cost = Long.MAX_VALUE;
+        for(Query clause : positive) {
+            cost = Math.min(cost, clause.cost(source));
+        }
+        return cost;
+    }
+
+    @Override
+    public void collectTerms(PostingsSource source, Collection<Token> terms) {
+        for(Query clause : positive) {
+            clause.collectTerms(source, terms);
+        }
+    }
+}
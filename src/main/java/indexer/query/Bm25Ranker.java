@@ -0,0 +1,142 @@
+package indexer.query;
+
+import indexer.index.PostingsIterator;
+import indexer.tokenizer.Token;
+
+import java.util.*;
+
+/**
+ * Ranks files matching query with BM25: every query term present in file adds
+ * idf * tf * (k1 + 1) / (tf + k1 * (1 - b + b * length / averageLength)). Only k best files are kept
+ * in bounded min-heap, so memory doesn't depend on the number of matching files, and postings of
+ * query terms are advanced along with query's iterator, so every posting is decoded at most once.
+ */
+public class Bm25Ranker {
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    // the worst file is at the head of heap: lower score, or bigger id among equal scores
+    private static final Comparator<ScoredFile> WORST_FIRST = new Comparator<ScoredFile>() {
+        @Override
+        public int compare(ScoredFile o1, ScoredFile o2) {
+            int byScore = Double.compare(o1.score, o2.score);
+            return byScore != 0 ? byScore : Long.compare(o2.fileId, o1.fileId);
+        }
+    };
+
+    private Bm25Ranker() {}
+
+    /**
+     * @param query  query selecting files
+     * @param source postings to evaluate query against
+     * @param files  statistics of indexed files
+     * @param k      maximum number of files to return
+     * @return       at most k best matching files, the best first. Files with equal scores are
+     *               ordered by id
+     * @throws IllegalArgumentException if k is not positive
+     */
+    public static List<ScoredFile> topFiles(Query query, PostingsSource source, FileStatistics files, int k) {
+        if(k <= 0) {
+            throw new IllegalArgumentException("number of files must be positive: " + k);
+        }
+        Set<Token> termsSet = new LinkedHashSet<>();
+        query.collectTerms(source, termsSet);
+        List<Token> terms = new ArrayList<>(termsSet);
+        PostingsIterator[] postings = new PostingsIterator[terms.size()];
+        long[] current = new long[terms.size()];
+        int[] frequencies = new int[terms.size()];
+        double[] idf = new double[terms.size()];
+        long filesNumber = files.filesNumber();
+        for(int i = 0; i < postings.length; i++) {
+            postings[i] = source.postings(terms.get(i));
+            current[i] = -1;
+            // postings of removed but not purged files are counted too
+            long documentFrequency = Math.min(source.postingsNumber(terms.get(i)), filesNumber);
+            idf[i] = Math.log(1 + (filesNumber - documentFrequency + 0.5) / (documentFrequency + 0.5));
+        }
+        double averageLength = files.averageLength();
+
+        PriorityQueue<ScoredFile> heap = new PriorityQueue<>(k + 1, WORST_FIRST);
+        PostingsIterator it = query.iterator(source);
+        while (it.hasNext()) {
+            long fileId = it.next();
+            if(!files.isLive(fileId)) {
+                continue;
+            }
+            int length = files.length(fileId);
+            double lengthNorm = length < 0 || averageLength <= 0 ? 1 : 1 - B + B * length / averageLength;
+            double score = 0;
+            for(int i = 0; i < postings.length; i++) {
+                if(postings[i] == null) {
+                    continue;
+                }
+                if(current[i] < fileId) {
+                    current[i] = postings[i].advance(fileId);
+                    if(current[i] < 0) {
+                        postings[i] = null;
+                        continue;
+                    }
+                    frequencies[i] = postings[i].frequency();
+                }
+                if(current[i] == fileId) {
+                    score += idf[i] * frequencies[i] * (K1 + 1) / (frequencies[i] + K1 * lengthNorm);
+                }
+            }
+            if(heap.size() < k) {
+                heap.add(new ScoredFile(fileId, score));
+            } else if(score > heap.peek().score) {
+                heap.poll();
+                heap.add(new ScoredFile(fileId, score));
+            }
+        }
+        List<ScoredFile> result = new ArrayList<>(heap);
+        Collections.sort(result, Collections.reverseOrder(WORST_FIRST));
+        return result;
+    }
+
+    /**
+     * Statistics of indexed files needed for scoring
+     */
+    public interface FileStatistics {
+        /**
+         * @return {@code false} if file has been removed from index
+         */
+        public boolean isLive(long fileId);
+
+        /**
+         * @return number of tokens in file or -1 if unknown
+         */
+        public int length(long fileId);
+
+        /**
+         * @return number of files in index
+         */
+        public long filesNumber();
+
+        /**
+         * @return average number of tokens in file
+         */
+        public double averageLength();
+    }
+
+    /**
+     * File id and its score
+     */
+    public static class ScoredFile {
+        private final long fileId;
+        private final double score;
+
+        public ScoredFile(long fileId, double score) {
+            this.fileId = fileId;
+            this.score = score;
+        }
+
+        public long getFileId() {
+            return fileId;
+        }
+
+        public double getScore() {
+            return score;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package indexer.query;
+
+import indexer.index.PostingsIterator;
+
+/**
+ * Intersection of postings minus excluded postings. The first (shortest) iterator leads: every its
+ * id is a candidate other iterators are advanced to. If some iterator jumps over candidate,
+ * the leader is advanced to that iterator's id.
+ */
+class ConjunctionIterator extends LookaheadIterator {
+    private static final long EXHAUSTED = Long.MAX_VALUE;
+
+    private final PostingsIterator[] included;
+    private final long[] includedIds;
+    private final PostingsIterator[] excluded;
+    private final long[] excludedIds;
+
+    ConjunctionIterator(PostingsIterator[] included, PostingsIterator[] excluded) {
+        this.included = included;
+        this.includedIds = new long[included.length];
+        this.excluded = excluded;
+        this.excludedIds = new long[excluded.length];
+        for(int i = 0; i < included.length; i++) {
+            includedIds[i] = -1;
+        }
+        for(int i = 0; i < excluded.length; i++) {
+            excludedIds[i] = -1;
+        }
+    }
+
+    @Override
+    protected long fetch() {
+        return match(included[0].hasNext() ? included[0].next() : -1);
+    }
+
+    @Override
+    protected long fetch(long target) {
+        return match(included[0].advance(target));
+    }
+
+    private long match(long candidate) {
+        while (candidate >= 0) {
+            long next = alignIncluded(candidate);
+            if(next < 0) {
+                return -1;
+            }
+            if(next != candidate) {
+                candidate = included[0].advance(next);
+                continue;
+            }
+            if(!isExcluded(candidate)) {
+                return candidate;
+            }
+            candidate = included[0].hasNext() ? included[0].next() : -1;
+        }
+        return -1;
+    }
+
+    /**
+     * @return candidate if all iterators contain it, the biggest id they have been advanced to
+     *         or -1 if some of them is exhausted
+     */
+    private long alignIncluded(long candidate) {
+        for(int i = 1; i < included.length; i++) {
+            if(includedIds[i] < candidate) {
+                includedIds[i] = included[i].advance(candidate);
+                if(includedIds[i] < 0) {
+                    return -1;
+                }
+            }
+            if(includedIds[i] > candidate) {
+                return includedIds[i];
+            }
+        }
+        return candidate;
+    }
+
+    private boolean isExcluded(long candidate) {
+        for(int i = 0; i < excluded.length; i++) {
+            if(excludedIds[i] < candidate) {
+                long id = excluded[i].advance(candidate);
+                excludedIds[i] = id < 0 ? EXHAUSTED : id;
+            }
+            if(excludedIds[i] == candidate) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,65 @@
+package indexer.query;
+
+import indexer.index.PostingsIterator;
+
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Union of postings, iterators are merged using priority queue ordered by their current ids
+ */
+class DisjunctionIterator extends LookaheadIterator {
+    private final PriorityQueue<Head> heads;
+
+    DisjunctionIterator(List<PostingsIterator> iterators) {
+        heads = new PriorityQueue<>(Math.max(iterators.size(), 1));
+        for(PostingsIterator it : iterators) {
+            if(it.hasNext()) {
+                heads.add(new Head(it, it.next()));
+            }
+        }
+    }
+
+    @Override
+    protected long fetch() {
+        if(heads.isEmpty()) {
+            return -1;
+        }
+        long min = heads.peek().id;
+        while (!heads.isEmpty() && heads.peek().id == min) {
+            Head head = heads.poll();
+            if(head.iterator.hasNext()) {
+                head.id = head.iterator.next();
+                heads.add(head);
+            }
+        }
+        return min;
+    }
+
+    @Override
+    protected long fetch(long target) {
+        while (!heads.isEmpty() && heads.peek().id < target) {
+            Head head = heads.poll();
+            head.id = head.iterator.advance(target);
+            if(head.id >= 0) {
+                heads.add(head);
+            }
+        }
+        return fetch();
+    }
+
+    private static class Head implements Comparable<Head> {
+        private final PostingsIterator iterator;
+        private long id;
+
+        private Head(PostingsIterator iterator, long id) {
+            this.iterator = iterator;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(Head o) {
+            return Long.compare(id, o.id);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package indexer.query;
+
+import indexer.index.PostingsIterator;
+
+import java.util.NoSuchElementException;
+
+class EmptyIterator implements PostingsIterator {
+    static final EmptyIterator INSTANCE = new EmptyIterator();
+
+    private EmptyIterator() {}
+
+    @Override
+    public boolean hasNext() {
+        return false;
+    }
+
+    @Override
+    public long next() {
+        throw new NoSuchElementException();
+    }
+
+    @Override
+    public long advance(long target) {
+        return -1;
+    }
+
+    @Override
+    public int frequency() {
+        return 1;
+    }
+}
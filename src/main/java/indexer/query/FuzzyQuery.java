@@ -0,0 +1,100 @@
+package indexer.query;
+
+import indexer.tokenizer.Token;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Matches files containing tokens within specified Levenshtein distance from term. Levenshtein
+ * automaton is intersected with sorted term dictionary: automaton states of the previous term's
+ * prefixes are reused for the common prefix of the next term, and when some prefix leads to dead
+ * state, dictionary is sought to the first term after all terms with this prefix. So only terms
+ * whose prefixes are within the distance from some prefix of the query term are visited.
+ *
+ * @see indexer.query.LevenshteinAutomaton
+ */
+public class FuzzyQuery extends MultiTermQuery {
+    private final LevenshteinAutomaton automaton;
+
+    public FuzzyQuery(String term, int maxEdits) {
+        this.automaton = new LevenshteinAutomaton(term, maxEdits);
+    }
+
+    public String getTerm() {
+        return automaton.getTerm();
+    }
+
+    public int getMaxEdits() {
+        return automaton.getMaxEdits();
+    }
+
+    @Override
+    public List<Token> matchingTerms(PostingsSource source) {
+        List<Token> terms = new ArrayList<>();
+        int[][] states = new int[automaton.getTerm().length() + automaton.getMaxEdits() + 2][];
+        states[0] = automaton.start();
+        String previous = "";
+        int computedDepth = 0;
+        Iterator<Token> it = source.terms("");
+        while (it.hasNext()) {
+            Token term = it.next();
+            String value = term.getValue();
+            int depth = Math.min(commonPrefixLength(previous, value), computedDepth);
+            previous = value;
+            String seekTo = null;
+            for(; depth < value.length(); depth++) {
+                if(depth + 1 >= states.length) {
+                    states = Arrays.copyOf(states, states.length * 2);
+                }
+                if(states[depth + 1] == null) {
+                    states[depth + 1] = new int[states[0].length];
+                }
+                if(!automaton.step(states[depth], value.charAt(depth), states[depth + 1])) {
+                    seekTo = successor(value, depth + 1);
+                    break;
+                }
+            }
+            computedDepth = depth;
+            if(seekTo != null) {
+                it = source.terms(seekTo);
+            } else if(depth == value.length()) {
+                if(automaton.isAccepting(states[depth])) {
+                    terms.add(term);
+                }
+            } else {
+                break;
+            }
+        }
+        return terms;
+    }
+
+    private static int commonPrefixLength(String first, String second) {
+        int length = Math.min(first.length(), second.length());
+        for(int i = 0; i < length; i++) {
+            if(first.charAt(i) != second.charAt(i)) {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @return the smallest string bigger than all strings starting with value's prefix of specified
+     *         length or null if there is no such string
+     */
+    private static String successor(String value, int prefixLength) {
+        char[] chars = value.substring(0, prefixLength).toCharArray();
+        int last = chars.length - 1;
+        while (last >= 0 && chars[last] == Character.MAX_VALUE) {
+            last -= 1;
+        }
+        if(last < 0) {
+            return null;
+        }
+        chars[last] += 1;
+        return new String(chars, 0, last + 1);
+    }
+}
@@ -0,0 +1,96 @@
+package indexer.query;
+
+/**
+ * Automaton accepting strings within specified Levenshtein distance from term. State is
+ * a row of edit distances matrix: distances from consumed string to every prefix of term, values
+ * bigger than maximum distance are cut to maximum distance + 1. State is dead if all values are
+ * cut, so no continuation of consumed string can be accepted.
+ * Automaton is immutable, states are kept by caller, so it can be used by multiple threads at a time.
+ */
+public class LevenshteinAutomaton {
+    private final String term;
+    private final int maxEdits;
+
+    /**
+     * @param term     term to match
+     * @param maxEdits maximum number of insertions, deletions and substitutions
+     * @throws IllegalArgumentException if maxEdits is negative
+     */
+    public LevenshteinAutomaton(String term, int maxEdits) {
+        if(term == null) {
+            throw new IllegalArgumentException("term must not be null");
+        }
+        if(maxEdits < 0) {
+            throw new IllegalArgumentException("maximum edits number must not be negative: " + maxEdits);
+        }
+        this.term = term;
+        this.maxEdits = maxEdits;
+    }
+
+    public String getTerm() {
+        return term;
+    }
+
+    public int getMaxEdits() {
+        return maxEdits;
+    }
+
+    /**
+     * @return state before any character is consumed
+     */
+    public int[] start() {
+        int[] state = new int[term.length() + 1];
+        for(int i = 0; i < state.length; i++) {
+            state[i] = Math.min(i, maxEdits + 1);
+        }
+        return state;
+    }
+
+    /**
+     * Consumes character
+     *
+     * @param state current state, it is not modified
+     * @param c     character to consume
+     * @param next  array to write the next state to, must have the same length as state
+     * @return      {@code false} if the next state is dead
+     */
+    public boolean step(int[] state, char c, int[] next) {
+        int limit = maxEdits + 1;
+        next[0] = Math.min(state[0] + 1, limit);
+        int min = next[0];
+        for(int i = 1; i < state.length; i++) {
+            int distance = state[i - 1] + (term.charAt(i - 1) == c ? 0 : 1);
+            distance = Math.min(distance, state[i] + 1);
+            distance = Math.min(distance, next[i - 1] + 1);
+            next[i] = Math.min(distance, limit);
+            min = Math.min(min, next[i]);
+        }
+        return min <= maxEdits;
+    }
+
+    /**
+     * @param state state after consuming string
+     * @return      {@code true} if consumed string is within maximum distance from term
+     */
+    public boolean isAccepting(int[] state) {
+        return state[state.length - 1] <= maxEdits;
+    }
+
+    /**
+     * @param value string to check
+     * @return      {@code true} if string is within maximum distance from term
+     */
+    public boolean accepts(String value) {
+        int[] state = start();
+        int[] next = new int[state.length];
+        for(int i = 0; i < value.length(); i++) {
+            if(!step(state, value.charAt(i), next)) {
+                return false;
+            }
+            int[] tmp = state;
+            state = next;
+            next = tmp;
+        }
+        return isAccepting(state);
+    }
+}
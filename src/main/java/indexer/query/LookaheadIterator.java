@@ -0,0 +1,57 @@
+package indexer.query;
+
+import indexer.index.PostingsIterator;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Base of iterators which find their next id in advance to answer hasNext calls
+ */
+abstract class LookaheadIterator implements PostingsIterator {
+    private long nextId = -1;
+    private boolean fetched = false;
+
+    /**
+     * @return next matching id or -1 if there is no more
+     */
+    protected abstract long fetch();
+
+    /**
+     * @return the first matching id not less than target or -1 if there is no such id
+     */
+    protected abstract long fetch(long target);
+
+    @Override
+    public boolean hasNext() {
+        if(!fetched) {
+            nextId = fetch();
+            fetched = true;
+        }
+        return nextId >= 0;
+    }
+
+    @Override
+    public long next() {
+        if(!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        fetched = false;
+        return nextId;
+    }
+
+    @Override
+    public long advance(long target) {
+        if(fetched) {
+            fetched = false;
+            if(nextId < 0 || nextId >= target) {
+                return nextId;
+            }
+        }
+        return fetch(target);
+    }
+
+    @Override
+    public int frequency() {
+        return 1;
+    }
+}
@@ -0,0 +1,46 @@
+package indexer.query;
+
+import indexer.index.PostingsIterator;
+import indexer.tokenizer.Token;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Query matching files containing any of terms selected from term dictionary. Postings of
+ * selected terms are merged lazily
+ */
+public abstract class MultiTermQuery extends Query {
+    /**
+     * @param source postings to evaluate query against
+     * @return       terms of source matching query
+     */
+    public abstract List<Token> matchingTerms(PostingsSource source);
+
+    @Override
+    public PostingsIterator iterator(PostingsSource source) {
+        List<PostingsIterator> iterators = new ArrayList<>();
+        for(Token term : matchingTerms(source)) {
+            PostingsIterator postings = source.postings(term);
+            if(postings != null) {
+                iterators.add(postings);
+            }
+        }
+        return new DisjunctionIterator(iterators);
+    }
+
+    @Override
+    public long cost(PostingsSource source) {
+        long cost = 0;
+        for(Token term : matchingTerms(source)) {
+            cost += source.postingsNumber(term);
+        }
+        return cost;
+    }
+
+    @Override
+    public void collectTerms(PostingsSource source, Collection<Token> terms) {
+        terms.addAll(matchingTerms(source));
+    }
+}
@@ -0,0 +1,46 @@
+package indexer.query;
+
+import indexer.index.PostingsIterator;
+import indexer.tokenizer.Token;
+
+import java.util.Collection;
+
+/**
+ * Excludes files matching clause from and query result. It can't be evaluated by itself
+ *
+ * @see indexer.query.AndQuery
+ */
+public class NotQuery extends Query {
+    private final Query clause;
+
+    public NotQuery(Query clause) {
+        if(clause == null) {
+            throw new IllegalArgumentException("clause must not be null");
+        }
+        this.clause = clause;
+    }
+
+    public Query getClause() {
+        return clause;
+    }
+
+    /**
+     * @throws UnsupportedOperationException always, negative query can only be a clause of and query
+     */
+    @Override
+    public PostingsIterator iterator(PostingsSource source) {
+        throw new UnsupportedOperationException("negative query must be combined with positive ones by and");
+    }
+
+    @Override
+    public long cost(PostingsSource source) {
+        return clause.cost(source);
+    }
+
+    /**
+     * Negative query has no terms contributing to score
+     */
+    @Override
+    public void collectTerms(PostingsSource source, Collection<Token> terms) {
+    }
+}
@@ -0,0 +1,55 @@
+package indexer.query;
+
+import indexer.index.PostingsIterator;
+import indexer.tokenizer.Token;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Matches files matching at least one of clauses. Clauses' postings are merged lazily
+ */
+public class OrQuery extends Query {
+    private final List<Query> clauses = new ArrayList<>();
+
+    /**
+     * @param clauses clauses to combine
+     * @throws IllegalArgumentException if some clause is negative
+     */
+    public OrQuery(List<Query> clauses) {
+        for(Query clause : clauses) {
+            if(clause instanceof NotQuery) {
+                throw new IllegalArgumentException("negative query can't be a clause of or query");
+            }
+            if(clause != null) {
+                this.clauses.add(clause);
+            }
+        }
+    }
+
+    @Override
+    public PostingsIterator iterator(PostingsSource source) {
+        List<PostingsIterator> iterators = new ArrayList<>(clauses.size());
+        for(Query clause : clauses) {
+            iterators.add(clause.iterator(source));
+        }
+        return new DisjunctionIterator(iterators);
+    }
+
+    @Override
+    public long cost(PostingsSource source) {
+        long cost = 0;
+        for(Query clause : clauses) {
+            cost += clause.cost(source);
+        }
+        return cost;
+    }
+
+    @Override
+    public void collectTerms(PostingsSource source, Collection<Token> terms) {
+        for(Query clause : clauses) {
+            clause.collectTerms(source, terms);
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package indexer.query;
+
+import indexer.tokenizer.Word;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Converts regular expression into trigram query selecting files which can contain its matches.
+ * Expression is split into top-level alternatives, every alternative is scanned for runs of
+ * characters that must be matched literally and consecutively. Constructs that are not
+ * understood (groups, character classes, escapes of character sets, optional characters)
+ * just end the current run, so resulting query may select more files than match, but never less.
+ * Expressions with inline flags, case insensitive or comments mode are not converted.
+ */
+public class PatternTrigrams {
+    private static final String METACHARACTERS = "\\[](){}.*+?^$|";
+
+    private PatternTrigrams() {}
+
+    /**
+     * @param pattern pattern to convert
+     * @return        query over trigram postings or null if some alternative of pattern has no
+     *                literal run of three characters, so candidate files can't be narrowed
+     */
+    public static Query toQuery(Pattern pattern) {
+        int flags = pattern.flags();
+        if((flags & (Pattern.CASE_INSENSITIVE | Pattern.COMMENTS | Pattern.CANON_EQ)) != 0) {
+            return null;
+        }
+        List<List<String>> alternatives;
+        if((flags & Pattern.LITERAL) != 0) {
+            alternatives = Collections.singletonList(Collections.singletonList(pattern.pattern()));
+        } else {
+            alternatives = requiredLiterals(pattern.pattern());
+        }
+        if(alternatives == null) {
+            return null;
+        }
+        List<Query> alternativeQueries = new ArrayList<>();
+        for(List<String> literals : alternatives) {
+            Set<String> trigrams = new LinkedHashSet<>();
+            for(String literal : literals) {
+                for(int i = 0; i + 3 <= literal.length(); i++) {
+                    trigrams.add(literal.substring(i, i + 3));
+                }
+            }
+            if(trigrams.isEmpty()) {
+                return null;
+            }
+            List<Query> clauses = new ArrayList<>();
+            for(String trigram : trigrams) {
+                clauses.add(Query.term(new Word(trigram)));
+            }
+            alternativeQueries.add(clauses.size() == 1 ? clauses.get(0) : new AndQuery(clauses));
+        }
+        return alternativeQueries.size() == 1 ? alternativeQueries.get(0) : new OrQuery(alternativeQueries);
+    }
+
+    /**
+     * @param regex regular expression
+     * @return      literal runs of every top-level alternative or null if expression can't be converted
+     */
+    static List<List<String>> requiredLiterals(String regex) {
+        List<List<String>> alternatives = new ArrayList<>();
+        int start = 0;
+        int i = 0;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if(c == '\\') {
+                i = escapeEnd(regex, i);
+            } else if(c == '[') {
+                i = classEnd(regex, i) + 1;
+            } else if(c == '(') {
+                if(hasInlineFlags(regex, i)) {
+                    return null;
+                }
+                i = groupEnd(regex, i) + 1;
+            } else if(c == '|') {
+                alternatives.add(alternativeLiterals(regex, start, i));
+                start = i + 1;
+                i += 1;
+            } else {
+                i += 1;
+            }
+        }
+        alternatives.add(alternativeLiterals(regex, start, regex.length()));
+        return alternatives;
+    }
+
+    private static List<String> alternativeLiterals(String regex, int start, int end) {
+        List<String> literals = new ArrayList<>();
+        StringBuilder run = new StringBuilder();
+        int i = start;
+        while (i < end) {
+            char c = regex.charAt(i);
+            int literal = -1;
+            if(c == '\\' && regex.startsWith("\\Q", i)) {
+                int quoteEnd = quoteEnd(regex, i);
+                int contentEnd = regex.startsWith("\\E", quoteEnd - 2) ? quoteEnd - 2 : quoteEnd;
+                String quoted = regex.substring(i + 2, Math.max(i + 2, contentEnd));
+                i = quoteEnd;
+                if(quoted.isEmpty()) {
+                    continue;
+                }
+                run.append(quoted, 0, quoted.length() - 1);
+                literal = quoted.charAt(quoted.length() - 1);
+            } else if(c == '\\') {
+                literal = i + 1 < end ? escapedLiteral(regex.charAt(i + 1)) : -1;
+                i = escapeEnd(regex, i);
+            } else if(c == '[') {
+                i = classEnd(regex, i) + 1;
+            } else if(c == '(') {
+                i = groupEnd(regex, i) + 1;
+            } else if(METACHARACTERS.indexOf(c) >= 0) {
+                i += 1;
+            } else {
+                literal = c;
+                i += 1;
+            }
+            int minRepeats = 1;
+            boolean quantified = false;
+            if(i < end && "*?+{".indexOf(regex.charAt(i)) >= 0) {
+                quantified = true;
+                char quantifier = regex.charAt(i);
+                if(quantifier == '{') {
+                    int close = regex.indexOf('}', i);
+                    close = close < 0 ? end - 1 : close;
+                    minRepeats = parseMinRepeats(regex.substring(i + 1, close));
+                    i = close + 1;
+                } else {
+                    minRepeats = quantifier == '+' ? 1 : 0;
+                    i += 1;
+                }
+                if(i < end && (regex.charAt(i) == '?' || regex.charAt(i) == '+')) {
+                    i += 1;
+                }
+            }
+            if(literal >= 0 && minRepeats > 0) {
+                run.append((char) literal);
+            } else if(literal >= 0 && run.length() > 0 && Character.isHighSurrogate(run.charAt(run.length() - 1))
+                      && Character.isLowSurrogate((char) literal)) {
+                run.setLength(run.length() - 1);
+            }
+            if(literal < 0 || quantified) {
+                endRun(run, literals);
+            }
+        }
+        endRun(run, literals);
+        return literals;
+    }
+
+    private static void endRun(StringBuilder run, List<String> literals) {
+        if(run.length() >= 3) {
+            literals.add(run.toString());
+        }
+        run.setLength(0);
+    }
+
+    private static int escapedLiteral(char c) {
+        switch (c) {
+            case 't': return '\t';
+            case 'n': return '\n';
+            case 'r': return '\r';
+            case 'f': return '\f';
+            case 'a': return '\u0007';
+            case 'e': return '\u001B';
+            default: return Character.isLetterOrDigit(c) ? -1 : c;
+        }
+    }
+
+    private static int parseMinRepeats(String bounds) {
+        int comma = bounds.indexOf(',');
+        try {
+            return Integer.parseInt((comma < 0 ? bounds : bounds.substring(0, comma)).trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static boolean hasInlineFlags(String regex, int groupStart) {
+        return regex.startsWith("(?", groupStart) && groupStart + 2 < regex.length()
+               && ":=!<>".indexOf(regex.charAt(groupStart + 2)) < 0;
+    }
+
+    /**
+     * @return index after escape sequence starting at specified index, arguments of hexadecimal,
+     *         octal, unicode, control character and property escapes are included
+     */
+    private static int escapeEnd(String regex, int start) {
+        if(start + 1 >= regex.length()) {
+            return regex.length();
+        }
+        int i = start + 2;
+        switch (regex.charAt(start + 1)) {
+            case 'Q':
+                return quoteEnd(regex, start);
+            case 'x':
+                return regex.startsWith("{", i) ? closingEnd(regex, i, '}') : i + 2;
+            case 'u':
+                return i + 4;
+            case 'c':
+                return i + 1;
+            case 'p':
+            case 'P':
+                return regex.startsWith("{", i) ? closingEnd(regex, i, '}') : i + 1;
+            case 'N':
+                return closingEnd(regex, i, '}');
+            case 'k':
+                return closingEnd(regex, i, '>');
+            case '0':
+                while (i < regex.length() && i < start + 5 && regex.charAt(i) >= '0' && regex.charAt(i) <= '7') {
+                    i += 1;
+                }
+                return i;
+            default:
+                if(Character.isDigit(regex.charAt(start + 1))) {
+                    while (i < regex.length() && Character.isDigit(regex.charAt(i))) {
+                        i += 1;
+                    }
+                }
+                return i;
+        }
+    }
+
+    private static int closingEnd(String regex, int start, char closing) {
+        int close = regex.indexOf(closing, start);
+        return close < 0 ? regex.length() : close + 1;
+    }
+
+    private static int quoteEnd(String regex, int start) {
+        int end = regex.indexOf("\\E", start + 2);
+        return end < 0 ? regex.length() : end + 2;
+    }
+
+    private static int classEnd(String regex, int start) {
+        int depth = 0;
+        int i = start;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if(c == '\\') {
+                i = escapeEnd(regex, i);
+                continue;
+            }
+            if(c == '[') {
+                depth += 1;
+                if(regex.startsWith("^]", i + 1)) {
+                    i += 2;
+                } else if(regex.startsWith("]", i + 1)) {
+                    i += 1;
+                }
+            } else if(c == ']') {
+                depth -= 1;
+                if(depth == 0) {
+                    return i;
+                }
+            }
+            i += 1;
+        }
+        return regex.length() - 1;
+    }
+
+    private static int groupEnd(String regex, int start) {
+        int depth = 0;
+        int i = start;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if(c == '\\') {
+                i = escapeEnd(regex, i);
+                continue;
+            }
+            if(c == '[') {
+                i = classEnd(regex, i) + 1;
+                continue;
+            }
+            if(c == '(') {
+                depth += 1;
+            } else if(c == ')') {
+                depth -= 1;
+                if(depth == 0) {
+                    return i;
+                }
+            }
+            i += 1;
+        }
+        return regex.length() - 1;
+    }
+}
@@ -0,0 +1,170 @@
+package indexer.query;
+
+import indexer.index.PositionsCursor;
+import indexer.index.PostingsIterator;
+import indexer.tokenizer.Token;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Phrase or proximity query. Candidates are found by intersecting tokens' postings, then they are
+ * verified using positions stored in index, files are not read.
+ * Phrase matches if tokens follow each other exactly. Proximity query matches if there is a window
+ * of at most maxDistance + 1 words containing all tokens in any order, token repeated in query must
+ * occur in window as many times as it is repeated.
+ * Query matches no files if index doesn't store positions.
+ */
+public class PositionalQuery extends Query {
+    private final List<Token> tokens;
+    private final int maxDistance;
+    private final boolean ordered;
+    private final AndQuery candidates;
+    // index of the first equal token for every token and number of its repeats for the first ones
+    private final int[] groups;
+    private final int[] repeats;
+    private final int groupsNumber;
+
+    /**
+     * @param tokens      tokens to find
+     * @param maxDistance maximum distance between the first and the last matched positions,
+     *                    ignored for ordered queries
+     * @param ordered     {@code true} for phrase query
+     * @throws IllegalArgumentException if there are no tokens or distance is negative
+     */
+    public PositionalQuery(List<Token> tokens, int maxDistance, boolean ordered) {
+        if(tokens.isEmpty() || maxDistance < 0) {
+            throw new IllegalArgumentException("tokens must not be empty and distance must not be negative");
+        }
+        this.tokens = new ArrayList<>(tokens);
+        this.maxDistance = maxDistance;
+        this.ordered = ordered;
+        List<Query> terms = new ArrayList<>(tokens.size());
+        for(Token token : tokens) {
+            terms.add(new TermQuery(token));
+        }
+        this.candidates = new AndQuery(terms);
+        this.groups = new int[tokens.size()];
+        this.repeats = new int[tokens.size()];
+        int groupsNumber = 0;
+        for(int i = 0; i < groups.length; i++) {
+            int group = 0;
+            while (!tokens.get(group).getValue().equals(tokens.get(i).getValue())) {
+                group += 1;
+            }
+            groups[i] = group;
+            if(repeats[group]++ == 0) {
+                groupsNumber += 1;
+            }
+        }
+        this.groupsNumber = groupsNumber;
+    }
+
+    @Override
+    public PostingsIterator iterator(PostingsSource source) {
+        final PositionsCursor[] cursors = new PositionsCursor[tokens.size()];
+        for(int i = 0; i < cursors.length; i++) {
+            cursors[i] = source.positions(tokens.get(i));
+            if(cursors[i] == null) {
+                return EmptyIterator.INSTANCE;
+            }
+        }
+        final PostingsIterator candidatesIt = candidates.iterator(source);
+        return new LookaheadIterator() {
+            @Override
+            protected long fetch() {
+                return verify(candidatesIt.hasNext() ? candidatesIt.next() : -1);
+            }
+
+            @Override
+            protected long fetch(long target) {
+                return verify(candidatesIt.advance(target));
+            }
+
+            private long verify(long candidate) {
+                while (candidate >= 0) {
+                    int[][] positions = new int[cursors.length][];
+                    boolean found = true;
+                    for(int i = 0; i < cursors.length; i++) {
+                        positions[i] = cursors[i].positions(candidate);
+                        found = found && positions[i] != null && positions[i].length != 0;
+                    }
+                    if(found && (ordered ? matchesPhrase(positions) : matchesWindow(positions))) {
+                        return candidate;
+                    }
+                    candidate = candidatesIt.hasNext() ? candidatesIt.next() : -1;
+                }
+                return -1;
+            }
+        };
+    }
+
+    @Override
+    public long cost(PostingsSource source) {
+        return candidates.cost(source);
+    }
+
+    @Override
+    public void collectTerms(PostingsSource source, Collection<Token> terms) {
+        terms.addAll(tokens);
+    }
+
+    private static boolean matchesPhrase(int[][] positions) {
+        for(int start : positions[0]) {
+            boolean matches = true;
+            for(int i = 1; i < positions.length && matches; i++) {
+                matches = Arrays.binarySearch(positions[i], start + i) >= 0;
+            }
+            if(matches) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Slides window over merged positions of distinct tokens. Window is extended by the next position
+     * and shrunk from the start while it is wider than allowed. Every token counts its positions
+     * in window, so repeated token needs as many distinct positions as its repeats
+     */
+    private boolean matchesWindow(int[][] positions) {
+        int total = 0;
+        for(int i = 0; i < positions.length; i++) {
+            if(groups[i] == i) {
+                total += positions[i].length;
+            }
+        }
+        // position in high half, token's group in low half
+        long[] merged = new long[total];
+        int mergedNumber = 0;
+        for(int i = 0; i < positions.length; i++) {
+            if(groups[i] == i) {
+                for(int position : positions[i]) {
+                    merged[mergedNumber++] = ((long) position << 32) | i;
+                }
+            }
+        }
+        Arrays.sort(merged);
+        int[] inWindow = new int[positions.length];
+        int satisfied = 0;
+        int start = 0;
+        for(int end = 0; end < total; end++) {
+            int group = (int) merged[end];
+            if(++inWindow[group] == repeats[group]) {
+                satisfied += 1;
+            }
+            while ((merged[end] >>> 32) - (merged[start] >>> 32) > maxDistance) {
+                int startGroup = (int) merged[start++];
+                if(inWindow[startGroup]-- == repeats[startGroup]) {
+                    satisfied -= 1;
+                }
+            }
+            if(satisfied == groupsNumber) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
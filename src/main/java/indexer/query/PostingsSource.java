@@ -0,0 +1,41 @@
+package indexer.query;
+
+import indexer.index.PositionsCursor;
+import indexer.index.PostingsIterator;
+import indexer.tokenizer.Token;
+
+import java.util.Iterator;
+
+/**
+ * Postings storage queries are evaluated against. Implementations are provided by indices
+ * and are valid only while index is not modified.
+ */
+public interface PostingsSource {
+    /**
+     * @param token token to find
+     * @return      iterator over ids of files containing token, including removed ones,
+     *              or null if there is no such token
+     */
+    public PostingsIterator postings(Token token);
+
+    /**
+     * @param token token to find
+     * @return      length of token's postings, used to estimate queries cost
+     */
+    public int postingsNumber(Token token);
+
+    /**
+     * @param token token to find
+     * @return      cursor over token's positions in files, null if there is no such token or
+     *              positions are not stored, positional queries match no files then
+     */
+    public PositionsCursor positions(Token token);
+
+    /**
+     * Enumerates term dictionary in ascending order of tokens' values (compared as strings)
+     *
+     * @param from value to start from
+     * @return     iterator over tokens with values not less than {@code from}
+     */
+    public Iterator<Token> terms(String from);
+}
@@ -0,0 +1,40 @@
+package indexer.query;
+
+import indexer.tokenizer.Token;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Matches files containing tokens starting with prefix. Only the range of term dictionary
+ * starting with prefix is enumerated
+ */
+public class PrefixQuery extends MultiTermQuery {
+    private final String prefix;
+
+    public PrefixQuery(String prefix) {
+        if(prefix == null) {
+            throw new IllegalArgumentException("prefix must not be null");
+        }
+        this.prefix = prefix;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    @Override
+    public List<Token> matchingTerms(PostingsSource source) {
+        List<Token> terms = new ArrayList<>();
+        Iterator<Token> it = source.terms(prefix);
+        while (it.hasNext()) {
+            Token term = it.next();
+            if(!term.getValue().startsWith(prefix)) {
+                break;
+            }
+            terms.add(term);
+        }
+        return terms;
+    }
+}
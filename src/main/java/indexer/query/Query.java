@@ -0,0 +1,96 @@
+package indexer.query;
+
+import indexer.index.PostingsIterator;
+import indexer.tokenizer.Token;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Query over index postings. Query is evaluated inside index as lazy iterator over file ids
+ * in ascending order, so only files of final result are looked up. Queries are created by
+ * static factory methods and can be combined:
+ * <pre>
+ *     Query.and(Query.term(new Word("foo")), Query.or(Query.term(new Word("bar")), Query.term(new Word("baz"))),
+ *               Query.not(Query.term(new Word("qux"))))
+ * </pre>
+ * Negative query can only be a clause of and query with at least one positive clause.
+ * Phrase and proximity queries need positions of tokens, so they are supported by positional
+ * indices only.
+ */
+public abstract class Query {
+    public static Query term(Token token) {
+        return new TermQuery(token);
+    }
+
+    public static Query and(Query... clauses) {
+        return new AndQuery(Arrays.asList(clauses));
+    }
+
+    public static Query or(Query... clauses) {
+        return new OrQuery(Arrays.asList(clauses));
+    }
+
+    public static Query not(Query clause) {
+        return new NotQuery(clause);
+    }
+
+    /**
+     * @return query matching files containing some token starting with prefix
+     */
+    public static Query prefix(String prefix) {
+        return new PrefixQuery(prefix);
+    }
+
+    /**
+     * @param pattern token pattern, '*' matches any sequence of characters and '?' matches any character
+     * @return        query matching files containing some token matching pattern
+     */
+    public static Query wildcard(String pattern) {
+        return new WildcardQuery(pattern);
+    }
+
+    /**
+     * @param term     term to match
+     * @param maxEdits maximum number of inserted, deleted and substituted characters
+     * @return         query matching files containing some token within specified Levenshtein distance from term
+     */
+    public static Query fuzzy(String term, int maxEdits) {
+        return new FuzzyQuery(term, maxEdits);
+    }
+
+    /**
+     * @return query matching files containing tokens as adjacent words in specified order
+     */
+    public static Query phrase(Token... tokens) {
+        return new PositionalQuery(Arrays.asList(tokens), 0, true);
+    }
+
+    /**
+     * @param maxDistance maximum distance between the first and the last of tokens, in words
+     * @return            query matching files containing all tokens in any order within specified distance
+     */
+    public static Query near(int maxDistance, Token... tokens) {
+        return new PositionalQuery(Arrays.asList(tokens), maxDistance, false);
+    }
+
+    /**
+     * @param source postings to evaluate query against
+     * @return       iterator over ids of matching files in ascending order
+     */
+    public abstract PostingsIterator iterator(PostingsSource source);
+
+    /**
+     * @param source postings to evaluate query against
+     * @return       upper bound of matching files number
+     */
+    public abstract long cost(PostingsSource source);
+
+    /**
+     * Collects tokens of positive clauses, they are used to score matching files
+     *
+     * @param source postings to expand multi-term queries against
+     * @param terms  collection to add tokens to
+     */
+    public abstract void collectTerms(PostingsSource source, Collection<Token> terms);
+}
@@ -0,0 +1,40 @@
+package indexer.query;
+
+import indexer.index.PostingsIterator;
+import indexer.tokenizer.Token;
+
+import java.util.Collection;
+
+/**
+ * Matches files containing token
+ */
+public class TermQuery extends Query {
+    private final Token token;
+
+    public TermQuery(Token token) {
+        if(token == null) {
+            throw new IllegalArgumentException("token must not be null");
+        }
+        this.token = token;
+    }
+
+    public Token getToken() {
+        return token;
+    }
+
+    @Override
+    public PostingsIterator iterator(PostingsSource source) {
+        PostingsIterator postings = source.postings(token);
+        return postings == null ? EmptyIterator.INSTANCE : postings;
+    }
+
+    @Override
+    public long cost(PostingsSource source) {
+        return source.postingsNumber(token);
+    }
+
+    @Override
+    public void collectTerms(PostingsSource source, Collection<Token> terms) {
+        terms.add(token);
+    }
+}
@@ -0,0 +1,65 @@
+package indexer.query;
+
+import indexer.tokenizer.Token;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Matches files containing tokens matching pattern with '*' (any sequence of characters) and
+ * '?' (any character) wildcards. Term dictionary is enumerated starting from pattern's literal
+ * prefix (part before the first wildcard), so patterns with long literal prefix are cheap
+ * and pattern with leading wildcard enumerates the whole dictionary.
+ */
+public class WildcardQuery extends MultiTermQuery {
+    private final String pattern;
+    private final String literalPrefix;
+    private final Pattern regex;
+
+    public WildcardQuery(String pattern) {
+        if(pattern == null) {
+            throw new IllegalArgumentException("pattern must not be null");
+        }
+        this.pattern = pattern;
+        StringBuilder regexBuilder = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        int prefixLength = -1;
+        for(int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if(c == '*' || c == '?') {
+                if(prefixLength < 0) {
+                    prefixLength = i;
+                }
+                regexBuilder.append(Pattern.quote(literal.toString())).append(c == '*' ? ".*" : ".");
+                literal.setLength(0);
+            } else {
+                literal.append(c);
+            }
+        }
+        regexBuilder.append(Pattern.quote(literal.toString()));
+        this.literalPrefix = prefixLength < 0 ? pattern : pattern.substring(0, prefixLength);
+        this.regex = Pattern.compile(regexBuilder.toString(), Pattern.DOTALL);
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    @Override
+    public List<Token> matchingTerms(PostingsSource source) {
+        List<Token> terms = new ArrayList<>();
+        Iterator<Token> it = source.terms(literalPrefix);
+        while (it.hasNext()) {
+            Token term = it.next();
+            if(!term.getValue().startsWith(literalPrefix)) {
+                break;
+            }
+            if(regex.matcher(term.getValue()).matches()) {
+                terms.add(term);
+            }
+        }
+        return terms;
+    }
+}
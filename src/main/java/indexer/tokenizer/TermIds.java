@@ -0,0 +1,17 @@
+package indexer.tokenizer;
+
+/**
+ * Mapping of terms' text to dense int ids. Terms are passed as parts of char buffers, so tokenizer
+ * doesn't need to create strings for terms that are already known.
+ */
+public interface TermIds {
+    /**
+     * Looks up term's id, term is inserted if it is not known yet
+     *
+     * @param chars  buffer containing term
+     * @param offset term's offset in buffer
+     * @param length term's length
+     * @return       term's id, ids are assigned sequentially from 0, ids of removed terms may be reused
+     */
+    public int termId(char[] chars, int offset, int length);
+}
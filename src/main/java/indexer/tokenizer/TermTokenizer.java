@@ -0,0 +1,20 @@
+package indexer.tokenizer;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Tokenizer that can put tokens straight into term dictionary of index instead of creating
+ * token objects for every occurrence.
+ */
+public interface TermTokenizer extends Tokenizer {
+    /**
+     * Splits text into tokens the same way as {@link #tokenize(Reader)} does
+     *
+     * @param reader text to split
+     * @param terms  term dictionary to look up or insert tokens' text
+     * @return       ids of tokens in order of their occurrence
+     * @throws IOException if IO errors occurred while reading
+     */
+    public int[] tokenizeIds(Reader reader, TermIds terms) throws IOException;
+}
@@ -3,37 +3,103 @@ package indexer.tokenizer;
 import java.io.IOException;
 import java.io.Reader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
- * Created by mrx on 26.09.14.
+ * Splits text into words separated by spaces and line breaks. Tokenizer has no state between
+ * tokenize calls, so it can be shared by multiple threads
  */
-public class WordsTokenizer implements Tokenizer {
-    private final StringBuilder stringBuilder = new StringBuilder();
-    private int symbol;
+public class WordsTokenizer implements TermTokenizer {
+    private static final int BUFFER_SIZE = 8192;
 
+    /**
+     * Repeated words of text are returned as the same token object, so tokens of one text keep one
+     * string per distinct word
+     */
     @Override
     public List<Token> tokenize(Reader reader) throws IOException {
         List<Token> tokens = new ArrayList<Token>();
-        Token word = readWord(reader);
+        Map<String, Token> words = new HashMap<String, Token>();
+        StringBuilder stringBuilder = new StringBuilder();
+        Token word = readWord(reader, stringBuilder, words);
         while (word != null) {
             tokens.add(word);
-            word = readWord(reader);
+            word = readWord(reader, stringBuilder, words);
         }
         return tokens;
     }
 
-    private Token readWord(Reader reader) throws IOException {
-        symbol = reader.read();
+    /**
+     * Splits text into words like {@link #tokenize(Reader)}, words are passed to term dictionary
+     * right from the read buffer, unless word crosses buffer's boundary
+     */
+    @Override
+    public int[] tokenizeIds(Reader reader, TermIds terms) throws IOException {
+        int[] ids = new int[16];
+        int idsNumber = 0;
+        char[] buffer = new char[BUFFER_SIZE];
+        // beginning of word which crosses buffer's boundary
+        char[] carry = new char[16];
+        int carryLength = 0;
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            int start = 0;
+            for(int i = 0; i < read; i++) {
+                if(buffer[i] != ' ' && buffer[i] != '\n') {
+                    continue;
+                }
+                if(idsNumber == ids.length) {
+                    ids = Arrays.copyOf(ids, ids.length * 2);
+                }
+                if(carryLength > 0) {
+                    carry = append(carry, carryLength, buffer, start, i - start);
+                    ids[idsNumber++] = terms.termId(carry, 0, carryLength + i - start);
+                    carryLength = 0;
+                } else {
+                    ids[idsNumber++] = terms.termId(buffer, start, i - start);
+                }
+                start = i + 1;
+            }
+            carry = append(carry, carryLength, buffer, start, read - start);
+            carryLength += read - start;
+        }
+        if(carryLength > 0) {
+            if(idsNumber == ids.length) {
+                ids = Arrays.copyOf(ids, idsNumber + 1);
+            }
+            ids[idsNumber++] = terms.termId(carry, 0, carryLength);
+        }
+        return Arrays.copyOf(ids, idsNumber);
+    }
+
+    private static char[] append(char[] carry, int carryLength, char[] chars, int offset, int length) {
+        if(carryLength + length > carry.length) {
+            carry = Arrays.copyOf(carry, Math.max(carry.length * 2, carryLength + length));
+        }
+        System.arraycopy(chars, offset, carry, carryLength, length);
+        return carry;
+    }
+
+    private Token readWord(Reader reader, StringBuilder stringBuilder, Map<String, Token> words)
+            throws IOException {
+        int symbol = reader.read();
         while(((char)symbol) != ' ' && ((char)symbol) != '\n' && symbol != -1) {
             stringBuilder.append((char)symbol);
             symbol = reader.read();
         }
-        String word = stringBuilder.toString().intern();
+        String word = stringBuilder.toString();
         stringBuilder.setLength(0);
         if(symbol == -1 && word.equals("")) {
             return null;
         }
-        return new Word(word);
+        Token token = words.get(word);
+        if(token == null) {
+            token = new Word(word);
+            words.put(word, token);
+        }
+        return token;
     }
 }
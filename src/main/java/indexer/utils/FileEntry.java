@@ -1,16 +1,63 @@
 package indexer.utils;
 
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Created by mrx on 03.10.14.
  */
 public class FileEntry {
     private final String filePath;
-    private boolean removed = false;
-    private int tokensCounter;
+    private final long size;
+    private final long lastModified;
+    private final Charset charset;
+    private final int length;
+    private volatile boolean removed = false;
+    private final AtomicInteger tokensCounter;
 
     public FileEntry(String filePath, int wordsNumber) {
+        this(filePath, wordsNumber, -1, -1, null);
+    }
+
+    /**
+     * @param filePath     file's path
+     * @param wordsNumber  number of distinct tokens in file
+     * @param size         file's size at the moment it was read or -1 if unknown
+     * @param lastModified file's modification time in milliseconds at the moment it was read or -1 if unknown
+     * @param charset      charset file was read with or null if unknown
+     */
+    public FileEntry(String filePath, int wordsNumber, long size, long lastModified, Charset charset) {
+        this(filePath, wordsNumber, size, lastModified, charset, -1);
+    }
+
+    /**
+     * @param filePath     file's path
+     * @param wordsNumber  number of distinct tokens in file
+     * @param size         file's size at the moment it was read or -1 if unknown
+     * @param lastModified file's modification time in milliseconds at the moment it was read or -1 if unknown
+     * @param charset      charset file was read with or null if unknown
+     * @param length       number of all tokens in file or -1 if unknown
+     */
+    public FileEntry(String filePath, int wordsNumber, long size, long lastModified, Charset charset, int length) {
         this.filePath = filePath;
-        this.tokensCounter = wordsNumber;
+        this.length = length;
+        this.tokensCounter = new AtomicInteger(wordsNumber);
+        this.size = size;
+        this.lastModified = lastModified;
+        this.charset = charset;
+    }
+
+    /**
+     * Constructor for entries building their paths on demand, subclass must override {@link #getFilePath()}
+     *
+     * @param wordsNumber  number of distinct tokens in file
+     * @param size         file's size at the moment it was read or -1 if unknown
+     * @param lastModified file's modification time in milliseconds at the moment it was read or -1 if unknown
+     * @param charset      charset file was read with or null if unknown
+     * @param length       number of all tokens in file or -1 if unknown
+     */
+    protected FileEntry(int wordsNumber, long size, long lastModified, Charset charset, int length) {
+        this(null, wordsNumber, size, lastModified, charset, length);
     }
 
     public boolean isRemoved() {
@@ -21,15 +68,50 @@ public class FileEntry {
         this.removed = true;
     }
 
-    public void decreaseTokensCounter() {
-        tokensCounter -= 1;
+    /**
+     * Atomically decreases tokens counter
+     *
+     * @return counter value after decreasing
+     */
+    public int decreaseTokensCounter() {
+        return tokensCounter.decrementAndGet();
     }
 
     public int getTokensCounter() {
-        return tokensCounter;
+        return tokensCounter.get();
     }
 
     public String getFilePath() {
         return filePath;
     }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * @return number of all tokens in file or -1 if unknown
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Checks if indexed version of file has the same size and modification time as specified ones
+     *
+     * @param size         file's current size
+     * @param lastModified file's current modification time in milliseconds
+     * @return             {@code false} if file differs or its metadata is unknown, {@code true} otherwise
+     */
+    public boolean isUpToDate(long size, long lastModified) {
+        return this.size >= 0 && this.size == size && this.lastModified == lastModified;
+    }
 }
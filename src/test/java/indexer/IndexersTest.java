@@ -24,6 +24,18 @@ public class IndexersTest extends TmpFsCreator {
         fsIndexer.close();
     }
 
+    @Test
+    public void testSearchFuzzy() throws Exception {
+        FSIndexer fsIndexer = Indexers.newSimpleFsIndexer(new WordsTokenizer(), null);
+        fsIndexer.add(tempFolder.getRoot().getAbsolutePath());
+        assertEquals(1, fsIndexer.searchFuzzy(new Word("file1"), 0).size());
+        assertEquals(3, fsIndexer.searchFuzzy(new Word("file1"), 1).size());
+        assertEquals(3, fsIndexer.searchFuzzy(new Word("contnet"), 2).size());
+        assertEquals(0, fsIndexer.searchFuzzy(new Word("contnet"), 1).size());
+        assertEquals(0, fsIndexer.searchFuzzy(null, 1).size());
+        fsIndexer.close();
+    }
+
     @Test
     public void testReadQueries() throws Exception {
         final FSIndexer fsIndexer = Indexers.newSimpleFsIndexer(new WordsTokenizer(), null);
@@ -142,4 +142,26 @@ public class IndexUpdaterTest extends TmpFsCreator {
         assertEquals(1, hashFileIndex.search(new Word("more")).size());
         assertEquals(1, hashFileIndex.search(new Word("here")).size());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testOnFilesAddedEventReconciles() throws Exception {
+        FileIndex hashFileIndex = new HashFileIndex(tokenizer);
+        IndexEventsHandler handler = new IndexUpdater(hashFileIndex);
+        handler.onFilesAddedEvent(Paths.get(tempFolder.getRoot().getAbsolutePath()));
+        assertEquals(1, hashFileIndex.search(new Word("file1")).size());
+
+        rewriteFileWithText(file1, "changed text");
+        assertTrue(file1.setLastModified(file1.lastModified() + 2000));
+        assertTrue(file2.delete());
+        handler.onFilesAddedEvent(Paths.get(tempFolder.getRoot().getAbsolutePath()));
+
+        assertTrue(hashFileIndex.containsFile(file1.getAbsolutePath()));
+        assertFalse(hashFileIndex.containsFile(file2.getAbsolutePath()));
+        assertTrue(hashFileIndex.containsFile(file3.getAbsolutePath()));
+        assertTrue(hashFileIndex.containsFile(dir2SubFile1.getAbsolutePath()));
+        assertEquals(0, hashFileIndex.search(new Word("file1")).size());
+        assertEquals(1, hashFileIndex.search(new Word("changed")).size());
+        assertEquals(1, hashFileIndex.search(new Word("content")).size());
+        assertEquals(1, hashFileIndex.search(new Word("ipsum")).size());
+    }
+}
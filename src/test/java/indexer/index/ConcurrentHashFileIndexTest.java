@@ -0,0 +1,176 @@
+package indexer.index;
+
+import indexer.TmpFsCreator;
+import indexer.tokenizer.WordsTokenizer;
+import indexer.tokenizer.Word;
+import indexer.utils.EncodedFile;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrentHashFileIndexTest extends TmpFsCreator {
+    @Test
+    public void testSearchSkipsRemovedFiles() {
+        ConcurrentHashFileIndex index = new ConcurrentHashFileIndex(new WordsTokenizer());
+        index.addFile(new EncodedFile(file1.getAbsolutePath()));
+        index.addFile(new EncodedFile(file2.getAbsolutePath()));
+        index.addFile(new EncodedFile(file3.getAbsolutePath()));
+        index.removeFile(file2.getAbsolutePath());
+
+        List<String> paths = index.search(new Word("content"));
+        assertEquals(2, paths.size());
+        assertEquals(file1.getAbsolutePath(), paths.get(0));
+        assertEquals(file3.getAbsolutePath(), paths.get(1));
+        assertEquals(0, index.search(new Word("file2")).size());
+    }
+
+    @Test
+    public void testSearchCursor() {
+        ConcurrentHashFileIndex index = new ConcurrentHashFileIndex(new WordsTokenizer());
+        index.addFile(new EncodedFile(file1.getAbsolutePath()));
+        index.addFile(new EncodedFile(file2.getAbsolutePath()));
+        index.addFile(new EncodedFile(file3.getAbsolutePath()));
+        index.addFile(new EncodedFile(dir2SubFile1.getAbsolutePath()));
+
+        SearchCursor cursor = index.searchCursor(new Word("content"), SearchCursor.START);
+        assertEquals(Arrays.asList(file1.getAbsolutePath()), cursor.nextPage(1));
+        index.removeFile(file2.getAbsolutePath());
+        index.forceRemoves();
+        index.addFile(new EncodedFile(file2.getAbsolutePath()));
+        assertEquals(Arrays.asList(file3.getAbsolutePath()), cursor.nextPage(1));
+        assertFalse(cursor.hasNext());
+        assertEquals(0, cursor.nextPage(1).size());
+
+        SearchCursor resumed = index.searchCursor(new Word("content"), cursor.resumeToken());
+        assertTrue(resumed.hasNext());
+        assertEquals(Arrays.asList(file2.getAbsolutePath()), resumed.nextPage(10));
+        assertFalse(index.searchCursor(new Word("content"), resumed.resumeToken()).hasNext());
+        assertFalse(index.searchCursor(new Word("missing"), SearchCursor.START).hasNext());
+    }
+
+    @Test
+    public void testSearchPurgesPostponedRemoves() {
+        HashFileIndex hashFileIndex = new HashFileIndex(new WordsTokenizer());
+        hashFileIndex.addFile(new EncodedFile(file1.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(file2.getAbsolutePath()));
+        hashFileIndex.removeFile(file1.getAbsolutePath());
+
+        assertEquals(2, hashFileIndex.postingsNumber(new Word("content")));
+        assertEquals(1, hashFileIndex.searchWithoutRemoves(new Word("content")).size());
+        assertEquals(2, hashFileIndex.postingsNumber(new Word("content")));
+        assertEquals(1, hashFileIndex.search(new Word("content")).size());
+        assertEquals(1, hashFileIndex.postingsNumber(new Word("content")));
+    }
+
+    @Test
+    public void testCompactorPurgesRemovedFiles() throws Exception {
+        ConcurrentHashFileIndex index = new ConcurrentHashFileIndex(new WordsTokenizer());
+        index.addFile(new EncodedFile(file1.getAbsolutePath()));
+        index.addFile(new EncodedFile(file2.getAbsolutePath()));
+        index.addFile(new EncodedFile(dir2SubFile1.getAbsolutePath()));
+        TombstoneCompactor compactor = index.compactor();
+        // background thread is not started, slices are run by test
+        compactor.close();
+        assertEquals(0.0, index.getCompactionProgress().getTombstoneRatio(), 0.0);
+
+        index.removeFile(dir2SubFile1.getAbsolutePath());
+        assertEquals(12, index.getCompactionProgress().getPostingsNumber());
+        assertEquals(8, index.getCompactionProgress().getRemovedPostingsNumber());
+
+        while (compactor.runSlice()) { }
+        TombstoneCompactor.Progress progress = index.getCompactionProgress();
+        assertEquals(4, progress.getPostingsNumber());
+        assertEquals(0, progress.getRemovedPostingsNumber());
+        assertEquals(8, progress.getPurgedPostingsNumber());
+        assertTrue(progress.getCompletedSweepsNumber() >= 1);
+        assertEquals(1.0, progress.getSweepProgress(), 0.0);
+        assertFalse(compactor.runSlice());
+        assertEquals(2, index.search(new Word("content")).size());
+        index.close();
+    }
+
+    @Test
+    public void testStaleTokensPurgedFirst() throws Exception {
+        ConcurrentHashFileIndex index = new ConcurrentHashFileIndex(new WordsTokenizer());
+        index.addFile(new EncodedFile(file1.getAbsolutePath()));
+        index.addFile(new EncodedFile(file2.getAbsolutePath()));
+        index.addFile(new EncodedFile(file3.getAbsolutePath()));
+        index.addFile(new EncodedFile(dir2SubFile1.getAbsolutePath()));
+        index.compactor().close();
+        index.removeFile(file1.getAbsolutePath());
+
+        // after 'content' is purged, 1 of 11 postings is removed, that is below sweep threshold
+        assertEquals(2, index.search(new Word("content")).size());
+        assertEquals(1, index.getCompactionProgress().getStaleTokensNumber());
+        index.compactor().runSlice();
+        assertEquals(0, index.getCompactionProgress().getStaleTokensNumber());
+        assertEquals(1, index.getCompactionProgress().getPurgedPostingsNumber());
+        assertEquals(1, index.getCompactionProgress().getRemovedPostingsNumber());
+        index.close();
+    }
+
+    @Test
+    public void testSpilledPostingsAreNotStale() throws Exception {
+        ConcurrentHashFileIndex index = new ConcurrentHashFileIndex(new WordsTokenizer());
+        index.setMemoryBudget(1, tempFolder.newFolder("runs").toPath());
+        index.addFile(new EncodedFile(file1.getAbsolutePath()));
+        index.addFile(new EncodedFile(file2.getAbsolutePath()));
+        index.compactor().close();
+        index.removeFile(file1.getAbsolutePath());
+
+        // postings of removed file are in runs, compactor can't purge them
+        assertEquals(1, index.search(new Word("content")).size());
+        assertEquals(0, index.getCompactionProgress().getStaleTokensNumber());
+    }
+
+    @Test
+    public void testCompactorGoesIdle() throws Exception {
+        HashFileIndex index = new HashFileIndex(new WordsTokenizer());
+        index.addFile(new EncodedFile(file1.getAbsolutePath()));
+        index.addFile(new EncodedFile(file2.getAbsolutePath()));
+        ReentrantLock lock = new ReentrantLock();
+        TombstoneCompactor compactor = new TombstoneCompactor(index, lock, 5, 1, 0.0, 1, 60000);
+        assertFalse(compactor.isScheduled());
+        for(File file : Arrays.asList(file1, file2)) {
+            lock.lock();
+            try {
+                index.removeFile(file.getAbsolutePath());
+            } finally {
+                lock.unlock();
+            }
+            compactor.onFilesRemoved();
+            long deadline = System.currentTimeMillis() + 10000;
+            while (compactor.isScheduled() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            // nothing is left to purge, so no slices are scheduled
+            assertFalse(compactor.isScheduled());
+            assertEquals(0, index.removedPostingsNumber());
+        }
+        compactor.close();
+    }
+
+    @Test
+    public void testIdleSweepBelowThresholds() throws Exception {
+        HashFileIndex index = new HashFileIndex(new WordsTokenizer());
+        index.addFile(new EncodedFile(file1.getAbsolutePath()));
+        index.addFile(new EncodedFile(file2.getAbsolutePath()));
+        index.addFile(new EncodedFile(file3.getAbsolutePath()));
+        index.addFile(new EncodedFile(dir2SubFile1.getAbsolutePath()));
+        TombstoneCompactor compactor = new TombstoneCompactor(index, new ReentrantLock(), 5, 20, 0.5, 100, 1);
+        index.removeFile(file1.getAbsolutePath());
+        // 2 of 14 postings are removed, that is below both thresholds
+        Thread.sleep(5);
+        while (compactor.runSlice()) { }
+        assertEquals(0, index.removedPostingsNumber());
+        assertEquals(1, compactor.getProgress().getCompletedSweepsNumber());
+        assertFalse(compactor.runSlice());
+    }
+}
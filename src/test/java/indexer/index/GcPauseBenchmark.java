@@ -0,0 +1,66 @@
+package indexer.index;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares full GC pauses and heap usage with posting lists kept in heap arrays and in off-heap
+ * PostingArena. Every layout is measured in its own JVM run to keep heaps comparable, for example:
+ * java -Xmx4g -cp target/classes:target/test-classes indexer.index.GcPauseBenchmark heap
+ * java -Xmx4g -cp target/classes:target/test-classes indexer.index.GcPauseBenchmark arena
+ */
+public class GcPauseBenchmark {
+    private static final int LISTS_NUMBER = 1000000;
+    private static final int FILES_NUMBER = 1000000;
+    private static final int MAX_LIST_SIZE = 400;
+    private static final int COLLECTIONS_NUMBER = 5;
+
+    public static void main(String[] args) {
+        boolean offHeap = args.length > 0 && args[0].equals("arena");
+        PostingArena arena = offHeap ? new PostingArena() : null;
+        Random random = new Random(42);
+        List<PostingList> lists = new ArrayList<>(LISTS_NUMBER);
+        long postings = 0;
+        for(int i = 0; i < LISTS_NUMBER; i++) {
+            PostingList list = offHeap ? new ArenaPostingList(arena, true) : new PostingList(true);
+            int size = 1 + random.nextInt(MAX_LIST_SIZE);
+            long id = 0;
+            for(int j = 0; j < size; j++) {
+                id += 1 + random.nextInt(FILES_NUMBER / size);
+                list.add(id, 1 + random.nextInt(4));
+            }
+            list.trimToSize();
+            lists.add(list);
+            postings += size;
+        }
+        System.out.println((offHeap ? "arena" : "heap") + ", lists: " + LISTS_NUMBER + ", postings: " + postings);
+
+        long maxPause = 0;
+        long totalPause = 0;
+        for(int i = 0; i < COLLECTIONS_NUMBER; i++) {
+            long gcTime = gcTime();
+            long start = System.nanoTime();
+            System.gc();
+            long pause = Math.max((System.nanoTime() - start) / 1000000, gcTime() - gcTime);
+            maxPause = Math.max(maxPause, pause);
+            totalPause += pause;
+        }
+        Runtime runtime = Runtime.getRuntime();
+        System.out.println("Heap used: " + (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024) + " MB"
+                + (offHeap ? ", off-heap used: " + arena.usedBytes() / (1024 * 1024) + " MB" : ""));
+        System.out.println("Full GC pause: average " + totalPause / COLLECTIONS_NUMBER + " ms, max " + maxPause + " ms");
+        // keeps lists reachable during collections
+        System.out.println("Check: " + lists.get(random.nextInt(lists.size())).size());
+    }
+
+    private static long gcTime() {
+        long time = 0;
+        for(GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(bean.getCollectionTime(), 0);
+        }
+        return time;
+    }
+}
@@ -2,14 +2,24 @@ package indexer.index;
 
 import indexer.TmpFsCreator;
 import indexer.exceptions.InconsistentIndexException;
+import indexer.query.Query;
 import indexer.tokenizer.Tokenizer;
 import indexer.tokenizer.Word;
 import indexer.tokenizer.WordsTokenizer;
 import indexer.utils.EncodedFile;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -134,4 +144,580 @@ public class HashFileIndexTest extends TmpFsCreator {
         assertFalse(hashFileIndex.containsFile(dir1SubFile1.getAbsolutePath()));
         assertFalse(hashFileIndex.containsFile(dir2SubFile1.getAbsolutePath()));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        HashFileIndex hashFileIndex = new HashFileIndex(tokenizer);
+        hashFileIndex.addFile(new EncodedFile(file1.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(file2.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(dir2SubFile1.getAbsolutePath()));
+        hashFileIndex.removeFile(file2.getAbsolutePath());
+        Path snapshot = tempFolder.newFolder("snapshot").toPath().resolve("index.snapshot");
+        hashFileIndex.save(snapshot);
+
+        HashFileIndex loaded = HashFileIndex.load(tokenizer, snapshot);
+        assertTrue(loaded.containsFile(file1.getAbsolutePath()));
+        assertFalse(loaded.containsFile(file2.getAbsolutePath()));
+        assertTrue(loaded.containsFile(dir2SubFile1.getAbsolutePath()));
+        assertEquals(1, loaded.search(new Word("content")).size());
+        assertEquals(1, loaded.search(new Word("ipsum")).size());
+        assertTrue(loaded.isFileUpToDate(file1.getAbsolutePath(), file1.length(), file1.lastModified()));
+        assertFalse(loaded.isFileUpToDate(file1.getAbsolutePath(), file1.length() + 1, file1.lastModified()));
+
+        loaded.addFile(new EncodedFile(file3.getAbsolutePath()));
+        assertEquals(2, loaded.search(new Word("content")).size());
+        assertEquals(1, loaded.search(new Word("file3")).size());
+    }
+
+    @Test(expected = IOException.class)
+    public void testSnapshotOfOtherVersionIsRejected() throws Exception {
+        HashFileIndex hashFileIndex = new HashFileIndex(tokenizer);
+        hashFileIndex.addFile(new EncodedFile(file1.getAbsolutePath()));
+        Path snapshot = tempFolder.newFolder("snapshot").toPath().resolve("index.snapshot");
+        hashFileIndex.save(snapshot);
+        try (RandomAccessFile file = new RandomAccessFile(snapshot.toFile(), "rw")) {
+            file.seek(4);
+            int version = file.readInt();
+            file.seek(4);
+            file.writeInt(version - 1);
+        }
+        HashFileIndex.load(tokenizer, snapshot);
+    }
+
+    @Test
+    public void testForwardIndexRemovesPostingsAtOnce() throws Exception {
+        assertTrue(appendTextToFile(dir1SubFile1, "dir1 content"));
+        HashFileIndex hashFileIndex = new HashFileIndex(tokenizer, new HashFileIndex.Options().positional(true)
+                                                                                        .forwardIndex(true));
+        hashFileIndex.addFile(new EncodedFile(file1.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(file2.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(file3.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(dir1SubFile1.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(dir2SubFile1.getAbsolutePath()));
+        Word content = new Word("content");
+        long postingsNumber = hashFileIndex.postingsNumber();
+
+        hashFileIndex.removeFile(file2.getAbsolutePath());
+        assertEquals(3, hashFileIndex.postingsNumber(content));
+        assertEquals(0, hashFileIndex.postingsNumber(new Word("file2")));
+        assertEquals(postingsNumber - 2, hashFileIndex.postingsNumber());
+        assertEquals(0, hashFileIndex.removedPostingsNumber());
+        assertFalse(hashFileIndex.tokens().contains(new Word("file2")));
+        assertEquals(1, hashFileIndex.search(Query.phrase(new Word("file3"), content)).size());
+
+        hashFileIndex.removeDirectory(dir1.getAbsolutePath());
+        assertEquals(2, hashFileIndex.postingsNumber(content));
+        assertEquals(0, hashFileIndex.postingsNumber(new Word("dir1")));
+        assertEquals(0, hashFileIndex.removedPostingsNumber());
+
+        Path snapshot = tempFolder.newFolder("snapshot").toPath().resolve("index.snapshot");
+        hashFileIndex.save(snapshot);
+        HashFileIndex loaded = HashFileIndex.load(tokenizer, snapshot);
+        assertTrue(loaded.hasForwardIndex());
+        loaded.removeFile(file3.getAbsolutePath());
+        assertEquals(1, loaded.postingsNumber(content));
+        assertEquals(1, loaded.search(Query.phrase(new Word("file1"), content)).size());
+        assertEquals(1, loaded.search(new Word("Lorem")).size());
+    }
+
+    @Test
+    public void testHandleFileModificationKeepsFileId() throws Exception {
+        HashFileIndex hashFileIndex = new HashFileIndex(tokenizer, new HashFileIndex.Options().forwardIndex(true));
+        hashFileIndex.addFile(new EncodedFile(file1.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(file2.getAbsolutePath()));
+        Word content = new Word("content");
+        Word changed = new Word("changed");
+        long postingsNumber = hashFileIndex.postingsNumber();
+
+        assertTrue(writeTextToFile(file1, "changed content changed", false));
+        assertTrue(hashFileIndex.handleFileModification(new EncodedFile(file1.getAbsolutePath())));
+        assertEquals(Arrays.asList(file1.getAbsolutePath()), hashFileIndex.search(changed));
+        assertEquals(0, hashFileIndex.search(new Word("file1")).size());
+        assertEquals(0, hashFileIndex.postingsNumber(new Word("file1")));
+        assertEquals(2, hashFileIndex.postingsNumber(content));
+        assertEquals(postingsNumber, hashFileIndex.postingsNumber());
+        assertEquals(0, hashFileIndex.removedPostingsNumber());
+        assertTrue(hashFileIndex.isFileUpToDate(file1.getAbsolutePath(), file1.length(), file1.lastModified()));
+
+        SearchCursor cursor = hashFileIndex.searchCursor(changed, SearchCursor.START);
+        assertEquals(1, cursor.nextPage(10).size());
+        assertEquals(0, cursor.resumeToken());
+        assertEquals(Arrays.asList(file1.getAbsolutePath()),
+                     hashFileIndex.search(Query.or(Query.term(changed), Query.term(content)), 1));
+    }
+
+    @Test
+    public void testOffHeapPostings() throws Exception {
+        HashFileIndex hashFileIndex = new HashFileIndex(tokenizer, new HashFileIndex.Options().offHeap(true));
+        hashFileIndex.addFile(new EncodedFile(file1.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(file2.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(dir2SubFile1.getAbsolutePath()));
+        long offHeapBytes = hashFileIndex.offHeapBytes();
+        assertTrue(offHeapBytes > 0);
+        assertEquals(2, hashFileIndex.search(new Word("content")).size());
+        Query query = Query.and(Query.term(new Word("file1")), Query.term(new Word("content")));
+        assertEquals(Arrays.asList(file1.getAbsolutePath()), hashFileIndex.search(query, 5));
+
+        hashFileIndex.removeFile(dir2SubFile1.getAbsolutePath());
+        hashFileIndex.forceRemoves();
+        assertTrue(hashFileIndex.offHeapBytes() < offHeapBytes);
+
+        Path snapshot = tempFolder.newFolder("snapshot").toPath().resolve("index.snapshot");
+        hashFileIndex.save(snapshot);
+        HashFileIndex loaded = HashFileIndex.load(tokenizer, snapshot);
+        assertEquals(2, loaded.search(new Word("content")).size());
+        assertEquals(0, loaded.search(new Word("Lorem")).size());
+    }
+
+    @Test
+    public void testMemoryBudgetSpillsPostings() throws Exception {
+        HashFileIndex hashFileIndex = new HashFileIndex(tokenizer);
+        hashFileIndex.setMemoryBudget(1, tempFolder.newFolder("runs").toPath());
+        hashFileIndex.addFile(new EncodedFile(file1.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(file2.getAbsolutePath()));
+        assertTrue(hashFileIndex.runsNumber() > 0);
+        hashFileIndex.addFile(new EncodedFile(file3.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(dir2SubFile1.getAbsolutePath()));
+        Word content = new Word("content");
+        assertEquals(3, hashFileIndex.search(content).size());
+        assertEquals(Arrays.asList(file2.getAbsolutePath()), hashFileIndex.search(new Word("file2")));
+        assertEquals(1, hashFileIndex.search(new Word("Lorem")).size());
+
+        hashFileIndex.removeFile(file1.getAbsolutePath());
+        assertEquals(2, hashFileIndex.search(content).size());
+        assertEquals(0, hashFileIndex.search(new Word("file1")).size());
+        Query query = Query.and(Query.term(new Word("file3")), Query.term(content));
+        assertEquals(Arrays.asList(file3.getAbsolutePath()), hashFileIndex.search(query, 5));
+
+        Path snapshot = tempFolder.newFolder("snapshot").toPath().resolve("index.snapshot");
+        hashFileIndex.save(snapshot);
+        HashFileIndex loaded = HashFileIndex.load(tokenizer, snapshot);
+        assertEquals(0, loaded.runsNumber());
+        assertEquals(2, loaded.search(content).size());
+        assertEquals(0, loaded.search(new Word("file1")).size());
+        assertEquals(1, loaded.search(new Word("Lorem")).size());
+        loaded.removeFile(file2.getAbsolutePath());
+        assertEquals(1, loaded.search(content).size());
+    }
+
+    @Test
+    public void testSpilledRunsAreMerged() throws Exception {
+        Path spillDirectory = tempFolder.newFolder("shared-runs").toPath();
+        HashFileIndex hashFileIndex = new HashFileIndex(tokenizer);
+        hashFileIndex.setMemoryBudget(1, spillDirectory);
+        HashFileIndex other = new HashFileIndex(tokenizer);
+        other.setMemoryBudget(1, spillDirectory);
+        hashFileIndex.addFile(new EncodedFile(file2.getAbsolutePath()));
+        other.addFile(new EncodedFile(file3.getAbsolutePath()));
+        for(int i = 0; i < 20; i++) {
+            hashFileIndex.addFile(new EncodedFile(file1.getAbsolutePath()));
+            assertTrue(hashFileIndex.runsNumber() <= 9);
+            hashFileIndex.removeFile(file1.getAbsolutePath());
+        }
+        Word content = new Word("content");
+        assertEquals(Arrays.asList(file2.getAbsolutePath()), hashFileIndex.search(content));
+        assertEquals(0, hashFileIndex.search(new Word("file1")).size());
+        assertTrue(hashFileIndex.postingsNumber(content) >= 1);
+        assertEquals(Arrays.asList(file3.getAbsolutePath()), other.search(content));
+        assertEquals(0, other.search(new Word("file2")).size());
+    }
+
+    @Test
+    public void testSpillFailureTurnsSpillingOff() throws Exception {
+        HashFileIndex hashFileIndex = new HashFileIndex(tokenizer);
+        hashFileIndex.setMemoryBudget(1, tempFolder.getRoot().toPath().resolve("missing"));
+        try {
+            hashFileIndex.addFile(new EncodedFile(file1.getAbsolutePath()));
+            fail("spill failure must be reported");
+        } catch (IllegalStateException e) {
+            assertTrue(hashFileIndex.containsFile(file1.getAbsolutePath()));
+        }
+        assertTrue(hashFileIndex.addFile(new EncodedFile(file2.getAbsolutePath())));
+        assertEquals(0, hashFileIndex.runsNumber());
+        assertEquals(2, hashFileIndex.search(new Word("content")).size());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testMemoryBudgetPositional() throws Exception {
+        new HashFileIndex(tokenizer, new HashFileIndex.Options().positional(true))
+                .setMemoryBudget(1, tempFolder.getRoot().toPath());
+    }
+
+    @Test
+    public void testResultCache() throws Exception {
+        HashFileIndex hashFileIndex = new HashFileIndex(tokenizer);
+        hashFileIndex.setResultCacheSize(4);
+        hashFileIndex.addFile(new EncodedFile(file1.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(file2.getAbsolutePath()));
+        Word content = new Word("content");
+        assertEquals(2, hashFileIndex.search(content).size());
+        assertEquals(2, hashFileIndex.search(content).size());
+        assertEquals(1, hashFileIndex.resultCacheHits());
+
+        hashFileIndex.addFile(new EncodedFile(file3.getAbsolutePath()));
+        assertEquals(3, hashFileIndex.search(content).size());
+        hashFileIndex.search(new Word("file1"));
+        hashFileIndex.search(new Word("file1"));
+        assertEquals(2, hashFileIndex.resultCacheHits());
+
+        hashFileIndex.removeFile(file1.getAbsolutePath());
+        assertEquals(0, hashFileIndex.search(new Word("file1")).size());
+        assertEquals(2, hashFileIndex.search(content).size());
+        assertEquals(2, hashFileIndex.search(content).size());
+        assertEquals(3, hashFileIndex.resultCacheHits());
+
+        assertTrue(writeTextToFile(file2, "changed", false));
+        assertTrue(hashFileIndex.handleFileModification(new EncodedFile(file2.getAbsolutePath())));
+        assertEquals(Arrays.asList(file3.getAbsolutePath()), hashFileIndex.search(content));
+    }
+
+    @Test
+    public void testResultCacheBoundedByPaths() throws Exception {
+        HashFileIndex hashFileIndex = new HashFileIndex(tokenizer);
+        hashFileIndex.setResultCacheSize(2);
+        hashFileIndex.addFile(new EncodedFile(file1.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(file2.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(file3.getAbsolutePath()));
+        Word content = new Word("content");
+        // result with more paths than capacity is not cached
+        assertEquals(3, hashFileIndex.search(content).size());
+        assertEquals(3, hashFileIndex.search(content).size());
+        assertEquals(0, hashFileIndex.resultCacheHits());
+
+        hashFileIndex.search(new Word("file1"));
+        hashFileIndex.search(new Word("file2"));
+        hashFileIndex.search(new Word("file3"));
+        // the least recently searched result has been evicted
+        hashFileIndex.search(new Word("file1"));
+        assertEquals(0, hashFileIndex.resultCacheHits());
+        List<String> cached = hashFileIndex.search(new Word("file3"));
+        assertEquals(1, hashFileIndex.resultCacheHits());
+        assertEquals(Arrays.asList(file3.getAbsolutePath()), cached);
+        try {
+            cached.add(file1.getAbsolutePath());
+            fail("cached result must not be modifiable");
+        } catch (UnsupportedOperationException e) {
+            assertEquals(Arrays.asList(file3.getAbsolutePath()), hashFileIndex.search(new Word("file3")));
+        }
+        // results are unmodifiable whether they come from cache or not
+        try {
+            hashFileIndex.search(content).clear();
+            fail("search result must not be modifiable");
+        } catch (UnsupportedOperationException e) {
+            assertEquals(3, hashFileIndex.search(content).size());
+        }
+    }
+
+    @Test
+    public void testResultCacheWithForwardIndex() throws Exception {
+        HashFileIndex hashFileIndex = new HashFileIndex(tokenizer, new HashFileIndex.Options().forwardIndex(true));
+        hashFileIndex.setResultCacheSize(10);
+        hashFileIndex.addFile(new EncodedFile(file1.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(file2.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(dir2SubFile1.getAbsolutePath()));
+        Word content = new Word("content");
+        Word lorem = new Word("Lorem");
+        assertEquals(2, hashFileIndex.search(content).size());
+        assertEquals(1, hashFileIndex.search(lorem).size());
+
+        hashFileIndex.removeFile(file2.getAbsolutePath());
+        assertEquals(1, hashFileIndex.search(lorem).size());
+        assertEquals(1, hashFileIndex.resultCacheHits());
+        assertEquals(Arrays.asList(file1.getAbsolutePath()), hashFileIndex.search(content));
+
+        assertTrue(writeTextToFile(file1, "Lorem", false));
+        assertTrue(hashFileIndex.handleFileModification(new EncodedFile(file1.getAbsolutePath())));
+        assertEquals(0, hashFileIndex.search(content).size());
+        assertEquals(2, hashFileIndex.search(lorem).size());
+    }
+
+    @Test
+    public void testTermIdsReusedAfterRemoves() {
+        HashFileIndex hashFileIndex = new HashFileIndex(tokenizer, new HashFileIndex.Options().forwardIndex(true));
+        File churned = createFileInTmp("churned", "");
+        long termsBytes = 0;
+        for(int i = 0; i < 3000; i++) {
+            rewriteFileWithText(churned, "unique" + i + " common");
+            hashFileIndex.addFile(new EncodedFile(churned.getAbsolutePath()));
+            assertEquals(1, hashFileIndex.search(new Word("unique" + i)).size());
+            hashFileIndex.removeFile(churned.getAbsolutePath());
+            if(i == 0) {
+                termsBytes = hashFileIndex.getStats(Collections.<String>emptyList()).getTermsBytes();
+            }
+        }
+        assertEquals(termsBytes, hashFileIndex.getStats(Collections.<String>emptyList()).getTermsBytes());
+        hashFileIndex.addFile(new EncodedFile(file1.getAbsolutePath()));
+        assertEquals(1, hashFileIndex.search(new Word("content")).size());
+        assertEquals(0, hashFileIndex.search(new Word("unique0")).size());
+    }
+
+    @Test
+    public void testStats() {
+        HashFileIndex hashFileIndex = new HashFileIndex(tokenizer);
+        hashFileIndex.addFile(new EncodedFile(file1.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(file2.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(dir2SubFile1.getAbsolutePath()));
+        hashFileIndex.removeFile(file2.getAbsolutePath());
+        String root = tempFolder.getRoot().getAbsolutePath();
+        IndexStats stats = hashFileIndex.getStats(Arrays.asList(root, dir2.getAbsolutePath(), file1.getAbsolutePath()));
+        assertEquals(11, stats.getTermsNumber());
+        assertEquals(12, stats.getPostingsNumber());
+        assertEquals(2, stats.getLiveFilesNumber());
+        assertEquals(1, stats.getRemovedFilesNumber());
+        assertTrue(stats.getHeapBytes() > 0);
+        assertEquals(2, stats.getRoots().get(root).getFilesNumber());
+        assertEquals(10, stats.getRoots().get(root).getPostingsNumber());
+        assertEquals(file1.length() + dir2SubFile1.length(), stats.getRoots().get(root).getFilesSize());
+        assertEquals(8, stats.getRoots().get(dir2.getAbsolutePath()).getPostingsNumber());
+        assertEquals(1, stats.getRoots().get(file1.getAbsolutePath()).getFilesNumber());
+
+        hashFileIndex.forceRemoves();
+        stats = hashFileIndex.getStats(Arrays.asList(dir1.getAbsolutePath()));
+        assertEquals(10, stats.getTermsNumber());
+        assertEquals(10, stats.getPostingsNumber());
+        assertEquals(0, stats.getRemovedFilesNumber());
+        assertEquals(0, stats.getRoots().get(dir1.getAbsolutePath()).getFilesNumber());
+    }
+
+    @Test
+    public void testScopedSearch() {
+        File dir2Sub = new File(dir2, "sub");
+        assertTrue(dir2Sub.mkdir());
+        File dir2SubSubFile = new File(dir2Sub, "file");
+        assertTrue(writeTextToFile(dir2SubSubFile, "sub content", false));
+        assertTrue(appendTextToFile(dir1SubFile1, "dir1 content"));
+        HashFileIndex hashFileIndex = new HashFileIndex(tokenizer);
+        hashFileIndex.addFile(new EncodedFile(file1.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(dir2SubSubFile.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(dir1SubFile1.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(file2.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(dir2SubFile1.getAbsolutePath()));
+        Word content = new Word("content");
+
+        assertEquals(Arrays.asList(dir2SubSubFile.getAbsolutePath()),
+                     hashFileIndex.search(content, dir2.getAbsolutePath()));
+        assertEquals(Arrays.asList(dir1SubFile1.getAbsolutePath()),
+                     hashFileIndex.search(content, dir1.getAbsolutePath()));
+        assertEquals(4, hashFileIndex.search(content, tempFolder.getRoot().getAbsolutePath()).size());
+        assertEquals(1, hashFileIndex.search(new Word("Lorem"), tempFolder.getRoot().getAbsolutePath()).size());
+        assertEquals(0, hashFileIndex.search(new Word("Lorem"), dir1.getAbsolutePath()).size());
+        assertEquals(0, hashFileIndex.search(content, file1.getAbsolutePath()).size());
+
+        hashFileIndex.removeFile(dir2SubSubFile.getAbsolutePath());
+        assertEquals(0, hashFileIndex.search(content, dir2.getAbsolutePath()).size());
+        // postings of removed file are not purged yet, shorter than the scope they are checked one by one
+        assertEquals(0, hashFileIndex.search(new Word("sub"), tempFolder.getRoot().getAbsolutePath()).size());
+    }
+
+    @Test
+    public void testCountAndExists() throws InconsistentIndexException {
+        HashFileIndex hashFileIndex = new HashFileIndex(tokenizer);
+        hashFileIndex.addFile(new EncodedFile(file1.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(file2.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(file3.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(dir2SubFile1.getAbsolutePath()));
+        Word content = new Word("content");
+        Word file2Token = new Word("file2");
+
+        assertEquals(3, hashFileIndex.count(content));
+        assertTrue(hashFileIndex.exists(file2Token));
+        assertEquals(0, hashFileIndex.count(new Word("notInFile")));
+        assertFalse(hashFileIndex.exists(new Word("notInFile")));
+
+        hashFileIndex.removeFile(file2.getAbsolutePath());
+        hashFileIndex.removeFile(dir2SubFile1.getAbsolutePath());
+        assertEquals(3, hashFileIndex.postingsNumber(content));
+        assertEquals(2, hashFileIndex.count(content));
+        assertEquals(0, hashFileIndex.count(file2Token));
+        assertFalse(hashFileIndex.exists(file2Token));
+        assertTrue(hashFileIndex.exists(content));
+
+        hashFileIndex.handleFileModification(new EncodedFile(file1.getAbsolutePath()));
+        assertEquals(2, hashFileIndex.count(content));
+        hashFileIndex.forceRemoves();
+        assertEquals(2, hashFileIndex.count(content));
+        assertEquals(hashFileIndex.search(content).size(), hashFileIndex.count(content));
+    }
+
+    @Test
+    public void testSearchQuery() {
+        FileIndex hashFileIndex = new HashFileIndex(tokenizer);
+        hashFileIndex.addFile(new EncodedFile(file1.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(file2.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(file3.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(dir2SubFile1.getAbsolutePath()));
+        Query content = Query.term(new Word("content"));
+
+        assertEquals(1, hashFileIndex.search(Query.and(content, Query.term(new Word("file2")))).size());
+        assertEquals(2, hashFileIndex.search(Query.or(Query.term(new Word("file1")),
+                                                      Query.term(new Word("ipsum")))).size());
+        assertEquals(2, hashFileIndex.search(Query.and(content, Query.not(Query.term(new Word("file1"))))).size());
+
+        hashFileIndex.removeFile(file2.getAbsolutePath());
+        assertEquals(0, hashFileIndex.search(Query.and(content, Query.term(new Word("file2")))).size());
+        assertEquals(2, hashFileIndex.search(content).size());
+    }
+
+    @Test
+    public void testPrefixAndWildcardQuery() {
+        HashFileIndex hashFileIndex = new HashFileIndex(tokenizer);
+        hashFileIndex.addFile(new EncodedFile(file1.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(file2.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(file3.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(dir2SubFile1.getAbsolutePath()));
+
+        assertEquals(3, hashFileIndex.search(Query.prefix("file")).size());
+        assertEquals(4, hashFileIndex.search(Query.prefix("con")).size());
+        assertEquals(1, hashFileIndex.search(Query.prefix("Lor")).size());
+        assertEquals(0, hashFileIndex.search(Query.prefix("zzz")).size());
+        assertEquals(3, hashFileIndex.search(Query.wildcard("file?")).size());
+        assertEquals(1, hashFileIndex.search(Query.wildcard("*psu?")).size());
+
+        hashFileIndex.removeFile(file2.getAbsolutePath());
+        assertEquals(2, hashFileIndex.search(Query.prefix("file")).size());
+        hashFileIndex.forceRemoves();
+        assertEquals(2, hashFileIndex.search(Query.prefix("file")).size());
+        assertEquals(0, hashFileIndex.search(Query.wildcard("file2")).size());
+    }
+
+    @Test
+    public void testRankedSearch() throws Exception {
+        File often = createFileInTmp("often", "index index index search");
+        File once = createFileInTmp("once", "index search search search");
+        File longOnce = createFileInTmp("longOnce", "index a b c d e f g h i j k");
+        HashFileIndex hashFileIndex = new HashFileIndex(tokenizer);
+        hashFileIndex.addFile(new EncodedFile(longOnce.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(once.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(often.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(file1.getAbsolutePath()));
+        Query index = Query.term(new Word("index"));
+
+        assertEquals(Arrays.asList(often.getAbsolutePath(), once.getAbsolutePath(), longOnce.getAbsolutePath()),
+                     hashFileIndex.search(index, 10));
+        assertEquals(Arrays.asList(often.getAbsolutePath()), hashFileIndex.search(index, 1));
+        assertEquals(Arrays.asList(once.getAbsolutePath(), often.getAbsolutePath()),
+                     hashFileIndex.search(Query.or(index, Query.term(new Word("search"))), 2));
+
+        hashFileIndex.removeFile(often.getAbsolutePath());
+        assertEquals(Arrays.asList(once.getAbsolutePath()), hashFileIndex.search(index, 1));
+
+        Path snapshot = tempFolder.newFolder("snapshot").toPath().resolve("index.snapshot");
+        hashFileIndex.save(snapshot);
+        HashFileIndex loaded = HashFileIndex.load(tokenizer, snapshot);
+        assertEquals(Arrays.asList(once.getAbsolutePath(), longOnce.getAbsolutePath()), loaded.search(index, 10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRankedSearchNotPositiveK() {
+        new HashFileIndex(tokenizer).search(Query.term(new Word("file1")), 0);
+    }
+
+    @Test
+    public void testSearchText() throws Exception {
+        HashFileIndex hashFileIndex = new HashFileIndex(tokenizer, new HashFileIndex.Options().trigrams(true));
+        hashFileIndex.addFile(new EncodedFile(file1.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(file2.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(file3.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(dir2SubFile1.getAbsolutePath()));
+
+        assertEquals(1, hashFileIndex.searchText(Pattern.compile("e1 con", Pattern.LITERAL)).size());
+        assertEquals(0, hashFileIndex.searchText(Pattern.compile("le. cont", Pattern.LITERAL)).size());
+        assertEquals(3, hashFileIndex.searchText(Pattern.compile("file[0-9] cont")).size());
+        assertEquals(2, hashFileIndex.searchText(Pattern.compile("file[12]")).size());
+        assertEquals(1, hashFileIndex.searchText(Pattern.compile("sum dolor|zzz")).size());
+        assertEquals(4, hashFileIndex.searchText(Pattern.compile("t$")).size());
+        assertEquals(0, hashFileIndex.textCandidates(Pattern.compile("file4")).size());
+        assertEquals(1, hashFileIndex.textCandidates(Pattern.compile("file2")).size());
+
+        hashFileIndex.removeFile(file2.getAbsolutePath());
+        assertEquals(1, hashFileIndex.searchText(Pattern.compile("file[12]")).size());
+        hashFileIndex.forceRemoves();
+        assertEquals(0, hashFileIndex.textCandidates(Pattern.compile("file2")).size());
+
+        Path snapshot = tempFolder.getRoot().toPath().resolve("index.snapshot");
+        hashFileIndex.save(snapshot);
+        HashFileIndex loaded = HashFileIndex.load(tokenizer, snapshot);
+        assertTrue(loaded.hasTrigrams());
+        assertEquals(2, loaded.textCandidates(Pattern.compile("file[0-9] cont")).size());
+        assertEquals(1, loaded.searchText(Pattern.compile("sit amet", Pattern.LITERAL)).size());
+    }
+
+    @Test
+    public void testTrigramsPurgeIsResumable() throws Exception {
+        HashFileIndex hashFileIndex = new HashFileIndex(tokenizer, new HashFileIndex.Options().trigrams(true));
+        File numbers = tempFolder.newFile("numbers.txt");
+        StringBuilder content = new StringBuilder();
+        for(int i = 0; i < 1000; i++) {
+            content.append(i).append(' ');
+        }
+        assertTrue(writeTextToFile(numbers, content.toString(), false));
+        hashFileIndex.addFile(new EncodedFile(numbers.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(file1.getAbsolutePath()));
+        hashFileIndex.removeFile(numbers.getAbsolutePath());
+        hashFileIndex.search(new Word("content"));
+
+        // deadline has passed, so every call purges one batch of trigrams
+        int calls = 1;
+        while (!hashFileIndex.doPostponedGlobalRemoves(System.nanoTime())) {
+            calls += 1;
+        }
+        assertTrue(calls > 1);
+        assertEquals(0, hashFileIndex.textCandidates(Pattern.compile("999", Pattern.LITERAL)).size());
+        assertEquals(1, hashFileIndex.searchText(Pattern.compile("file1", Pattern.LITERAL)).size());
+    }
+
+    @Test
+    public void testSearchTextWithoutTrigrams() {
+        FileIndex hashFileIndex = new HashFileIndex(tokenizer);
+        hashFileIndex.addFile(new EncodedFile(file1.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(file2.getAbsolutePath()));
+        assertEquals(2, hashFileIndex.searchText(Pattern.compile("file")).size());
+        assertEquals(1, hashFileIndex.searchText(Pattern.compile("e1 cont", Pattern.LITERAL)).size());
+    }
+
+    @Test
+    public void testPhraseQuery() throws Exception {
+        HashFileIndex hashFileIndex = new HashFileIndex(tokenizer, new HashFileIndex.Options().positional(true));
+        hashFileIndex.addFile(new EncodedFile(file1.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(file2.getAbsolutePath()));
+        hashFileIndex.addFile(new EncodedFile(dir2SubFile1.getAbsolutePath()));
+        Word lorem = new Word("Lorem");
+        Word ipsum = new Word("ipsum");
+        Word dolor = new Word("dolor");
+        Word amet = new Word("amet,");
+
+        assertEquals(1, hashFileIndex.search(Query.phrase(lorem, ipsum, dolor)).size());
+        assertEquals(0, hashFileIndex.search(Query.phrase(ipsum, lorem)).size());
+        assertEquals(0, hashFileIndex.search(Query.phrase(lorem, dolor)).size());
+        assertEquals(1, hashFileIndex.search(Query.phrase(new Word("file1"), new Word("content"))).size());
+        assertEquals(0, hashFileIndex.search(Query.near(2, lorem, amet)).size());
+        assertEquals(1, hashFileIndex.search(Query.near(4, amet, lorem)).size());
+        assertEquals(0, hashFileIndex.search(Query.near(4, lorem, lorem)).size());
+        assertEquals(0, hashFileIndex.search(Query.phrase(lorem, lorem)).size());
+        File repeated = createFileInTmp("repeated", "again word again");
+        hashFileIndex.addFile(new EncodedFile(repeated.getAbsolutePath()));
+        Word again = new Word("again");
+        assertEquals(1, hashFileIndex.search(Query.near(2, again, again)).size());
+        assertEquals(0, hashFileIndex.search(Query.near(1, again, again)).size());
+        assertEquals(1, hashFileIndex.search(Query.near(2, again, new Word("word"), again)).size());
+
+        hashFileIndex.removeFile(file1.getAbsolutePath());
+        hashFileIndex.forceRemoves();
+        assertEquals(0, hashFileIndex.search(Query.phrase(new Word("file1"), new Word("content"))).size());
+        assertEquals(1, hashFileIndex.search(Query.phrase(new Word("file2"), new Word("content"))).size());
+
+        Path snapshot = tempFolder.newFolder("snapshot").toPath().resolve("index.snapshot");
+        hashFileIndex.save(snapshot);
+        HashFileIndex loaded = HashFileIndex.load(tokenizer, snapshot);
+        assertTrue(loaded.isPositional());
+        assertEquals(1, loaded.search(Query.phrase(lorem, ipsum, dolor)).size());
+    }
+
+    @Test
+    public void testPhraseQueryNotPositional() {
+        FileIndex hashFileIndex = new HashFileIndex(tokenizer);
+        hashFileIndex.addFile(new EncodedFile(file1.getAbsolutePath()));
+        assertEquals(0, hashFileIndex.search(Query.phrase(new Word("file1"), new Word("content"))).size());
+        assertEquals(0, hashFileIndex.search(Query.near(1, new Word("file1"), new Word("content"))).size());
+    }
+}
@@ -0,0 +1,108 @@
+package indexer.index;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PathTreeTest {
+    private final String root = new File("").getAbsolutePath();
+
+    @Test
+    public void testAddAndGet() {
+        PathTree tree = new PathTree();
+        tree.add(path("dir", "file1"), 1, 3, 10, 100, null, 5);
+        tree.add(path("dir", "sub", "file2"), 2, 3, 10, 100, null, 5);
+        tree.add("relative" + File.separator + "file3", 3, 3, 10, 100, null, 5);
+
+        assertEquals(3, tree.size());
+        assertEquals(2, tree.get(path("dir", "sub", "file2")).getFileId());
+        assertEquals(path("dir", "file1"), tree.get(path("dir", "file1")).getFilePath());
+        assertEquals("relative" + File.separator + "file3", tree.get("relative" + File.separator + "file3").getFilePath());
+        String top = Paths.get(root).getRoot() + "top";
+        assertEquals(top, tree.add(top, 4, 3, 10, 100, null, 5).getFilePath());
+        assertNull(tree.get(path("dir")));
+        assertNull(tree.get(path("dir", "file2")));
+        assertNull(tree.get(path("other", "file1")));
+    }
+
+    @Test
+    public void testRemove() {
+        PathTree tree = new PathTree();
+        tree.add(path("dir", "file1"), 1, 3, 10, 100, null, 5);
+        tree.add(path("dir", "sub", "file2"), 2, 3, 10, 100, null, 5);
+
+        PathTree.Entry removed = tree.remove(path("dir", "sub", "file2"));
+        assertEquals(2, removed.getFileId());
+        assertEquals(path("dir", "sub", "file2"), removed.getFilePath());
+        assertNull(tree.get(path("dir", "sub", "file2")));
+        assertNull(tree.remove(path("dir", "sub", "file2")));
+        assertEquals(1, tree.size());
+        assertEquals(0, tree.filesInDirectory(path("dir", "sub")).size());
+    }
+
+    @Test
+    public void testStatsFollowChanges() {
+        PathTree tree = new PathTree();
+        tree.add(path("dir", "file1"), 1, 3, 10, 100, null, 5);
+        PathTree.Entry file2 = tree.add(path("dir", "sub", "file2"), 2, 4, 20, 100, null, 5);
+        tree.add(path("other", "file3"), 3, 5, 30, 100, null, 5);
+
+        IndexStats.RootStats stats = tree.stats(path("dir"));
+        assertEquals(2, stats.getFilesNumber());
+        assertEquals(30, stats.getFilesSize());
+        assertEquals(7, stats.getPostingsNumber());
+        assertEquals(4, tree.stats(path("dir", "sub", "file2")).getPostingsNumber());
+
+        tree.decreaseTokensCounter(file2);
+        assertEquals(6, tree.stats(path("dir")).getPostingsNumber());
+        tree.add(path("dir", "file1"), 4, 1, 5, 100, null, 5);
+        assertEquals(25, tree.stats(path("dir")).getFilesSize());
+        tree.remove(path("dir", "sub", "file2"));
+        tree.decreaseTokensCounter(file2);
+        assertEquals(1, tree.stats(path("dir")).getFilesNumber());
+        assertEquals(1, tree.stats(path("dir")).getPostingsNumber());
+        tree.removeDirectory(path("dir"));
+        assertEquals(0, tree.stats(path("dir")).getFilesNumber());
+        assertEquals(1, tree.stats(root).getFilesNumber());
+        assertEquals(30, tree.stats(root).getFilesSize());
+    }
+
+    @Test
+    public void testRemoveDirectory() {
+        PathTree tree = new PathTree();
+        tree.add(path("dir1", "file1"), 1, 3, 10, 100, null, 5);
+        tree.add(path("dir1", "sub", "file2"), 2, 3, 10, 100, null, 5);
+        tree.add(path("dir10", "file3"), 3, 3, 10, 100, null, 5);
+        tree.add(path("dir1"), 4, 3, 10, 100, null, 5);
+
+        assertEquals(Arrays.asList(1L, 2L), ids(tree.filesInDirectory(path("dir1"))));
+        List<Long> removed = ids(tree.removeDirectory(path("dir1")));
+        assertEquals(Arrays.asList(1L, 2L), removed);
+        assertEquals(2, tree.size());
+        assertNull(tree.get(path("dir1", "file1")));
+        assertNotNull(tree.get(path("dir10", "file3")));
+        assertNotNull(tree.get(path("dir1")));
+        assertEquals(0, tree.removeDirectory(path("dir1")).size());
+        assertEquals(0, tree.removeDirectory(path("missing")).size());
+    }
+
+    private String path(String... names) {
+        return Paths.get(root, names).toString();
+    }
+
+    private static List<Long> ids(List<PathTree.Entry> entries) {
+        List<Long> ids = new ArrayList<>();
+        for(PathTree.Entry entry : entries) {
+            ids.add(entry.getFileId());
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+}
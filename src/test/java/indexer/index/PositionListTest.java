@@ -0,0 +1,79 @@
+package indexer.index;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PositionListTest {
+    @Test
+    public void testAddAndLookup() {
+        PositionList positionList = new PositionList();
+        positionList.add(2, new int[]{0, 5, 300}, 3);
+        positionList.add(7, new int[]{1, 0}, 1);
+        positionList.add(1000, new int[]{70000}, 1);
+        assertEquals(3, positionList.size());
+        assertEquals(1000, positionList.last());
+
+        PositionList.Cursor cursor = positionList.cursor();
+        assertNull(cursor.positions(1));
+        assertArrayEquals(new int[]{0, 5, 300}, cursor.positions(2));
+        assertNull(cursor.positions(5));
+        assertArrayEquals(new int[]{1}, cursor.positions(7));
+        assertArrayEquals(new int[]{70000}, cursor.positions(1000));
+        assertNull(cursor.positions(1001));
+    }
+
+    @Test
+    public void testRemoveIf() {
+        PositionList positionList = new PositionList();
+        for(int id = 0; id < 10; id++) {
+            positionList.add(id * 100, new int[]{id, id + 1}, 2);
+        }
+        int removed = positionList.removeIf(new PostingList.IdPredicate() {
+            @Override
+            public boolean test(long id) {
+                return id % 300 != 0;
+            }
+        });
+        assertEquals(6, removed);
+        assertEquals(4, positionList.size());
+        assertEquals(900, positionList.last());
+        PositionList.Cursor cursor = positionList.cursor();
+        assertArrayEquals(new int[]{0, 1}, cursor.positions(0));
+        assertNull(cursor.positions(100));
+        assertArrayEquals(new int[]{6, 7}, cursor.positions(600));
+        assertArrayEquals(new int[]{9, 10}, cursor.positions(900));
+        positionList.add(1000, new int[]{3}, 1);
+        assertEquals(5, positionList.size());
+    }
+
+    @Test
+    public void testRemove() {
+        PositionList positionList = new PositionList();
+        for(int id = 0; id < 10; id++) {
+            positionList.add(id * 100, new int[]{id, id + 1}, 2);
+        }
+        assertTrue(positionList.remove(0));
+        assertTrue(positionList.remove(500));
+        assertTrue(positionList.remove(900));
+        assertFalse(positionList.remove(500));
+        assertFalse(positionList.remove(550));
+        assertEquals(7, positionList.size());
+        assertEquals(800, positionList.last());
+        PositionList.Cursor cursor = positionList.cursor();
+        assertNull(cursor.positions(0));
+        assertArrayEquals(new int[]{1, 2}, cursor.positions(100));
+        assertArrayEquals(new int[]{4, 5}, cursor.positions(400));
+        assertNull(cursor.positions(500));
+        assertArrayEquals(new int[]{6, 7}, cursor.positions(600));
+        positionList.add(900, new int[]{3}, 1);
+        assertEquals(8, positionList.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddNotAscending() {
+        PositionList positionList = new PositionList();
+        positionList.add(5, new int[]{1}, 1);
+        positionList.add(5, new int[]{2}, 1);
+    }
+}
@@ -0,0 +1,61 @@
+package indexer.index;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class PostingArenaTest {
+    @Test
+    public void testAllocateAndFree() {
+        PostingArena arena = new PostingArena(10);
+        assertEquals(16, arena.blockSize(1));
+        assertEquals(64, arena.blockSize(33));
+        long first = arena.allocate(100);
+        long second = arena.allocate(100);
+        assertNotEquals(first, second);
+        arena.put(first, 127, (byte) 7);
+        arena.put(second, 0, (byte) 8);
+        assertEquals(7, arena.get(first, 127));
+        assertEquals(8, arena.get(second, 0));
+        assertEquals(256, arena.usedBytes());
+
+        arena.free(first, 128);
+        assertEquals(128, arena.usedBytes());
+        assertEquals(first, arena.allocate(128));
+        assertEquals(1024, arena.reservedBytes());
+    }
+
+    @Test
+    public void testNewChunkSplitsRestOfCurrent() {
+        PostingArena arena = new PostingArena(10);
+        arena.allocate(512);
+        arena.allocate(256);
+        arena.allocate(1024);
+        assertEquals(2048, arena.reservedBytes());
+        // the rest 256 bytes of the first chunk are reused
+        arena.allocate(256);
+        assertEquals(2048, arena.reservedBytes());
+        assertEquals(2048, arena.usedBytes());
+    }
+
+    @Test
+    public void testMoveOverlapping() {
+        PostingArena arena = new PostingArena(10);
+        long block = arena.allocate(16);
+        arena.write(block, 0, new byte[]{1, 2, 3, 4, 5}, 0, 5);
+        arena.move(block, 0, block, 2, 5);
+        byte[] bytes = new byte[7];
+        arena.read(block, 0, bytes, 0, 7);
+        assertArrayEquals(new byte[]{1, 2, 1, 2, 3, 4, 5}, bytes);
+        arena.move(block, 2, block, 0, 5);
+        arena.read(block, 0, bytes, 0, 5);
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5}, Arrays.copyOf(bytes, 5));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBlockBiggerThanChunk() {
+        new PostingArena(10).allocate(2048);
+    }
+}
@@ -0,0 +1,87 @@
+package indexer.index;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares heap occupied by posting lists stored as ArrayList of boxed Longs (previous
+ * HashFileIndex layout) and as PostingList. Run with big enough heap, for example:
+ * java -Xmx2g -cp target/classes:target/test-classes indexer.index.PostingListMemoryBenchmark
+ */
+public class PostingListMemoryBenchmark {
+    private static final int LISTS_NUMBER = 100000;
+    private static final int FILES_NUMBER = 1000000;
+    private static final int MAX_LIST_SIZE = 200;
+
+    public static void main(String[] args) {
+        int[] sizes = listSizes(new Random(42));
+        long postings = 0;
+        for(int size : sizes) {
+            postings += size;
+        }
+        System.out.println("Lists: " + LISTS_NUMBER + ", postings: " + postings);
+
+        long before = usedMemory();
+        List<ArrayList<Long>> boxed = fillBoxed(sizes, new Random(7));
+        long boxedBytes = usedMemory() - before;
+        report("ArrayList<Long>", boxedBytes, postings);
+        boxed.clear();
+
+        before = usedMemory();
+        List<PostingList> encoded = fillEncoded(sizes, new Random(7));
+        long encodedBytes = usedMemory() - before;
+        report("PostingList", encodedBytes, postings);
+        System.out.println("Ratio: " + String.format("%.2f", (double) boxedBytes / encodedBytes));
+        encoded.clear();
+    }
+
+    private static int[] listSizes(Random random) {
+        int[] sizes = new int[LISTS_NUMBER];
+        for(int i = 0; i < sizes.length; i++) {
+            sizes[i] = 1 + random.nextInt(MAX_LIST_SIZE);
+        }
+        return sizes;
+    }
+
+    private static List<ArrayList<Long>> fillBoxed(int[] sizes, Random random) {
+        List<ArrayList<Long>> lists = new ArrayList<>(sizes.length);
+        for(int size : sizes) {
+            ArrayList<Long> list = new ArrayList<>();
+            long id = 0;
+            for(int i = 0; i < size; i++) {
+                id += 1 + random.nextInt(FILES_NUMBER / size);
+                list.add(id);
+            }
+            lists.add(list);
+        }
+        return lists;
+    }
+
+    private static List<PostingList> fillEncoded(int[] sizes, Random random) {
+        List<PostingList> lists = new ArrayList<>(sizes.length);
+        for(int size : sizes) {
+            PostingList list = new PostingList();
+            long id = 0;
+            for(int i = 0; i < size; i++) {
+                id += 1 + random.nextInt(FILES_NUMBER / size);
+                list.add(id);
+            }
+            lists.add(list);
+        }
+        return lists;
+    }
+
+    private static void report(String layout, long bytes, long postings) {
+        System.out.println(layout + ": " + bytes / 1024 + " KB, "
+                + String.format("%.2f", (double) bytes / postings) + " bytes per posting");
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for(int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
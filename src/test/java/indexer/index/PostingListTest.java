@@ -0,0 +1,251 @@
+package indexer.index;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PostingListTest {
+    @Test
+    public void testAddAndIterate() {
+        PostingList postingList = new PostingList();
+        long[] ids = {0, 1, 5, 127, 128, 300, 70000, 1L << 40};
+        for(long id : ids) {
+            assertTrue(postingList.add(id));
+        }
+        assertEquals(ids.length, postingList.size());
+        assertEquals(1L << 40, postingList.last());
+        assertEquals(toList(ids), collect(postingList));
+    }
+
+    @Test
+    public void testAddLastIdAgain() {
+        PostingList postingList = new PostingList();
+        assertTrue(postingList.add(3));
+        assertFalse(postingList.add(3));
+        assertTrue(postingList.add(4));
+        assertFalse(postingList.add(4));
+        assertEquals(2, postingList.size());
+    }
+
+    @Test
+    public void testAddNotAscending() {
+        PostingList postingList = new PostingList();
+        postingList.add(10);
+        postingList.add(300);
+        assertTrue(postingList.add(9));
+        assertTrue(postingList.add(200));
+        assertTrue(postingList.add(11));
+        assertFalse(postingList.add(200));
+        assertTrue(postingList.add(0));
+        assertEquals(toList(new long[]{0, 9, 10, 11, 200, 300}), collect(postingList));
+        assertEquals(300, postingList.last());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddNegative() {
+        new PostingList().add(-1);
+    }
+
+    @Test
+    public void testRemoveIf() {
+        PostingList postingList = new PostingList();
+        for(long id = 0; id < 1000; id++) {
+            postingList.add(id * 3);
+        }
+        int removed = postingList.removeIf(new PostingList.IdPredicate() {
+            @Override
+            public boolean test(long id) {
+                return id % 2 == 0;
+            }
+        });
+        assertEquals(500, removed);
+        assertEquals(500, postingList.size());
+        List<Long> expected = new ArrayList<>();
+        for(long id = 0; id < 1000; id++) {
+            if((id * 3) % 2 != 0) {
+                expected.add(id * 3);
+            }
+        }
+        assertEquals(expected, collect(postingList));
+        assertTrue(postingList.add(5000));
+        assertEquals(5000, postingList.last());
+    }
+
+    @Test
+    public void testRemove() {
+        PostingList postingList = new PostingList(true);
+        List<Long> expected = new ArrayList<>();
+        for(long id = 0; id < 1000; id++) {
+            postingList.add(id * 70, (int) id % 5 + 1);
+            expected.add(id * 70);
+        }
+        for(long id = 0; id < 1000; id += 7) {
+            assertTrue(postingList.remove(id * 70));
+            expected.remove(id * 70);
+        }
+        assertFalse(postingList.remove(0));
+        assertFalse(postingList.remove(71));
+        assertFalse(postingList.remove(1000 * 70));
+        assertTrue(postingList.remove(999 * 70));
+        expected.remove(999L * 70);
+        assertEquals(998 * 70, postingList.last());
+        assertEquals(expected, collect(postingList));
+        assertEquals(expected.size(), postingList.size());
+        assertEquals(2, (int) frequencies(postingList).get(0));
+        PostingList.IdIterator it = postingList.iterator();
+        assertEquals(701 * 70, it.advance(700 * 70));
+        assertEquals(2, it.frequency());
+        assertTrue(postingList.add(5000 * 70));
+        assertEquals(5000 * 70, postingList.last());
+    }
+
+    @Test
+    public void testArenaListSameAsHeapList() throws Exception {
+        PostingArena arena = new PostingArena(12);
+        PostingList heapList = new PostingList(true);
+        PostingList arenaList = new ArenaPostingList(arena, true);
+        Random random = new Random(42);
+        for(int i = 0; i < 3000; i++) {
+            long id = random.nextInt(5000);
+            int frequency = 1 + random.nextInt(3);
+            assertEquals(heapList.add(id, frequency), arenaList.add(id, frequency));
+        }
+        for(int i = 0; i < 500; i++) {
+            long id = random.nextInt(5000);
+            assertEquals(heapList.remove(id), arenaList.remove(id));
+        }
+        PostingList.IdPredicate odd = new PostingList.IdPredicate() {
+            @Override
+            public boolean test(long id) {
+                return id % 3 == 1;
+            }
+        };
+        assertEquals(heapList.removeIf(odd), arenaList.removeIf(odd));
+        assertEquals(collect(heapList), collect(arenaList));
+        assertEquals(frequencies(heapList), frequencies(arenaList));
+        assertEquals(heapList.encodedLength(), arenaList.encodedLength());
+        assertEquals(heapList.iterator().advance(2500), arenaList.iterator().advance(2500));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        arenaList.writeTo(new DataOutputStream(bytes));
+        PostingList restored = new PostingList(bytes.toByteArray(), arenaList.size(), arenaList.last());
+        assertEquals(collect(heapList), collect(restored));
+        assertEquals(collect(heapList), collect(arenaList.copy()));
+
+        arenaList.trimToSize();
+        assertEquals(collect(heapList), collect(arenaList));
+        arenaList.release();
+        assertEquals(0, arena.usedBytes());
+    }
+
+    @Test
+    public void testFrequencies() {
+        PostingList postingList = new PostingList(true);
+        assertTrue(postingList.add(3, 2));
+        assertFalse(postingList.add(3));
+        assertTrue(postingList.add(10));
+        assertTrue(postingList.add(7, 5));
+        assertTrue(postingList.add(20, 300));
+        assertTrue(postingList.hasFrequencies());
+        assertEquals(Arrays.asList(3, 5, 1, 255), frequencies(postingList));
+
+        PostingList copy = postingList.copy();
+        postingList.removeIf(new PostingList.IdPredicate() {
+            @Override
+            public boolean test(long id) {
+                return id == 7;
+            }
+        });
+        assertEquals(Arrays.asList(3, 1, 255), frequencies(postingList));
+        assertEquals(Arrays.asList(3, 5, 1, 255), frequencies(copy));
+
+        PostingList withoutFrequencies = new PostingList();
+        withoutFrequencies.add(1, 4);
+        withoutFrequencies.add(2);
+        assertEquals(Arrays.asList(1, 1), frequencies(withoutFrequencies));
+    }
+
+    @Test
+    public void testRemoveAll() {
+        PostingList postingList = new PostingList();
+        postingList.add(1);
+        postingList.add(2);
+        postingList.removeIf(new PostingList.IdPredicate() {
+            @Override
+            public boolean test(long id) {
+                return true;
+            }
+        });
+        assertTrue(postingList.isEmpty());
+        assertEquals(0, postingList.encodedLength());
+        assertTrue(postingList.add(0));
+        assertEquals(Arrays.asList(0L), collect(postingList));
+    }
+
+    @Test
+    public void testAdvance() {
+        PostingList postingList = new PostingList();
+        for(long id = 0; id < 10000; id += 3) {
+            postingList.add(id);
+        }
+        PostingList.IdIterator it = postingList.iterator();
+        assertEquals(0, it.advance(0));
+        assertEquals(3, it.advance(2));
+        assertEquals(6, it.advance(6));
+        assertEquals(9, it.next());
+        assertEquals(5001, it.advance(5000));
+        assertEquals(5004, it.next());
+        assertEquals(5007, it.advance(5005));
+        assertEquals(9999, it.advance(9998));
+        assertEquals(-1, it.advance(10000));
+        assertFalse(it.hasNext());
+
+        // skips are rebuilt after removes and inserts in the middle
+        postingList.removeIf(new PostingList.IdPredicate() {
+            @Override
+            public boolean test(long id) {
+                return id % 2 == 0;
+            }
+        });
+        postingList.add(7000);
+        it = postingList.iterator();
+        assertEquals(6999, it.advance(6998));
+        assertEquals(7000, it.advance(7000));
+        assertEquals(7005, it.next());
+        assertEquals(-1, postingList.iterator().advance(10000));
+    }
+
+    private static List<Long> toList(long[] ids) {
+        List<Long> list = new ArrayList<>();
+        for(long id : ids) {
+            list.add(id);
+        }
+        return list;
+    }
+
+    private static List<Integer> frequencies(PostingList postingList) {
+        List<Integer> frequencies = new ArrayList<>();
+        PostingList.IdIterator it = postingList.iterator();
+        while (it.hasNext()) {
+            it.next();
+            frequencies.add(it.frequency());
+        }
+        return frequencies;
+    }
+
+    private static List<Long> collect(PostingList postingList) {
+        List<Long> list = new ArrayList<>();
+        PostingList.IdIterator it = postingList.iterator();
+        while (it.hasNext()) {
+            list.add(it.next());
+        }
+        return list;
+    }
+}
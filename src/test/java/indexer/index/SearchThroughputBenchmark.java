@@ -0,0 +1,102 @@
+package indexer.index;
+
+import indexer.tokenizer.Token;
+import indexer.tokenizer.Word;
+import indexer.tokenizer.WordsTokenizer;
+import indexer.utils.EncodedFile;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures ConcurrentHashFileIndex search throughput with 1 to N concurrent reader threads
+ * (N is the number of available processors or the first argument).
+ * java -cp target/classes:target/test-classes indexer.index.SearchThroughputBenchmark [threads]
+ */
+public class SearchThroughputBenchmark {
+    private static final int FILES_NUMBER = 2000;
+    private static final int WORDS_PER_FILE = 200;
+    private static final int VOCABULARY_SIZE = 5000;
+    private static final long MEASURE_MILLIS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0])
+                                         : Runtime.getRuntime().availableProcessors();
+        File dir = Files.createTempDirectory("search-benchmark").toFile();
+        try {
+            FileIndex index = new ConcurrentHashFileIndex(new WordsTokenizer());
+            index.addFiles(createFiles(dir, new Random(42)));
+            List<Token> queries = new ArrayList<>();
+            for(int i = 0; i < 100; i++) {
+                queries.add(new Word("w" + i));
+            }
+            measure(index, queries, 1);
+            for(int threads = 1; threads <= maxThreads; threads *= 2) {
+                long queriesNumber = measure(index, queries, threads);
+                System.out.println(threads + " threads: " + queriesNumber * 1000 / MEASURE_MILLIS + " queries/s");
+            }
+        } finally {
+            deleteDir(dir);
+        }
+    }
+
+    private static long measure(final FileIndex index, final List<Token> queries, int threads)
+            throws InterruptedException {
+        final AtomicBoolean stop = new AtomicBoolean(false);
+        final AtomicLong counter = new AtomicLong(0);
+        final CountDownLatch finished = new CountDownLatch(threads);
+        for(int t = 0; t < threads; t++) {
+            final int shift = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long done = 0;
+                    int i = shift;
+                    while (!stop.get()) {
+                        index.search(queries.get(i % queries.size()));
+                        i += 1;
+                        done += 1;
+                    }
+                    counter.addAndGet(done);
+                    finished.countDown();
+                }
+            }).start();
+        }
+        Thread.sleep(MEASURE_MILLIS);
+        stop.set(true);
+        finished.await();
+        return counter.get();
+    }
+
+    private static List<EncodedFile> createFiles(File dir, Random random) throws IOException {
+        List<EncodedFile> files = new ArrayList<>();
+        for(int i = 0; i < FILES_NUMBER; i++) {
+            File file = new File(dir, "file" + i);
+            try (FileWriter writer = new FileWriter(file)) {
+                for(int w = 0; w < WORDS_PER_FILE; w++) {
+                    writer.write("w" + (int) Math.abs(random.nextGaussian() * VOCABULARY_SIZE / 4) + " ");
+                }
+            }
+            files.add(new EncodedFile(file.getAbsolutePath()));
+        }
+        return files;
+    }
+
+    private static void deleteDir(File dir) {
+        File[] files = dir.listFiles();
+        if(files != null) {
+            for(File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+}
@@ -0,0 +1,238 @@
+package indexer.index;
+
+import indexer.TmpFsCreator;
+import indexer.exceptions.InconsistentIndexException;
+import indexer.query.Query;
+import indexer.tokenizer.Word;
+import indexer.tokenizer.WordsTokenizer;
+import indexer.utils.EncodedFile;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class SegmentFileIndexTest extends TmpFsCreator {
+    @Test
+    public void testAddAndSearchBeforeAndAfterFlush() throws IOException {
+        Path indexDir = tempFolder.newFolder("index").toPath();
+        try (SegmentFileIndex index = new SegmentFileIndex(new WordsTokenizer(), indexDir)) {
+            index.addFile(new EncodedFile(file1.getAbsolutePath()));
+            index.addFile(new EncodedFile(file2.getAbsolutePath()));
+            assertEquals(2, index.search(new Word("content")).size());
+            index.flush();
+            index.addFile(new EncodedFile(file3.getAbsolutePath()));
+            assertEquals(1, index.segmentsNumber());
+            assertEquals(3, index.search(new Word("content")).size());
+            assertEquals(1, index.search(new Word("file2")).size());
+            assertEquals(0, index.search(new Word("notInFile")).size());
+            assertEquals(0, index.search(Query.near(1, new Word("file1"), new Word("content"))).size());
+            assertEquals(3, index.searchText(Pattern.compile("file[0-9] content")).size());
+            assertEquals(1, index.searchText(Pattern.compile("e2 cont", Pattern.LITERAL)).size());
+            index.addFile(new EncodedFile(dir2SubFile1.getAbsolutePath()));
+            assertEquals(3, index.search(new Word("content"), tempFolder.getRoot().getAbsolutePath()).size());
+            assertEquals(1, index.search(new Word("Lorem"), dir2.getAbsolutePath()).size());
+            assertEquals(0, index.search(new Word("content"), dir2.getAbsolutePath()).size());
+            assertEquals(0, index.search(new Word("Lorem"), dir1.getAbsolutePath()).size());
+        }
+    }
+
+    @Test
+    public void testRankedSearchOverSegments() throws IOException {
+        File often = createFileInTmp("often", "index index index search");
+        File once = createFileInTmp("once", "index search search search");
+        File longOnce = createFileInTmp("longOnce", "index a b c d e f g h i j k");
+        Path indexDir = tempFolder.newFolder("index").toPath();
+        Query term = Query.term(new Word("index"));
+        try (SegmentFileIndex index = new SegmentFileIndex(new WordsTokenizer(), indexDir)) {
+            index.addFile(new EncodedFile(longOnce.getAbsolutePath()));
+            index.flush();
+            index.addFile(new EncodedFile(once.getAbsolutePath()));
+            index.addFile(new EncodedFile(file1.getAbsolutePath()));
+            index.flush();
+            index.addFile(new EncodedFile(often.getAbsolutePath()));
+
+            assertEquals(Arrays.asList(often.getAbsolutePath(), once.getAbsolutePath(), longOnce.getAbsolutePath()),
+                         index.search(term, 10));
+            assertEquals(Arrays.asList(once.getAbsolutePath(), often.getAbsolutePath()),
+                         index.search(Query.or(term, Query.term(new Word("search"))), 2));
+            assertEquals(3, index.search(Query.prefix("inde"), 10).size());
+            index.removeFile(often.getAbsolutePath());
+            assertEquals(Arrays.asList(once.getAbsolutePath()), index.search(term, 1));
+        }
+        try (SegmentFileIndex index = new SegmentFileIndex(new WordsTokenizer(), indexDir)) {
+            index.forceRemoves();
+            assertEquals(1, index.segmentsNumber());
+            assertEquals(Arrays.asList(once.getAbsolutePath(), longOnce.getAbsolutePath()), index.search(term, 10));
+        }
+    }
+
+    @Test
+    public void testSearchCursorOverSegments() throws IOException {
+        Path indexDir = tempFolder.newFolder("index").toPath();
+        try (SegmentFileIndex index = new SegmentFileIndex(new WordsTokenizer(), indexDir, 1000, 2)) {
+            index.addFile(new EncodedFile(file1.getAbsolutePath()));
+            index.addFile(new EncodedFile(file2.getAbsolutePath()));
+            index.flush();
+            index.addFile(new EncodedFile(file3.getAbsolutePath()));
+
+            SearchCursor cursor = index.searchCursor(new Word("content"), SearchCursor.START);
+            assertEquals(Arrays.asList(file1.getAbsolutePath()), cursor.nextPage(1));
+            index.removeFile(file2.getAbsolutePath());
+            index.forceRemoves();
+            assertEquals(1, index.segmentsNumber());
+            index.addFile(new EncodedFile(file2.getAbsolutePath()));
+            assertEquals(Arrays.asList(file3.getAbsolutePath()), cursor.nextPage(1));
+            assertFalse(cursor.hasNext());
+
+            SearchCursor resumed = index.searchCursor(new Word("content"), cursor.resumeToken());
+            assertEquals(Arrays.asList(file2.getAbsolutePath()), resumed.nextPage(10));
+            assertFalse(index.searchCursor(new Word("content"), resumed.resumeToken()).hasNext());
+            assertFalse(index.searchCursor(new Word("missing"), SearchCursor.START).hasNext());
+        }
+    }
+
+    @Test
+    public void testFilterRejectsAbsentTerms() throws IOException {
+        File words = tempFolder.newFile("words");
+        StringBuilder text = new StringBuilder();
+        for(int i = 0; i < 2000; i++) {
+            text.append("present").append(i).append(' ');
+        }
+        assertTrue(writeTextToFile(words, text.toString(), false));
+        Path indexDir = tempFolder.newFolder("index").toPath();
+        try (SegmentFileIndex index = new SegmentFileIndex(new WordsTokenizer(), indexDir)) {
+            index.addFile(new EncodedFile(words.getAbsolutePath()));
+            index.addFile(new EncodedFile(file1.getAbsolutePath()));
+            index.flush();
+            index.addFile(new EncodedFile(file2.getAbsolutePath()));
+            index.flush();
+            index.removeFile(file1.getAbsolutePath());
+            index.forceRemoves();
+            assertEquals(1, index.segmentsNumber());
+            for(int i = 0; i < 2000; i++) {
+                assertEquals(1, index.search(new Word("present" + i)).size());
+                assertEquals(0, index.search(new Word("absent" + i)).size());
+            }
+            assertEquals(1, index.count(new Word("content")));
+            assertTrue(index.filterFalsePositiveRate() < 0.05);
+        }
+    }
+
+    @Test
+    public void testStats() throws IOException {
+        Path indexDir = tempFolder.newFolder("index").toPath();
+        try (SegmentFileIndex index = new SegmentFileIndex(new WordsTokenizer(), indexDir)) {
+            index.addFile(new EncodedFile(file1.getAbsolutePath()));
+            index.addFile(new EncodedFile(file2.getAbsolutePath()));
+            index.flush();
+            index.addFile(new EncodedFile(dir2SubFile1.getAbsolutePath()));
+            index.removeFile(file1.getAbsolutePath());
+            String root = tempFolder.getRoot().getAbsolutePath();
+            IndexStats stats = index.getStats(Arrays.asList(root, dir2.getAbsolutePath()));
+            assertEquals(11, stats.getTermsNumber());
+            assertEquals(12, stats.getPostingsNumber());
+            assertEquals(2, stats.getLiveFilesNumber());
+            assertEquals(1, stats.getRemovedFilesNumber());
+            assertTrue(stats.getDiskBytes() > 0);
+            assertEquals(2, stats.getRoots().get(root).getFilesNumber());
+            assertEquals(file2.length() + dir2SubFile1.length(), stats.getRoots().get(root).getFilesSize());
+            assertEquals(-1, stats.getRoots().get(root).getPostingsNumber());
+            assertEquals(1, stats.getRoots().get(dir2.getAbsolutePath()).getFilesNumber());
+        }
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        Path indexDir = tempFolder.newFolder("index").toPath();
+        try (SegmentFileIndex index = new SegmentFileIndex(new WordsTokenizer(), indexDir)) {
+            index.addFile(new EncodedFile(file1.getAbsolutePath()));
+            index.addFile(new EncodedFile(file2.getAbsolutePath()));
+            index.addFile(new EncodedFile(dir2SubFile1.getAbsolutePath()));
+            index.flush();
+            index.removeFile(file1.getAbsolutePath());
+        }
+        try (SegmentFileIndex index = new SegmentFileIndex(new WordsTokenizer(), indexDir)) {
+            assertFalse(index.containsFile(file1.getAbsolutePath()));
+            assertTrue(index.containsFile(file2.getAbsolutePath()));
+            assertEquals(1, index.search(new Word("content")).size());
+            assertEquals(dir2SubFile1.getAbsolutePath(), index.search(new Word("Lorem")).get(0));
+            index.addFile(new EncodedFile(file3.getAbsolutePath()));
+            assertEquals(2, index.search(new Word("content")).size());
+        }
+    }
+
+    @Test
+    public void testRemoveAndMerge() throws IOException, InconsistentIndexException {
+        Path indexDir = tempFolder.newFolder("index").toPath();
+        try (SegmentFileIndex index = new SegmentFileIndex(new WordsTokenizer(), indexDir, 1, 100)) {
+            index.addFile(new EncodedFile(file1.getAbsolutePath()));
+            index.addFile(new EncodedFile(file2.getAbsolutePath()));
+            index.addFile(new EncodedFile(dir1SubFile1.getAbsolutePath()));
+            index.addFile(new EncodedFile(dir2SubFile1.getAbsolutePath()));
+            index.removeDirectory(dir2.getAbsolutePath());
+            if(!rewriteFileWithText(file2, "replacement")) {
+                fail("rewrite text failed");
+            }
+            index.handleFileModification(new EncodedFile(file2.getAbsolutePath()));
+            assertTrue(index.segmentsNumber() > 1);
+
+            index.forceRemoves();
+            assertEquals(1, index.segmentsNumber());
+            assertEquals(0, index.search(new Word("Lorem")).size());
+            assertEquals(1, index.search(new Word("content")).size());
+            assertEquals(1, index.search(new Word("replacement")).size());
+            assertEquals(1, indexDir.toFile().listFiles(new FilenameFilter() {
+                @Override
+                public boolean accept(File dir, String name) {
+                    // temporary files of segment writer are deleted too
+                    return name.contains(".seg");
+                }
+            }).length);
+        }
+        try (SegmentFileIndex index = new SegmentFileIndex(new WordsTokenizer(), indexDir)) {
+            assertTrue(index.containsFile(file2.getAbsolutePath()));
+            assertFalse(index.containsFile(dir2SubFile1.getAbsolutePath()));
+            assertEquals(1, index.search(new Word("replacement")).size());
+        }
+    }
+
+    @Test
+    public void testRecoveryFromLog() throws IOException, InconsistentIndexException {
+        Path indexDir = tempFolder.newFolder("index").toPath();
+        SegmentFileIndex crashed = new SegmentFileIndex(new WordsTokenizer(), indexDir);
+        crashed.addFile(new EncodedFile(file1.getAbsolutePath()));
+        crashed.addFile(new EncodedFile(file2.getAbsolutePath()));
+        crashed.flush();
+        crashed.addFiles(Arrays.asList(new EncodedFile(file3.getAbsolutePath()),
+                                      new EncodedFile(dir2SubFile1.getAbsolutePath())));
+        crashed.removeFile(file1.getAbsolutePath());
+        if(!rewriteFileWithText(file2, "replacement")) {
+            fail("rewrite text failed");
+        }
+        crashed.handleFileModification(new EncodedFile(file2.getAbsolutePath()));
+        // index is not closed, so in-memory data is not flushed. Torn record is appended to the log
+        try (FileOutputStream log = new FileOutputStream(indexDir.resolve("wal.log").toFile(), true)) {
+            log.write(new byte[]{0, 0, 0, 42, 1, 2});
+        }
+
+        try (SegmentFileIndex index = new SegmentFileIndex(new WordsTokenizer(), indexDir)) {
+            assertFalse(index.containsFile(file1.getAbsolutePath()));
+            assertTrue(index.containsFile(file3.getAbsolutePath()));
+            assertTrue(index.containsFile(dir2SubFile1.getAbsolutePath()));
+            assertEquals(1, index.search(new Word("content")).size());
+            assertEquals(1, index.search(new Word("replacement")).size());
+            assertEquals(1, index.search(new Word("Lorem")).size());
+        }
+        try (SegmentFileIndex index = new SegmentFileIndex(new WordsTokenizer(), indexDir)) {
+            assertEquals(1, index.search(new Word("replacement")).size());
+            assertEquals(0, indexDir.resolve("wal.log").toFile().length());
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package indexer.index;
+
+import indexer.TmpFsCreator;
+import indexer.exceptions.InconsistentIndexException;
+import indexer.query.Query;
+import indexer.tokenizer.Word;
+import indexer.tokenizer.WordsTokenizer;
+import indexer.utils.EncodedFile;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class StripedHashFileIndexTest extends TmpFsCreator {
+    @Test
+    public void testAddAndSearch() {
+        FileIndex index = new StripedHashFileIndex(new WordsTokenizer(), 4);
+        index.addFile(new EncodedFile(file1.getAbsolutePath()));
+        index.addFile(new EncodedFile(file2.getAbsolutePath()));
+        index.addFile(new EncodedFile(dir2SubFile1.getAbsolutePath()));
+
+        assertEquals(1, index.search(new Word("file1")).size());
+        assertEquals(2, index.search(new Word("content")).size());
+        assertEquals(1, index.search(new Word("Lorem")).size());
+        assertEquals(0, index.search(new Word("notInFile")).size());
+        assertEquals(0, index.search(Query.phrase(new Word("file1"), new Word("content"))).size());
+        assertEquals(1, index.searchText(Pattern.compile("e1 cont", Pattern.LITERAL)).size());
+        assertEquals(2, index.searchText(Pattern.compile("file[0-9] content")).size());
+        assertEquals(1, index.search(new Word("Lorem"), tempFolder.getRoot().getAbsolutePath()).size());
+        assertEquals(1, index.search(new Word("Lorem"), dir2.getAbsolutePath()).size());
+        assertEquals(0, index.search(new Word("Lorem"), dir1.getAbsolutePath()).size());
+        assertEquals(0, index.search(new Word("content"), dir2.getAbsolutePath()).size());
+    }
+
+    @Test
+    public void testRankedSearch() {
+        File often = createFileInTmp("often", "index index index search");
+        File once = createFileInTmp("once", "index search search search");
+        File longOnce = createFileInTmp("longOnce", "index a b c d e f g h i j k");
+        FileIndex index = new StripedHashFileIndex(new WordsTokenizer(), 4);
+        index.addFile(new EncodedFile(longOnce.getAbsolutePath()));
+        index.addFile(new EncodedFile(once.getAbsolutePath()));
+        index.addFile(new EncodedFile(often.getAbsolutePath()));
+        index.addFile(new EncodedFile(file1.getAbsolutePath()));
+        Query term = Query.term(new Word("index"));
+
+        assertEquals(Arrays.asList(often.getAbsolutePath(), once.getAbsolutePath(), longOnce.getAbsolutePath()),
+                     index.search(term, 10));
+        assertEquals(Arrays.asList(once.getAbsolutePath(), often.getAbsolutePath()),
+                     index.search(Query.or(term, Query.term(new Word("search"))), 2));
+
+        index.removeFile(often.getAbsolutePath());
+        assertEquals(Arrays.asList(once.getAbsolutePath()), index.search(term, 1));
+    }
+
+    @Test
+    public void testCountAndExists() {
+        FileIndex index = new StripedHashFileIndex(new WordsTokenizer(), 4);
+        index.addFile(new EncodedFile(file1.getAbsolutePath()));
+        index.addFile(new EncodedFile(file2.getAbsolutePath()));
+        index.removeFile(file1.getAbsolutePath());
+
+        assertEquals(1, index.count(new Word("content")));
+        assertTrue(index.exists(new Word("file2")));
+        assertFalse(index.exists(new Word("file1")));
+        assertEquals(0, index.count(new Word("notInFile")));
+    }
+
+    @Test
+    public void testRemoveAndModify() throws InconsistentIndexException {
+        FileIndex index = new StripedHashFileIndex(new WordsTokenizer(), 4);
+        index.addFile(new EncodedFile(file1.getAbsolutePath()));
+        index.addFile(new EncodedFile(dir1SubFile1.getAbsolutePath()));
+        index.addFile(new EncodedFile(dir2SubFile1.getAbsolutePath()));
+
+        index.removeFile(file1.getAbsolutePath());
+        assertFalse(index.containsFile(file1.getAbsolutePath()));
+        assertEquals(0, index.search(new Word("content")).size());
+
+        index.removeDirectory(dir1.getAbsolutePath());
+        assertFalse(index.containsFile(dir1SubFile1.getAbsolutePath()));
+        assertTrue(index.containsFile(dir2SubFile1.getAbsolutePath()));
+
+        if(!rewriteFileWithText(dir2SubFile1, "replacement")) {
+            fail("rewrite text failed");
+        }
+        index.handleFileModification(new EncodedFile(dir2SubFile1.getAbsolutePath()));
+        index.forceRemoves();
+        assertEquals(0, index.search(new Word("Lorem")).size());
+        assertEquals(1, index.search(new Word("replacement")).size());
+    }
+
+    @Test
+    public void testStats() {
+        FileIndex index = new StripedHashFileIndex(new WordsTokenizer(), 4);
+        index.addFile(new EncodedFile(file1.getAbsolutePath()));
+        index.addFile(new EncodedFile(file2.getAbsolutePath()));
+        index.addFile(new EncodedFile(dir2SubFile1.getAbsolutePath()));
+        index.removeFile(file2.getAbsolutePath());
+        IndexStats stats = index.getStats(Arrays.asList(dir2.getAbsolutePath()));
+        assertEquals(12, stats.getPostingsNumber());
+        assertEquals(2, stats.getLiveFilesNumber());
+        assertEquals(1, stats.getRemovedFilesNumber());
+        assertEquals(8, stats.getRoots().get(dir2.getAbsolutePath()).getPostingsNumber());
+
+        index.forceRemoves();
+        stats = index.getStats(new ArrayList<String>());
+        assertEquals(10, stats.getTermsNumber());
+        assertEquals(10, stats.getPostingsNumber());
+        assertEquals(0, stats.getRemovedFilesNumber());
+    }
+
+    @Test
+    public void testConcurrentAdders() throws Exception {
+        final FileIndex index = new StripedHashFileIndex(new WordsTokenizer(), 8);
+        final int threadsNumber = 4;
+        final int filesPerThread = 50;
+        List<Thread> threads = new ArrayList<>();
+        for(int t = 0; t < threadsNumber; t++) {
+            final List<EncodedFile> files = new ArrayList<>();
+            for(int i = 0; i < filesPerThread; i++) {
+                File file = createFileInTmp("t" + t + "f" + i, "shared t" + t + " unique" + t + "_" + i);
+                files.add(new EncodedFile(file.getAbsolutePath()));
+            }
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    index.addFiles(files);
+                }
+            }));
+        }
+        for(Thread thread : threads) {
+            thread.start();
+        }
+        for(Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(threadsNumber * filesPerThread, index.search(new Word("shared")).size());
+        for(int t = 0; t < threadsNumber; t++) {
+            assertEquals(filesPerThread, index.search(new Word("t" + t)).size());
+            assertEquals(1, index.search(new Word("unique" + t + "_7")).size());
+        }
+    }
+}
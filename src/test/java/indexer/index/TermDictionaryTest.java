@@ -0,0 +1,98 @@
+package indexer.index;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TermDictionaryTest {
+    @Test
+    public void testTermIds() {
+        TermDictionary dictionary = new TermDictionary();
+        char[] buffer = "xx index indexer xx".toCharArray();
+
+        assertEquals(0, dictionary.termId(buffer, 3, 5));
+        assertEquals(1, dictionary.termId(buffer, 9, 7));
+        assertEquals(0, dictionary.termId("index"));
+        assertEquals(2, dictionary.termId(buffer, 0, 0));
+        assertEquals(1, dictionary.lookup("indexer"));
+        assertEquals(2, dictionary.lookup(""));
+        assertEquals(-1, dictionary.lookup("inde"));
+        assertEquals("indexer", dictionary.term(1));
+        assertEquals(7, dictionary.length(1));
+        assertEquals(3, dictionary.size());
+    }
+
+    @Test
+    public void testManyTerms() {
+        TermDictionary dictionary = new TermDictionary();
+        Random random = new Random(42);
+        List<String> terms = new ArrayList<>();
+        for(int i = 0; i < 50000; i++) {
+            String term = Long.toString(random.nextLong(), 36);
+            if(dictionary.lookup(term) < 0) {
+                assertEquals(terms.size(), dictionary.termId(term));
+                terms.add(term);
+            }
+        }
+        assertEquals(terms.size(), dictionary.size());
+        for(int i = 0; i < terms.size(); i++) {
+            assertEquals(i, dictionary.lookup(terms.get(i)));
+            assertEquals(terms.get(i), dictionary.term(i));
+        }
+    }
+
+    @Test
+    public void testRemoveReusesIds() {
+        TermDictionary dictionary = new TermDictionary();
+        assertEquals(0, dictionary.termId("first"));
+        assertEquals(1, dictionary.termId("second"));
+        assertEquals(2, dictionary.termId("third"));
+        dictionary.remove(1);
+
+        assertEquals(-1, dictionary.lookup("second"));
+        assertFalse(dictionary.contains(1));
+        assertEquals(2, dictionary.size());
+        assertEquals(1, dictionary.termId("fourth"));
+        assertEquals("fourth", dictionary.term(1));
+        assertEquals(3, dictionary.termId("second"));
+        assertEquals(4, dictionary.idsNumber());
+        assertEquals(0, dictionary.lookup("first"));
+        assertEquals(2, dictionary.lookup("third"));
+    }
+
+    @Test
+    public void testChurnDoesNotGrowDictionary() {
+        TermDictionary dictionary = new TermDictionary();
+        Random random = new Random(42);
+        List<String> terms = new ArrayList<>();
+        List<Integer> ids = new ArrayList<>();
+        for(int round = 0; round < 200; round++) {
+            while (terms.size() < 500) {
+                String term = Long.toString(random.nextLong(), 36);
+                if(dictionary.lookup(term) < 0) {
+                    ids.add(dictionary.termId(term));
+                    terms.add(term);
+                }
+            }
+            for(int i = 0; i < terms.size(); i++) {
+                assertEquals(ids.get(i).intValue(), dictionary.lookup(terms.get(i)));
+                assertEquals(terms.get(i), dictionary.term(ids.get(i)));
+            }
+            // the oldest half of terms is removed every round
+            for(int i = 0; i < 250; i++) {
+                dictionary.remove(ids.get(i));
+                assertEquals(-1, dictionary.lookup(terms.get(i)));
+            }
+            terms.subList(0, 250).clear();
+            ids.subList(0, 250).clear();
+        }
+        assertEquals(250, dictionary.size());
+        assertTrue(dictionary.idsNumber() <= 500);
+        // without reuse 50000 terms would take about 1.5MB
+        assertTrue(dictionary.bytes() < 100 * 1024);
+    }
+}
@@ -0,0 +1,120 @@
+package indexer.query;
+
+import indexer.index.PositionsCursor;
+import indexer.index.PostingsIterator;
+import indexer.tokenizer.Token;
+import indexer.tokenizer.Word;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Compares fuzzy search over sorted term dictionary with naive scan checking every term,
+ * on vocabulary of 1M random terms (or the number passed as the first argument).
+ * java -Xmx1g -cp target/classes:target/test-classes indexer.query.FuzzyQueryBenchmark [terms]
+ */
+public class FuzzyQueryBenchmark {
+    private static final int QUERIES_NUMBER = 50;
+
+    public static void main(String[] args) {
+        int termsNumber = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        Random random = new Random(42);
+        final TreeMap<String, Token> dictionary = new TreeMap<>();
+        while (dictionary.size() < termsNumber) {
+            String term = randomTerm(random);
+            dictionary.put(term, new Word(term));
+        }
+        final long[] visited = new long[1];
+        PostingsSource source = new PostingsSource() {
+            @Override
+            public PostingsIterator postings(Token token) {
+                return null;
+            }
+
+            @Override
+            public int postingsNumber(Token token) {
+                return 0;
+            }
+
+            @Override
+            public PositionsCursor positions(Token token) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Iterator<Token> terms(String from) {
+                final Iterator<Token> it = dictionary.tailMap(from, true).values().iterator();
+                return new Iterator<Token>() {
+                    @Override
+                    public boolean hasNext() {
+                        return it.hasNext();
+                    }
+
+                    @Override
+                    public Token next() {
+                        visited[0] += 1;
+                        return it.next();
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+        List<String> queries = new ArrayList<>();
+        List<String> terms = new ArrayList<>(dictionary.keySet());
+        for(int i = 0; i < QUERIES_NUMBER; i++) {
+            queries.add(misspell(terms.get(random.nextInt(terms.size())), random));
+        }
+        System.out.println(termsNumber + " terms, " + QUERIES_NUMBER + " queries");
+        for(int maxEdits = 1; maxEdits <= 2; maxEdits++) {
+            for(int round = 0; round < 2; round++) {
+                visited[0] = 0;
+                long matched = 0;
+                long start = System.nanoTime();
+                for(String query : queries) {
+                    matched += new FuzzyQuery(query, maxEdits).matchingTerms(source).size();
+                }
+                long automatonNanos = System.nanoTime() - start;
+
+                long naiveMatched = 0;
+                start = System.nanoTime();
+                for(String query : queries) {
+                    LevenshteinAutomaton automaton = new LevenshteinAutomaton(query, maxEdits);
+                    for(String term : dictionary.keySet()) {
+                        if(automaton.accepts(term)) {
+                            naiveMatched += 1;
+                        }
+                    }
+                }
+                long naiveNanos = System.nanoTime() - start;
+                if(round == 1) {
+                    System.out.println("max edits " + maxEdits + ": automaton " + automatonNanos / 1000 / QUERIES_NUMBER
+                                       + " us/query visiting " + visited[0] / QUERIES_NUMBER + " terms/query, naive scan "
+                                       + naiveNanos / 1000 / QUERIES_NUMBER + " us/query, matched "
+                                       + matched + "/" + naiveMatched);
+                }
+            }
+        }
+    }
+
+    private static String randomTerm(Random random) {
+        char[] chars = new char[4 + random.nextInt(9)];
+        for(int i = 0; i < chars.length; i++) {
+            chars[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(chars);
+    }
+
+    private static String misspell(String term, Random random) {
+        StringBuilder builder = new StringBuilder(term);
+        int position = random.nextInt(builder.length());
+        builder.setCharAt(position, (char) ('a' + random.nextInt(26)));
+        return builder.toString();
+    }
+}
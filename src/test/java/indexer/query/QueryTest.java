@@ -0,0 +1,273 @@
+package indexer.query;
+
+import indexer.index.PositionsCursor;
+import indexer.index.PostingList;
+import indexer.index.PostingsIterator;
+import indexer.tokenizer.Token;
+import indexer.tokenizer.Word;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QueryTest {
+    private final Map<Token, PostingList> postings = new HashMap<>();
+    private final TreeMap<String, Token> terms = new TreeMap<>();
+    private final PostingsSource source = new PostingsSource() {
+        @Override
+        public PostingsIterator postings(Token token) {
+            PostingList postingList = postings.get(token);
+            return postingList == null ? null : postingList.iterator();
+        }
+
+        @Override
+        public int postingsNumber(Token token) {
+            PostingList postingList = postings.get(token);
+            return postingList == null ? 0 : postingList.size();
+        }
+
+        @Override
+        public PositionsCursor positions(Token token) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Iterator<Token> terms(String from) {
+            return terms.tailMap(from, true).values().iterator();
+        }
+    };
+
+    @Test
+    public void testAndOrNot() {
+        put("a", 1, 2, 3, 5, 8, 13);
+        put("b", 2, 3, 4, 5, 6, 7, 8);
+        put("c", 3, 8, 21);
+
+        assertEquals(Arrays.asList(2L, 3L, 5L, 8L), evaluate(Query.and(term("a"), term("b"))));
+        assertEquals(Arrays.asList(3L, 8L), evaluate(Query.and(term("a"), term("b"), term("c"))));
+        assertEquals(Arrays.asList(1L, 2L, 3L, 5L, 8L, 13L, 21L), evaluate(Query.or(term("a"), term("c"))));
+        assertEquals(Arrays.asList(2L, 5L), evaluate(Query.and(term("a"), term("b"), Query.not(term("c")))));
+        assertEquals(Arrays.asList(3L, 8L, 21L),
+                     evaluate(Query.and(Query.or(term("a"), term("c")), Query.or(term("c"), term("x")))));
+        assertEquals(Collections.<Long>emptyList(), evaluate(Query.and(term("a"), term("x"))));
+        assertEquals(Arrays.asList(1L, 2L, 3L, 5L, 8L, 13L), evaluate(Query.and(term("a"), Query.not(term("x")))));
+    }
+
+    @Test
+    public void testLongPostings() {
+        Random random = new Random(42);
+        long[][] lists = new long[3][];
+        int[] steps = {2, 7, 500};
+        for(int i = 0; i < lists.length; i++) {
+            List<Long> ids = new ArrayList<>();
+            for(long id = random.nextInt(steps[i]); id < 200000; id += 1 + random.nextInt(steps[i])) {
+                ids.add(id);
+            }
+            lists[i] = new long[ids.size()];
+            for(int j = 0; j < ids.size(); j++) {
+                lists[i][j] = ids.get(j);
+            }
+            put("t" + i, lists[i]);
+        }
+        Set<Long> expected = new TreeSet<>();
+        Set<Long> second = toSet(lists[1]);
+        Set<Long> third = toSet(lists[2]);
+        for(long id : lists[0]) {
+            if(second.contains(id) && !third.contains(id)) {
+                expected.add(id);
+            }
+        }
+        assertEquals(new ArrayList<>(expected),
+                     evaluate(Query.and(term("t0"), term("t1"), Query.not(term("t2")))));
+
+        expected = new TreeSet<>(third);
+        expected.retainAll(second);
+        expected.retainAll(toSet(lists[0]));
+        assertEquals(new ArrayList<>(expected), evaluate(Query.and(term("t2"), term("t0"), term("t1"))));
+    }
+
+    @Test
+    public void testPrefixAndWildcard() {
+        put("index", 1, 4);
+        put("indexer", 2, 4);
+        put("indent", 3);
+        put("in", 5);
+        put("inn", 6);
+        put("other", 7);
+
+        assertEquals(Arrays.asList(1L, 2L, 4L), evaluate(Query.prefix("index")));
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L, 6L), evaluate(Query.prefix("in")));
+        assertEquals(Collections.<Long>emptyList(), evaluate(Query.prefix("x")));
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L), evaluate(Query.wildcard("ind*")));
+        assertEquals(Arrays.asList(1L, 2L, 4L, 7L), evaluate(Query.wildcard("*e?")));
+        assertEquals(Arrays.asList(6L), evaluate(Query.wildcard("i?n")));
+        assertEquals(Arrays.asList(1L, 4L, 7L), evaluate(Query.or(Query.wildcard("*x"), Query.wildcard("o*r"))));
+        assertEquals(Arrays.asList(4L), evaluate(Query.and(Query.prefix("indexe"), Query.wildcard("i*x"))));
+        assertEquals(4L, Query.prefix("index").cost(source));
+    }
+
+    @Test
+    public void testFuzzy() {
+        put("index", 1);
+        put("indexes", 2);
+        put("indx", 3);
+        put("undex", 4);
+        put("idnex", 5);
+        put("other", 6);
+
+        assertEquals(Arrays.asList(1L), evaluate(Query.fuzzy("index", 0)));
+        assertEquals(Arrays.asList(1L, 3L, 4L), evaluate(Query.fuzzy("index", 1)));
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L), evaluate(Query.fuzzy("index", 2)));
+        assertEquals(Arrays.asList(1L, 3L), evaluate(Query.fuzzy("indx", 1)));
+        assertEquals(Collections.<Long>emptyList(), evaluate(Query.fuzzy("zzzzz", 2)));
+    }
+
+    @Test
+    public void testFuzzyMatchesNaiveScan() {
+        Random random = new Random(42);
+        for(int i = 0; i < 3000; i++) {
+            put(randomWord(random), i);
+        }
+        for(int i = 0; i < 50; i++) {
+            String term = randomWord(random);
+            for(int maxEdits = 0; maxEdits <= 2; maxEdits++) {
+                List<Token> expected = new ArrayList<>();
+                for(Token token : terms.values()) {
+                    if(distance(term, token.getValue()) <= maxEdits) {
+                        expected.add(token);
+                    }
+                }
+                assertEquals(expected, new FuzzyQuery(term, maxEdits).matchingTerms(source));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFuzzyNegativeEdits() {
+        Query.fuzzy("a", -1);
+    }
+
+    @Test
+    public void testPatternTrigramsLiterals() {
+        assertEquals(Arrays.asList(Arrays.asList("foobar")), PatternTrigrams.requiredLiterals("foobar"));
+        assertEquals(Arrays.asList(Arrays.asList("foo", "bar")), PatternTrigrams.requiredLiterals("foo.*bar"));
+        assertEquals(Arrays.asList(Arrays.asList("foo", "baz")), PatternTrigrams.requiredLiterals("foo[a-z]+baz"));
+        assertEquals(Arrays.asList(Arrays.asList("abc"), Arrays.asList("xyz")),
+                     PatternTrigrams.requiredLiterals("abc|x(1|2)*xyz"));
+        assertEquals(Arrays.asList(Arrays.asList("fooba")), PatternTrigrams.requiredLiterals("foobar?"));
+        assertEquals(Arrays.asList(Arrays.asList("a.b*c")), PatternTrigrams.requiredLiterals("\\Qa.b*c\\E"));
+        assertEquals(Arrays.asList(Arrays.asList("a.b")), PatternTrigrams.requiredLiterals("a\\.b\\x41bc"));
+        assertEquals(null, PatternTrigrams.requiredLiterals("(?i)foobar"));
+        assertEquals(null, PatternTrigrams.toQuery(Pattern.compile("fo.ba")));
+        assertEquals(null, PatternTrigrams.toQuery(Pattern.compile("foobar", Pattern.CASE_INSENSITIVE)));
+    }
+
+    @Test
+    public void testPatternTrigramsSelectAllMatches() {
+        Random random = new Random(42);
+        List<String> texts = new ArrayList<>();
+        Map<String, List<Long>> trigramFiles = new TreeMap<>();
+        for(int i = 0; i < 300; i++) {
+            StringBuilder text = new StringBuilder();
+            for(int j = random.nextInt(40); j > 0; j--) {
+                text.append("ab. \\\n[]".charAt(random.nextInt(8)));
+            }
+            texts.add(text.toString());
+            Set<String> trigrams = new HashSet<>();
+            for(int j = 0; j + 3 <= text.length(); j++) {
+                trigrams.add(text.substring(j, j + 3));
+            }
+            for(String trigram : trigrams) {
+                if(!trigramFiles.containsKey(trigram)) {
+                    trigramFiles.put(trigram, new ArrayList<Long>());
+                }
+                trigramFiles.get(trigram).add((long) i);
+            }
+        }
+        for(Map.Entry<String, List<Long>> entry : trigramFiles.entrySet()) {
+            long[] ids = new long[entry.getValue().size()];
+            for(int i = 0; i < ids.length; i++) {
+                ids[i] = entry.getValue().get(i);
+            }
+            put(entry.getKey(), ids);
+        }
+        String[] regexes = {"aba", "ab+a", "a.b.a", "\\.\\.a", "aab|bba", "a(b|a)ab", "ba?ab", "a[ab]{2}ba",
+                            "\\[\\]a", "\\Q[]\\Eab", "a\\nba", "b{2,}a", "(ab)+b", "\\\\ab"};
+        for(String regex : regexes) {
+            Pattern pattern = Pattern.compile(regex);
+            Query query = PatternTrigrams.toQuery(pattern);
+            List<Long> candidates = query == null ? null : evaluate(query);
+            for(int i = 0; i < texts.size(); i++) {
+                if(pattern.matcher(texts.get(i)).find() && candidates != null) {
+                    assertTrue(regex + " in " + texts.get(i), candidates.contains((long) i));
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOnlyNegativeAnd() {
+        Query.and(Query.not(term("a")));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testNegativeQuery() {
+        Query.not(term("a")).iterator(source);
+    }
+
+    private Query term(String value) {
+        return Query.term(new Word(value));
+    }
+
+    private void put(String token, long... ids) {
+        PostingList postingList = new PostingList();
+        for(long id : ids) {
+            postingList.add(id);
+        }
+        postings.put(new Word(token), postingList);
+        terms.put(token, new Word(token));
+    }
+
+    private static String randomWord(Random random) {
+        char[] chars = new char[1 + random.nextInt(6)];
+        for(int i = 0; i < chars.length; i++) {
+            chars[i] = (char) ('a' + random.nextInt(4));
+        }
+        return new String(chars);
+    }
+
+    private static int distance(String first, String second) {
+        int[][] d = new int[first.length() + 1][second.length() + 1];
+        for(int i = 0; i <= first.length(); i++) {
+            for(int j = 0; j <= second.length(); j++) {
+                if(i == 0 || j == 0) {
+                    d[i][j] = i + j;
+                } else {
+                    d[i][j] = Math.min(d[i - 1][j - 1] + (first.charAt(i - 1) == second.charAt(j - 1) ? 0 : 1),
+                                       Math.min(d[i - 1][j], d[i][j - 1]) + 1);
+                }
+            }
+        }
+        return d[first.length()][second.length()];
+    }
+
+    private List<Long> evaluate(Query query) {
+        List<Long> ids = new ArrayList<>();
+        PostingsIterator it = query.iterator(source);
+        while (it.hasNext()) {
+            ids.add(it.next());
+        }
+        return ids;
+    }
+
+    private static Set<Long> toSet(long[] ids) {
+        Set<Long> set = new HashSet<>();
+        for(long id : ids) {
+            set.add(id);
+        }
+        return set;
+    }
+}
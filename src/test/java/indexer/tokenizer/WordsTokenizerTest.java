@@ -5,8 +5,10 @@ import org.junit.Test;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -26,4 +28,41 @@ public class WordsTokenizerTest {
         List<Word> expected = Arrays.asList(new Word("First"), new Word("test"), new Word("for"), new Word("tokenizer"));
         assertEquals(tokens, expected);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testRepeatedWordsShareToken() throws Exception {
+        List<Token> tokens = new WordsTokenizer().tokenize(new StringReader("a b a\nb"));
+        assertEquals(4, tokens.size());
+        assertSame(tokens.get(0), tokens.get(2));
+        assertSame(tokens.get(1), tokens.get(3));
+    }
+
+    @Test
+    public void testTokenizeIdsSameAsTokenize() throws Exception {
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder();
+        for(int i = 0; i < 30000; i++) {
+            text.append("ab \n".charAt(random.nextInt(4)));
+        }
+        for(String input : Arrays.asList(text.toString(), "", "one", "two words\n", "  a\n\nb ")) {
+            WordsTokenizer tokenizer = new WordsTokenizer();
+            final List<String> terms = new ArrayList<>();
+            TermIds termIds = new TermIds() {
+                @Override
+                public int termId(char[] chars, int offset, int length) {
+                    String term = new String(chars, offset, length);
+                    if(!terms.contains(term)) {
+                        terms.add(term);
+                    }
+                    return terms.indexOf(term);
+                }
+            };
+            List<Token> expected = tokenizer.tokenize(new StringReader(input));
+            int[] ids = tokenizer.tokenizeIds(new StringReader(input), termIds);
+            assertEquals(expected.size(), ids.length);
+            for(int i = 0; i < ids.length; i++) {
+                assertEquals(expected.get(i).getValue(), terms.get(ids[i]));
+            }
+        }
+    }
+}